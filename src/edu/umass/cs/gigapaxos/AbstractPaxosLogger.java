@@ -42,6 +42,7 @@ import edu.umass.cs.gigapaxos.paxosutil.HotRestoreInfo;
 import edu.umass.cs.gigapaxos.paxosutil.LogMessagingTask;
 import edu.umass.cs.gigapaxos.paxosutil.MessagingTask;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosMessenger;
+import edu.umass.cs.gigapaxos.paxosutil.Quorum;
 import edu.umass.cs.gigapaxos.paxosutil.RecoveryInfo;
 import edu.umass.cs.gigapaxos.paxosutil.SlotBallotState;
 import edu.umass.cs.gigapaxos.paxosutil.StringContainer;
@@ -444,6 +445,45 @@ public abstract class AbstractPaxosLogger {
 	 */
 	public abstract Integer getEpochFinalCheckpointVersion(String paxosID);
 
+	/**
+	 * A batched existence check so that bulk creation does not need a round
+	 * trip per name.
+	 * 
+	 * @param paxosIDs
+	 * @return The subset of {@code paxosIDs} that currently have a checkpoint
+	 *         (active or paused) or an unexpired epoch final state.
+	 */
+	public abstract Set<String> getExisting(Set<String> paxosIDs);
+
+	/**
+	 * Durably records non-default Flexible Paxos quorum sizes for
+	 * paxosID:version. The record is removed along with the rest of the
+	 * instance's state by {@link #remove(String, int)}.
+	 * 
+	 * @param paxosID
+	 * @param version
+	 * @param groupSize
+	 * @param quorum
+	 * @return True if recorded.
+	 */
+	public abstract boolean putQuorum(String paxosID, int version,
+			int groupSize, Quorum quorum);
+
+	/**
+	 * Removes the quorum sizes recorded for exactly paxosID:version, e.g.,
+	 * when the instance failed to get created.
+	 * 
+	 * @param paxosID
+	 * @param version
+	 * @return True if a record was removed.
+	 */
+	public abstract boolean removeQuorum(String paxosID, int version);
+
+	/**
+	 * @return All recorded quorums keyed by paxosID:version.
+	 */
+	public abstract Map<String, Quorum> getQuorums();
+
 	/**
 	 * 
 	 * @param paxosID
@@ -590,6 +630,14 @@ public abstract class AbstractPaxosLogger {
 
 	protected abstract HotRestoreInfo unpause(String paxosID);
 
+	/**
+	 * Frees up the in-memory message log state of instances paused without
+	 * {@link #pause(Map)}, e.g., ones hibernated in memory.
+	 * 
+	 * @param paxosIDs
+	 */
+	protected abstract void uncache(Set<String> paxosIDs);
+
 	/**************** End of extensible methods ***********************/
 
 	/**
@@ -636,16 +684,18 @@ public abstract class AbstractPaxosLogger {
 	 * @param nameStates
 	 * @param gms
 	 * @param members
+	 * @param witnesses
+	 *            Members that can not be the initial coordinator.
 	 * @return True if all successfully created.
 	 */
 	public boolean insertInitialCheckpoints(Map<String, String> nameStates,
-			Set<String> gms, int[] members) {
+			Set<String> gms, int[] members, Set<Integer> witnesses) {
 		CheckpointTask[] tasks = new CheckpointTask[nameStates.size()];
 		int i = 0;
 		for (String name : nameStates.keySet()) {
 			tasks[i++] = new CheckpointTask(this, name, 0, gms, 0, new Ballot(
 					0, PaxosInstanceStateMachine.roundRobinCoordinator(name,
-							members, 0)), nameStates.get(name), 0);
+							members, 0, witnesses)), nameStates.get(name), 0);
 		}
 		return this.putCheckpointState(tasks, false);
 	}
@@ -0,0 +1,110 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         Credits advertised by an entry replica to its clients. The remaining
+ *         capacity under the outstanding request limit is split evenly across
+ *         the clients that have sent a request recently, and each client's
+ *         share is capped at a configured per-client window. A client that
+ *         respects its window can not by itself push the replica into
+ *         congestion, and clients learn of a shrinking share through their
+ *         responses well before requests start getting shed.
+ */
+class ClientCredits implements Runnable {
+
+	private final int maxCredits;
+	private final int capacity;
+	private final long activeTimeout;
+
+	// last request time of recently active clients
+	private final ConcurrentHashMap<InetSocketAddress, Long> lastSeen = new ConcurrentHashMap<InetSocketAddress, Long>();
+
+	/**
+	 * @param maxCredits
+	 *            Per-client window cap.
+	 * @param capacity
+	 *            Outstanding request limit at this replica.
+	 * @param activeTimeout
+	 *            Milliseconds after its last request that a client stops
+	 *            counting toward the split.
+	 */
+	ClientCredits(int maxCredits, int capacity, long activeTimeout) {
+		this.maxCredits = maxCredits;
+		this.capacity = capacity;
+		this.activeTimeout = activeTimeout;
+	}
+
+	void noteRequest(InetSocketAddress client) {
+		if (client != null)
+			this.lastSeen.put(client, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param outstanding
+	 *            Number of requests currently outstanding or queued.
+	 * @return Credits to advertise to a client.
+	 */
+	int getCredits(int outstanding) {
+		return credits(this.maxCredits, this.capacity - outstanding,
+				this.lastSeen.size());
+	}
+
+	static int credits(int maxCredits, int free, int numClients) {
+		return Math.max(0,
+				Math.min(maxCredits, free / Math.max(1, numClients)));
+	}
+
+	// forget idle clients so that they don't dilute active clients' shares
+	@Override
+	public void run() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Map.Entry<InetSocketAddress, Long>> iter = this.lastSeen
+				.entrySet().iterator(); iter.hasNext();)
+			if (now - iter.next().getValue() > this.activeTimeout)
+				iter.remove();
+	}
+
+	long getPeriod() {
+		return this.activeTimeout;
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class ClientCreditsTest extends DefaultTest {
+		@Test
+		public void testCredits() {
+			// capped at the per-client window
+			Assert.assertEquals(100, credits(100, 8000, 1));
+			// even split of remaining capacity
+			Assert.assertEquals(40, credits(100, 400, 10));
+			// no credits once over capacity
+			Assert.assertEquals(0, credits(100, -5, 3));
+			Assert.assertEquals(0, credits(100, 7, 8));
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+import edu.umass.cs.gigapaxos.interfaces.ConflictAwareRequest;
+import edu.umass.cs.gigapaxos.interfaces.Request;
+
+/**
+ * @author arun
+ *
+ *         Executes a sequence of committed requests from a single paxos group
+ *         in parallel subject to conflicts. A request is scheduled only after
+ *         every earlier request in the sequence that it conflicts with has
+ *         finished executing, so the outcome is the same as executing the
+ *         whole sequence serially in slot order. Requests that are not
+ *         {@link ConflictAwareRequest} or return null conflict keys are
+ *         barriers that wait for everything before them and block everything
+ *         after them.
+ *         <p>
+ *
+ *         The caller blocks until the whole sequence has been executed so
+ *         that {@link PaxosInstanceStateMachine} can take checkpoints only at
+ *         quiescent points. A caller holding a monitor can have it released
+ *         while waiting, as the executing tasks may themselves need it or a
+ *         lock that some other holder of it is waiting on.
+ */
+class ConflictAwareExecutor {
+
+	private final ExecutorService pool;
+
+	ConflictAwareExecutor(int numThreads, final String name) {
+		this.pool = Executors.newFixedThreadPool(numThreads,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = Executors.defaultThreadFactory()
+								.newThread(r);
+						thread.setName(name + thread.getId());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * @param requests
+	 *            Requests in slot order used to compute conflicts.
+	 * @param tasks
+	 *            The corresponding execution tasks; each returns false if the
+	 *            execution failed unrecoverably.
+	 * @param monitor
+	 *            If non-null, a monitor held by the caller that is released
+	 *            while waiting for tasks executing in the pool.
+	 * @return False if any task failed. Tasks scheduled after a failure are
+	 *         skipped.
+	 */
+	boolean executeAll(List<Request> requests, List<BooleanSupplier> tasks,
+			final Object monitor) {
+		assert (requests.size() == tasks.size());
+		// nothing to parallelize, so don't bother switching threads
+		if (requests.size() <= 1 || !anyConflictAware(requests)) {
+			for (BooleanSupplier task : tasks)
+				if (!task.getAsBoolean())
+					return false;
+			return true;
+		}
+
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		ArrayList<CompletableFuture<Void>> all = new ArrayList<CompletableFuture<Void>>();
+		ArrayList<CompletableFuture<Void>> sinceBarrier = new ArrayList<CompletableFuture<Void>>();
+		HashMap<String, CompletableFuture<Void>> lastByKey = new HashMap<String, CompletableFuture<Void>>();
+		CompletableFuture<Void> barrier = CompletableFuture.completedFuture(null);
+
+		for (int i = 0; i < requests.size(); i++) {
+			final BooleanSupplier task = tasks.get(i);
+			Set<String> keys = getConflictKeys(requests.get(i));
+
+			ArrayList<CompletableFuture<Void>> deps = new ArrayList<CompletableFuture<Void>>();
+			deps.add(barrier);
+			if (keys == null)
+				deps.addAll(sinceBarrier);
+			else
+				for (String key : keys)
+					if (lastByKey.containsKey(key))
+						deps.add(lastByKey.get(key));
+
+			CompletableFuture<Void> future = CompletableFuture.allOf(
+					deps.toArray(new CompletableFuture<?>[0])).thenRunAsync(
+					new Runnable() {
+						@Override
+						public void run() {
+							try {
+								if (!failed.get() && !task.getAsBoolean())
+									failed.set(true);
+							} catch (RuntimeException | Error e) {
+								failed.set(true);
+								throw e;
+							}
+						}
+					}, this.pool);
+			all.add(future);
+
+			if (keys == null) {
+				barrier = future;
+				sinceBarrier.clear();
+				lastByKey.clear();
+			} else {
+				sinceBarrier.add(future);
+				for (String key : keys)
+					lastByKey.put(key, future);
+			}
+		}
+		CompletableFuture<Void> done = CompletableFuture.allOf(all
+				.toArray(new CompletableFuture<?>[0]));
+		if (monitor != null)
+			awaitReleasing(done, monitor);
+		try {
+			done.join();
+		} catch (CompletionException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return !failed.get();
+	}
+
+	/* Waits on the monitor, which releases it, until done completes. Can not
+	 * miss the notification as the notifier needs the monitor that the caller
+	 * gives up only upon waiting. */
+	private static void awaitReleasing(CompletableFuture<Void> done,
+			final Object monitor) {
+		done.whenComplete(new BiConsumer<Void, Throwable>() {
+			@Override
+			public void accept(Void v, Throwable t) {
+				synchronized (monitor) {
+					monitor.notifyAll();
+				}
+			}
+		});
+		boolean interrupted = false;
+		synchronized (monitor) {
+			while (!done.isDone())
+				try {
+					monitor.wait();
+				} catch (InterruptedException e) {
+					// must wait anyway as tasks may still be executing
+					interrupted = true;
+				}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private static boolean anyConflictAware(List<Request> requests) {
+		for (Request request : requests)
+			if (getConflictKeys(request) != null)
+				return true;
+		return false;
+	}
+
+	private static Set<String> getConflictKeys(Request request) {
+		return request instanceof ConflictAwareRequest ? ((ConflictAwareRequest) request)
+				.getConflictKeys() : null;
+	}
+
+	void close() {
+		this.pool.shutdownNow();
+	}
+}
@@ -0,0 +1,167 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.gigapaxos.interfaces.ConflictAwareRequest;
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.nio.interfaces.IntegerPacketType;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * Tests that {@link ConflictAwareExecutor} preserves slot order among
+ * conflicting requests.
+ */
+public class ConflictAwareExecutorTest extends DefaultTest {
+
+	private static Request keyed(final String... keys) {
+		return new ConflictAwareRequest() {
+			@Override
+			public IntegerPacketType getRequestType() {
+				return null;
+			}
+
+			@Override
+			public String getServiceName() {
+				return "test";
+			}
+
+			@Override
+			public Set<String> getConflictKeys() {
+				return keys != null ? new HashSet<String>(Arrays.asList(keys))
+						: null;
+			}
+		};
+	}
+
+	/**
+	 * Requests on the same key must execute in order; a barrier must execute
+	 * after everything before it and before everything after it.
+	 */
+	@Test
+	public void testConflictOrder() {
+		ConflictAwareExecutor executor = new ConflictAwareExecutor(8, "test");
+		final int n = 1000;
+		final String[] keys = { "a", "b", "c", "d" };
+		final ConcurrentHashMap<String, ConcurrentLinkedQueue<Integer>> perKey = new ConcurrentHashMap<String, ConcurrentLinkedQueue<Integer>>();
+		final ConcurrentLinkedQueue<Integer> global = new ConcurrentLinkedQueue<Integer>();
+		final int barrierIndex = n / 2;
+		final AtomicInteger executedBeforeBarrier = new AtomicInteger(0);
+		final AtomicInteger barrierSeen = new AtomicInteger(-1);
+
+		List<Request> requests = new ArrayList<Request>();
+		List<BooleanSupplier> tasks = new ArrayList<BooleanSupplier>();
+		for (int i = 0; i < n; i++) {
+			final int index = i;
+			final String key = keys[i % keys.length];
+			requests.add(i == barrierIndex ? keyed((String[]) null) : keyed(key));
+			tasks.add(new BooleanSupplier() {
+				@Override
+				public boolean getAsBoolean() {
+					if (index == barrierIndex)
+						barrierSeen.set(executedBeforeBarrier.get());
+					else {
+						perKey.putIfAbsent(key,
+								new ConcurrentLinkedQueue<Integer>());
+						perKey.get(key).add(index);
+						if (barrierSeen.get() < 0)
+							executedBeforeBarrier.incrementAndGet();
+						else
+							Assert.assertTrue(index > barrierIndex);
+					}
+					global.add(index);
+					return true;
+				}
+			});
+		}
+		Assert.assertTrue(executor.executeAll(requests, tasks, null));
+		Assert.assertEquals(n, global.size());
+		Assert.assertEquals(barrierIndex, barrierSeen.get());
+		for (ConcurrentLinkedQueue<Integer> queue : perKey.values()) {
+			int prev = -1;
+			for (int index : queue) {
+				Assert.assertTrue(index > prev);
+				prev = index;
+			}
+		}
+		executor.close();
+	}
+
+	/**
+	 * A failed task must cause executeAll to return false.
+	 */
+	@Test
+	public void testFailure() {
+		ConflictAwareExecutor executor = new ConflictAwareExecutor(4, "test");
+		List<Request> requests = new ArrayList<Request>();
+		List<BooleanSupplier> tasks = new ArrayList<BooleanSupplier>();
+		for (int i = 0; i < 10; i++) {
+			final int index = i;
+			requests.add(keyed("k" + i));
+			tasks.add(new BooleanSupplier() {
+				@Override
+				public boolean getAsBoolean() {
+					return index != 5;
+				}
+			});
+		}
+		Assert.assertFalse(executor.executeAll(requests, tasks, null));
+		executor.close();
+	}
+
+	/**
+	 * Tasks that need the monitor held by the caller of executeAll must not
+	 * deadlock as the monitor is released while waiting.
+	 */
+	@Test
+	public void testMonitorReleased() {
+		ConflictAwareExecutor executor = new ConflictAwareExecutor(4, "test");
+		final Object monitor = new Object();
+		final AtomicInteger executed = new AtomicInteger(0);
+		List<Request> requests = new ArrayList<Request>();
+		List<BooleanSupplier> tasks = new ArrayList<BooleanSupplier>();
+		for (int i = 0; i < 10; i++) {
+			requests.add(keyed("k" + i % 2));
+			tasks.add(new BooleanSupplier() {
+				@Override
+				public boolean getAsBoolean() {
+					synchronized (monitor) {
+						executed.incrementAndGet();
+					}
+					return true;
+				}
+			});
+		}
+		synchronized (monitor) {
+			Assert.assertTrue(executor.executeAll(requests, tasks, monitor));
+			Assert.assertTrue(Thread.holdsLock(monitor));
+		}
+		Assert.assertEquals(10, executed.get());
+		executor.close();
+	}
+}
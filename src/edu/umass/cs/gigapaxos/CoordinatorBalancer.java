@@ -0,0 +1,257 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.gigapaxos.PaxosConfig.PC;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         Periodically spreads the coordinator role across the members of
+ *         paxos groups. Coordinator selection is deterministic given the
+ *         ballot and member set, so with many groups on the same members the
+ *         coordinator role tends to concentrate on a few nodes.
+ *
+ *         Each node estimates the coordinator load of every node over the
+ *         groups it is a member of as the number of groups coordinated plus
+ *         the number of slots committed by those groups since the last round.
+ *         A node can not give away coordinatorship, so handoffs are pulls: a
+ *         node takes over a group by running for coordinator with a higher
+ *         ballot if it is the least loaded live member of the group and doing
+ *         so strictly reduces the load imbalance with the current coordinator.
+ *         The latter condition ensures that two nodes with the same view will
+ *         not keep pulling the same group back and forth. Handoffs are capped
+ *         per round so as to not cause a storm of prepares.
+ */
+class CoordinatorBalancer implements Runnable {
+
+	private static final Logger log = PaxosConfig.getLogger();
+
+	private final PaxosManager<?> paxosManager;
+	private final long period;
+	private final int maxHandoffsPerRound;
+
+	/* Number of rounds for which a group's coordinator must be unchanged
+	 * before the group is considered for a handoff. Nodes only see the groups
+	 * they are members of, so their load estimates differ; this hold-down
+	 * keeps such differences from bouncing a group between nodes. */
+	private static final int HOLD_DOWN_ROUNDS = 4;
+
+	/* Slot and coordinator seen in the previous round for each group. The
+	 * entries are updated in place every round so that a round allocates
+	 * nothing per group it has seen before. */
+	private final HashMap<String, Seen> lastSeen = new HashMap<String, Seen>();
+	private long round = 0;
+
+	CoordinatorBalancer(PaxosManager<?> paxosManager) {
+		this.paxosManager = paxosManager;
+		this.period = Config.getGlobalLong(PC.COORDINATOR_BALANCE_PERIOD);
+		this.maxHandoffsPerRound = (int) Math.max(1,
+				Config.getGlobalInt(PC.MAX_COORDINATOR_HANDOFFS_PER_SECOND)
+						* this.period / 1000);
+	}
+
+	long getPeriod() {
+		return this.period;
+	}
+
+	private static class Seen {
+		int slot;
+		int coordinator;
+		int stableRounds;
+		long round;
+
+		Seen(int slot, int coordinator) {
+			this.slot = slot;
+			this.coordinator = coordinator;
+		}
+	}
+
+	private static class Group {
+		final PaxosInstanceStateMachine pism;
+		final int coordinator;
+		final long weight;
+
+		Group(PaxosInstanceStateMachine pism, int coordinator, long weight) {
+			this.pism = pism;
+			this.coordinator = coordinator;
+			this.weight = weight;
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			this.balance();
+		} catch (Exception e) {
+			// must continue running despite any exceptions
+			e.printStackTrace();
+		}
+	}
+
+	private void balance() {
+		long curRound = ++this.round;
+		HashMap<Integer, Long> load = new HashMap<Integer, Long>();
+		ArrayList<Group> groups = new ArrayList<Group>();
+		for (Iterator<PaxosInstanceStateMachine> pismIter = this.paxosManager
+				.getInstances(); pismIter.hasNext();) {
+			PaxosInstanceStateMachine pism = pismIter.next();
+			// multi-leader groups have no single coordinator to balance
+			if (pism.isStopped() || pism.isMultiLeader())
+				continue;
+			int coordinator = pism.getBallotCoord();
+			int slot = pism.getSlot();
+			Seen prev = this.lastSeen.get(pism.getPaxosID());
+			long weight = 1;
+			if (prev == null)
+				this.lastSeen.put(pism.getPaxosID(),
+						prev = new Seen(slot, coordinator));
+			else {
+				weight += Math.max(0, slot - prev.slot);
+				prev.stableRounds = prev.coordinator == coordinator ? prev.stableRounds + 1
+						: 0;
+				prev.slot = slot;
+				prev.coordinator = coordinator;
+			}
+			prev.round = curRound;
+			addLoad(load, coordinator, weight);
+			if (prev.stableRounds >= HOLD_DOWN_ROUNDS)
+				groups.add(new Group(pism, coordinator, weight));
+		}
+		// forget groups that are gone or no longer balanced
+		for (Iterator<Seen> seenIter = this.lastSeen.values().iterator(); seenIter
+				.hasNext();)
+			if (seenIter.next().round != curRound)
+				seenIter.remove();
+
+		// pulling the heaviest groups first needs the fewest handoffs
+		Collections.sort(groups, new Comparator<Group>() {
+			@Override
+			public int compare(Group g1, Group g2) {
+				return Long.compare(g2.weight, g1.weight);
+			}
+		});
+
+		int myID = this.paxosManager.getMyID();
+		int handoffs = 0;
+		for (Group group : groups) {
+			if (handoffs >= this.maxHandoffsPerRound)
+				break;
+			// dead coordinators are handled by the usual takeover path
+			if (group.coordinator == myID
+					|| !this.paxosManager.isNodeUp(group.coordinator))
+				continue;
+			if (!shouldTakeOver(myID, group.coordinator, group.weight,
+					this.getLiveMembers(group.pism.getMembers(), myID), load))
+				continue;
+			// no-op if I think I am still an active coordinator
+			if (!group.pism.runForCoordinator())
+				continue;
+			log.log(Level.INFO,
+					"{0} taking over coordinatorship of {1} with weight {2} from node {3}; load {4}",
+					new Object[] { this.paxosManager, group.pism.getPaxosID(),
+							group.weight, group.coordinator, load });
+			addLoad(load, group.coordinator, -group.weight);
+			addLoad(load, myID, group.weight);
+			handoffs++;
+		}
+	}
+
+	private int[] getLiveMembers(int[] members, int myID) {
+		int[] live = new int[members.length];
+		int numLive = 0;
+		for (int member : members)
+			if (member == myID || this.paxosManager.isNodeUp(member))
+				live[numLive++] = member;
+		int[] trimmed = new int[numLive];
+		System.arraycopy(live, 0, trimmed, 0, numLive);
+		return trimmed;
+	}
+
+	private static void addLoad(Map<Integer, Long> load, int node, long weight) {
+		Long cur = load.get(node);
+		load.put(node, (cur != null ? cur : 0) + weight);
+	}
+
+	private static long getLoad(Map<Integer, Long> load, int node) {
+		Long cur = load.get(node);
+		return cur != null ? cur : 0;
+	}
+
+	/**
+	 * @param myID
+	 * @param coordinator
+	 * @param weight
+	 *            Load contributed by the group being considered.
+	 * @param liveMembers
+	 *            Live members of the group including myID.
+	 * @param load
+	 * @return True if myID is the least loaded of liveMembers, with ties broken
+	 *         by lower ID, and moving the group from coordinator to myID
+	 *         strictly reduces the imbalance between the two.
+	 */
+	static boolean shouldTakeOver(int myID, int coordinator, long weight,
+			int[] liveMembers, Map<Integer, Long> load) {
+		long myLoad = getLoad(load, myID);
+		if (myLoad + weight >= getLoad(load, coordinator))
+			return false;
+		for (int member : liveMembers) {
+			long memberLoad = getLoad(load, member);
+			if (member != myID
+					&& (memberLoad < myLoad || (memberLoad == myLoad && member < myID)))
+				return false;
+		}
+		return true;
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class CoordinatorBalancerTest extends DefaultTest {
+		@Test
+		public void testShouldTakeOver() {
+			HashMap<Integer, Long> load = new HashMap<Integer, Long>();
+			load.put(0, 10L);
+			load.put(1, 2L);
+			load.put(2, 2L);
+			int[] members = { 0, 1, 2 };
+			// tie between 1 and 2 broken by lower ID
+			Assert.assertTrue(shouldTakeOver(1, 0, 3, members, load));
+			Assert.assertFalse(shouldTakeOver(2, 0, 3, members, load));
+			// would not reduce imbalance
+			Assert.assertFalse(shouldTakeOver(1, 0, 8, members, load));
+			// 1 is not live, so 2 is least loaded
+			Assert.assertTrue(shouldTakeOver(2, 0, 3, new int[] { 0, 2 },
+					load));
+			// no pulling back once balanced
+			addLoad(load, 0, -3);
+			addLoad(load, 1, 3);
+			Assert.assertFalse(shouldTakeOver(0, 1, 3, members, load));
+		}
+	}
+}
@@ -18,6 +18,7 @@
 package edu.umass.cs.gigapaxos;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
@@ -35,6 +36,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxospackets.FailureDetectionPacket;
+import edu.umass.cs.gigapaxos.paxosutil.PaxosMessenger;
+import edu.umass.cs.nio.MessageNIOTransport;
 import edu.umass.cs.nio.interfaces.InterfaceNIOTransport;
 import edu.umass.cs.utils.Config;
 
@@ -51,6 +54,12 @@ import edu.umass.cs.utils.Config;
  *            instances on a node to be amortized so that the overhead is no
  *            greater than all nodes pinging all other nodes.
  * 
+ *            Liveness is judged by a phi accrual detector over the arrival
+ *            times of any traffic heard from a node, so suspicion adapts to
+ *            the observed arrival pattern instead of relying only on a fixed
+ *            timeout. Protocol messages double up as heartbeats, so explicit
+ *            pings are only sent over otherwise idle links.
+ * 
  *            There is one failure detection instance per machine. This class
  *            could be static, but it is not so that we can test emulations
  *            involving multiple "machines" within a JVM.
@@ -74,6 +83,24 @@ public class FailureDetection<NodeIDType> {
 	private static long coordinator_failure_detection_timeout = 3 * node_detection_timeout_millis;
 	private static long pessimism_offset = 0;
 
+	private static final double PHI_THRESHOLD = Config
+			.getGlobalDouble(PaxosConfig.PC.FAILURE_DETECTION_PHI_THRESHOLD);
+	private static final boolean PIGGYBACK_HEARTBEATS = Config
+			.getGlobalBoolean(PaxosConfig.PC.PIGGYBACK_HEARTBEATS);
+	// only the fast demultiplexer used with json-smart parses bytes
+	private static final boolean BYTEIFICATION = Config
+			.getGlobalBoolean(PaxosConfig.PC.BYTEIFICATION)
+			&& PaxosMessenger.useJSONSmart();
+	// inter-arrival samples per peer for phi accrual
+	private static final int PHI_WINDOW = 100;
+	// fall back to the fixed timeout until there are this many samples
+	private static final int PHI_MIN_SAMPLES = 10;
+	/*
+	 * With piggybacking, idleness is checked this many times per ping period
+	 * and a ping is sent only if nothing was sent for a whole ping period.
+	 */
+	private static final int IDLE_CHECKS_PER_PING_PERIOD = 4;
+
 	/*
 	 * If initially optimistic, we assume that the last ping from some node came
 	 * just before we booted and we might have just missed it, so we consider a
@@ -94,7 +121,7 @@ public class FailureDetection<NodeIDType> {
 
 	// non-final
 	private Set<NodeIDType> keepAliveTargets;
-	private ConcurrentHashMap<NodeIDType, Long> lastHeardFrom;
+	private ConcurrentHashMap<NodeIDType, Peer> lastHeardFrom;
 	private HashMap<NodeIDType, ScheduledFuture<PingTask>> futures;
 
 	private static Logger log = Logger.getLogger(PaxosManager.class
@@ -116,7 +143,7 @@ public class FailureDetection<NodeIDType> {
 						return thread;
 					}
 				});
-		lastHeardFrom = new ConcurrentHashMap<NodeIDType, Long>();
+		lastHeardFrom = new ConcurrentHashMap<NodeIDType, Peer>();
 		keepAliveTargets = new TreeSet<NodeIDType>();
 		futures = new HashMap<NodeIDType, ScheduledFuture<PingTask>>();
 		initialize(paxosLogFolder);
@@ -220,7 +247,9 @@ public class FailureDetection<NodeIDType> {
 								(long) (PING_PERTURBATION_FACTOR
 										* node_detection_timeout_millis * Math
 										.random()),
-								FailureDetection.inter_ping_period_millis,
+								PIGGYBACK_HEARTBEATS ? FailureDetection.inter_ping_period_millis
+										/ IDLE_CHECKS_PER_PING_PERIOD
+										: FailureDetection.inter_ping_period_millis,
 								TimeUnit.MILLISECONDS);
 				futures.put(
 						id,
@@ -242,10 +271,39 @@ public class FailureDetection<NodeIDType> {
 
 	/*
 	 * protected in order to allow paxos instances to provide useful liveliness
-	 * information through the paxos manager.
+	 * information through the paxos manager. Any traffic from a peer, not
+	 * just pings, counts as a heartbeat.
 	 */
 	protected void heardFrom(NodeIDType id) {
-		this.lastHeardFrom.put(id, System.currentTimeMillis());
+		this.getPeer(id).heard(System.currentTimeMillis());
+	}
+
+	/*
+	 * Invoked upon sending traffic to id that id will treat as a heartbeat,
+	 * so that explicit pings to id are sent only when the link is otherwise
+	 * idle.
+	 */
+	protected void sentTo(NodeIDType id) {
+		if (PIGGYBACK_HEARTBEATS)
+			this.getPeer(id).lastSent = System.currentTimeMillis();
+	}
+
+	/*
+	 * Pings are spread randomly over a fraction of the ping period, so the
+	 * arrivals on an idle link jitter by that much even if the observed
+	 * samples happen to be nearly identical. Flooring the standard deviation
+	 * at that jitter keeps the effective timeout a multiple of the ping
+	 * period rather than a few seconds regardless of the configured timeout.
+	 */
+	private static double getMinStdDev() {
+		return Math.max(1, inter_ping_period_millis * PING_PERTURBATION_FACTOR);
+	}
+
+	// longest silence expected on an idle link to a live node
+	private static long getMaxPingGap() {
+		return PIGGYBACK_HEARTBEATS ? inter_ping_period_millis
+				+ inter_ping_period_millis / IDLE_CHECKS_PER_PING_PERIOD
+				: inter_ping_period_millis;
 	}
 
 	// don't synchronize; invoked in log messages
@@ -254,7 +312,91 @@ public class FailureDetection<NodeIDType> {
 			return true;
 		if (this.nioTransport.isDisconnected(id))
 			return false;
-		return ((System.currentTimeMillis() - lastHeardTime(id)) < node_detection_timeout_millis);
+		Peer peer = this.getPeer(id);
+		long elapsed = System.currentTimeMillis() - peer.lastHeard;
+		if (PHI_THRESHOLD > 0 && peer.numSamples() >= PHI_MIN_SAMPLES)
+			return peer.phi(elapsed) < PHI_THRESHOLD;
+		return elapsed < node_detection_timeout_millis;
+	}
+
+	/**
+	 * @param elapsed
+	 *            Time since the last arrival.
+	 * @param mean
+	 *            Mean inter-arrival time.
+	 * @param stdDev
+	 *            Standard deviation of inter-arrival times.
+	 * @return The suspicion level phi = -log10(1 - F(elapsed)) where F is the
+	 *         normal CDF with the given mean and standard deviation, using the
+	 *         logistic approximation of F.
+	 */
+	static double phi(double elapsed, double mean, double stdDev) {
+		double y = (elapsed - mean) / stdDev;
+		double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+		return elapsed > mean ? -Math.log10(e / (1.0 + e)) : -Math
+				.log10(1.0 - 1.0 / (1.0 + e));
+	}
+
+	/*
+	 * Arrival history of a single peer. Only samples at least a millisecond
+	 * apart are recorded, so a burst of piggybacked heartbeats costs no more
+	 * than one sample.
+	 */
+	private class Peer {
+		private volatile long lastHeard = initTime;
+		private volatile long lastSent = 0;
+		// lastHeard is only our boot time until the first real arrival
+		private volatile boolean seeded = false;
+		private final double[] intervals = new double[PHI_WINDOW];
+		private int count = 0, next = 0;
+		private double sum = 0, sumSquares = 0;
+
+		private void heard(long now) {
+			long interval = now - this.lastHeard;
+			this.lastHeard = now;
+			if (!this.seeded) {
+				this.seeded = true;
+				return;
+			}
+			if (interval <= 0 || PHI_THRESHOLD <= 0)
+				return;
+			synchronized (this) {
+				if (this.count == PHI_WINDOW) {
+					double old = this.intervals[this.next];
+					this.sum -= old;
+					this.sumSquares -= old * old;
+				} else
+					this.count++;
+				this.intervals[this.next] = interval;
+				this.next = (this.next + 1) % PHI_WINDOW;
+				this.sum += interval;
+				this.sumSquares += (double) interval * interval;
+			}
+		}
+
+		private synchronized int numSamples() {
+			return this.count;
+		}
+
+		private synchronized double phi(long elapsed) {
+			double mean = this.sum / this.count;
+			double stdDev = Math.max(getMinStdDev(), Math.sqrt(Math.max(0,
+					this.sumSquares / this.count - mean * mean)));
+			/*
+			 * An idle link may legitimately be silent until the next ping, so
+			 * that pause is acceptable on top of the observed mean.
+			 */
+			return FailureDetection.phi(elapsed, mean + getMaxPingGap(), stdDev);
+		}
+	}
+
+	private Peer getPeer(NodeIDType id) {
+		Peer peer = this.lastHeardFrom.get(id);
+		if (peer == null) {
+			this.lastHeardFrom.putIfAbsent(id, new Peer());
+			peer = this.lastHeardFrom.get(id);
+		}
+		return peer;
 	}
 
 	// don't synchronize; invoked in log messages
@@ -270,42 +412,49 @@ public class FailureDetection<NodeIDType> {
 	}
 
 	private long lastHeardTime(NodeIDType id) {
-		this.lastHeardFrom.putIfAbsent(id, initTime);
-		return this.lastHeardFrom.get(id);
+		return this.getPeer(id).lastHeard;
 	}
 
-	private JSONObject getPingPacket(NodeIDType id) throws JSONException {
-		FailureDetectionPacket<NodeIDType> fdp = new FailureDetectionPacket<NodeIDType>(
-				myID, id, true);
-		JSONObject fdpJson = fdp.toJSONObject();
-		return fdpJson;
+	private FailureDetectionPacket<NodeIDType> getPingPacket(NodeIDType id) {
+		return new FailureDetectionPacket<NodeIDType>(myID, id, true);
 	}
 
 	private class PingTask implements Runnable {
 		private final NodeIDType destID;
-		private final JSONObject pingJson;
+		// byteified or JSON encoded as NIO would encode it
+		private final byte[] pingBytes;
 		private final InterfaceNIOTransport<NodeIDType, JSONObject> nioTransport;
 
-		PingTask(NodeIDType id, JSONObject fdpJson,
-				InterfaceNIOTransport<NodeIDType, JSONObject> niot) {
+		PingTask(NodeIDType id, FailureDetectionPacket<NodeIDType> fdp,
+				InterfaceNIOTransport<NodeIDType, JSONObject> niot)
+				throws JSONException {
 			destID = id;
-			pingJson = fdpJson;
+			pingBytes = BYTEIFICATION ? fdp.toBytes() : fdp.toJSONObject()
+					.toString().getBytes(Charset
+							.forName(MessageNIOTransport.NIO_CHARSET_ENCODING));
 			nioTransport = niot;
 		}
 
 		public void run() {
 			try {
-				if(!FailureDetection.this.execpool.isShutdown())
-					nioTransport.sendToID(destID, pingJson);
+				// skip if recent traffic to destID already served as heartbeat
+				Peer peer = getPeer(destID);
+				if (PIGGYBACK_HEARTBEATS
+						&& System.currentTimeMillis() - peer.lastSent < inter_ping_period_millis)
+					return;
+				if (FailureDetection.this.execpool.isShutdown())
+					return;
+				/* Pings must get through even if other traffic to destID is
+				 * backlogged, else a node that is merely slow would be
+				 * suspected. An unreachable destination can still refuse a
+				 * ping, which must not delay the next attempt. */
+				if (nioTransport.sendUrgentToID(destID, pingBytes) > 0)
+					peer.lastSent = System.currentTimeMillis();
 			} catch (IOException e) {
-				try {
-					log.log(Level.INFO,
-							"{0} encountered IOException while sending keepalive to {2}",
-							new Object[] { pingJson.getInt("sender"), destID });
-					cleanupFailedPingTask(destID);
-				} catch (JSONException je) {
-					e.printStackTrace();
-				}
+				log.log(Level.INFO,
+						"{0} encountered IOException while sending keepalive to {1}",
+						new Object[] { myID, destID });
+				cleanupFailedPingTask(destID);
 			}
 		}
 	}
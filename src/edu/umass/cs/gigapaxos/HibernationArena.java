@@ -0,0 +1,296 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.gigapaxos.paxosutil.HotRestoreInfo;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         An in-memory tier for paused paxos instances between live instances
+ *         and paused state in the DB. Paused instances are stored in their
+ *         compact {@link HotRestoreInfo#toBytes()} form in fixed-size,
+ *         off-heap segments, so unpausing a warm instance is a decode instead
+ *         of a DB read and hibernated instances cost neither heap nor GC work.
+ *
+ *         Segments are filled in append-only fashion. Removing an entry only
+ *         updates the index and the segment's live byte count, and a segment
+ *         is reused once it has no live entries. When all segments are in use,
+ *         the oldest segment is evicted and its live entries are returned to
+ *         the caller to be spilled to disk, so the instances that stay
+ *         hibernated longest are the ones that go to disk. Evicted entries
+ *         stay in an on-heap overflow map until the caller confirms with
+ *         {@link #spilled(Set)} that they have been written, so a hibernated
+ *         instance is always either in memory or on disk.
+ */
+class HibernationArena {
+
+	static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+	private static final int LENGTH_PREFIX = 4;
+
+	private final int segmentSize;
+	private final ByteBuffer[] segments;
+	private final int[] live;
+
+	// paxosID -> segment << 32 | offset
+	private final HashMap<String, Long> index = new HashMap<String, Long>();
+	// full segments in fill order
+	private final LinkedList<Integer> filled = new LinkedList<Integer>();
+	private final LinkedList<Integer> free = new LinkedList<Integer>();
+	// evicted but not yet confirmed written to disk
+	private final HashMap<String, HotRestoreInfo> spilling = new HashMap<String, HotRestoreInfo>();
+	private int current = -1;
+	private int position = 0;
+
+	/**
+	 * @param capacity
+	 *            Total off-heap bytes.
+	 * @param segmentSize
+	 */
+	HibernationArena(long capacity, int segmentSize) {
+		this.segmentSize = segmentSize;
+		this.segments = new ByteBuffer[(int) Math.max(2, capacity
+				/ segmentSize)];
+		this.live = new int[this.segments.length];
+		for (int i = 0; i < this.segments.length; i++)
+			this.free.add(i);
+	}
+
+	/**
+	 * @param hri
+	 * @param spilled
+	 *            Entries evicted to make room for {@code hri} are added here.
+	 * @return False if {@code hri} can not be stored in memory.
+	 */
+	synchronized boolean put(HotRestoreInfo hri,
+			Map<String, HotRestoreInfo> spilled) {
+		byte[] bytes = null;
+		try {
+			bytes = hri.toBytes();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+			return false;
+		}
+		int size = LENGTH_PREFIX + bytes.length;
+		if (size > this.segmentSize)
+			return false;
+		this.remove(hri.paxosID);
+		this.spilling.remove(hri.paxosID);
+
+		if (this.current < 0 || this.position + size > this.segmentSize) {
+			if (this.current >= 0)
+				this.retire(this.current);
+			if (this.free.isEmpty())
+				this.evict(this.filled.getFirst(), spilled);
+			this.current = this.free.removeFirst();
+			this.position = 0;
+			if (this.segments[this.current] == null)
+				this.segments[this.current] = ByteBuffer
+						.allocateDirect(this.segmentSize);
+		}
+		ByteBuffer segment = this.segments[this.current];
+		segment.position(this.position);
+		segment.putInt(bytes.length).put(bytes);
+		this.index.put(hri.paxosID, address(this.current, this.position));
+		this.live[this.current] += size;
+		this.position += size;
+		return true;
+	}
+
+	/**
+	 * @param paxosID
+	 * @return The hibernated instance removed from memory, or null.
+	 */
+	synchronized HotRestoreInfo remove(String paxosID) {
+		Long address = this.index.remove(paxosID);
+		if (address == null)
+			return null;
+		HotRestoreInfo hri = this.decode(address);
+		int segment = (int) (address >>> 32);
+		this.live[segment] -= LENGTH_PREFIX + this.length(address);
+		if (this.live[segment] == 0 && segment != this.current
+				&& this.filled.remove((Integer) segment))
+			this.free.add(segment);
+		return hri;
+	}
+
+	/**
+	 * @param paxosID
+	 * @return The evicted instance not yet confirmed written to disk removed
+	 *         from memory, or null.
+	 */
+	synchronized HotRestoreInfo removeSpilling(String paxosID) {
+		return this.spilling.remove(paxosID);
+	}
+
+	synchronized boolean isSpilling(String paxosID) {
+		return this.spilling.containsKey(paxosID);
+	}
+
+	/**
+	 * @return Evicted instances not yet confirmed written to disk.
+	 */
+	synchronized Map<String, HotRestoreInfo> getSpilling() {
+		return new HashMap<String, HotRestoreInfo>(this.spilling);
+	}
+
+	/**
+	 * Forgets evicted instances once they have been written to disk.
+	 * 
+	 * @param paxosIDs
+	 */
+	synchronized void spilled(Set<String> paxosIDs) {
+		this.spilling.keySet().removeAll(paxosIDs);
+	}
+
+	synchronized boolean contains(String paxosID) {
+		return this.index.containsKey(paxosID);
+	}
+
+	synchronized int size() {
+		return this.index.size();
+	}
+
+	private void retire(int segment) {
+		if (this.live[segment] == 0)
+			this.free.add(segment);
+		else
+			this.filled.add(segment);
+	}
+
+	private void evict(int segment, Map<String, HotRestoreInfo> spilled) {
+		for (Iterator<Map.Entry<String, Long>> iter = this.index.entrySet()
+				.iterator(); iter.hasNext();) {
+			Map.Entry<String, Long> entry = iter.next();
+			if ((int) (entry.getValue() >>> 32) != segment)
+				continue;
+			HotRestoreInfo hri = this.decode(entry.getValue());
+			if (hri != null) {
+				spilled.put(hri.paxosID, hri);
+				this.spilling.put(hri.paxosID, hri);
+			}
+			iter.remove();
+		}
+		this.live[segment] = 0;
+		this.filled.remove((Integer) segment);
+		this.free.add(segment);
+	}
+
+	private int length(long address) {
+		return this.segments[(int) (address >>> 32)].getInt((int) address);
+	}
+
+	private HotRestoreInfo decode(long address) {
+		ByteBuffer buf = this.segments[(int) (address >>> 32)].duplicate();
+		buf.position((int) address + LENGTH_PREFIX);
+		buf.limit(buf.position() + this.length(address));
+		try {
+			return new HotRestoreInfo(buf);
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	private static long address(int segment, int offset) {
+		return ((long) segment << 32) | offset;
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class HibernationArenaTest extends DefaultTest {
+		private static HotRestoreInfo hri(int i) {
+			return new HotRestoreInfo("name" + i, 0, new int[] { 1, 2, 3 },
+					i, new Ballot(i, 1), i - 1, new Ballot(i, 1), i + 1,
+					new int[] { i, i, i });
+		}
+
+		@Test
+		public void testPutRemoveSpill() {
+			// 2 segments of 4 entries each
+			int entrySize = LENGTH_PREFIX + 80;
+			HibernationArena arena = new HibernationArena(8 * entrySize,
+					4 * entrySize);
+			HashMap<String, HotRestoreInfo> spilled = new HashMap<String, HotRestoreInfo>();
+			for (int i = 0; i < 8; i++)
+				Assert.assertTrue(arena.put(hri(i), spilled));
+			Assert.assertTrue(spilled.isEmpty());
+			Assert.assertEquals(hri(5).toString(), arena.remove("name5")
+					.toString());
+			Assert.assertNull(arena.remove("name5"));
+
+			// the oldest segment gets spilled
+			Assert.assertTrue(arena.put(hri(8), spilled));
+			Assert.assertEquals(4, spilled.size());
+			Assert.assertTrue(spilled.containsKey("name0"));
+			Assert.assertFalse(arena.contains("name0"));
+			Assert.assertTrue(arena.contains("name8"));
+
+			// a fully removed segment gets reused without spilling
+			spilled.clear();
+			for (int i : new int[] { 4, 6, 7 })
+				arena.remove("name" + i);
+			for (int i = 9; i < 12; i++)
+				Assert.assertTrue(arena.put(hri(i), spilled));
+			Assert.assertTrue(arena.put(hri(12), spilled));
+			Assert.assertTrue(spilled.isEmpty());
+			Assert.assertEquals(5, arena.size());
+		}
+
+		@Test
+		public void testSpillingUntilWritten() {
+			int entrySize = LENGTH_PREFIX + 80;
+			HibernationArena arena = new HibernationArena(8 * entrySize,
+					4 * entrySize);
+			HashMap<String, HotRestoreInfo> spilled = new HashMap<String, HotRestoreInfo>();
+			for (int i = 0; i < 9; i++)
+				Assert.assertTrue(arena.put(hri(i), spilled));
+			Assert.assertEquals(4, spilled.size());
+
+			// evicted entries stay retrievable until written
+			Assert.assertNull(arena.remove("name0"));
+			Assert.assertTrue(arena.isSpilling("name0"));
+			Assert.assertEquals(spilled.keySet(), arena.getSpilling().keySet());
+			Assert.assertEquals(hri(0).toString(),
+					arena.removeSpilling("name0").toString());
+
+			// a failed write keeps the rest in memory
+			arena.spilled(new HashSet<String>(Arrays.asList("name1", "name2")));
+			Assert.assertFalse(arena.isSpilling("name1"));
+			Assert.assertTrue(arena.isSpilling("name3"));
+
+			// hibernating again supersedes the evicted copy
+			Assert.assertTrue(arena.put(hri(3), spilled));
+			Assert.assertFalse(arena.isSpilling("name3"));
+			Assert.assertTrue(arena.getSpilling().isEmpty());
+		}
+	}
+}
@@ -318,35 +318,47 @@ protected static enum STATES {
 		return new Ballot(ballotNum, ballotCoord);
 	}
 
-	/* Phase 3: execute if next-in-line commit, else enqueue */
+	/*
+	 * Multi-leader mode: The caller has checked that the accept is for a slot
+	 * owned by the accept's initial-ballot coordinator. Each slot has exactly
+	 * one proposer in the initial ballot, so the accept is as good as one
+	 * from my ballot and is accepted without changing my ballot. Once any
+	 * higher ballot has been prepared, this reduces to the usual accept.
+	 *
+	 * Return: accept's ballot if accepted, else current ballot.
+	 */
+	protected synchronized Ballot acceptOwned(AcceptPacket accept, int myID) {
+		if (this.isStopped())
+			return null;
+		if (this.ballotNum != 0 || accept.ballot.ballotNumber != 0)
+			return this.acceptAndUpdateBallot(accept, myID);
+		if (accept.slot - this.acceptedGCSlot > 0)
+			this.acceptedProposals.put(accept.slot, accept); // wraparound
+		log.log(Level.FINE, "{0} acceptor accepting owned {1}", new Object[] {
+				this, accept.getSummary(log.isLoggable(Level.FINE)) });
+		garbageCollectAccepted(accept.getMedianCheckpointedSlot());
+		return accept.ballot;
+	}
+
+	/* Phase 3: execute if next-in-line commit, else enqueue. A witness never
+	 * executes request values, so for it any decision or meta-decision is
+	 * executable even without the corresponding accept or request value. */
 	protected synchronized PValuePacket putAndRemoveNextExecutable(
-			PValuePacket decision) {
+			PValuePacket decision, boolean witness) {
 		if (this.isStopped())
 			return null;
 		if (decision == null
 				&& (decision = this.committedRequests.get(this.getSlot())) == null)
 			return null;
-		// decision != null at this point
-		assert (isNonConflictingDecision(decision)) : this.committedRequests
-				.get(decision.slot).getSummary()
-				+ " != "
-				+ decision.getSummary();
-
-		this.garbageCollectAccepted(decision.getMedianCheckpointedSlot());
-
-		// put all decisions including meta-decisions
-		if (decision.slot - this.getSlot() >= 0) {
-			// don't overwrite existing decision value
-			if (!this.committedRequests.containsKey(decision.slot)
-					|| !this.committedRequests.get(decision.slot)
-							.hasRequestValue())
-				this.committedRequests.put(decision.slot, decision);
-		}
+		this.put(decision);
 		PValuePacket nextExecutable = null;
 		// might be removing what just got inserted above
 		if (this.committedRequests.containsKey(this.getSlot())) {
 			nextExecutable = this.reconstructDecision(this.getSlot());
-			if (nextExecutable != null && nextExecutable.hasRequestValue()) {
+			if (nextExecutable == null && witness)
+				nextExecutable = this.committedRequests.get(this.getSlot());
+			if (nextExecutable != null
+					&& (nextExecutable.hasRequestValue() || witness)) {
 				this.committedRequests.remove(this.getSlot());
 				this.executed(nextExecutable.slot,
 						nextExecutable.isStopRequest());
@@ -362,6 +374,31 @@ protected static enum STATES {
 		return nextExecutable;
 	}
 
+	/* Like putAndRemoveNextExecutable but only puts the decision so that a
+	 * later putAndRemoveNextExecutable can extract it. */
+	protected synchronized void putDecision(PValuePacket decision) {
+		if (!this.isStopped())
+			this.put(decision);
+	}
+
+	private void put(PValuePacket decision) {
+		assert (isNonConflictingDecision(decision)) : this.committedRequests
+				.get(decision.slot).getSummary()
+				+ " != "
+				+ decision.getSummary();
+
+		this.garbageCollectAccepted(decision.getMedianCheckpointedSlot());
+
+		// put all decisions including meta-decisions
+		if (decision.slot - this.getSlot() >= 0) {
+			// don't overwrite existing decision value
+			if (!this.committedRequests.containsKey(decision.slot)
+					|| !this.committedRequests.get(decision.slot)
+							.hasRequestValue())
+				this.committedRequests.put(decision.slot, decision);
+		}
+	}
+
 	// tries to reconstruct decision from corresponding accept
 	protected synchronized PValuePacket reconstructDecision(int slot) {
 		PValuePacket reconstructedDecision = null;
@@ -400,7 +437,7 @@ protected static enum STATES {
 	 */
 
 	protected synchronized ArrayList<Integer> getMissingCommittedSlots(
-			int sizeLimit) {
+			int sizeLimit, boolean witness) {
 		if (this.isStopped())
 			return null;
 
@@ -413,7 +450,8 @@ protected static enum STATES {
 				&& (i - limitSlot < 0); i++)
 			// no commit or meta-commit without accept
 			if (!this.committedRequests.containsKey(i)
-					|| (!this.committedRequests.get(i).hasRequestValue() && !this.acceptedProposals
+					|| (!witness
+							&& !this.committedRequests.get(i).hasRequestValue() && !this.acceptedProposals
 							.containsKey(i)))
 				missing.add(i);
 		return missing; // in sorted order
@@ -18,7 +18,14 @@ package edu.umass.cs.gigapaxos;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -44,6 +51,12 @@ import edu.umass.cs.utils.GCConcurrentHashMapCallback;
  *         This class is meant to only send and receive {@link RequestPacket}
  *         requests. To use other app-specific request types, use
  *         ReconfigurableAppClientAsync.
+ * 
+ *         If {@link PC#CLIENT_CREDITS} is positive, the client keeps at most
+ *         as many requests outstanding at each server as the credits most
+ *         recently advertised by that server, and queues the rest locally. A
+ *         request rejected with an overload response is queued again and the
+ *         server is left alone for an exponentially increasing backoff.
  */
 public class PaxosClientAsync {
 
@@ -55,11 +68,104 @@ public class PaxosClientAsync {
 				@Override
 				public void callbackGC(Object key, Object value) {
 					System.out.println("Request " + key + " timed out");
+					PaxosClientAsync.this.timedOut((Long) key);
 				}
 
 			}, DEFAULT_TIMEOUT);
 	private RequestCallback defaultCallback = null;
 
+	private static final int CLIENT_CREDITS = Config
+			.getGlobalInt(PC.CLIENT_CREDITS);
+	private static final long MIN_OVERLOAD_BACKOFF = 50;
+	private static final long MAX_OVERLOAD_BACKOFF = 2000;
+
+	// per-server credit windows, used only if CLIENT_CREDITS is positive
+	private final ConcurrentHashMap<InetSocketAddress, CreditWindow> windows = new ConcurrentHashMap<InetSocketAddress, CreditWindow>();
+	// requests counted against a credit window by request ID
+	private final ConcurrentHashMap<Long, CreditWindow> inflight = new ConcurrentHashMap<Long, CreditWindow>();
+	private final ScheduledExecutorService executor = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = Executors.defaultThreadFactory().newThread(r);
+					thread.setName(PaxosClientAsync.class.getSimpleName()
+							+ ":backoff");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/* Requests outstanding at and queued for a single server. The window never
+	 * drops below one so that a client with no credits can still learn of
+	 * freed up capacity through the response to a single request. */
+	class CreditWindow {
+		final InetSocketAddress server;
+		private int credits = CLIENT_CREDITS;
+		private long backoff = 0;
+		private long resumeTime = 0;
+		private final HashMap<Long, RequestPacket> outstanding = new HashMap<Long, RequestPacket>();
+		private final LinkedList<RequestPacket> queued = new LinkedList<RequestPacket>();
+
+		CreditWindow(InetSocketAddress server) {
+			this.server = server;
+		}
+
+		// returns true if request can be sent now, else queues it
+		synchronized boolean acquire(RequestPacket request) {
+			if (this.queued.isEmpty() && this.hasCredit()) {
+				this.outstanding.put(request.requestID, request);
+				return true;
+			}
+			this.queued.add(request);
+			return false;
+		}
+
+		private boolean hasCredit() {
+			return this.outstanding.size() < Math.max(1, this.credits)
+					&& System.currentTimeMillis() >= this.resumeTime;
+		}
+
+		synchronized RequestPacket release(long requestID, int credits) {
+			if (credits >= 0)
+				this.credits = credits;
+			return this.outstanding.remove(requestID);
+		}
+
+		synchronized void overloaded(long requestID, int credits) {
+			RequestPacket request = this.release(requestID, credits);
+			if (request != null)
+				this.queued.addFirst(request);
+			this.backoff = Math.min(MAX_OVERLOAD_BACKOFF,
+					Math.max(MIN_OVERLOAD_BACKOFF, 2 * this.backoff));
+			this.resumeTime = System.currentTimeMillis() + this.backoff;
+		}
+
+		synchronized void responded(long requestID, int credits) {
+			this.release(requestID, credits);
+			this.backoff = 0;
+		}
+
+		// dequeues as many requests as can be sent now
+		synchronized LinkedList<RequestPacket> next() {
+			LinkedList<RequestPacket> next = new LinkedList<RequestPacket>();
+			while (!this.queued.isEmpty() && this.hasCredit()) {
+				RequestPacket request = this.queued.removeFirst();
+				// skip requests that timed out while queued
+				if (!callbacks.containsKey(request.requestID))
+					continue;
+				this.outstanding.put(request.requestID, request);
+				next.add(request);
+			}
+			return next;
+		}
+
+		// time until queued requests can be sent after backing off
+		synchronized long getResumeDelay() {
+			return this.queued.isEmpty() ? 0 : this.resumeTime
+					- System.currentTimeMillis();
+		}
+	}
+
 	class ClientPacketDemultiplexer extends
 			AbstractPacketDemultiplexer<RequestPacket> {
 		final PaxosClientAsync client;
@@ -72,6 +178,16 @@ public class PaxosClientAsync {
 
 		@Override
 		public boolean handleMessage(RequestPacket message, edu.umass.cs.nio.nioutils.NIOHeader header) {
+			CreditWindow window = inflight.remove(message.requestID);
+			if (window != null && message.isOverload()) {
+				window.overloaded(message.requestID, message.getCredits());
+				PaxosClientAsync.this.sendQueued(window);
+				return true;
+			}
+			if (window != null) {
+				window.responded(message.requestID, message.getCredits());
+				PaxosClientAsync.this.sendQueued(window);
+			}
 			ClientRequest response = message.getResponse();
 			if (response != null)
 				if (callbacks.containsKey(response.getRequestID()))
@@ -129,7 +245,7 @@ public class PaxosClientAsync {
 		do {
 			request = new RequestPacket(value, false);
 			request.putPaxosID(paxosID, 0);
-			prev = this.callbacks.putIfAbsent((long) request.requestID,
+			prev = this.callbacks.putIfAbsent(request.requestID,
 					callback);
 		} while (prev != null);
 		return this.sendRequest(request, server, callback);
@@ -167,9 +283,20 @@ public class PaxosClientAsync {
 		int sent = -1;
 		assert (request.getPaxosID() != null);
 		try {
-			this.callbacks.putIfAbsent((long) request.requestID, callback);
-			if (this.callbacks.get((long) request.requestID) == callback) {
+			this.callbacks.putIfAbsent(request.requestID, callback);
+			if (this.callbacks.get(request.requestID) == callback) {
+				CreditWindow window = this.getWindow(server);
+				if (window != null && !window.acquire(request))
+					// will be sent when credits are available
+					return request.requestID;
+				if (window != null)
+					// put before sending as the response may come back first
+					this.inflight.put(request.requestID, window);
 				sent = this.niot.sendToAddress(server, request.toJSONObject());
+				if (window != null && sent <= 0) {
+					this.inflight.remove(request.requestID);
+					window.release(request.requestID, -1);
+				}
 			}
 		} finally {
 			if (sent <= 0) {
@@ -177,7 +304,56 @@ public class PaxosClientAsync {
 				return null;
 			}
 		}
-		return (long) request.requestID;
+		return request.requestID;
+	}
+
+	private CreditWindow getWindow(InetSocketAddress server) {
+		if (CLIENT_CREDITS <= 0)
+			return null;
+		CreditWindow window = this.windows.get(server);
+		if (window == null) {
+			this.windows.putIfAbsent(server, new CreditWindow(server));
+			window = this.windows.get(server);
+		}
+		return window;
+	}
+
+	private void sendQueued(final CreditWindow window) {
+		for (RequestPacket request : window.next()) {
+			int sent = -1;
+			try {
+				// put before sending as the response may come back first
+				this.inflight.put(request.requestID, window);
+				sent = this.niot.sendToAddress(window.server,
+						request.toJSONObject());
+			} catch (IOException | JSONException e) {
+				e.printStackTrace();
+			} finally {
+				if (sent <= 0) {
+					this.inflight.remove(request.requestID);
+					window.release(request.requestID, -1);
+					this.callbacks.remove(request.requestID);
+				}
+			}
+		}
+		// wake up after backoff if requests are still queued
+		long delay = window.getResumeDelay();
+		if (delay > 0)
+			this.executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					PaxosClientAsync.this.sendQueued(window);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	// frees up the credit held by a request that got no response
+	private void timedOut(long requestID) {
+		CreditWindow window = this.inflight.remove(requestID);
+		if (window != null) {
+			window.release(requestID, -1);
+			this.sendQueued(window);
+		}
 	}
 
 	/**
@@ -210,6 +386,7 @@ public class PaxosClientAsync {
 	 * 
 	 */
 	public void close() {
+		this.executor.shutdownNow();
 		this.niot.stop();
 	}
 
@@ -36,6 +36,7 @@ import org.json.JSONException;
 
 import edu.umass.cs.gigapaxos.examples.noop.NoopPaxosApp;
 import edu.umass.cs.gigapaxos.paxosutil.E2ELatencyAwareRedirector;
+import edu.umass.cs.gigapaxos.paxosutil.StaticBatchingPolicy;
 import edu.umass.cs.nio.NIOTransport;
 import edu.umass.cs.nio.SSLDataProcessingWorker;
 import edu.umass.cs.nio.SSLDataProcessingWorker.SSL_MODES;
@@ -276,6 +277,28 @@ public class PaxosConfig {
 		 */
 		PAUSE_OPTION(true),
 
+		/**
+		 * If true, instances created in bulk via
+		 * {@link PaxosManager#createPaxosInstance(java.util.Map, java.util.Set)}
+		 * are created directly in paused state so that provisioning a large
+		 * number of names does not need as many in-memory instances. Names
+		 * get unpaused upon their first request as usual. Bulk-created names
+		 * are also created paused, regardless of this option, once the
+		 * in-memory instance table is full. Ignored if PAUSE_OPTION is false.
+		 */
+		BATCH_CREATE_PAUSED(false),
+
+		/**
+		 * Off-heap memory in MB for hibernating paused instances in memory
+		 * in compact form before they get spilled to disk. Unpausing an
+		 * instance hibernated in memory avoids a DB read. Instances get
+		 * spilled to disk, oldest first, only when this memory is used up. 0,
+		 * the default, means that paused instances go directly to disk. The
+		 * arena's segments are allocated as needed up to this limit and are
+		 * kept for reuse.
+		 */
+		HIBERNATION_ARENA_MB(0),
+
 		/**
 		 * Fraction of capacity to be reached in order for pausing to get
 		 * enabled.
@@ -391,6 +414,23 @@ public class PaxosConfig {
 		 */
 		BATCH_OVERHEAD(0.01),
 
+		/**
+		 * Class name of the {@link edu.umass.cs.gigapaxos.paxosutil.BatchingPolicy}
+		 * used by the request batcher. The default static policy uses
+		 * {@link #BATCH_SLEEP_DURATION} and {@link #BATCH_OVERHEAD}.
+		 * {@link edu.umass.cs.gigapaxos.paxosutil.AdaptiveBatchingPolicy}
+		 * instead adapts the batch sleep per group so as to meet
+		 * {@link #TARGET_AGREEMENT_LATENCY}.
+		 */
+		BATCHING_POLICY(StaticBatchingPolicy.class.getName()),
+
+		/**
+		 * Target 99th percentile agreement latency in milliseconds for
+		 * requests batched at a node. Used only by
+		 * {@link edu.umass.cs.gigapaxos.paxosutil.AdaptiveBatchingPolicy}.
+		 */
+		TARGET_AGREEMENT_LATENCY(50),
+
 		/**
 		 * 
 		 */
@@ -402,6 +442,27 @@ public class PaxosConfig {
 		 */
 		MAX_BATCH_SIZE(2000),
 
+		/**
+		 * Maximum number of slots per paxos group that a coordinator will
+		 * have proposed but not yet decided. Proposals received when the
+		 * window is full are queued at the coordinator and coalesced into
+		 * batches of up to MAX_BATCH_SIZE as slots free up, so a busy group
+		 * gets larger batches instead of more outstanding accepts. 0, the
+		 * default, means no limit. The coordinator's queue itself is not
+		 * bounded and exerts no backpressure on clients, so this should be
+		 * combined with client-side limits such as CLIENT_CREDITS. Requests
+		 * that have already been broadcast to all members (see
+		 * DIGEST_REQUESTS) are not subject to this window.
+		 */
+		MAX_INFLIGHT_SLOTS(0),
+
+		/**
+		 * Maximum estimated bytes of requests per paxos group that a
+		 * coordinator will have proposed but not yet decided. 0, the default,
+		 * means no limit. See MAX_INFLIGHT_SLOTS.
+		 */
+		MAX_INFLIGHT_BYTES(0),
+
 		/**
 		 * Checkpoint interval. A larger value means slower recovery, slower
 		 * coordinator changes, and less frequent garbage collection, but it
@@ -421,12 +482,82 @@ public class PaxosConfig {
 		 */
 		PACKET_DEMULTIPLEXER_THREADS(4),
 
+		/**
+		 * If positive, the paxos packet demultiplexer queues protocol messages
+		 * and client requests in separate lanes and, whenever a thread frees
+		 * up, runs this many protocol messages for every client request
+		 * while both are backlogged. Commits and accept replies complete
+		 * outstanding requests, so they should not wait behind fresh client
+		 * requests that only add to the load. Requests forwarded by other
+		 * replicas go in the protocol lane as they were already admitted at
+		 * their entry replica. If 0, the default, messages are processed in
+		 * arrival order.
+		 */
+		PROTOCOL_LANE_WEIGHT(0),
+
+		/**
+		 * Maximum number of client requests queued in the demultiplexer's
+		 * client lane if {@link #PROTOCOL_LANE_WEIGHT} is positive. Client
+		 * requests arriving at a full lane are dropped and, if
+		 * {@link #CLIENT_CREDITS} is positive, answered with an overload
+		 * response; else clients find out only by timing out. Protocol
+		 * messages are never dropped this way.
+		 */
+		CLIENT_LANE_CAPACITY(16000),
+
 		/**
 		 * Whether request order is preserved for requests sent by the same
 		 * replica and committed by the same coordinator.
 		 */
 		ORDER_PRESERVING_REQUESTS(true),
 
+		/**
+		 * If true, committed requests within a paxos group that implement
+		 * {@link edu.umass.cs.gigapaxos.interfaces.ConflictAwareRequest} and
+		 * have disjoint conflict keys may be executed in parallel. Execution
+		 * remains equivalent to serial slot order and checkpoints are taken
+		 * only after all preceding requests have finished executing.
+		 */
+		PARALLEL_EXECUTION(false),
+
+		/**
+		 * Number of threads used for {@link #PARALLEL_EXECUTION}.
+		 */
+		PARALLEL_EXECUTION_THREADS(Runtime.getRuntime().availableProcessors()),
+
+		/**
+		 * Default Flexible Paxos accept (phase 2) quorum size for all groups.
+		 * The prepare (phase 1) quorum is then groupSize - ACCEPT_QUORUM_SIZE +
+		 * 1 so that the two always intersect. 0 means majority quorums for
+		 * both phases. Values larger than a group's size are capped at the
+		 * group size. Individual groups can override this at creation time
+		 * using
+		 * {@link PaxosManager#createPaxosInstance(String, int, java.util.Set, edu.umass.cs.gigapaxos.interfaces.Replicable, String, int, int)}
+		 * .
+		 * <p>
+		 * 
+		 * This parameter must not be changed across restarts of a running
+		 * system as safety depends on all coordinators using intersecting
+		 * quorums.
+		 */
+		ACCEPT_QUORUM_SIZE(0),
+
+		/**
+		 * Number of event loop threads to which paxos groups are pinned by
+		 * hashing their paxosID. If positive, all protocol messages for a
+		 * group are processed by its owning loop irrespective of whether they
+		 * arrive from the demultiplexer, the request batcher, or the logger,
+		 * so each group's state is touched by one thread. 0 disables sharding.
+		 */
+		PAXOS_SHARDS(0),
+
+		/**
+		 * Number of tasks queued for a shard beyond which threads handing off
+		 * to it, e.g., those receiving messages, block until the shard catches
+		 * up. Only relevant if {@link #PAXOS_SHARDS} is positive.
+		 */
+		PAXOS_SHARD_QUEUE_SIZE(4096),
+
 		/**
 		 * The replica receiving the request will simply send the request to the
 		 * local application replica, i.e., this essentially disables all paxos
@@ -559,6 +690,16 @@ public class PaxosConfig {
 		 */
 		NUM_MESSENGER_WORKERS(1),
 
+		/**
+		 * If true, paxos packets are striped across the messenger's own
+		 * connection and the {@link #NUM_MESSENGER_WORKERS} additional ones
+		 * by a hash of the paxos group name, so that each group's packets to
+		 * a node go over a single connection in order while different groups
+		 * are spread across all connections. If false, only accepts and
+		 * decisions use the additional connections, picked randomly.
+		 */
+		STRIPE_MESSENGER_WORKERS(false),
+
 		/**
 		 * True means respond with sync request to sync yourself if received
 		 * sync request from a replica that is already ahead of you.
@@ -570,14 +711,80 @@ public class PaxosConfig {
 		 */
 		USE_NIO_SENDER_TASK(false),
 
+		/**
+		 * Number of reactor threads, each with its own selector, that handle
+		 * connects, reads, and writes for server-side NIO transports. Zero
+		 * means a single selector thread does all of that as well as accepts.
+		 * Refer {@link edu.umass.cs.nio.NIOTransport#setNumReactors(int)}.
+		 */
+		NIO_REACTORS(0),
+
+		/**
+		 * Directory for UNIX domain sockets used between co-located nodes
+		 * instead of loopback TCP. Empty means TCP only. Refer
+		 * {@link edu.umass.cs.nio.NIOTransport#setUnixSocketDir(String)}.
+		 */
+		NIO_UNIX_SOCKET_DIR(""),
+
+		/**
+		 * Whether to compress all messages sent over each connection as one
+		 * deflate stream. Worth enabling when bandwidth costs more than CPU,
+		 * e.g., across regions. Refer
+		 * {@link edu.umass.cs.nio.NIOTransport#setStreamCompression(boolean)}.
+		 */
+		NIO_STREAM_COMPRESSION(false),
+
+		/**
+		 * Whether to read all bytes available on a connection in one go and
+		 * parse every complete message in them, instead of reading each
+		 * message's header and body separately. Refer
+		 * {@link edu.umass.cs.nio.NIOTransport#setReadChunked(boolean)}.
+		 */
+		NIO_READ_CHUNKED(true),
+
+		/**
+		 * Bytes that each NIO transport may hold queued for sending across
+		 * all destinations. Refer
+		 * {@link edu.umass.cs.nio.NIOTransport#setMaxQueuedBytes(long)}.
+		 */
+		NIO_MAX_QUEUED_BYTES(256 * 1024 * 1024),
+
+		/**
+		 * Bytes that each NIO transport may hold queued for sending to any
+		 * one destination. Refer
+		 * {@link edu.umass.cs.nio.NIOTransport#setMaxQueuedBytesPerDestination(long)}.
+		 */
+		NIO_MAX_QUEUED_BYTES_PER_DESTINATION(64 * 1024 * 1024),
+
 		/**
 		 * Disable congestion pushback.
 		 */
 		DISABLE_CC(false),
 
 		/**
-		 * If true, we use a garbage collected map that has higher overhead than
-		 * a regular map, but is still not a bottleneck.
+		 * Maximum number of requests a single client may have outstanding at
+		 * an entry replica. If positive, entry replicas advertise to each
+		 * client in every
+		 * {@link edu.umass.cs.gigapaxos.paxospackets.RequestPacket} response
+		 * the number of requests it may have outstanding, i.e., its share of
+		 * the remaining capacity under {@link #MAX_OUTSTANDING_REQUESTS}
+		 * capped at this value, and {@link PaxosClientAsync} holds back
+		 * requests beyond that window. A client request that arrives at a
+		 * congested entry replica gets an immediate overload response instead
+		 * of being silently dropped, so the client can back off instead of
+		 * waiting to time out. If 0 (the default), congested replicas drop
+		 * client requests as before, and neither requests nor responses carry
+		 * credits, so clients and replicas that predate credits interoperate.
+		 * Enable only once all clients and replicas understand credits.
+		 */
+		CLIENT_CREDITS(0),
+
+		/**
+		 * If true, outstanding requests and cached responses are expired
+		 * {@link #REQUEST_TIMEOUT} after they were last put using a
+		 * {@link edu.umass.cs.gigapaxos.paxosutil.RequestTracker}; else they
+		 * are only cleared wholesale once the outstanding queue stays idle for
+		 * that long.
 		 */
 		USE_GC_MAP(true),
 
@@ -673,6 +880,23 @@ public class PaxosConfig {
 		 */
 		FAILURE_DETECTION_TIMEOUT(6),
 
+		/**
+		 * Suspicion threshold for the phi accrual failure detector. A node is
+		 * considered dead once phi, which is computed from the distribution of
+		 * inter-arrival times of any traffic heard from it, reaches this value;
+		 * phi = 8 roughly corresponds to a 1 in 10^8 chance of a false
+		 * suspicion. Until enough arrivals have been observed, and if this is
+		 * 0, {@link #FAILURE_DETECTION_TIMEOUT} is used instead.
+		 */
+		FAILURE_DETECTION_PHI_THRESHOLD(8.0),
+
+		/**
+		 * If true, accepts, prepares, their replies, and batched commits sent
+		 * to a node double up as keepalives, and explicit keepalives are sent
+		 * to that node only when the link is otherwise idle.
+		 */
+		PIGGYBACK_HEARTBEATS(true),
+
 		/**
 		 * Request timeout in seconds after which the request will be deleted
 		 * from the outstanding queue. Currently, there is no effort to remove
@@ -787,6 +1011,23 @@ public class PaxosConfig {
 		 */
 		DIGEST_REQUESTS(false),
 
+		/**
+		 * Comma-separated IDs of nodes that act as witnesses in every paxos
+		 * group they are members of. Witnesses count toward prepare and
+		 * accept quorums but receive and log only request digests, never
+		 * execute or checkpoint application state, never become coordinator,
+		 * and do not accept client requests. Every accept quorum must also
+		 * include at least two full replicas, so that a committed request
+		 * survives the failure of its coordinator. For example, 3 full
+		 * replicas and 2 witnesses tolerate any 2 failures that leave 2 full
+		 * replicas with the storage and execution cost of 3 replicas. A
+		 * coordinator that learns only the digest of a previously accepted
+		 * request waits for a full replica or its own copy of the request
+		 * before re-proposing it, or proposes a no-op instead once every full
+		 * replica but the digest's coordinator has replied without it.
+		 */
+		WITNESSES(""),
+
 		/**
 		 * Number of active groups up to which digesting is done. Digests seem
 		 * to hurt with many groups probably because the cost more than offsets
@@ -806,6 +1047,55 @@ public class PaxosConfig {
 		 */
 		BATCH_ACROSS_GROUPS(true),
 
+		/**
+		 * Whether prepares sent by the same coordinator to the same set of
+		 * members, and prepare replies without accepted pvalues sent by the
+		 * same acceptor to the same coordinator, should be batched across
+		 * paxos groups into a single message. This matters mostly when a
+		 * node takes over as coordinator for many groups at once after a
+		 * failure. Only effective with integer node IDs. Off by default as
+		 * peers running older versions can not parse batched prepares.
+		 */
+		BATCHED_PREPARES(false),
+
+		/**
+		 * Maximum rate at which a node initiates coordinator takeovers for
+		 * paxos groups whose coordinator appears to have failed. Takeovers in
+		 * excess of this rate are deferred rather than all started at once,
+		 * which would otherwise overwhelm the surviving members with prepares
+		 * and their replies. 0, the default, means unlimited.
+		 */
+		MAX_TAKEOVERS_PER_SECOND(0),
+
+		/**
+		 * Period in milliseconds at which the coordinator balancer checks
+		 * whether the coordinator role is concentrated on a few nodes and, if
+		 * so, takes over coordinatorship of selected groups from overloaded
+		 * live coordinators. 0 disables the balancer.
+		 */
+		COORDINATOR_BALANCE_PERIOD(0),
+
+		/**
+		 * Maximum rate at which the coordinator balancer at a node takes over
+		 * coordinatorship from live coordinators. Each handoff costs a round
+		 * of prepares, so this should be well below
+		 * {@link #MAX_TAKEOVERS_PER_SECOND}.
+		 */
+		MAX_COORDINATOR_HANDOFFS_PER_SECOND(10),
+
+		/**
+		 * Mencius-style multi-leader mode. If true, the slots of a newly
+		 * created group's initial ballot are partitioned round-robin across
+		 * its non-witness members, and each member proposes requests from its
+		 * own clients in its own slots without forwarding them to a single
+		 * coordinator, so requests commit in one quorum round trip from any
+		 * member. A member fills its unused slots below those used by others
+		 * with no-ops. If a member fails or restarts, the group reverts to a
+		 * single coordinator through the usual takeover with a higher ballot.
+		 * Must be the same at all nodes.
+		 */
+		MULTI_LEADER(false),
+
 		/**
 		 * Whether accept batching should be different from
 		 * {@link #BATCH_ACROSS_GROUPS}. True means that we won't batch accepts
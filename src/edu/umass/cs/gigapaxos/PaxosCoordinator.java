@@ -18,6 +18,8 @@
 package edu.umass.cs.gigapaxos;
 
 import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,6 +31,7 @@ import edu.umass.cs.gigapaxos.paxospackets.ProposalPacket;
 import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
 import edu.umass.cs.gigapaxos.paxosutil.HotRestoreInfo;
+import edu.umass.cs.gigapaxos.paxosutil.Quorum;
 
 /**
  * @author V. Arun
@@ -64,12 +67,18 @@ public abstract class PaxosCoordinator {
 	private static Logger log = (PaxosConfig.getLogger());
 
 	protected static PaxosCoordinator makeCoordinator(PaxosCoordinator c, int bnum,
-			int coord, int[] members, int slot, boolean recovery) {
+			int coord, int[] members, int slot, boolean recovery, Quorum quorum,
+			Set<Integer> witnesses) {
 		boolean sendPrepare = false;
 		if (c == null || c.getPCS() == null
 				|| (c.getPCS().getBallot().compareTo(bnum, coord)) < 0) {
 			//if(c==null)
-			c = new PaxosCoordinatorState(bnum, coord, slot, members, null);
+			PaxosCoordinator prev = c;
+			c = new PaxosCoordinatorState(bnum, coord, slot, members, null,
+					quorum, witnesses);
+			// requests queued behind the previous ballot's window
+			if (prev != null && prev.getPCS() != null)
+				c.getPCS().requeue(prev.getPCS().drainQueued());
 
 			if (bnum == 0 || recovery)
 				// initial coordinator status assumed, not explicitly prepared.
@@ -89,9 +98,10 @@ public abstract class PaxosCoordinator {
 	}
 
 	protected static PaxosCoordinator createCoordinator(int bnum,
-			int coord, int[] members, int slot, boolean recovery, final String myID) {
+			int coord, int[] members, int slot, boolean recovery, final String myID,
+			Quorum quorum, Set<Integer> witnesses) {
 		PaxosCoordinatorState c = new PaxosCoordinatorState(bnum, coord,
-				slot, members, null) {
+				slot, members, null, quorum, witnesses) {
 			public String toString() {
 				return PaxosCoordinator.class.getSimpleName()+":"+myID;
 			}
@@ -108,12 +118,13 @@ public abstract class PaxosCoordinator {
 	}
 
 	protected abstract void setNodeSlots(int[] nodeSlots);
-	protected static PaxosCoordinator hotRestore(PaxosCoordinator c, HotRestoreInfo hri) {
+	protected static PaxosCoordinator hotRestore(PaxosCoordinator c,
+			HotRestoreInfo hri, Quorum quorum, Set<Integer> witnesses) {
 		if (hri.coordBallot == null)
 			return null;
 		PaxosCoordinator coordinator = makeCoordinator(c, hri.coordBallot.ballotNumber,
 				hri.coordBallot.coordinatorID, hri.members,
-				hri.nextProposalSlot, true);
+				hri.nextProposalSlot, true, quorum, witnesses);
 		assert (coordinator.isActive());
 		coordinator.getPCS().setNodeSlots(hri.nodeSlots);
 		return coordinator;
@@ -184,6 +195,37 @@ public abstract class PaxosCoordinator {
 			RequestPacket req) {
 		return c!=null ? c.propose(groupMembers, req) : null;
 	}
+	protected abstract ArrayList<AcceptPacket> proposeQueued(int[] members,
+			int executedSlot);
+
+	protected static ArrayList<AcceptPacket> proposeQueued(PaxosCoordinator c,
+			int[] members, int executedSlot) {
+		return c != null ? c.proposeQueued(members, executedSlot) : null;
+	}
+
+	protected abstract LinkedList<RequestPacket> drainQueued();
+
+	protected static LinkedList<RequestPacket> drainQueued(PaxosCoordinator c) {
+		return c != null ? c.drainQueued() : null;
+	}
+
+	protected abstract void requeue(LinkedList<RequestPacket> requests);
+
+	protected abstract void setSlotStride(int stride);
+
+	protected static void setSlotStride(PaxosCoordinator c, int stride) {
+		if (c != null)
+			c.setSlotStride(stride);
+	}
+
+	protected abstract ArrayList<AcceptPacket> skipTo(int[] members, int slot,
+			String paxosID, int version);
+
+	protected static ArrayList<AcceptPacket> skipTo(PaxosCoordinator c,
+			int[] members, int slot, String paxosID, int version) {
+		return c != null ? c.skipTo(members, slot, paxosID, version) : null;
+	}
+
 	protected static PValuePacket handleAcceptReply(PaxosCoordinator c, int[] members,
 			AcceptReplyPacket acceptReply) {
 		return c!=null ? c.handleAcceptReply(members, acceptReply) : null;
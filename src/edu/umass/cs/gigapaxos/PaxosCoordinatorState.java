@@ -17,27 +17,39 @@
  */
 package edu.umass.cs.gigapaxos;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.paxospackets.AcceptPacket;
 import edu.umass.cs.gigapaxos.paxospackets.AcceptReplyPacket;
 import edu.umass.cs.gigapaxos.paxospackets.PValuePacket;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
+import edu.umass.cs.gigapaxos.paxospackets.PreparePacket;
 import edu.umass.cs.gigapaxos.paxospackets.PrepareReplyPacket;
 import edu.umass.cs.gigapaxos.paxospackets.ProposalPacket;
 import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.gigapaxos.paxosutil.Quorum;
 import edu.umass.cs.gigapaxos.paxosutil.WaitforUtility;
 import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.NullIfEmptyMap;
 import edu.umass.cs.utils.Util;
 
@@ -95,6 +107,34 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 
 	private int nextProposalSlotNumber = 0; // next free slot number to propose
 
+	/*
+	 * Slot numbers proposed by this coordinator are this far apart. Always 1
+	 * except for an initial-ballot coordinator in multi-leader mode that owns
+	 * every n'th slot of an n-owner group.
+	 */
+	private int slotStride = 1;
+
+	/*
+	 * Pipelining window. A proposal is in flight from when its accept is first
+	 * issued until it is decided or preempted, i.e., in flight proposals are
+	 * exactly myProposals once active. Requests that arrive when the window is
+	 * full are queued here without a slot and coalesced into batches as slots
+	 * free up. Null if empty as most coordinators never fill their window.
+	 */
+	private static final int MAX_INFLIGHT_SLOTS = Config
+			.getGlobalInt(PC.MAX_INFLIGHT_SLOTS);
+	private static final int MAX_INFLIGHT_BYTES = Config
+			.getGlobalInt(PC.MAX_INFLIGHT_BYTES);
+	private Queued queued = null;
+	// sum of the lengths of myProposals, maintained by put/removeProposal
+	private long inflightBytes = 0;
+
+	private static class Queued {
+		final LinkedList<RequestPacket> requests = new LinkedList<RequestPacket>();
+		// retransmitted requests should not get queued twice
+		final HashSet<Long> requestIDs = new HashSet<Long>();
+	}
+
 	//private static enum STATES {PREACTIVE, ACTIVE, RESIGNED};
 	/*
 	 * After this coordinator becomes active, it remains active until it no
@@ -142,17 +182,37 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 	 */
 	private int[] nodeSlotNumbers = null;
 
+	// prepare and accept quorum sizes, majority unless flexible
+	private final Quorum quorum;
+
+	/*
+	 * Witness members, null if none. Witnesses log only digests, so a value
+	 * accepted only by witnesses and the coordinator would be lost with the
+	 * coordinator. Hence every accept quorum must also include at least two
+	 * full replicas (or all full replicas if there are fewer than two).
+	 */
+	private final Set<Integer> witnesses;
+
+	/*
+	 * Highest-ballot carryover with a request value for slots whose highest
+	 * ballot carryover is only a digest. Non-null only with witnesses and
+	 * only until the coordinator becomes active.
+	 */
+	private NullIfEmptyMap<Integer, PValuePacket> fullCarryovers = null;
+
 	private static Logger log = PaxosConfig.getLogger();
 
 	// Used in myProposals map above and nowhere else
 	private class ProposalStateAtCoordinator {
 		final PValuePacket pValuePacket;
 		final WaitforUtility waitfor;
+		final int length;
 
 		ProposalStateAtCoordinator(int[] members, PValuePacket pvalue) {
 			this.pValuePacket = new PValuePacket(new Ballot(myBallotNum,
 					myBallotCoord), pvalue);// pvalue;
 			this.waitfor = new WaitforUtility(members);
+			this.length = this.pValuePacket.lengthEstimate();
 		}
 
 		public String toString() {
@@ -165,7 +225,10 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 	 * change.
 	 */
 	PaxosCoordinatorState(int bnum, int coord, int slot, int[] members,
-			PaxosCoordinatorState prev) {
+			PaxosCoordinatorState prev, Quorum quorum, Set<Integer> witnesses) {
+		this.quorum = quorum != null ? quorum : Quorum.majority(members.length);
+		this.witnesses = witnesses != null && !witnesses.isEmpty() ? witnesses
+				: null;
 		this.myBallotNum = bnum;
 		this.myBallotCoord = coord;
 		this.nextProposalSlotNumber = slot;
@@ -190,7 +253,7 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 					this.myBallotNum, this.myBallotCoord), prevProp);
 			s = s + prevProp.slot;
 			paxosID = prevProp.getPaxosID();
-			this.myProposals.put(prevProp.slot, new ProposalStateAtCoordinator(
+			this.putProposal(prevProp.slot, new ProposalStateAtCoordinator(
 					members, curProp));
 		}
 		log.log(Level.FINE, "Coordinator {0}, {1} copying over slots [{2}]",
@@ -231,19 +294,27 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 	private static final boolean EXECUTE_UPON_ACCEPT = Config.getGlobalBoolean(PC.EXECUTE_UPON_ACCEPT);
 	protected synchronized AcceptPacket propose(int[] members,
 			RequestPacket request) {
-		if (this.myProposals.containsKey(this.nextProposalSlotNumber - 1) &&
-		// no point enqueuing anything after stop
-				this.myProposals.get(this.nextProposalSlotNumber - 1).pValuePacket
-						.isStopRequest())
+		if (this.lastProposedStop())
 			return null;
+		if (this.isActive()
+				&& !request.isBroadcasted()
+				&& (this.queued != null || this.isWindowFull())) {
+			this.enqueue(request);
+			return null;
+		}
+		return this.proposeNow(members, request);
+	}
+
+	private AcceptPacket proposeNow(int[] members, RequestPacket request) {
 		AcceptPacket acceptPacket = null;
 		Ballot myBallot = new Ballot(this.myBallotNum, this.myBallotCoord);
 		PValuePacket pvalue = new PValuePacket(myBallot, new ProposalPacket(
-				this.nextProposalSlotNumber++, request));
+				this.nextProposalSlotNumber, request));
+		this.nextProposalSlotNumber += this.slotStride;
 		// nextSlot should always be free
 		assert (!this.myProposals.containsKey(pvalue.slot));
 		if(!EXECUTE_UPON_ACCEPT) // only for testing
-			this.myProposals.put(pvalue.slot, new ProposalStateAtCoordinator(
+			this.putProposal(pvalue.slot, new ProposalStateAtCoordinator(
 				members, pvalue));
 		log.log(Level.FINE, "{0} inserted proposal {1}",
 				new Object[] { this, 
@@ -261,6 +332,135 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 		return acceptPacket;
 	}
 
+	// no point proposing anything after stop
+	private boolean lastProposedStop() {
+		ProposalStateAtCoordinator last = this.myProposals
+				.get(this.nextProposalSlotNumber - this.slotStride);
+		return last != null && last.pValuePacket.isStopRequest();
+	}
+
+	protected synchronized void setSlotStride(int stride) {
+		this.slotStride = stride;
+	}
+
+	/*
+	 * Multi-leader mode: Another owner has used the given slot. Action: Fill
+	 * my unused slots below it with no-ops so that execution is not held up
+	 * waiting for my slots.
+	 * 
+	 * Return: AcceptPackets for the no-ops to be sent out by the caller.
+	 */
+	protected synchronized ArrayList<AcceptPacket> skipTo(int[] members,
+			int slot, String paxosID, int version) {
+		ArrayList<AcceptPacket> noops = null;
+		while (this.isActive() && this.nextProposalSlotNumber - slot < 0
+				&& !this.lastProposedStop()) {
+			AcceptPacket accept = this.proposeNow(members,
+					(RequestPacket) new RequestPacket(0, NO_OP, false)
+							.setEntryReplica(this.myBallotCoord).putPaxosID(
+									paxosID, version));
+			if (accept == null)
+				break;
+			if (noops == null)
+				noops = new ArrayList<AcceptPacket>();
+			noops.add(accept);
+		}
+		return noops;
+	}
+
+	private boolean isWindowFull() {
+		return (MAX_INFLIGHT_SLOTS > 0 && this.myProposals.size() >= MAX_INFLIGHT_SLOTS)
+				|| (MAX_INFLIGHT_BYTES > 0 && this.inflightBytes >= MAX_INFLIGHT_BYTES);
+	}
+
+	// all changes to myProposals go through here to keep inflightBytes
+	private void putProposal(int slot, ProposalStateAtCoordinator psac) {
+		this.removeProposal(slot);
+		this.myProposals.put(slot, psac);
+		this.inflightBytes += psac.length;
+	}
+
+	private ProposalStateAtCoordinator removeProposal(int slot) {
+		ProposalStateAtCoordinator psac = this.myProposals.remove(slot);
+		if (psac != null)
+			this.inflightBytes -= psac.length;
+		return psac;
+	}
+
+	private void clearProposals() {
+		this.myProposals = new NullIfEmptyMap<Integer, ProposalStateAtCoordinator>();
+		this.inflightBytes = 0;
+	}
+
+	private void enqueue(RequestPacket request) {
+		if (this.queued == null)
+			this.queued = new Queued();
+		// no point enqueuing anything after stop
+		else if (this.queued.requests.getLast().isStopRequest())
+			return;
+		if (this.queued.requestIDs.add(request.requestID))
+			this.queued.requests.add(request);
+		log.log(Level.FINE, "{0} window full; queued {1} behind {2} requests",
+				new Object[] { this, request.getSummary(log.isLoggable(Level.FINE)),
+						this.queued.requests.size() - 1 });
+	}
+
+	/*
+	 * Event: A proposal may have left the pipelining window. Action: Prune
+	 * proposals that have been executed locally, as they have been decided
+	 * even if their accept replies got lost, and propose queued requests in
+	 * batches while the window has room.
+	 * 
+	 * Return: AcceptPackets to be sent out by the caller.
+	 */
+	protected synchronized ArrayList<AcceptPacket> proposeQueued(
+			int[] members, int executedSlot) {
+		if (!this.isActive())
+			return null;
+		while (!this.myProposals.isEmpty()
+				&& this.myProposals.firstKey() - executedSlot < 0)
+			this.removeProposal(this.myProposals.firstKey());
+		ArrayList<AcceptPacket> accepts = null;
+		while (this.queued != null && !this.isWindowFull()) {
+			Iterator<RequestPacket> iter = this.queued.requests.iterator();
+			RequestPacket first = iter.next();
+			iter.remove();
+			RequestPacket batch = RequestBatcher.pluckBatch(first, iter, true);
+			// unqueued requests can be queued again if retransmitted
+			this.queued.requestIDs.remove(batch.requestID);
+			if (batch.getBatched() != null)
+				for (RequestPacket req : batch.getBatched())
+					this.queued.requestIDs.remove(req.requestID);
+			if (this.queued.requests.isEmpty())
+				this.queued = null;
+			AcceptPacket accept = this.proposeNow(members, batch);
+			if (accept == null)
+				continue;
+			if (accepts == null)
+				accepts = new ArrayList<AcceptPacket>();
+			accepts.add(accept);
+		}
+		return accepts;
+	}
+
+	/*
+	 * Returns queued requests so that they can be forwarded to a new
+	 * coordinator when this one gets preempted.
+	 */
+	protected synchronized LinkedList<RequestPacket> drainQueued() {
+		LinkedList<RequestPacket> requests = this.queued != null ? this.queued.requests
+				: null;
+		this.queued = null;
+		return requests;
+	}
+
+	// requests queued at a previous, lower-ballot coordinator at this node
+	protected synchronized void requeue(LinkedList<RequestPacket> requests) {
+		if (requests != null)
+			for (RequestPacket request : requests)
+				this.enqueue(request);
+	}
+
 	/*********************** Start of Phase1b methods ************************/
 
 	/*
@@ -348,6 +548,8 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 			 * a higher ballot, so we should choose the proposal accepted for a
 			 * slot in the highest ballot.
 			 */
+			if (this.witnesses != null && pvalue.hasRequestValue())
+				this.recordFullCarryover(pvalue);
 			PValuePacket existing = this.carryoverProposals.get(curSlot);
 			if (existing == null
 					|| pvalue.ballot.compareTo(existing.ballot) > 0) {
@@ -359,13 +561,19 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 							new Object[] { this, existing.getSummary() });
 				this.carryoverProposals.put(pvalue.slot, pvalue);
 			} else if (pvalue.ballot.compareTo(existing.ballot) == 0) {
-				assert (pvalue.requestValue.equals(existing.requestValue));
+				// prefer full values over digests from witnesses
+				if (!existing.hasRequestValue() && pvalue.hasRequestValue())
+					this.carryoverProposals.put(pvalue.slot, pvalue);
+				assert (!pvalue.hasRequestValue() || !existing.hasRequestValue() || pvalue.requestValue
+						.equals(existing.requestValue));
 			}
 		}
 		waitforMyBallot.updateHeardFrom(prepareReply.acceptor);
 		log.log(Level.FINEST, "{0} waitfor = {1}", new Object[] {
 				this, waitforMyBallot });
-		if (this.waitforMyBallot.heardFromMajority()) {
+		if (this.waitforMyBallot.heardFrom(this.quorum.prepare)
+				&& !this.hasDigestedCarryover(members, prepareReply.getPaxosID(),
+						prepareReply.getVersion())) {
 			acceptedByMajority = true;
 			log.log(Level.FINE,
 					"{0}:{1} coordinator {2} acquired PREPARE majority {3} " +
@@ -379,6 +587,83 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 		return acceptedByMajority;
 	}
 
+	/*
+	 * Phase1b A carryover pvalue received only as a digest, which can happen
+	 * only with witnesses, can not be re-proposed. So we wait for more prepare
+	 * replies in the hope that some full replica has its request value.
+	 * 
+	 * Once every full replica other than the digest's coordinator has replied
+	 * without the value, the value can not have been chosen in the digest's
+	 * ballot, as that would take two full replicas. If some value was chosen
+	 * in a lower ballot, it was accepted by two full replicas of which at
+	 * least one has replied, so it is the highest-ballot full carryover for
+	 * the slot. So the digest is replaced by that carryover or else a no-op.
+	 */
+	private boolean hasDigestedCarryover(int[] members, String paxosID,
+			int version) {
+		if (this.witnesses == null)
+			return false;
+		int maxMinCarryoverSlot = this.getMaxMinCarryoverSlot();
+		for (PValuePacket pvalue : new ArrayList<PValuePacket>(
+				this.carryoverProposals.values())) {
+			// slots below every reply's GC slot are not re-proposed anyway
+			if (pvalue.hasRequestValue()
+					|| pvalue.slot - maxMinCarryoverSlot < 0)
+				continue;
+			if (!this.heardFromFullReplicasExcept(members,
+					pvalue.ballot.coordinatorID)) {
+				log.log(Level.FINE,
+						"{0} waiting for request value for digested carryover {1}",
+						new Object[] { this, pvalue.getSummary() });
+				return true;
+			}
+			PValuePacket full = this.fullCarryovers != null ? this.fullCarryovers
+					.get(pvalue.slot) : null;
+			log.log(Level.INFO,
+					"{0} replacing unchosen digested carryover {1} with {2}",
+					new Object[] { this, pvalue.getSummary(),
+							full != null ? full.getSummary() : NO_OP });
+			this.carryoverProposals.put(pvalue.slot, full != null ? full
+					: this.makeNoopPValue(pvalue.slot, null, paxosID, version));
+		}
+		return false;
+	}
+
+	private void recordFullCarryover(PValuePacket pvalue) {
+		if (this.fullCarryovers == null)
+			this.fullCarryovers = new NullIfEmptyMap<Integer, PValuePacket>();
+		PValuePacket existing = this.fullCarryovers.get(pvalue.slot);
+		if (existing == null || pvalue.ballot.compareTo(existing.ballot) > 0)
+			this.fullCarryovers.put(pvalue.slot, pvalue);
+	}
+
+	private boolean heardFromFullReplicasExcept(int[] members, int except) {
+		for (int member : members)
+			if (member != except && !this.witnesses.contains(member)
+					&& !this.waitforMyBallot.alreadyHeardFrom(member))
+				return false;
+		return true;
+	}
+
+	/*
+	 * Phase2b True if waitfor includes at least two full replicas or all of
+	 * them if there are fewer, so that a chosen value survives the loss of
+	 * the coordinator even if the rest of the accept quorum are witnesses.
+	 */
+	private boolean heardFromEnoughFullReplicas(WaitforUtility waitfor,
+			int[] members) {
+		if (this.witnesses == null)
+			return true;
+		int full = 0, heard = 0;
+		for (int member : members)
+			if (!this.witnesses.contains(member)) {
+				full++;
+				if (waitfor.alreadyHeardFrom(member))
+					heard++;
+			}
+		return heard >= Math.min(2, full);
+	}
+
 	/*
 	 * Phase1b Called after the above method by caller. We could also call it
 	 * from the above method instead, but having the caller invoke these methods
@@ -401,20 +686,20 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 		 * and selecting no-ops for slots for which neither contain a value.
 		 */
 		NullIfEmptyMap<Integer, ProposalStateAtCoordinator> preActives = this.myProposals;
-		this.myProposals = new NullIfEmptyMap<Integer, ProposalStateAtCoordinator>();
+		this.clearProposals();
 		for (int curSlot = maxMinCarryoverSlot; curSlot - maxCarryoverSlot <= 0; curSlot++) { // wrapround-arithmetic
 			// received pvalues dominate pre-active proposals
 			if (this.carryoverProposals.containsKey(curSlot)) {
-				this.myProposals.put(curSlot, new ProposalStateAtCoordinator(
+				this.putProposal(curSlot, new ProposalStateAtCoordinator(
 						members, this.carryoverProposals.get(curSlot)));
 			} else if (!preActives.containsKey(curSlot)) { // no-op if neither
 															// received nor
 															// pre-active
-				this.myProposals.put(curSlot, new ProposalStateAtCoordinator(
+				this.putProposal(curSlot, new ProposalStateAtCoordinator(
 						members, makeNoopPValue(curSlot, null, paxosID, version)));
 			} else if (preActives.containsKey(curSlot)) { // stick with
 															// pre-active
-				this.myProposals.put(curSlot, preActives.get(curSlot));
+				this.putProposal(curSlot, preActives.get(curSlot));
 				preActives.remove(curSlot);
 			}
 		}
@@ -517,7 +802,7 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 			}
 		}
 		for (ProposalStateAtCoordinator psac : modified)
-			this.myProposals.put(psac.pValuePacket.slot, psac);
+			this.putProposal(psac.pValuePacket.slot, psac);
 		if (stopExists
 				&& !this.myProposals.get(this.nextProposalSlotNumber - 1).pValuePacket
 						.isStopRequest()) {
@@ -567,6 +852,7 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 		 */
 		this.waitforMyBallot = null;
 		this.carryoverProposals = null;
+		this.fullCarryovers = null;
 	}
 
 	/*********************** End of Phase1b methods ************************/
@@ -607,7 +893,8 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 							waitfor,
 							pstate.pValuePacket.getSummary(log
 									.isLoggable(Level.FINEST)) });
-			if (waitfor.heardFromMajority()) {
+			if (waitfor.heardFrom(this.quorum.accept)
+					&& this.heardFromEnoughFullReplicas(waitfor, members)) {
 				// phase2b success
 				acceptedByMajority = true;
 				decision = (pstate.pValuePacket
@@ -615,7 +902,7 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 				log.log(Level.FINE, "{0} decided {1}", new Object[] { this,
 						decision.getSummary(log.isLoggable(Level.FINE)) });
 				assert (!decision.isRecovery());
-				this.myProposals.remove(decision.slot);
+				this.removeProposal(decision.slot);
 			} else
 				pstate.pValuePacket.addDebugInfo("r");
 		}
@@ -647,8 +934,7 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 				.get(acceptReply.slotNumber).waitfor
 				.contains(acceptReply.acceptor));
 		// Stop coordinating this specific proposal.
-		ProposalStateAtCoordinator psac = this.myProposals
-				.remove(acceptReply.slotNumber);
+		ProposalStateAtCoordinator psac = this.removeProposal(acceptReply.slotNumber);
 		PValuePacket preempted = (psac != null ? psac.pValuePacket.preempt()
 				: null);
 		assert (preempted == null || preempted.ballot
@@ -740,7 +1026,7 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 
 	protected synchronized boolean caughtUp() {
 		return //this.isActive() && 
-				this.myProposals.isEmpty();
+				this.myProposals.isEmpty() && this.queued == null;
 	}
 
 	/*
@@ -845,15 +1131,16 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 
 	/*
 	 * Gets the median (just before median) value with odd (even) number of
-	 * members
+	 * members. More generally, gets the highest slot committed by at least an
+	 * accept quorum's worth of members so that every prepare quorum contains
+	 * at least one of them; for majority quorums this is the median (minus).
 	 */
 	private int getMedianMinus(int[] array) {
 		int[] copy = new int[this.nodeSlotNumbers.length];
 		System.arraycopy(this.nodeSlotNumbers, 0, copy, 0,
 				this.nodeSlotNumbers.length);
 		Arrays.sort(copy);
-		int medianMinus = copy.length % 2 == 0 ? copy.length / 2 - 1
-				: copy.length / 2; // highest index <= median index
+		int medianMinus = copy.length - Math.min(this.quorum.accept, copy.length);
 		return copy[medianMinus];
 	}
 
@@ -967,10 +1254,10 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 
 	protected void testingInitCoord(int load) {
 		// this.testingInitInstance(load);
-		this.myProposals = new NullIfEmptyMap<Integer, ProposalStateAtCoordinator>();
+		this.clearProposals();
 		int[] group = { 21, 32, 32, 91, 14 };
 		for (int i = 0; i < load; i++) {
-			this.myProposals.put(25 + i, new ProposalStateAtCoordinator(group,
+			this.putProposal(25 + i, new ProposalStateAtCoordinator(group,
 					new PValuePacket(new Ballot(this.myBallotNum,
 							this.myBallotCoord), new ProposalPacket(45 + i,
 							new RequestPacket("hello39" + i, false)))));
@@ -1002,7 +1289,7 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 			assert (members[i] < members[i + 1]);
 
 		PaxosCoordinatorState pcs = new PaxosCoordinatorState(ballotnum, myID,
-				0, members, null);
+				0, members, null, null, null);
 		System.out.println("Created PaxosCoordinatorState");
 		int numReqs = 100;
 		RequestPacket[] reqs = new RequestPacket[numReqs];
@@ -1199,4 +1486,373 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 		System.out
 				.println("\nSUCCESS! TBD: Only minimally tested. Not stress tested under concurrency.");
 	}
+
+	/**
+	 * Witness tests over a group of three full replicas 0, 1, 2 and two
+	 * witnesses 3, 4 with majority quorums, where 0 is the coordinator in
+	 * ballot 0:0 and 1 takes over in ballot 1:1 after 0 crashes.
+	 */
+	@SuppressWarnings("javadoc")
+	public static class WitnessTest extends DefaultTest {
+		private static final int[] MEMBERS = { 0, 1, 2, 3, 4 };
+		private static final Set<Integer> WITNESSES = new HashSet<Integer>(
+				Arrays.asList(3, 4));
+
+		private static PaxosCoordinatorState activeCoordinator() {
+			PaxosCoordinatorState pcs = new PaxosCoordinatorState(0, 0, 0,
+					MEMBERS, null, null, WITNESSES);
+			pcs.setCoordinatorActive();
+			return pcs;
+		}
+
+		private static PValuePacket accept(PaxosCoordinatorState pcs,
+				AcceptPacket accept, int... acceptors) {
+			PValuePacket decision = null;
+			for (int acceptor : acceptors)
+				decision = pcs.handleAcceptReplyMyBallot(MEMBERS,
+						new AcceptReplyPacket(acceptor, accept.ballot,
+								accept.slot, -1));
+			return decision;
+		}
+
+		private static PValuePacket digested(PValuePacket pvalue)
+				throws NoSuchAlgorithmException {
+			pvalue.getDigest(MessageDigest.getInstance("MD5"));
+			return new PValuePacket(pvalue.ballot, new ProposalPacket(
+					pvalue.slot, new RequestPacket(pvalue.requestID, null,
+							pvalue.isStopRequest(), pvalue)));
+		}
+
+		private static PrepareReplyPacket prepareReply(int acceptor,
+				PValuePacket... accepted) {
+			HashMap<Integer, PValuePacket> map = new HashMap<Integer, PValuePacket>();
+			for (PValuePacket pvalue : accepted)
+				map.put(pvalue.slot, pvalue);
+			return new PrepareReplyPacket(acceptor, new Ballot(1, 1), map, -1);
+		}
+
+		@Test
+		public void testAcceptQuorumNeedsTwoFullReplicas() {
+			PaxosCoordinatorState pcs = activeCoordinator();
+			AcceptPacket accept = pcs.propose(MEMBERS, new RequestPacket(
+					"req", false));
+			Assert.assertNotNull(accept);
+			// coordinator and witnesses alone are a majority but not enough
+			Assert.assertNull(accept(pcs, accept, 0, 3, 4));
+			PValuePacket decision = accept(pcs, accept, 2);
+			Assert.assertNotNull(decision);
+			Assert.assertEquals(PaxosPacketType.DECISION, decision.getType());
+		}
+
+		@Test
+		public void testTakeoverRecoversCommittedValue()
+				throws NoSuchAlgorithmException {
+			PaxosCoordinatorState old = activeCoordinator();
+			AcceptPacket accept = old.propose(MEMBERS, new RequestPacket(
+					"committed", false));
+			Assert.assertNotNull(accept(old, accept, 0, 3, 1));
+			PValuePacket accepted = new PValuePacket(accept.ballot, accept);
+
+			// 0 crashes and 1 runs for coordinator
+			PaxosCoordinatorState pcs = new PaxosCoordinatorState(1, 1, 0,
+					MEMBERS, null, null, WITNESSES);
+			pcs.prepare(MEMBERS);
+			Assert.assertFalse(pcs.isPrepareAcceptedByMajority(
+					prepareReply(3, digested(accepted)), MEMBERS));
+			Assert.assertFalse(pcs.isPrepareAcceptedByMajority(
+					prepareReply(4), MEMBERS));
+			// a majority with only a digest must wait for full replica 1
+			Assert.assertFalse(pcs.isPrepareAcceptedByMajority(
+					prepareReply(2), MEMBERS));
+			Assert.assertTrue(pcs.isPrepareAcceptedByMajority(
+					prepareReply(1, accepted), MEMBERS));
+
+			pcs.combinePValuesOntoProposals(MEMBERS, null, 0);
+			PValuePacket carryover = pcs.myProposals.get(accept.slot).pValuePacket;
+			Assert.assertEquals("committed", carryover.requestValue);
+			Assert.assertEquals(new Ballot(1, 1), carryover.ballot);
+		}
+
+		@Test
+		public void testTakeoverReplacesUnchosenDigest()
+				throws NoSuchAlgorithmException {
+			PaxosCoordinatorState old = activeCoordinator();
+			AcceptPacket accept = old.propose(MEMBERS, new RequestPacket(
+					"unchosen", false));
+			Assert.assertNull(accept(old, accept, 0, 3));
+			PValuePacket accepted = new PValuePacket(accept.ballot, accept);
+
+			// 0 crashes before any other full replica accepts
+			PaxosCoordinatorState pcs = new PaxosCoordinatorState(1, 1, 0,
+					MEMBERS, null, null, WITNESSES);
+			pcs.prepare(MEMBERS);
+			Assert.assertFalse(pcs.isPrepareAcceptedByMajority(
+					prepareReply(3, digested(accepted)), MEMBERS));
+			Assert.assertFalse(pcs.isPrepareAcceptedByMajority(
+					prepareReply(4), MEMBERS));
+			Assert.assertFalse(pcs.isPrepareAcceptedByMajority(
+					prepareReply(2), MEMBERS));
+			// all full replicas but the crashed coordinator lack the value
+			Assert.assertTrue(pcs.isPrepareAcceptedByMajority(
+					prepareReply(1), MEMBERS));
+
+			pcs.combinePValuesOntoProposals(MEMBERS, null, 0);
+			Assert.assertEquals(NO_OP,
+					pcs.myProposals.get(accept.slot).pValuePacket.requestValue);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class PipelineTest extends DefaultTest {
+		private static final int[] MEMBERS = { 0, 1, 2 };
+
+		private static PaxosCoordinatorState activeCoordinator(int bnum,
+				int coord) {
+			PaxosCoordinatorState pcs = new PaxosCoordinatorState(bnum, coord,
+					0, MEMBERS, null, null, null);
+			pcs.setCoordinatorActive();
+			return pcs;
+		}
+
+		private static PValuePacket decide(PaxosCoordinatorState pcs,
+				AcceptPacket accept) {
+			pcs.handleAcceptReplyMyBallot(MEMBERS, new AcceptReplyPacket(0,
+					accept.ballot, accept.slot, -1));
+			return pcs.handleAcceptReplyMyBallot(MEMBERS,
+					new AcceptReplyPacket(1, accept.ballot, accept.slot, -1));
+		}
+
+		// fills the slot window and returns the accepts
+		private static ArrayList<AcceptPacket> fill(PaxosCoordinatorState pcs) {
+			ArrayList<AcceptPacket> accepts = new ArrayList<AcceptPacket>();
+			for (int i = 0; i < MAX_INFLIGHT_SLOTS; i++) {
+				AcceptPacket accept = pcs.propose(MEMBERS, new RequestPacket(
+						"req" + i, false));
+				Assert.assertNotNull(accept);
+				accepts.add(accept);
+			}
+			return accepts;
+		}
+
+		@Test
+		public void testSlotWindow() {
+			Assume.assumeTrue(MAX_INFLIGHT_SLOTS > 0);
+			PaxosCoordinatorState pcs = activeCoordinator(0, 0);
+			ArrayList<AcceptPacket> accepts = fill(pcs);
+			RequestPacket queued1 = new RequestPacket("queued1", false);
+			RequestPacket queued2 = new RequestPacket("queued2", false);
+			Assert.assertNull(pcs.propose(MEMBERS, queued1));
+			Assert.assertNull(pcs.propose(MEMBERS, queued2));
+			// retransmissions are not queued twice
+			Assert.assertNull(pcs.propose(MEMBERS, queued1));
+
+			// a decision frees a slot for a batch of all queued requests
+			Assert.assertNotNull(decide(pcs, accepts.get(0)));
+			ArrayList<AcceptPacket> queued = pcs.proposeQueued(MEMBERS, -1);
+			Assert.assertEquals(1, queued.size());
+			Assert.assertEquals(queued1.requestID, queued.get(0).requestID);
+			Assert.assertEquals(1, queued.get(0).batchSize());
+			Assert.assertEquals(queued2.requestID,
+					queued.get(0).getBatched()[0].requestID);
+			Assert.assertNull(pcs.drainQueued());
+		}
+
+		@Test
+		public void testByteWindow() {
+			Assume.assumeTrue(MAX_INFLIGHT_BYTES > 0
+					&& (MAX_INFLIGHT_SLOTS <= 0 || MAX_INFLIGHT_SLOTS > 4));
+			PaxosCoordinatorState pcs = activeCoordinator(0, 0);
+			char[] chars = new char[MAX_INFLIGHT_BYTES / 3 + 1];
+			Arrays.fill(chars, 'x');
+			String big = new String(chars);
+			ArrayList<AcceptPacket> accepts = new ArrayList<AcceptPacket>();
+			for (int i = 0; i < 3; i++)
+				accepts.add(pcs.propose(MEMBERS, new RequestPacket(big, false)));
+			Assert.assertFalse(accepts.contains(null));
+			Assert.assertNull(pcs.propose(MEMBERS, new RequestPacket(big,
+					false)));
+			Assert.assertNull(pcs.proposeQueued(MEMBERS, -1));
+
+			// decided bytes leave the window
+			Assert.assertNotNull(decide(pcs, accepts.get(0)));
+			Assert.assertEquals(1, pcs.proposeQueued(MEMBERS, -1).size());
+			Assert.assertNull(pcs.drainQueued());
+		}
+
+		@Test
+		public void testRequeueOnReelection() {
+			Assume.assumeTrue(MAX_INFLIGHT_SLOTS > 0);
+			PaxosCoordinatorState prev = activeCoordinator(0, 0);
+			fill(prev);
+			RequestPacket request = new RequestPacket("queued", false);
+			Assert.assertNull(prev.propose(MEMBERS, request));
+
+			// queued requests move to this node's next ballot
+			PaxosCoordinator c = PaxosCoordinator.makeCoordinator(prev, 1, 0,
+					MEMBERS, 0, true, null, null);
+			Assert.assertNotSame(prev, c);
+			Assert.assertNull(prev.drainQueued());
+			ArrayList<AcceptPacket> accepts = PaxosCoordinator.proposeQueued(
+					c, MEMBERS, -1);
+			Assert.assertEquals(1, accepts.size());
+			Assert.assertEquals(request.requestID, accepts.get(0).requestID);
+			Assert.assertEquals(new Ballot(1, 0), accepts.get(0).ballot);
+		}
+
+		@Test
+		public void testDrainOnPreemption() {
+			Assume.assumeTrue(MAX_INFLIGHT_SLOTS > 0);
+			PaxosCoordinatorState pcs = activeCoordinator(0, 0);
+			ArrayList<AcceptPacket> accepts = fill(pcs);
+			RequestPacket queued1 = new RequestPacket("queued1", false);
+			RequestPacket queued2 = new RequestPacket("queued2", false);
+			pcs.propose(MEMBERS, queued1);
+			pcs.propose(MEMBERS, queued2);
+
+			// a higher ballot preempts; queued requests go to its coordinator
+			PValuePacket preempted = pcs
+					.handleAcceptReplyHigherBallot(new AcceptReplyPacket(1,
+							new Ballot(1, 1), accepts.get(0).slot, -1));
+			Assert.assertEquals(PaxosPacketType.PREEMPTED,
+					preempted.getType());
+			LinkedList<RequestPacket> drained = pcs.drainQueued();
+			Assert.assertEquals(2, drained.size());
+			Assert.assertEquals(queued1.requestID, drained.get(0).requestID);
+			Assert.assertEquals(queued2.requestID, drained.get(1).requestID);
+			Assert.assertNull(pcs.drainQueued());
+			// nothing left to propose in this ballot
+			Assert.assertNull(pcs.proposeQueued(MEMBERS, -1));
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class MultiLeaderTest extends DefaultTest {
+		private static final int[] MEMBERS = { 0, 1, 2 };
+
+		// initial-ballot owner of every third slot starting at its ID
+		private static PaxosCoordinatorState owner(int id) {
+			Assert.assertEquals(id, PaxosInstanceStateMachine.slotOwner(id,
+					MEMBERS, null));
+			PaxosCoordinatorState pcs = new PaxosCoordinatorState(0, id, id,
+					MEMBERS, null, null, null);
+			pcs.setCoordinatorActive();
+			pcs.setSlotStride(MEMBERS.length);
+			return pcs;
+		}
+
+		private static PaxosAcceptor[] acceptors() {
+			PaxosAcceptor[] acceptors = new PaxosAcceptor[MEMBERS.length];
+			for (int i = 0; i < acceptors.length; i++)
+				acceptors[i] = new PaxosAcceptor(0, 0, 0, null);
+			return acceptors;
+		}
+
+		private static PValuePacket acceptOwned(PaxosCoordinatorState pcs,
+				AcceptPacket accept, PaxosAcceptor[] acceptors, int... ids) {
+			PValuePacket decision = null;
+			for (int id : ids) {
+				Ballot ballot = acceptors[id].acceptOwned(accept, id);
+				AcceptReplyPacket reply = new AcceptReplyPacket(id, ballot,
+						accept.slot, -1);
+				if (ballot.compareTo(accept.ballot) > 0)
+					return pcs.handleAcceptReplyHigherBallot(reply);
+				decision = pcs.handleAcceptReplyMyBallot(MEMBERS, reply);
+			}
+			return decision;
+		}
+
+		@Test
+		public void testOwnedSlotsCommit() {
+			PaxosAcceptor[] acceptors = acceptors();
+			PaxosCoordinatorState owner0 = owner(0), owner1 = owner(1);
+
+			// owners propose concurrently in their own slots
+			AcceptPacket accept1 = owner1.propose(MEMBERS, new RequestPacket(
+					"one", false));
+			AcceptPacket accept0 = owner0.propose(MEMBERS, new RequestPacket(
+					"zero", false));
+			Assert.assertEquals(1, accept1.slot);
+			Assert.assertEquals(0, accept0.slot);
+			Assert.assertEquals(4, owner1.getNextProposalSlot());
+
+			PValuePacket decision1 = acceptOwned(owner1, accept1, acceptors,
+					1, 2);
+			PValuePacket decision0 = acceptOwned(owner0, accept0, acceptors,
+					0, 1);
+			Assert.assertEquals(PaxosPacketType.DECISION, decision1.getType());
+			Assert.assertEquals(PaxosPacketType.DECISION, decision0.getType());
+			// owned accepts do not change acceptor ballots
+			for (PaxosAcceptor acceptor : acceptors)
+				Assert.assertEquals(new Ballot(0, 0), acceptor.getBallot());
+
+			// slot 1 waits for slot 0 to execute
+			Assert.assertNull(acceptors[2].putAndRemoveNextExecutable(
+					decision1, false));
+			Assert.assertEquals("zero", acceptors[2]
+					.putAndRemoveNextExecutable(decision0, false).requestValue);
+			Assert.assertEquals("one", acceptors[2]
+					.putAndRemoveNextExecutable(null, false).requestValue);
+		}
+
+		@Test
+		public void testSkipFillsUnusedSlotsWithNoops() {
+			PaxosCoordinatorState owner0 = owner(0);
+			// owner 1 used slot 4, so my slots 0 and 3 must not hold it up
+			ArrayList<AcceptPacket> noops = owner0.skipTo(MEMBERS, 4, "name",
+					0);
+			Assert.assertEquals(2, noops.size());
+			Assert.assertEquals(0, noops.get(0).slot);
+			Assert.assertEquals(3, noops.get(1).slot);
+			for (AcceptPacket noop : noops)
+				Assert.assertEquals(NO_OP, noop.requestValue);
+			Assert.assertEquals(6, owner0.getNextProposalSlot());
+			// already past slot 4
+			Assert.assertNull(owner0.skipTo(MEMBERS, 4, "name", 0));
+			Assert.assertEquals(6,
+					owner0.propose(MEMBERS, new RequestPacket("req", false)).slot);
+		}
+
+		@Test
+		public void testTakeoverFromDeadOwner() {
+			PaxosAcceptor[] acceptors = acceptors();
+			PaxosCoordinatorState owner0 = owner(0), owner2 = owner(2);
+			// owner 0 gets slot 0 accepted by a majority and dies
+			AcceptPacket accept0 = owner0.propose(MEMBERS, new RequestPacket(
+					"zero", false));
+			acceptOwned(owner0, accept0, acceptors, 0, 1);
+			// owner 2 got slot 2 accepted only by itself
+			AcceptPacket accept2 = owner2.propose(MEMBERS, new RequestPacket(
+					"two", false));
+			acceptOwned(owner2, accept2, acceptors, 2);
+
+			// node 1 takes over with a higher ballot for all slots
+			PaxosCoordinatorState pcs = new PaxosCoordinatorState(1, 1, 0,
+					MEMBERS, null, null, null);
+			Ballot ballot = pcs.prepare(MEMBERS);
+			PreparePacket prepare = new PreparePacket(ballot, 0);
+			Assert.assertFalse(pcs.isPrepareAcceptedByMajority(
+					acceptors[1].handlePrepare(prepare, 1), MEMBERS));
+			Assert.assertTrue(pcs.isPrepareAcceptedByMajority(
+					acceptors[2].handlePrepare(prepare, 2), MEMBERS));
+			pcs.combinePValuesOntoProposals(MEMBERS, "name", 0);
+			ArrayList<AcceptPacket> accepts = pcs
+					.spawnCommandersForProposals();
+
+			// accepted values carry over and the unused slot becomes a no-op
+			Assert.assertEquals(3, accepts.size());
+			Assert.assertEquals("zero", accepts.get(0).requestValue);
+			Assert.assertEquals(NO_OP, accepts.get(1).requestValue);
+			Assert.assertEquals("two", accepts.get(2).requestValue);
+			for (AcceptPacket accept : accepts)
+				Assert.assertEquals(ballot, accept.ballot);
+			Assert.assertEquals(3, pcs.getNextProposalSlot());
+
+			// a late owned accept from owner 2 is now preempted
+			AcceptPacket late = owner2.propose(MEMBERS, new RequestPacket(
+					"late", false));
+			PValuePacket preempted = acceptOwned(owner2, late, acceptors, 1);
+			Assert.assertEquals(PaxosPacketType.PREEMPTED, preempted.getType());
+			Assert.assertFalse(acceptors[1].getMaxAcceptedSlot() == late.slot);
+		}
+	}
 }
@@ -20,8 +20,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,6 +54,7 @@ import edu.umass.cs.gigapaxos.paxosutil.LogMessagingTask;
 import edu.umass.cs.gigapaxos.paxosutil.MessagingTask;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosInstanceCreationException;
 import edu.umass.cs.gigapaxos.paxosutil.PrepareReplyAssembler;
+import edu.umass.cs.gigapaxos.paxosutil.Quorum;
 import edu.umass.cs.gigapaxos.paxosutil.RequestInstrumenter;
 import edu.umass.cs.gigapaxos.paxosutil.SlotBallotState;
 import edu.umass.cs.gigapaxos.testing.TESTPaxosApp;
@@ -185,6 +188,8 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 	private PaxosAcceptor paxosState = null;
 	// uses just a single pointer's worth of space unless I am a coordinator
 	private PaxosCoordinator coordinator = null;
+	// true while executeParallel waits with this instance's monitor released
+	private boolean executingParallel = false;
 	/************ End of non-final paxos state ***********************************************/
 
 	// static, so does not count towards space.
@@ -275,6 +280,18 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		return this.groupMembers;
 	}
 
+	/* Not stored in the instance as it is needed only when creating
+	 * coordinator state and most groups use the default. */
+	private Quorum getQuorum() {
+		return this.paxosManager != null ? this.paxosManager.getQuorum(
+				this.getPaxosID(), this.version, this.groupMembers.length) : null;
+	}
+
+	private Set<Integer> getWitnesses() {
+		return this.paxosManager != null ? this.paxosManager.getWitnesses()
+				: null;
+	}
+
 	protected String getNodeID() {
 		return this.paxosManager != null ? this.paxosManager.intToString(this
 				.getMyID()) : "" + getMyID();
@@ -311,6 +328,14 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 	 * @return True.
 	 */
 	protected synchronized boolean synchronizedNoop() {
+		// also wait for a parallel execution that released the monitor
+		while (this.executingParallel)
+			try {
+				this.wait();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				break;
+			}
 		return true;
 	}
 
@@ -420,11 +445,26 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 	 * @param mode
 	 * @throws JSONException
 	 */
-	private void handlePaxosMessage(PaxosPacket pp, SyncMode mode)
+	private void handlePaxosMessage(final PaxosPacket pp, final SyncMode mode)
 			throws JSONException {
 		long methodEntryTime = System.currentTimeMillis();
 		assert (pp != null || !mode.equals(SyncMode.DEFAULT_SYNC));
 
+		/* With sharding, messages and pokes alike must be handled by the
+		 * group's shard so that decisions are executed by a single thread in
+		 * order. */
+		if (this.paxosManager.handOff(this.getPaxosID(), pp, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					handlePaxosMessage(pp, mode);
+				} catch (JSONException je) {
+					je.printStackTrace();
+				}
+			}
+		}))
+			return;
+
 		PaxosPacket.PaxosPacketType msgType = pp != null ? pp.getType()
 				: PaxosPacket.PaxosPacketType.NO_TYPE;
 
@@ -486,6 +526,8 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 				: this.pokeLocalCoordinator()
 				// neither during recovery
 				: null);
+		if (mtasks[0] == null && !recovery && !isPoke)
+			mtasks[0] = this.checkRunForSlotOwner();
 
 		MessagingTask mtask = null;
 		MessagingTask[] batchedTasks = null;
@@ -502,6 +544,8 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 			break;
 		// coordinator --> replica
 		case DECISION:
+			if (!recovery)
+				this.skipOwnedSlots((PValuePacket) pp);
 			mtask = handleCommittedRequest((PValuePacket) pp);
 			// send nothing, but log decision
 			break;
@@ -607,11 +651,17 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 
 		this.coordinator = null;// new PaxosCoordinator(); // just a shell class
 		// initial coordinator is assumed, not prepared
-		if (slotBallot == null && roundRobinCoordinator(0) == this.getMyID())
+		if (slotBallot == null && roundRobinCoordinator(0) == this.getMyID()
+				&& !MULTI_LEADER)
 			this.coordinator = PaxosCoordinator.createCoordinator(0,
 					this.getMyID(), getMembers(), (initialState != null
 							|| nullCheckpointStateEnabled() ? 1 : 0), true,
-					this.getNodeID()); // slotBallot==null
+					this.getNodeID(), this.getQuorum(),
+					this.getWitnesses()); // slotBallot==null
+		// every owner is an initial coordinator in multi-leader mode
+		else if (slotBallot == null && MULTI_LEADER && !this.isWitness())
+			this.createSlotOwner(initialState != null
+					|| nullCheckpointStateEnabled() ? 1 : 0);
 		/* Note: We don't have to create coordinator state here. It will get
 		 * created if needed when the first external (non-recovery) packet is
 		 * received. But we create the very first coordinator here as otherwise
@@ -677,7 +727,15 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 				hri });
 		this.coordinator = hri.coordBallot != null
 				&& hri.coordBallot.coordinatorID == getMyID() ? PaxosCoordinator
-				.hotRestore(this.coordinator, hri) : null;
+				.hotRestore(this.coordinator, hri, this.getQuorum(),
+						this.getWitnesses()) : null;
+		if (MULTI_LEADER && hri.isCreateHRI())
+			this.coordinator = !this.isWitness() ? this
+					.createSlotOwner(hri.nextProposalSlot) : null;
+		else if (MULTI_LEADER && hri.coordBallot != null
+				&& hri.coordBallot.ballotNumber == 0)
+			PaxosCoordinator.setSlotStride(this.coordinator,
+					this.getNumSlotOwners());
 		this.paxosState = new PaxosAcceptor(hri.accBallot.ballotNumber,
 				hri.accBallot.coordinatorID, hri.accSlot, hri);
 		this.paxosState.setActive(); // no recovery
@@ -740,6 +798,56 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 			this.sendMessagingTask(mtask);
 	}
 
+	/* Invoked when a previously deferred coordinator takeover is due. Unlike a
+	 * poke, this always rechecks whether to run for coordinator. */
+	protected void retryTakeover() {
+		if (this.paxosState.isStopped()
+				|| PaxosCoordinator.isActive(this.coordinator))
+			return;
+		this.sendMessagingTask(this.checkRunForCoordinator());
+	}
+
+	/* Invoked by the coordinator balancer to take over coordinatorship from a
+	 * live but overloaded coordinator. The old coordinator simply gets
+	 * preempted by the higher ballot. Returns false if nothing was done. */
+	protected boolean runForCoordinator() {
+		if (this.paxosState.isStopped()
+				|| PaxosCoordinator.isActive(this.coordinator))
+			return false;
+		MessagingTask multicastPrepare = this.checkRunForCoordinator(true);
+		this.sendMessagingTask(multicastPrepare);
+		return multicastPrepare != null;
+	}
+
+	/* Current coordinator and slot as seen by this node's acceptor, used by
+	 * the coordinator balancer to estimate per-node coordinator load. */
+	protected int getBallotCoord() {
+		return this.paxosState.getBallotCoord();
+	}
+
+	protected int getSlot() {
+		return this.paxosState.getSlot();
+	}
+
+	protected boolean isWitness() {
+		return this.paxosManager.amWitness();
+	}
+
+	/* Replaces digested pvalues, presumably from witnesses, with the
+	 * corresponding request if available locally. A coordinator can not get
+	 * elected until every carryover pvalue has a request value. */
+	private void undigest(PrepareReplyPacket prepareReply) {
+		for (Map.Entry<Integer, PValuePacket> entry : prepareReply.accepted
+				.entrySet()) {
+			if (!entry.getValue().isDigested())
+				continue;
+			PValuePacket pvalue = this.paxosManager.undigest(entry.getValue(),
+					this.getPaxosID());
+			if (pvalue != null)
+				entry.setValue(pvalue);
+		}
+	}
+
 	// will send a noop message to self to force event-driven actions
 	protected void poke(boolean forceSync) {
 		try {
@@ -802,6 +910,29 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 			.getGlobalBoolean(PC.DIGEST_REQUESTS)
 			&& !Config.getGlobalBoolean(PC.FLIP_BATCHED_ACCEPTS);
 
+	/* Accepts for requests queued at the coordinator behind a full pipelining
+	 * window if the window now has room, or null. Queued requests are never
+	 * broadcasted, so there is nothing to digest here. */
+	private AcceptPacket[] proposeQueued() {
+		ArrayList<AcceptPacket> accepts = PaxosCoordinator.proposeQueued(
+				this.coordinator, this.groupMembers, this.paxosState.getSlot());
+		if (accepts == null || accepts.isEmpty())
+			return null;
+		for (AcceptPacket accept : accepts)
+			this.getPaxosManager().setIssuedAccept(accept);
+		return accepts.toArray(new AcceptPacket[0]);
+	}
+
+	/* Accepts freed up from the pipelining window are sent individually so
+	 * that they can still be batched across groups. */
+	private void sendQueuedAccepts() {
+		AcceptPacket[] accepts = this.proposeQueued();
+		if (accepts != null)
+			for (AcceptPacket accept : accepts)
+				this.sendMessagingTask(new MessagingTask(this.groupMembers,
+						accept));
+	}
+
 	/* "Phase0"->Phase2a: Event: Received a proposal [request, slot] from any
 	 * node.
 	 * 
@@ -817,8 +948,14 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		MessagingTask[] mtasks = new MessagingTask[2];
 		RequestInstrumenter.received(proposal, proposal.getForwarderID(),
 				this.getMyID());
-		if (PaxosCoordinator.exists(this.coordinator,
-				this.paxosState.getBallot())) {
+		boolean ownsSlots = this.ownsSlots();
+		// multi-leader: broadcasted requests are proposed by the entry replica
+		if (ownsSlots && proposal.isBroadcasted()
+				&& proposal.getEntryReplica() != this.getMyID())
+			return mtasks;
+		if (ownsSlots
+				|| PaxosCoordinator.exists(this.coordinator,
+						this.paxosState.getBallot())) {
 			// multicast ACCEPT to all
 			proposal.addDebugInfoDeep("a");
 			AcceptPacket multicastAccept = this.getPaxosManager()
@@ -840,7 +977,9 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 								this,
 								multicastAccept.getSummary(log
 										.isLoggable(Level.FINER)) });
-			}
+			} else
+				// queued behind a full window unless the window has room
+				this.sendQueuedAccepts();
 		} else if (!proposal.isBroadcasted()) { // else unicast to current
 												// coordinator
 			log.log(Level.FINER,
@@ -955,6 +1094,8 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 			return null;
 		}
 		this.paxosManager.heardFrom(prepareReply.acceptor); // FD optimization,
+		if (this.paxosManager.hasWitnesses())
+			this.undigest(prepareReply);
 		MessagingTask mtask = null;
 		ArrayList<ProposalPacket> preActiveProposals = null;
 		ArrayList<AcceptPacket> acceptList = null;
@@ -972,7 +1113,7 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 						(preActiveProposals.toArray(new PaxosPacket[0])));
 		} else if ((acceptList = PaxosCoordinator.handlePrepareReply(
 				this.coordinator, prepareReply, this.groupMembers)) != null
-				&& !acceptList.isEmpty()) {
+				&& !this.addQueuedAccepts(acceptList).isEmpty()) {
 			mtask = new MessagingTask(this.groupMembers,
 					((acceptList).toArray(new PaxosPacket[0])));
 			// can't have previous accepts as just became coordinator
@@ -995,6 +1136,14 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		return mtask; // Could be unicast or multicast
 	}
 
+	private ArrayList<AcceptPacket> addQueuedAccepts(
+			ArrayList<AcceptPacket> acceptList) {
+		AcceptPacket[] queued = this.proposeQueued();
+		if (queued != null)
+			acceptList.addAll(Arrays.asList(queued));
+		return acceptList;
+	}
+
 	private static final boolean GC_MAJORITY_EXECUTED = Config
 			.getGlobalBoolean(PC.GC_MAJORITY_EXECUTED);
 
@@ -1014,7 +1163,11 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		// accept.batchSize()+1);
 
 		AcceptPacket copy = accept;
-		if (DIGEST_REQUESTS && !accept.hasRequestValue()
+		if (this.isWitness())
+			// witnesses accept and log only the digest
+			accept = accept.hasRequestValue() ? accept.digest(this.paxosManager
+					.getMessageDigest()) : accept;
+		else if (DIGEST_REQUESTS && !accept.hasRequestValue()
 				&& (accept = this.paxosManager.match(accept)) == null) {
 			log.log(Level.FINE, "{0} received unmatched accept ", new Object[] {
 					this, copy.getSummary(log.isLoggable(Level.FINE)) });
@@ -1027,12 +1180,13 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 					this, accept.getSummary() });
 
 		// DelayProfiler.updateCount("C_ACCEPTS_RCVD", accept.batchSize()+1);
-		assert (accept.hasRequestValue());
+		assert (accept.hasRequestValue() || this.isWitness());
 
 		if (instrument(10))
 			DelayProfiler.updateMovAvg("#batched", accept.batchSize() + 1);
 		if ((this.paxosState.getAccept(accept.slot) == null)
-				&& (this.paxosState.getSlot() - accept.slot <= 0))
+				&& (this.paxosState.getSlot() - accept.slot <= 0)
+				&& !this.isWitness())
 			this.paxosManager.incrOutstanding(accept.addDebugInfoDeep("a")); // stats
 
 		if (EXECUTE_UPON_ACCEPT) { // only for testing
@@ -1047,9 +1201,10 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		Ballot ballot = null;
 		PValuePacket prev = this.paxosState.getAccept(accept.slot);
 		try {
-			ballot = !EXECUTE_UPON_ACCEPT ? this.paxosState
-					.acceptAndUpdateBallot(accept, this.getMyID())
-					: this.paxosState.getBallot();
+			ballot = EXECUTE_UPON_ACCEPT ? this.paxosState.getBallot()
+					: this.isOwnedAccept(accept) ? this.paxosState.acceptOwned(
+							accept, this.getMyID()) : this.paxosState
+							.acceptAndUpdateBallot(accept, this.getMyID());
 		} catch (Error e) {
 			log.severe(this + " : " + e.getMessage());
 			Util.suicide(e.getMessage());
@@ -1060,6 +1215,7 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		this.garbageCollectAccepted(accept.getMedianCheckpointedSlot());
 		if (accept.isRecovery())
 			return null; // recovery ACCEPTS do not need any reply
+		this.skipOwnedSlots(accept);
 
 		AcceptReplyPacket acceptReply = new AcceptReplyPacket(this.getMyID(),
 				ballot, accept.slot,
@@ -1124,7 +1280,8 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 											.putPaxosID(getPaxosID(),
 													getVersion())))),
 					batchedAccept.getMedianCheckpointedSlot());
-			AcceptPacket accept = this.paxosManager.match(digestedAccept);
+			AcceptPacket accept = this.isWitness() ? digestedAccept
+					: this.paxosManager.match(digestedAccept);
 			if (accept != null) {
 				Level level = Level.FINE;
 				log.log(level,
@@ -1206,6 +1363,7 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		if (committedPValue.getType() == PaxosPacket.PaxosPacketType.DECISION) {
 			committedPValue.addDebugInfo("d");
 			// this.handleCommittedRequest(committedPValue);
+			this.sendQueuedAccepts();
 			multicastDecision = new MessagingTask(this.groupMembers,
 					committedPValue); // inform everyone of the decision
 			log.log(Level.FINE,
@@ -1260,6 +1418,22 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 						new Object[] { this, acceptReply.ballot.coordinatorID,
 				committedPValue.getSummary() });
 		}
+		// requests queued here are better off with the new coordinator
+		LinkedList<RequestPacket> queued = committedPValue.getType() == PaxosPacket.PaxosPacketType.PREEMPTED ? PaxosCoordinator
+				.drainQueued(this.coordinator) : null;
+		if (queued != null) {
+			for (RequestPacket request : queued)
+				request.setForwarderID(this.getMyID()).addDebugInfo("f");
+			if (unicastPreempted != null)
+				queued.addFirst((RequestPacket) unicastPreempted.msgs[0]);
+			unicastPreempted = new MessagingTask(
+					acceptReply.ballot.coordinatorID,
+					queued.toArray(new PaxosPacket[0]));
+			log.log(Level.INFO,
+					"{0} forwarding {1} queued requests to new coordinator {2}",
+					new Object[] { this, queued.size(),
+							acceptReply.ballot.coordinatorID });
+		}
 
 		if (EXECUTE_UPON_ACCEPT)
 			return null;
@@ -1290,7 +1464,9 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 			MessagingTask mtask = this.handleAcceptReply(new AcceptReplyPacket(
 					batchedAR.acceptor, batchedAR.ballot, slot,
 					batchedAR.maxCheckpointedSlot, 0, batchedAR));
-			assert (mtask == null || mtask.msgs.length == 1);
+			// more than one only if forwarding queued requests
+			assert (mtask == null || mtask.msgs.length == 1 || mtask.msgs[0]
+					.getType() == PaxosPacket.PaxosPacketType.REQUEST);
 
 			if (mtask != null)
 				// preempted noop
@@ -1504,6 +1680,9 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		}
 	};
 
+	private static final boolean PARALLEL_EXECUTION = Config
+			.getGlobalBoolean(PC.PARALLEL_EXECUTION);
+
 	private static final int AGREEMENT_LATENCY_SAMPLING = 100;
 	private static final int EXECUTION_LATENCY_SAMPLING = 100;
 
@@ -1517,74 +1696,126 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 	 * 
 	 * This method is protected, not private, because it needs to be called by
 	 * the logger after it is done logging the committed request. Having the
-	 * logger call this method is only space-efficient design alternative. */
+	 * logger call this method is only space-efficient design alternative.
+	 * 
+	 * With PARALLEL_EXECUTION, extraction still happens one decision at a time
+	 * but execution is deferred until the next decision that needs a
+	 * checkpoint (or until no more decisions are executable), and the deferred
+	 * decisions are executed together by ConflictAwareExecutor. The checkpoint
+	 * is taken only after all of them have finished, so checkpoints still
+	 * reflect exactly the decisions up to the checkpoint slot. The monitor is
+	 * released while waiting for them, so concurrent invocations meanwhile
+	 * only record their decision for this invocation to extract later. */
 	protected/* synchronized */MessagingTask extractExecuteAndCheckpoint(
 			PValuePacket loggedDecision) {
 		long methodEntryTime = System.currentTimeMillis();
 		int execCount = 0;
 		PValuePacket inorderDecision = null;
+		// decisions extracted but not yet executed in parallel mode
+		// witnesses only extract decisions, they never execute them
+		boolean witness = this.isWitness();
+		ArrayList<PValuePacket> unexecuted = PARALLEL_EXECUTION
+				&& !EXECUTE_UPON_ACCEPT && !witness ? new ArrayList<PValuePacket>()
+				: null;
 		synchronized (this) {
 			if (this.paxosState.isStopped())
 				return null;
-			// extract next in-order decision
-			while ((inorderDecision = this.paxosState
-					.putAndRemoveNextExecutable(loggedDecision)) != null) {
-				log.log(inorderDecision.isStopRequest() ? Level.FINE
-						: Level.FINE, "{0} received in-order commit {1} {2}",
-						new Object[] { this, inorderDecision.slot,
-								inorderDecision.getSummary() });
-				String pid = this.getPaxosID();
-
-				if (inorderDecision.getEntryReplica() == this.getMyID()
-						&& instrument(AGREEMENT_LATENCY_SAMPLING))
-					DelayProfiler.updateDelay("agreement",
-							inorderDecision.getEntryTime());
-				updateRequestBatcher(inorderDecision, loggedDecision == null);
-
-				long t = System.currentTimeMillis();
-				/* Execute it until successful, we are *by design* stuck
-				 * otherwise. Execution must be atomic with extraction and
-				 * possible checkpointing below. */
-				if (!EXECUTE_UPON_ACCEPT) // used for testing
-					if (execute(this, this.paxosManager, this.getApp(),
-							inorderDecision, inorderDecision.isRecovery()))
-						// +1 for each batch, not for each constituent
-						// requestValue
-						execCount++;
-					// unclean kill
-					else if (this.forceStop())
-						break;
+			if (this.executingParallel) {
+				if (loggedDecision != null)
+					this.paxosState.putDecision(loggedDecision);
+				return loggedDecision != null && !loggedDecision.isRecovery() ? this
+						.syncLongDecisionGaps(loggedDecision) : null;
+			}
+			do {
+				// extract next in-order decision
+				while ((inorderDecision = this.paxosState
+						.putAndRemoveNextExecutable(loggedDecision, witness)) != null) {
+					log.log(inorderDecision.isStopRequest() ? Level.FINE
+							: Level.FINE, "{0} received in-order commit {1} {2}",
+							new Object[] { this, inorderDecision.slot,
+									inorderDecision.getSummary() });
+					String pid = this.getPaxosID();
 
-				if (instrument(EXECUTION_LATENCY_SAMPLING))
-					DelayProfiler.updateDelay(AbstractPaxosLogger.appName
-							+ ".execute", t, inorderDecision.batchSize() + 1);
+					if (inorderDecision.getEntryReplica() == this.getMyID()
+							&& instrument(AGREEMENT_LATENCY_SAMPLING))
+						DelayProfiler.updateDelay("agreement",
+								inorderDecision.getEntryTime());
+					updateRequestBatcher(inorderDecision, loggedDecision == null);
+
+					long t = System.currentTimeMillis();
+					if (unexecuted != null) {
+						unexecuted.add(inorderDecision);
+						/* Defer execution until a quiescent point, i.e., a
+						 * decision that needs a checkpoint, or until no more
+						 * decisions are executable. */
+						if (!shouldCheckpoint(inorderDecision))
+							continue;
+						int numDecisions = unexecuted.size();
+						// records the execution delay of all of them
+						boolean executed = executeParallel(this, unexecuted);
+						unexecuted.clear();
+						if (executed)
+							execCount += numDecisions;
+						// unclean kill
+						else if (this.forceStop())
+							break;
+					}
+					/* Execute it until successful, we are *by design* stuck
+					 * otherwise. Execution must be atomic with extraction and
+					 * possible checkpointing below. */
+					else if (!EXECUTE_UPON_ACCEPT && !witness) { // used for testing
+						boolean executed = execute(this, this.paxosManager,
+								this.getApp(), inorderDecision,
+								inorderDecision.isRecovery());
+						if (instrument(EXECUTION_LATENCY_SAMPLING))
+							DelayProfiler.updateDelay(AbstractPaxosLogger.appName
+									+ ".execute", t, inorderDecision.batchSize() + 1);
+						if (executed)
+							// +1 for each batch, not for each constituent
+							// requestValue
+							execCount++;
+						// unclean kill
+						else if (this.forceStop())
+							break;
+					}
 
-				// getState must be atomic with the execution
-				if (shouldCheckpoint(inorderDecision)
-						&& !inorderDecision.isRecovery())
+					// getState must be atomic with the execution
+					if (shouldCheckpoint(inorderDecision)
+							&& !inorderDecision.isRecovery())
 
-					consistentCheckpoint(
-							this,
-							inorderDecision.isStopRequest(),
-							pid,
-							this.version,
-							this.paxosManager
-									.getStringNodesFromIntArray(this.groupMembers),
-							inorderDecision.slot, this.paxosState.getBallot(), null,
-							this.paxosState
-									.getGCSlot());
-
-				/* If stop request, copy epoch final state and kill self. If
-				 * copy is not successful, we could get stuck trying to create
-				 * future versions for this paxosID. */
-				if (inorderDecision.isStopRequest()
-						&& this.paxosManager.getPaxosLogger()
-								.copyEpochFinalCheckpointState(getPaxosID(),
-										getVersion())
-						&& (logStop(inorderDecision.getEntryTime())))
-					// this.paxosManager.kill(this, true);
+						consistentCheckpoint(
+								this,
+								inorderDecision.isStopRequest(),
+								pid,
+								this.version,
+								this.paxosManager
+										.getStringNodesFromIntArray(this.groupMembers),
+								inorderDecision.slot, this.paxosState.getBallot(), null,
+								this.paxosState
+										.getGCSlot());
+
+					/* If stop request, copy epoch final state and kill self. If
+					 * copy is not successful, we could get stuck trying to create
+					 * future versions for this paxosID. */
+					if (inorderDecision.isStopRequest()
+							// witnesses have no final state to offer
+							&& (witness || this.paxosManager.getPaxosLogger()
+									.copyEpochFinalCheckpointState(getPaxosID(),
+											getVersion()))
+							&& (logStop(inorderDecision.getEntryTime())))
+						// this.paxosManager.kill(this, true);
+						break;
+				}
+				// execute any remaining decisions short of a checkpoint
+				if (unexecuted == null || unexecuted.isEmpty())
 					break;
-			}
+				if (executeParallel(this, unexecuted))
+					execCount += unexecuted.size();
+				else
+					this.forceStop();
+				unexecuted.clear();
+				// extract decisions recorded while the monitor was released
+			} while (inorderDecision == null);
 			this.paxosState.assertSlotInvariant();
 		}
 		/* The kill has been moved out of the synchronized block above as the
@@ -1619,7 +1850,10 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 			return pism.canCheckpoint() ?
 				 AbstractPaxosLogger.checkpoint(pism.getPaxosManager()
 						.getPaxosLogger(), isStop, paxosID, version, members,
-						slot, ballot, state!=null ? state : pism.getApp().checkpoint(paxosID), gcSlot)
+						slot, ballot,
+						// witnesses checkpoint only slot and ballot
+						pism.isWitness() ? null : state != null ? state : pism
+								.getApp().checkpoint(paxosID), gcSlot)
 						: null;
 		}
 	}
@@ -1643,7 +1877,8 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 				&& !inorderDecision.isRecovery() && !handledCP) {
 			assert (inorderDecision.getEntryTime() <= System
 					.currentTimeMillis()) : inorderDecision.getEntryTime();
-			RequestBatcher.updateSleepDuration(inorderDecision.getEntryTime());
+			this.paxosManager.getRequestBatcher().updateSleepDuration(
+					this.getPaxosID(), inorderDecision.getEntryTime());
 		}
 	}
 
@@ -1661,89 +1896,156 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		boolean shouldLog = instrument(5 * getCPI(
 				paxosManager.getInterCheckpointInterval(),
 				decision.getPaxosID()));
-		for (RequestPacket requestPacket : decision.getRequestPackets()) {
-			boolean executed = false;
-			int retries = 0;
-			do {
-				try {
-					/* Note: The conversion below is an important reason for
-					 * paxos applications to use RequestPacket as opposed to
-					 * propose(String requestValue,...). Otherwise, we have to
-					 * unnecessarily encapsulate the string first in a
-					 * RequestPacket in PaxosManager and then convert the string
-					 * back to InterfaceRequest using the app's getRequest
-					 * method. */
-					Request request =
-					// don't convert to and from string unnecessarily
-					!requestPacket.shouldReturnRequestValue() 
-					|| requestPacket.requestValue.equals(Request.NO_OP) ? requestPacket
-					// ask app to translate string to InterfaceRequest
-							: getInterfaceRequest(app,
-									requestPacket.getRequestValue());
-					Level level = Level.FINE;
-					log.log(level,
-							"{0} executing (in-order) decision {1}",
-							new Object[] {
-									pism,
-									log.isLoggable(level) ? (request instanceof SummarizableRequest ? ((SummarizableRequest) request)
-											.getSummary() : requestPacket
-											.getSummary())
-											: null });
-
-					if (!((decision instanceof PValuePacket) && ((PValuePacket) decision)
-							.isRecovery())
-							&& (shouldLog && !(shouldLog = false))) {
-						log.log(Level.INFO, "{0} {1}",
-								new Object[] { DelayProfiler.getStats(),
-										RTTEstimator.print() });
-					}
+		if (!((decision instanceof PValuePacket) && ((PValuePacket) decision)
+				.isRecovery()) && shouldLog)
+			log.log(Level.INFO, "{0} {1}", new Object[] {
+					DelayProfiler.getStats(), RTTEstimator.print() });
+
+		for (RequestPacket requestPacket : decision.getRequestPackets())
+			if (!executeRequest(pism, paxosManager, app, decision,
+					requestPacket, null, recoveryMode))
+				return false;
+			// don't try any more if stopped
+			else if (pism != null && pism.isStopped())
+				return true;
+		return true;
+	}
+
+	/* Converts requestPacket to the app's request type if needed. Note: The
+	 * conversion below is an important reason for paxos applications to use
+	 * RequestPacket as opposed to propose(String requestValue,...). Otherwise,
+	 * we have to unnecessarily encapsulate the string first in a RequestPacket
+	 * in PaxosManager and then convert the string back to InterfaceRequest
+	 * using the app's getRequest method. */
+	private static final Request toRequest(Replicable app,
+			RequestPacket requestPacket) {
+		// don't convert to and from string unnecessarily
+		return !requestPacket.shouldReturnRequestValue()
+				|| requestPacket.requestValue.equals(Request.NO_OP) ? requestPacket
+		// ask app to translate string to InterfaceRequest
+				: getInterfaceRequest(app, requestPacket.getRequestValue());
+	}
+
+	/* Executes a single (unbatched) request within decision, retrying until
+	 * successful. The request argument is the already converted app request
+	 * or null, in which case it is converted here. Returns false only if the
+	 * retry limit was exceeded. */
+	private static final boolean executeRequest(PaxosInstanceStateMachine pism,
+			PaxosManager<?> paxosManager, Replicable app,
+			RequestPacket decision, RequestPacket requestPacket,
+			Request request, boolean recoveryMode) {
+		boolean executed = false;
+		int retries = 0;
+		do {
+			try {
+				if (request == null)
+					request = toRequest(app, requestPacket);
+				Level level = Level.FINE;
+				log.log(level,
+						"{0} executing (in-order) decision {1}",
+						new Object[] {
+								pism,
+								log.isLoggable(level) ? (request instanceof SummarizableRequest ? ((SummarizableRequest) request)
+										.getSummary() : requestPacket
+										.getSummary())
+										: null });
+
+				// TESTPaxosApp tracks noops, so it needs to be fed them
+				executed = (requestPacket.requestValue.equals(Request.NO_OP) && !(app instanceof TESTPaxosApp))
+						|| app.execute(request,
+						// do not reply if recovery or not entry replica
+								(recoveryMode || (requestPacket
+										.getEntryReplica() != paxosManager
+										.getMyID())));
+				paxosManager.executed(requestPacket,
+						request,
+						// send response if entry replica and !recovery
+						requestPacket.getEntryReplica() == paxosManager
+								.getMyID() && !recoveryMode);
+				assert (requestPacket.getEntryReplica() > 0) : requestPacket;
+			} catch (Exception | Error e) {
+				// must swallow any and all exceptions
+				e.printStackTrace();
+			}
+			if (!executed) {
+				String error = paxosManager.getApp(requestPacket.getPaxosID())
+						+ " failed to execute request, retrying: "
+						+ decision.requestValue;
+				log.severe(error);
+				new RuntimeException(error).printStackTrace();
+			}
+			/* We have to keep trying to execute until executed to preserve
+			 * safety. We have removed the decision from the acceptor and there
+			 * is no going back on that by design (as we assume that invariant
+			 * at many places). One option here is to kill this paxos instance
+			 * after a limited number of retries. The benefit of doing that is
+			 * that we can free up this thread. But it is better to not delete
+			 * the state on disk just yet as kill() would do by default. */
+			if (++retries > RETRY_LIMIT)
+				return false;
+		} while (!executed && waitRetry(RETRY_TIMEOUT));
+		return true;
+	}
 
-					// TESTPaxosApp tracks noops, so it needs to be fed them
-					executed = (requestPacket.requestValue
-							.equals(Request.NO_OP) && !(app instanceof TESTPaxosApp))
-							|| app.execute(request,
-							// do not reply if recovery or not entry replica
-									(recoveryMode || (requestPacket
-											.getEntryReplica() != paxosManager
-											.getMyID())));
-					paxosManager.executed(requestPacket,
-							request,
-							// send response if entry replica and !recovery
-							requestPacket.getEntryReplica() == paxosManager
-									.getMyID() && !recoveryMode);
-					assert (requestPacket.getEntryReplica() > 0) : requestPacket;
-
-					// don't try any more if stopped
-					if (pism != null && pism.isStopped())
-						return true;
+	/* Parallel counterpart of execute for a sequence of in-order decisions
+	 * none of which, except possibly the last, needs a checkpoint. The
+	 * constituent requests of all of the decisions are handed to the
+	 * conflict-aware executor as a single sequence in slot order.
+	 * 
+	 * Unlike execute, we don't skip requests if the instance gets stopped
+	 * midway, e.g., by a concurrent tryPause or by extracting a stop request,
+	 * because all of these decisions have already been extracted from the
+	 * acceptor and must be executed for the app state to be consistent with
+	 * the acceptor's slot. */
+	private static final boolean executeParallel(PaxosInstanceStateMachine pism,
+			ArrayList<PValuePacket> decisions) {
+		final PaxosManager<?> paxosManager = pism.getPaxosManager();
+		final Replicable app = pism.getApp();
+		long t = System.currentTimeMillis();
+		ArrayList<Request> requests = new ArrayList<Request>();
+		ArrayList<BooleanSupplier> tasks = new ArrayList<BooleanSupplier>();
+		for (final PValuePacket decision : decisions)
+			for (final RequestPacket requestPacket : decision
+					.getRequestPackets()) {
+				Request converted = null;
+				try {
+					converted = toRequest(app, requestPacket);
 				} catch (Exception | Error e) {
-					// must swallow any and all exceptions
+					/* Must not abort the other requests. executeRequest will
+					 * retry the conversion like a failed execution, and the
+					 * request meanwhile conflicts with everything. */
 					e.printStackTrace();
 				}
-				if (!executed) {
-					String error = paxosManager.getApp(requestPacket
-							.getPaxosID())
-							+ " failed to execute request, retrying: "
-							+ decision.requestValue;
-					log.severe(error);
-					new RuntimeException(error).printStackTrace();
-				}
-				/* We have to keep trying to execute until executed to preserve
-				 * safety. We have removed the decision from the acceptor and
-				 * there is no going back on that by design (as we assume that
-				 * invariant at many places). One option here is to kill this
-				 * paxos instance after a limited number of retries. The benefit
-				 * of doing that is that we can free up this thread. But it is
-				 * better to not delete the state on disk just yet as kill()
-				 * would do by default. */
-				if (++retries > RETRY_LIMIT)
-					return false;
-			} while (!executed && waitRetry(RETRY_TIMEOUT));
+				final Request request = converted;
+				requests.add(request != null ? request : requestPacket);
+				tasks.add(new BooleanSupplier() {
+					@Override
+					public boolean getAsBoolean() {
+						return executeRequest(pism, paxosManager, app,
+								decision, requestPacket, request,
+								decision.isRecovery());
+					}
+				});
+			}
+		// caller holds pism's monitor
+		boolean executed = false;
+		pism.executingParallel = true;
+		try {
+			executed = paxosManager.getConflictAwareExecutor().executeAll(
+					requests, tasks, pism);
+		} finally {
+			pism.executingParallel = false;
+			pism.notifyAll();
 		}
-		return true;
+		if (instrument(EXECUTION_LATENCY_SAMPLING))
+			DelayProfiler.updateDelay(AbstractPaxosLogger.appName + ".execute",
+					t, requests.size());
+		return executed;
 	}
 
 	private boolean restore(String state) {
+		if (this.isWitness())
+			return true;
 		long t = System.currentTimeMillis();
 		boolean restored = this.getApp().restore(getPaxosID(), state);
 		DelayProfiler.updateDelay(AbstractPaxosLogger.appName + ".restore", t);
@@ -1752,6 +2054,9 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 
 	// Like EEC but invoked upon checkpoint transfer
 	private synchronized MessagingTask handleCheckpoint(StatePacket statePacket) {
+		// can't restore midway through executing; sync will retry
+		if (this.executingParallel)
+			return null;
 		if (statePacket.slotNumber >= this.paxosState.getSlot()) {
 			// put checkpoint in app (like execute)
 			if (!this.restore(statePacket.state))
@@ -1787,6 +2092,9 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 	 * called by an executor task anyway, so blocking should be harmless. */
 	protected synchronized boolean tryForcedCheckpointAndStop() {
 		boolean checkpointed = false;
+		// not caught up if still executing
+		if (this.executingParallel)
+			return checkpointed;
 		// Ugly nesting, not sure how else to do this correctly
 		synchronized (this.paxosState) {
 			synchronized (this.coordinator != null ? this.coordinator
@@ -1828,6 +2136,9 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 	/* Needs to be synchronized so that extractExecuteAndCheckpoint does not
 	 * happen concurrently. Likewise handleCheckpoint. */
 	protected synchronized boolean forceCheckpoint() {
+		// app state is not at any slot while executing
+		if (this.executingParallel)
+			return false;
 		String pid = this.getPaxosID();
 		int cpSlot = this.paxosState.getSlot() - 1;
 		String state = 
@@ -1974,6 +2285,9 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 	}
 
 	private MessagingTask checkRunForCoordinator(boolean forceRun) {
+		// witnesses lack request values to propose
+		if (this.isWitness())
+			return null;
 		Ballot curBallot = this.paxosState.getBallot();
 		MessagingTask multicastPrepare = null;
 		boolean lastCoordinatorLongDead = this.paxosManager
@@ -2019,6 +2333,11 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		notRunYet()
 				// just run
 				|| forceRun) {
+			// pace takeovers from a seemingly dead coordinator
+			if (!forceRun && !notRunYet()
+					&& curBallot.coordinatorID != this.getMyID()
+					&& !this.paxosManager.admitTakeover(this))
+				return null;
 			/* We normally round-robin across nodes for electing coordinators,
 			 * e.g., node 7 will try to become coordinator in ballotnum such
 			 * that ballotnum%7==0 if it suspects that the current coordinator
@@ -2051,7 +2370,8 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 			if ((this.coordinator = PaxosCoordinator.makeCoordinator(
 					this.coordinator, newBallot.ballotNumber,
 					newBallot.coordinatorID, this.groupMembers,
-					this.paxosState.getSlot(), false)) != null) {
+					this.paxosState.getSlot(), false, this.getQuorum(),
+					this.getWitnesses())) != null) {
 				multicastPrepare = new MessagingTask(this.groupMembers,
 						new PreparePacket(newBallot, this.paxosState.getSlot()));
 				this.paxosState.setActive2(); // mark as have run at least once
@@ -2137,16 +2457,138 @@ private String getBallots() {
 	}
 
 	private int roundRobinCoordinator(int ballotnum) {
-		return roundRobinCoordinator(getPaxosID(), this.groupMembers, ballotnum);
+		return roundRobinCoordinator(getPaxosID(), this.groupMembers,
+				ballotnum, this.paxosManager.getWitnesses());
 	}
 
 	protected static final int roundRobinCoordinator(String paxosID, int[] members,
 			int ballotnum) {
+		return roundRobinCoordinator(paxosID, members, ballotnum, null);
+	}
+
+	/* Witnesses are skipped over unless all members are witnesses, which is a
+	 * misconfiguration anyway. */
+	protected static final int roundRobinCoordinator(String paxosID,
+			int[] members, int ballotnum, Set<Integer> witnesses) {
 		// to load balance coordinatorship across groups
 		int randomOffset = paxosID.hashCode();
-		return members[(Math.abs(ballotnum + randomOffset)) % members.length];
+		int index = (Math.abs(ballotnum + randomOffset)) % members.length;
+		for (int i = 0; witnesses != null && !witnesses.isEmpty()
+				&& i < members.length; i++)
+			if (!witnesses.contains(members[(index + i) % members.length]))
+				return members[(index + i) % members.length];
+		return members[index];
+	}
+
+	/************* Start of multi-leader (Mencius-style) methods **************/
+
+	/* In multi-leader mode, the slots of the initial ballot are owned
+	 * round-robin by the non-witness members, and each owner acts as the
+	 * initial-ballot coordinator for its own slots. Only ballot 0 is
+	 * partitioned this way. A higher ballot is prepared as usual for all
+	 * slots, so any takeover carries over the values accepted in owners'
+	 * slots, fills unused slots with no-ops, and reverts the group to a single
+	 * coordinator. */
+	private static final boolean MULTI_LEADER = Config
+			.getGlobalBoolean(PC.MULTI_LEADER);
+
+	protected boolean isMultiLeader() {
+		return MULTI_LEADER && this.paxosState.getBallot().ballotNumber == 0;
+	}
+
+	// true if I am an active owner of initial ballot slots
+	private boolean ownsSlots() {
+		return this.isMultiLeader()
+				&& PaxosCoordinator.isActive(this.coordinator)
+				&& this.coordinator.getBallot().ballotNumber == 0;
+	}
+
+	private int getNumSlotOwners() {
+		return getNumSlotOwners(this.groupMembers,
+				this.paxosManager.getWitnesses());
+	}
+
+	private int slotOwner(int slot) {
+		return slotOwner(slot, this.groupMembers,
+				this.paxosManager.getWitnesses());
+	}
+
+	private static int getNumSlotOwners(int[] members, Set<Integer> witnesses) {
+		int numOwners = 0;
+		for (int member : members)
+			if (witnesses == null || !witnesses.contains(member))
+				numOwners++;
+		// all witnesses is a misconfiguration anyway
+		return numOwners > 0 ? numOwners : members.length;
+	}
+
+	/* Witnesses can not propose, so they own no slots unless all members are
+	 * witnesses. */
+	protected static final int slotOwner(int slot, int[] members,
+			Set<Integer> witnesses) {
+		int numOwners = getNumSlotOwners(members, witnesses);
+		int index = ((slot % numOwners) + numOwners) % numOwners;
+		for (int member : members)
+			if (numOwners == members.length || !witnesses.contains(member))
+				if (index-- == 0)
+					return member;
+		assert (false);
+		return members[0];
+	}
+
+	private PaxosCoordinator createSlotOwner(int fromSlot) {
+		int slot = fromSlot;
+		while (this.slotOwner(slot) != this.getMyID())
+			slot++;
+		this.coordinator = PaxosCoordinator.createCoordinator(0,
+				this.getMyID(), this.groupMembers, slot, true,
+				this.getNodeID(), this.getQuorum(), this.getWitnesses());
+		PaxosCoordinator.setSlotStride(this.coordinator,
+				this.getNumSlotOwners());
+		return this.coordinator;
+	}
+
+	private boolean isOwnedAccept(AcceptPacket accept) {
+		return MULTI_LEADER && accept.ballot.ballotNumber == 0
+				&& this.slotOwner(accept.slot) == accept.ballot.coordinatorID;
+	}
+
+	/* Another owner using a slot means that my unused slots below it would
+	 * hold up execution, so fill them with no-ops. The no-ops are sent
+	 * individually so that they can be batched across groups. */
+	private void skipOwnedSlots(PValuePacket pvalue) {
+		if (pvalue.ballot.coordinatorID == this.getMyID() || !this.ownsSlots())
+			return;
+		ArrayList<AcceptPacket> noops = PaxosCoordinator.skipTo(
+				this.coordinator, this.groupMembers, pvalue.slot,
+				this.getPaxosID(), this.getVersion());
+		if (noops != null)
+			for (AcceptPacket noop : noops)
+				this.sendMessagingTask(new MessagingTask(this.groupMembers,
+						noop));
+	}
+
+	/* Execution is held up at the first unexecuted slot until its owner uses
+	 * it. If that owner is dead, or is me but I have lost my initial-ballot
+	 * coordinator state upon a restart, take over as we would for a dead
+	 * coordinator. */
+	private MessagingTask checkRunForSlotOwner() {
+		if (!this.isMultiLeader() || this.isWitness()
+				|| PaxosCoordinator.ranRecently(this.coordinator))
+			return null;
+		int owner = this.slotOwner(this.paxosState.getSlot());
+		if (owner == this.getMyID() ? this.ownsSlots() : (this.paxosManager
+				.isNodeUp(owner) || (this.getMyID() != getNextCoordinator(1,
+				this.groupMembers) && !this.paxosManager
+				.lastCoordinatorLongDead(owner))))
+			return null;
+		log.log(Level.INFO, "{0} taking over from slot owner {1} at slot {2}",
+				new Object[] { this, owner, this.paxosState.getSlot() });
+		return this.checkRunForCoordinator(true);
 	}
 
+	/************* End of multi-leader (Mencius-style) methods **************/
+
 	/* FIXED: If a majority miss an accept, but any messages are still being
 	 * received at all, then the loss will eventually get fixed by a check
 	 * similar to checkRunForCoordinator that upon receipt of every message will
@@ -2184,7 +2626,7 @@ private String getBallots() {
 	private MessagingTask requestMissingDecisions(int coordinatorID, SyncMode syncMode) {
 		ArrayList<Integer> missingSlotNumbers = this.paxosState
 				.getMissingCommittedSlots(this.paxosManager
-						.getMaxSyncDecisionsGap());
+						.getMaxSyncDecisionsGap(), this.isWitness());
 		// initially we might want to send an empty sync request
 		if (missingSlotNumbers == null)
 			return null; // if stopped
@@ -2327,6 +2769,15 @@ private String getBallots() {
 					.FORCE_SYNC) : null;
 		// I am worse than you
 
+		// no point reading up decisions that would be refused, so let it ask again
+		if (this.paxosManager.isCongested(syncReply.nodeID)) {
+			log.log(Level.INFO,
+					"{0} deferring sync decisions request {1} from congested node {2}",
+					new Object[] { this, syncReply.getSummary(),
+							syncReply.nodeID });
+			return null;
+		}
+
 		// get checkpoint if minMissingSlot > last checkpointed slot
 		MessagingTask checkpoint = null;
 		if (minMissingSlot
@@ -2493,6 +2944,9 @@ private String getBallots() {
 	 * replica that has recovered after a long down time. Action: Send
 	 * checkpoint to requester. */
 	private MessagingTask handleCheckpointRequest(SyncDecisionsPacket syncReply) {
+		// a witness checkpoint has no application state
+		if (this.isWitness())
+			return null;
 		/* The assertion below does not mean that the state we actually get will
 		 * be at lastCheckpointSlot() or higher because, even though getSlot()
 		 * has gotten updated, the checkpoint to disk may not yet have finished.
@@ -2536,7 +2990,7 @@ private String getBallots() {
 		if (this.groupMembers[0] == this.getMyID())
 			this.coordinator = PaxosCoordinator.makeCoordinator(
 					this.coordinator, 0, this.groupMembers[0], groupMembers,
-					initSlot, true);
+					initSlot, true, null, null);
 		this.paxosState = new PaxosAcceptor(0, this.groupMembers[0], initSlot,
 				null);
 	}
@@ -21,8 +21,10 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -39,6 +41,11 @@ import java.util.logging.Level;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
 
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.interfaces.ClientRequest;
@@ -48,11 +55,18 @@ import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.gigapaxos.interfaces.GigapaxosShutdownable;
 import edu.umass.cs.gigapaxos.paxospackets.AcceptPacket;
 import edu.umass.cs.gigapaxos.paxospackets.AcceptReplyPacket;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedCommit;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedPaxosPacket;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPrepare;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPrepareReply;
 import edu.umass.cs.gigapaxos.paxospackets.FailureDetectionPacket;
 import edu.umass.cs.gigapaxos.paxospackets.FindReplicaGroupPacket;
+import edu.umass.cs.gigapaxos.paxospackets.PValuePacket;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
+import edu.umass.cs.gigapaxos.paxospackets.PrepareReplyPacket;
+import edu.umass.cs.gigapaxos.paxospackets.PreparePacket;
+import edu.umass.cs.gigapaxos.paxospackets.ProposalPacket;
 import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
 import edu.umass.cs.gigapaxos.paxosutil.HotRestoreInfo;
@@ -60,19 +74,25 @@ import edu.umass.cs.gigapaxos.paxosutil.IntegerMap;
 import edu.umass.cs.gigapaxos.paxosutil.LargeCheckpointer;
 import edu.umass.cs.gigapaxos.paxosutil.LogMessagingTask;
 import edu.umass.cs.gigapaxos.paxosutil.MessagingTask;
+import edu.umass.cs.gigapaxos.paxosutil.NodeIDDictionary;
 import edu.umass.cs.gigapaxos.paxosutil.OverloadException;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosInstanceCreationException;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosInstanceDestructionException;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosMessenger;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexer;
 import edu.umass.cs.gigapaxos.paxosutil.PendingDigests;
+import edu.umass.cs.gigapaxos.paxosutil.Quorum;
 import edu.umass.cs.gigapaxos.paxosutil.RateLimiter;
 import edu.umass.cs.gigapaxos.paxosutil.RecoveryInfo;
 import edu.umass.cs.gigapaxos.paxosutil.RequestInstrumenter;
+import edu.umass.cs.gigapaxos.paxosutil.RequestTracker;
+import edu.umass.cs.gigapaxos.paxosutil.ShardedExecutor;
 import edu.umass.cs.gigapaxos.paxosutil.StringContainer;
+import edu.umass.cs.gigapaxos.paxosutil.TakeoverScheduler;
 import edu.umass.cs.gigapaxos.testing.TESTPaxosApp;
 import edu.umass.cs.gigapaxos.testing.TESTPaxosConfig;
 import edu.umass.cs.nio.AbstractJSONPacketDemultiplexer;
+import edu.umass.cs.nio.AbstractPacketDemultiplexer;
 import edu.umass.cs.nio.JSONMessenger;
 import edu.umass.cs.nio.JSONNIOTransport;
 import edu.umass.cs.nio.JSONPacket;
@@ -89,9 +109,9 @@ import edu.umass.cs.nio.nioutils.NIOHeader;
 import edu.umass.cs.nio.nioutils.PacketDemultiplexerDefault;
 import edu.umass.cs.nio.nioutils.SampleNodeConfig;
 import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.Diskable;
-import edu.umass.cs.utils.GCConcurrentHashMap;
 import edu.umass.cs.utils.GCConcurrentHashMapCallback;
 import edu.umass.cs.utils.MultiArrayMap;
 import edu.umass.cs.utils.StringLocker;
@@ -155,6 +175,41 @@ public class PaxosManager<NodeIDType> {
 	 */
 	private final ScheduledExecutorService appExecuteThreadPool;
 
+	// non-null only if PARALLEL_EXECUTION is enabled
+	private final ConflictAwareExecutor conflictAwareExecutor;
+	// non-default Flexible Paxos quorums keyed by paxosID:version
+	private final ConcurrentHashMap<String, Quorum> quorums = new ConcurrentHashMap<String, Quorum>();
+	// non-null only if PAXOS_SHARDS is positive
+	private final ShardedExecutor shards;
+	// non-null only if MAX_TAKEOVERS_PER_SECOND is positive
+	private final TakeoverScheduler takeovers = Config
+			.getGlobalInt(PC.MAX_TAKEOVERS_PER_SECOND) > 0 ? new TakeoverScheduler(
+			Config.getGlobalInt(PC.MAX_TAKEOVERS_PER_SECOND)) : null;
+
+	// int IDs of witness nodes as specified by PC.WITNESSES
+	private final Set<Integer> witnesses = new HashSet<Integer>();
+	private boolean amWitness = false;
+
+	// non-null only if COORDINATOR_BALANCE_PERIOD is positive
+	private final CoordinatorBalancer balancer = Config
+			.getGlobalInt(PC.COORDINATOR_BALANCE_PERIOD) > 0 ? new CoordinatorBalancer(
+			this) : null;
+
+	// non-null only if CLIENT_CREDITS is positive
+	private final ClientCredits credits = Config
+			.getGlobalInt(PC.CLIENT_CREDITS) > 0 ? new ClientCredits(
+			Config.getGlobalInt(PC.CLIENT_CREDITS), MAX_OUTSTANDING_REQUESTS,
+			REQUEST_TIMEOUT) : null;
+
+	// in-memory tier for paused instances; null if disabled
+	private final HibernationArena hibernated = Config
+			.getGlobalInt(PC.HIBERNATION_ARENA_MB) > 0
+			&& Config.getGlobalBoolean(PC.PAUSE_OPTION) ? new HibernationArena(
+			Config.getGlobalInt(PC.HIBERNATION_ARENA_MB) * 1024L * 1024,
+			HibernationArena.DEFAULT_SEGMENT_SIZE) : null;
+	// held from evicting hibernated instances until their DB write is done
+	private final Object spillLock = new Object();
+
 	private static final boolean USE_GC_MAP = Config
 			.getGlobalBoolean(PC.USE_GC_MAP);
 
@@ -187,44 +242,49 @@ public class PaxosManager<NodeIDType> {
     }
 
     private class Outstanding {
-		int totalRequestSize = 0;
 		long lastIncremented = System.currentTimeMillis();
-		ConcurrentHashMap<Long, RequestAndCallback> requests = USE_GC_MAP ? new GCConcurrentHashMap<Long, RequestAndCallback>(
+		RequestTracker<RequestAndCallback> requests = USE_GC_MAP ? new RequestTracker<RequestAndCallback>(
 				new GCConcurrentHashMapCallback() {
 					@Override
 					public void callbackGC(Object key, Object value) {
 						PaxosManager.this.callbackRequestTimeout(((RequestAndCallback) value).requestPacket);
 					}
 				}, REQUEST_TIMEOUT)
-				: new ConcurrentHashMap<Long, RequestAndCallback>();
-		HashMap<RequestPacket, RequestAndCallback> conflictIDRequests = new HashMap<RequestPacket, RequestAndCallback>();
-		ConcurrentHashMap<RequestPacket, RequestResponseAndCallback> responses = USE_GC_MAP ? new GCConcurrentHashMap<RequestPacket, RequestResponseAndCallback>(
-				new GCConcurrentHashMapCallback() {
-					@Override
-					public void callbackGC(Object key, Object value) {
-					}
-				}, REQUEST_TIMEOUT)
-				: new ConcurrentHashMap<RequestPacket, RequestResponseAndCallback>();
-
+				: new RequestTracker<RequestAndCallback>();
+		ConcurrentHashMap<RequestPacket, RequestAndCallback> conflictIDRequests = new ConcurrentHashMap<RequestPacket, RequestAndCallback>();
+		// keyed by requestID; a hit must also match the request itself
+		RequestTracker<RequestResponseAndCallback> responses = USE_GC_MAP ? new RequestTracker<RequestResponseAndCallback>(
+				null, REQUEST_TIMEOUT)
+				: new RequestTracker<RequestResponseAndCallback>();
+
+		/* No lock is needed here as putIfAbsent is atomic and a conflicting
+		 * requestID (the only case that needs a second step) is rare. */
 		private void enqueue(RequestAndCallback rc) {
 			assert (rc.requestPacket.getType() != PaxosPacketType.ACCEPT || rc.requestPacket
 					.hasRequestValue());
-			RequestAndCallback prev = null;
-			synchronized (this.requests) {
-				if ((prev = this.requests.putIfAbsent(rc.requestPacket.requestID, rc)) == null)
-					totalRequestSize += rc.requestPacket.lengthEstimate();
-				else if (!rc.requestPacket.equals(prev.requestPacket)) {
+			RequestAndCallback prev = this.requests.putIfAbsent(
+					rc.requestPacket.requestID, rc);
+			if (prev != null) {
+				if (!rc.requestPacket.equals(prev.requestPacket)) {
 					// just skip accept packets
 					if (!(rc.requestPacket instanceof AcceptPacket))
 						// insert in overflow
 						this.conflictIDRequests.put(rc.requestPacket, rc);
-				} 
+				}
 				// replace callback if equal request
-				else if(rc.callback!=null) this.requests.put(rc.requestPacket.requestID, rc);
+				else if (rc.callback != null)
+					this.requests.put(rc.requestPacket.requestID, rc);
 			}
 			this.lastIncremented = System.currentTimeMillis();
 		}
 
+		private RequestResponseAndCallback getResponse(RequestPacket request) {
+			RequestResponseAndCallback rrc = this.responses
+					.get(request.requestID);
+			return rrc != null && rrc.requestPacket.equals(request) ? rrc
+					: null;
+		}
+
 		// called by executed callback
 		private RequestAndCallback dequeue(RequestPacket request) {
 			RequestAndCallback queued = this.requests.get(request.requestID);
@@ -247,11 +307,11 @@ public class PaxosManager<NodeIDType> {
 			.getGlobalLong(PC.REQUEST_TIMEOUT) * 1000;
 	private static final long FADE_OUTSTANDING_TIMEOUT = REQUEST_TIMEOUT;
 
+	/* With USE_GC_MAP, timed out requests are expired by the ticker scheduled
+	 * in initOutstandingMonitor. */
 	private void GC() {
-		if (this.outstanding.requests instanceof GCConcurrentHashMap)
-			((GCConcurrentHashMap<Long, RequestAndCallback>) this.outstanding.requests)
-					.tryGC(REQUEST_TIMEOUT);
-		else if (System.currentTimeMillis() - this.outstanding.lastIncremented > PaxosManager.FADE_OUTSTANDING_TIMEOUT) {
+		if (!USE_GC_MAP
+				&& System.currentTimeMillis() - this.outstanding.lastIncremented > PaxosManager.FADE_OUTSTANDING_TIMEOUT) {
 			if (this.outstanding.requests.size() > MAX_OUTSTANDING_REQUESTS)
 				PaxosConfig.log.severe(this
 						+ " clearing clogged outstanding queue");
@@ -280,6 +340,9 @@ public class PaxosManager<NodeIDType> {
 			return;
 		// waiting for others to remove this method
 		if (clientAddress != null && response != null && !NO_RESPONSE) {
+			if (this.credits != null && response instanceof RequestPacket)
+				((RequestPacket) response).setCredits(this.credits
+						.getCredits(this.getNumOutstandingOrQueued()));
 			try {
 				this.send(clientAddress, response,
 						listenAddress);
@@ -311,12 +374,10 @@ public class PaxosManager<NodeIDType> {
 	protected boolean executed(RequestPacket requestPacket, Request request,
 			boolean sendResponse) {
 		RequestAndCallback rc = this.outstanding.dequeue(requestPacket);
-		if (rc != null)
-			this.outstanding.totalRequestSize -= rc.requestPacket.lengthEstimate();
 		RequestInstrumenter.remove(requestPacket.requestID);
 		// cache response
 		if(ENABLE_RESPONSE_CACHING && request instanceof ClientRequest)
-			this.outstanding.responses.put(requestPacket,
+			this.outstanding.responses.put(requestPacket.requestID,
 					new RequestResponseAndCallback(requestPacket,
 							((ClientRequest) request),
 							rc != null ? rc.callback : null));
@@ -332,7 +393,7 @@ public class PaxosManager<NodeIDType> {
 	protected boolean retransmittedRequest(RequestPacket requestPacket) {
 		RequestResponseAndCallback rrc = null;
 		if (ENABLE_RESPONSE_CACHING
-				&& (rrc = this.outstanding.responses.get((requestPacket))) != null) {
+				&& (rrc = this.outstanding.getResponse(requestPacket)) != null) {
 			RequestAndCallback rc = this.outstanding.dequeue(requestPacket);
 			if (rc!=null && rc.callback != null)
 				rc.callback.executed(rrc.clientRequest, false);
@@ -422,7 +483,18 @@ public class PaxosManager<NodeIDType> {
 					});
 		
 		
+		this.conflictAwareExecutor = Config
+				.getGlobalBoolean(PC.PARALLEL_EXECUTION) ? new ConflictAwareExecutor(
+				Config.getGlobalInt(PC.PARALLEL_EXECUTION_THREADS),
+				PaxosManager.class.getSimpleName() + myID + "parallelExecutor")
+				: null;
+		this.shards = Config.getGlobalInt(PC.PAXOS_SHARDS) > 0 ? new ShardedExecutor(
+				Config.getGlobalInt(PC.PAXOS_SHARDS),
+				Config.getGlobalInt(PC.PAXOS_SHARD_QUEUE_SIZE),
+				PaxosManager.class.getSimpleName() + myID) : null;
+
 		this.unstringer = unstringer;
+		this.initWitnesses();
 		this.largeCheckpointer = new LargeCheckpointer(paxosLogFolder, 
 				id.toString());
 		this.myApp = LargeCheckpointer.wrap(pi, largeCheckpointer);
@@ -447,6 +519,14 @@ public class PaxosManager<NodeIDType> {
 					}
 				});
 		this.initOutstandingMonitor();
+		if (this.balancer != null)
+			this.executor.scheduleWithFixedDelay(this.balancer,
+					this.balancer.getPeriod(), this.balancer.getPeriod(),
+					TimeUnit.MILLISECONDS);
+		if (this.credits != null)
+			this.executor.scheduleWithFixedDelay(this.credits,
+					this.credits.getPeriod(), this.credits.getPeriod(),
+					TimeUnit.MILLISECONDS);
 		(this.requestBatcher = new RequestBatcher(this)).start();
 		(this.ppBatcher = new PaxosPacketBatcher(this)).start();
 		testingInitialization();
@@ -462,6 +542,20 @@ public class PaxosManager<NodeIDType> {
 	}
 
 	private void initOutstandingMonitor() {
+		// expire timed out outstanding requests and cached responses
+		if (USE_GC_MAP)
+			this.executor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						PaxosManager.this.outstanding.requests.expire();
+						PaxosManager.this.outstanding.responses.expire();
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			}, this.outstanding.requests.getTickMillis(), this.outstanding.requests
+					.getTickMillis(), TimeUnit.MILLISECONDS);
 		final long monitorIterval = Config.getGlobalLong(PC.DEBUG_MONITOR);
 		this.executor.scheduleWithFixedDelay(
 				new Runnable() {
@@ -492,12 +586,6 @@ public class PaxosManager<NodeIDType> {
 														.size(),
 												PaxosManager.this.pendingDigests,
 												DelayProfiler.getStats() });
-								if (!PaxosManager.this.outstanding.requests
-										.isEmpty()
-										&& PaxosManager.this.outstanding.requests instanceof GCConcurrentHashMap)
-									((GCConcurrentHashMap<Long, RequestAndCallback>) PaxosManager.this.outstanding.requests)
-											.tryGC(REQUEST_TIMEOUT);
-
 							}
 						} catch (Exception e) {
 							e.printStackTrace();
@@ -635,6 +723,120 @@ public class PaxosManager<NodeIDType> {
 				initialState, null, true) != null;
 	}
 
+	/**
+	 * Paxos instance creation with Flexible Paxos quorums, i.e., phase 1
+	 * (prepare) and phase 2 (accept) quorum sizes that need not be majorities
+	 * but must satisfy {@code prepareQuorum + acceptQuorum > gms.size()}.
+	 * Smaller accept quorums lower commit latency at the cost of larger
+	 * quorums for coordinator changes.
+	 * <p>
+	 * 
+	 * Non-default quorum sizes are durably recorded for paxosID:version by the
+	 * paxos logger before the instance is created, so they survive pauses and
+	 * crashes, and each version of a group has its own quorum sizes. They are
+	 * removed along with the rest of the instance's state, or right away if
+	 * the instance does not get created. If paxosID:version already exists,
+	 * its quorum sizes are left unchanged and false is returned just like
+	 * {@link #createPaxosInstance(String, int, Set, Replicable, String)}
+	 * does.
+	 * 
+	 * @param paxosID
+	 *            Paxos group name.
+	 * @param version
+	 *            Paxos group version (or epoch number).
+	 * @param gms
+	 *            Group members.
+	 * @param app
+	 *            Application controlled by paxos.
+	 * @param initialState
+	 *            Initial application state.
+	 * @param prepareQuorum
+	 *            Number of prepare replies needed to become coordinator.
+	 * @param acceptQuorum
+	 *            Number of accept replies needed to commit a request.
+	 * @return Whether this paxos instance or higher got created.
+	 * @throws PaxosInstanceCreationException
+	 *             if the quorum sizes are invalid.
+	 */
+	public boolean createPaxosInstance(String paxosID, int version,
+			Set<NodeIDType> gms, Replicable app, String initialState,
+			int prepareQuorum, int acceptQuorum) {
+		Quorum quorum = Quorum.flexible(gms.size(), prepareQuorum,
+				acceptQuorum);
+		if (quorum.isMajority(gms.size()))
+			return this.createPaxosInstance(paxosID, version, gms, app,
+					initialState);
+
+		// must not change the quorums of an existing paxosID:version
+		PaxosInstanceStateMachine pism = this.getInstance(paxosID);
+		if (pism != null ? pism.getVersion() == version : this.paxosLogger
+				.getSlotBallotState(paxosID, version) != null)
+			return false;
+		/* Recorded before creation as a coordinator with a different prepare
+		 * quorum after a crash could miss accepted values. */
+		if (!this.paxosLogger.putQuorum(paxosID, version, gms.size(), quorum))
+			throw new PaxosInstanceCreationException(this
+					+ " unable to record quorum " + quorum + " for "
+					+ paxosID + ":" + version);
+		this.quorums.put(paxosID + ":" + version, quorum);
+		boolean created = false;
+		try {
+			return created = this.createPaxosInstance(paxosID, version, gms,
+					app, initialState);
+		} finally {
+			// else a later creation of this version would inherit them
+			if (!created) {
+				this.quorums.remove(paxosID + ":" + version);
+				this.paxosLogger.removeQuorum(paxosID, version);
+			}
+		}
+	}
+
+	private static final int ACCEPT_QUORUM_SIZE = Config
+			.getGlobalInt(PC.ACCEPT_QUORUM_SIZE);
+
+	protected RequestBatcher getRequestBatcher() {
+		return this.requestBatcher;
+	}
+
+	/* Flexible quorums if any for paxosID:version, else the default. Only
+	 * non-default quorums are stored in this.quorums. The map mirrors the
+	 * logger's durable quorum records. It is loaded upon recovery and is not
+	 * pruned upon pause or an unclean kill as the instance's state remains
+	 * on disk and it may be unpaused or re-created. */
+	protected Quorum getQuorum(String paxosID, int version, int groupSize) {
+		Quorum quorum = this.quorums.isEmpty() ? null : this.quorums
+				.get(paxosID + ":" + version);
+		return quorum != null ? quorum : Quorum.forAccept(groupSize,
+				ACCEPT_QUORUM_SIZE);
+	}
+
+	/* Returns true if pism can take over as coordinator right away. Else the
+	 * takeover is deferred and retried later so that takeovers for many groups
+	 * are spread out over time. */
+	protected boolean admitTakeover(PaxosInstanceStateMachine pism) {
+		if (this.takeovers == null)
+			return true;
+		final String paxosID = pism.getPaxosID();
+		long delay = this.takeovers.admit(paxosID);
+		if (delay > 0)
+			this.executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					PaxosInstanceStateMachine pism = getInstance(paxosID);
+					if (pism != null)
+						pism.retryTakeover();
+					takeovers.release(paxosID);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		return delay == 0;
+	}
+
+	// paxos instances currently in memory
+	protected Iterator<PaxosInstanceStateMachine> getInstances() {
+		return this.pinstances.concurrentIterator();
+	}
+
 	private PaxosInstanceStateMachine createPaxosInstance(String paxosID,
 			int version, Set<NodeIDType> gms, Replicable app,
 			String initialState, HotRestoreInfo hri, boolean tryRestore) {
@@ -657,37 +859,131 @@ public class PaxosManager<NodeIDType> {
 	}
 
 	/**
+	 * Creates version 0 instances for all names in {@code nameStates} with the
+	 * same group {@code gms}. Names that already exist in memory or on disk,
+	 * including paused or recently stopped ones, are skipped. The initial
+	 * checkpoints of the remaining names are written as a single batch while
+	 * holding the same lock as individual creations, so no name can get
+	 * created in between, and the instances are then registered in one pass. If pausing is enabled,
+	 * instances are created directly in paused state when so configured or
+	 * when the in-memory instance table is full instead of waiting for room.
+	 * 
 	 * @param nameStates
 	 * @param gms
 	 * @return True if all successfully created.
 	 */
 	public boolean createPaxosInstance(Map<String, String> nameStates,
 			Set<NodeIDType> gms) {
-		waitPinstancesSize();
-		synchronized (this) {
-			int[] members = Util.setToIntArray(this.integerMap.put(gms));
-			PaxosConfig.log.log(Level.INFO,
-					"{0} batch-inserting initial checkpoints for {1} names: {2}",
-					new Object[] { this, nameStates.size(),
-							Util.truncatedLog(nameStates.entrySet(), 8) });
-			if (SNEAKY_BATCH_CREATION)
-				this.paxosLogger.insertInitialCheckpoints(nameStates,
-						Util.setToStringSet(gms), members);
+		if (!SNEAKY_BATCH_CREATION) {
 			boolean created = true;
+			for (String name : nameStates.keySet())
+				created = this.createPaxosInstance(name, gms,
+						nameStates.get(name)) && created;
+			return created;
+		}
+
+		if (this.isClosed())
+			return false;
+		if (!gms.contains(this.getNodeID()))
+			throw new PaxosInstanceCreationException(this.getNodeID()
+					+ " can not create paxos instances for group " + gms
+					+ " to which it does not belong");
+
+		Map<String, String> fresh = new HashMap<String, String>();
+		Set<Integer> memberSet = this.integerMap.put(gms);
+		int[] members = Util.setToIntArray(memberSet);
+		synchronized (this) {
+			// validate: filter out existing names with one lookup per batch
 			for (String name : nameStates.keySet()) {
 				assert (nameStates.get(name) != null);
-				created = created
-						&& (SNEAKY_BATCH_CREATION ? this.createPaxosInstance(
-								name, 0, gms, this.myApp, nameStates.get(name),
-								HotRestoreInfo.createHRI(name, members,
-										PaxosInstanceStateMachine
-												.roundRobinCoordinator(name,
-														members, 0)), false)
-								: this.createPaxosInstance(name, gms,
-										nameStates.get(name))) != null;
+				if (this.pinstances.get(name) == null)
+					fresh.put(name, nameStates.get(name));
 			}
-			return created;
+			fresh.keySet().removeAll(
+					this.paxosLogger.getExisting(fresh.keySet()));
+			if (fresh.size() < nameStates.size())
+				PaxosConfig.log.log(Level.INFO,
+						"{0} not creating {1} of {2} names that already exist",
+						new Object[] { this, nameStates.size() - fresh.size(),
+								nameStates.size() });
+			if (fresh.isEmpty())
+				return nameStates.isEmpty();
+
+			PaxosConfig.log.log(Level.INFO,
+					"{0} batch-inserting initial checkpoints for {1} names: {2}",
+					new Object[] { this, fresh.size(),
+							Util.truncatedLog(fresh.entrySet(), 8) });
+			// single batched write; fails as a whole on any conflict
+			if (this.isClosed()
+					|| !this.paxosLogger.insertInitialCheckpoints(fresh,
+							Util.setToStringSet(gms), members, this.witnesses))
+				return false;
+		}
+
+		// register in one pass
+		boolean created = fresh.size() == nameStates.size();
+		boolean pauseable = this.isPauseEnabled() && this.hasRecovered();
+		boolean createPaused = Config
+				.getGlobalBoolean(PC.BATCH_CREATE_PAUSED);
+		Map<String, HotRestoreInfo> toPause = new HashMap<String, HotRestoreInfo>();
+		ArrayList<PaxosInstanceStateMachine> active = new ArrayList<PaxosInstanceStateMachine>();
+		for (String name : fresh.keySet()) {
+			HotRestoreInfo hri = HotRestoreInfo.createHRI(name, members,
+					PaxosInstanceStateMachine.roundRobinCoordinator(name,
+							members, 0, this.witnesses));
+			if (pauseable
+					&& (createPaused || this.pinstances.size() >= this.pinstances
+							.capacity())) {
+				// paused instances expect app state to be already restored
+				if (!this.amWitness)
+					this.myApp.restore(name, fresh.get(name));
+				toPause.put(name, hri);
+				continue;
+			}
+			this.waitPinstancesSize();
+			PaxosInstanceStateMachine pism = this.registerCreated(name,
+					memberSet, fresh.get(name), hri);
+			if (pism != null)
+				active.add(pism);
+			else
+				created = false;
+		}
+		if (!toPause.isEmpty()) {
+			Map<String, HotRestoreInfo> paused = this.paxosLogger
+					.pause(toPause);
+			created = created && paused != null
+					&& paused.size() == toPause.size();
+			PaxosConfig.log.log(Level.INFO,
+					"{0} created {1} paxos instances in paused state",
+					new Object[] { this, paused != null ? paused.size() : 0 });
+		}
+		for (PaxosInstanceStateMachine pism : active)
+			this.syncPaxosInstance(pism, false);
+
+		// once for the whole batch instead of once per name
+		this.notifyUponCreation();
+		this.FD.sendKeepAlive(gms);
+		this.addServers(gms);
+		return created;
+	}
+
+	// Bulk counterpart of createPaxosInstanceFinal for validated names
+	private synchronized PaxosInstanceStateMachine registerCreated(
+			String paxosID, Set<Integer> members, String initialState,
+			HotRestoreInfo hri) {
+		if (this.isClosed() || this.pinstances.get(paxosID) != null)
+			return null;
+		PaxosInstanceStateMachine pism = null;
+		try {
+			pism = new PaxosInstanceStateMachine(paxosID, 0, myID, members,
+					this.myApp, initialState, this, hri, false);
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw new PaxosInstanceCreationException(e.getMessage());
 		}
+		this.pinstances.put(paxosID, pism);
+		this.incrCreated();
+		return pism;
 	}
 
 	private PaxosInstanceStateMachine createPaxosInstance(String paxosID,
@@ -786,6 +1082,11 @@ public class PaxosManager<NodeIDType> {
 		}
 
 		pinstances.put(paxosID, pism);
+		// a live instance supersedes any hibernated copy
+		if (this.hibernated != null && hri == null) {
+			this.hibernated.remove(paxosID);
+			this.hibernated.removeSpilling(paxosID);
+		}
 		incrCreated();
 		this.notifyUponCreation();
 		assert (this.getInstance(paxosID, false, false) != null);
@@ -860,6 +1161,32 @@ public class PaxosManager<NodeIDType> {
 	private final boolean ORDER_PRESERVING_REQUESTS = Config
 			.getGlobalBoolean(PC.ORDER_PRESERVING_REQUESTS);
 
+	private static final int PROTOCOL_LANE_WEIGHT = Config
+			.getGlobalInt(PC.PROTOCOL_LANE_WEIGHT);
+	private static final int PROTOCOL_LANE = 0;
+	private static final int CLIENT_LANE = 1;
+
+	private static void initLanes(AbstractPacketDemultiplexer<?> pd) {
+		if (PROTOCOL_LANE_WEIGHT > 0)
+			pd.setLanes(new int[] { PROTOCOL_LANE_WEIGHT, 1 }, new int[] {
+					Integer.MAX_VALUE,
+					Config.getGlobalInt(PC.CLIENT_LANE_CAPACITY) });
+	}
+
+	private static boolean isClientRequest(PaxosPacketType type) {
+		return type == PaxosPacketType.REQUEST
+				|| type == PaxosPacketType.PROPOSAL;
+	}
+
+	/* Client requests go in the client lane unless forwarded by another
+	 * replica, i.e., already admitted at their entry replica. */
+	private static int getLane(PaxosPacketType type, Object entryReplica) {
+		return isClientRequest(type)
+				&& (entryReplica == null || IntegerMap.NULL_STR_NODE
+						.equals(entryReplica.toString())) ? CLIENT_LANE
+				: PROTOCOL_LANE;
+	}
+
 	// older demultiplexer based purely on JSON
 	class JSONDemultiplexer extends AbstractJSONPacketDemultiplexer {
 
@@ -874,6 +1201,29 @@ public class PaxosManager<NodeIDType> {
 			this.register(PaxosPacket.PaxosPacketType.PAXOS_PACKET);
 			this.setThreadName(myID + (clientFacing ? "-clientFacing" : ""));
 			this.clientFacing = clientFacing;
+			initLanes(this);
+		}
+
+		@Override
+		protected int getLane(JSONObject msg, Integer type, NIOHeader header) {
+			try {
+				return PaxosManager.getLane(PaxosPacket.getPaxosPacketType(msg),
+						msg.opt(PaxosPacket.NodeIDKeys.E.toString()));
+			} catch (JSONException e) {
+				return PROTOCOL_LANE;
+			}
+		}
+
+		@Override
+		protected void laneFull(JSONObject msg, Integer type, NIOHeader header) {
+			super.laneFull(msg, type, header);
+			try {
+				PaxosManager.this.rejectOverloaded(PaxosPacketDemultiplexer
+						.toPaxosPacket(fixNodeStringToInt(msg),
+								PaxosManager.this.unstringer));
+			} catch (JSONException e) {
+				log.severe(this + " unable to parse rejected message " + msg);
+			}
 		}
 
 		public boolean handleMessage(JSONObject jsonMsg, edu.umass.cs.nio.nioutils.NIOHeader header) {
@@ -882,7 +1232,7 @@ public class PaxosManager<NodeIDType> {
 						"{0} packet json demultiplexer received {1}",
 						new Object[] { PaxosManager.this, jsonMsg });
 				PaxosManager.this
-						.handleIncomingPacket(edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexer
+						.handleReceivedPacket(edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexer
 								.toPaxosPacket(fixNodeStringToInt(jsonMsg),
 										PaxosManager.this.unstringer));
 				return true;
@@ -899,7 +1249,8 @@ public class PaxosManager<NodeIDType> {
 
 		@Override
 		protected boolean isCongested(NIOHeader header) {
-			if (DISABLE_CC)
+			// with credits, client requests are shed in handleIncomingPacket
+			if (DISABLE_CC || PaxosManager.this.credits != null)
 				return false;
 			if (PaxosManager.this.isServer(header.sndr.getAddress()))
 				return false;
@@ -937,6 +1288,11 @@ public class PaxosManager<NodeIDType> {
 		return PaxosManager.this.getNumOutstandingOrQueued() > MAX_OUTSTANDING_REQUESTS;
 	}
 
+	// whether sends to node are being refused for lack of send queue room
+	protected boolean isCongested(int node) {
+		return this.messenger.isCongested(node);
+	}
+
 	// faster demultiplexer based on byte[] serialization
 	class FastDemultiplexer extends
 			edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexerFast {
@@ -946,6 +1302,42 @@ public class PaxosManager<NodeIDType> {
 			this.setThreadName(PaxosManager.this.intToString(myID)
 					+ (clientFacing ? "-clientFacing" : ""));
 			this.register(PaxosPacket.PaxosPacketType.PAXOS_PACKET);
+			initLanes(this);
+		}
+
+		@Override
+		protected int getLane(Object msg, Integer type, NIOHeader header) {
+			if (msg instanceof PaxosPacket)
+				return isClientRequest(((PaxosPacket) msg).getType())
+						// forwarded requests were already admitted
+						&& ((RequestPacket) msg).getEntryReplica() == IntegerMap.NULL_INT_NODE ? CLIENT_LANE
+						: PROTOCOL_LANE;
+			if (!(msg instanceof net.minidev.json.JSONObject))
+				return PROTOCOL_LANE;
+			try {
+				return PaxosManager.getLane(PaxosPacket
+						.getPaxosPacketType((net.minidev.json.JSONObject) msg),
+						((net.minidev.json.JSONObject) msg)
+								.get(PaxosPacket.NodeIDKeys.E.toString()));
+			} catch (JSONException e) {
+				return PROTOCOL_LANE;
+			}
+		}
+
+		@Override
+		protected void laneFull(Object msg, Integer type, NIOHeader header) {
+			super.laneFull(msg, type, header);
+			try {
+				PaxosManager.this
+						.rejectOverloaded(msg instanceof PaxosPacket ? (PaxosPacket) msg
+								: msg instanceof net.minidev.json.JSONObject ? edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexerFast
+										.toPaxosPacket(
+												fixNodeStringToInt((net.minidev.json.JSONObject) msg),
+												PaxosManager.this.unstringer)
+										: null);
+			} catch (JSONException e) {
+				log.severe(this + " unable to parse rejected message " + msg);
+			}
 		}
 
 		public FastDemultiplexer() {
@@ -980,7 +1372,7 @@ public class PaxosManager<NodeIDType> {
 							DelayProfiler.updateDelayNano(
 									"requestPacketization", t);
 
-					PaxosManager.this.handleIncomingPacket(pp);
+					PaxosManager.this.handleReceivedPacket(pp);
 					return true;
 				} catch (JSONException e) {
 					log.severe(this + " incurred JSONException while parsing "
@@ -1008,17 +1400,31 @@ public class PaxosManager<NodeIDType> {
 														.getEntryReplica() == IntegerMap.NULL_INT_NODE) ? "from client"
 												: "" });
 
-				/* FIXME: Need to fixNodeStringToInt. Unclear how to do the
-				 * reverse efficiently while sending out messages. So we
-				 * currently byteify paxos packets only when all node IDs are
-				 * integers. */
-				PaxosManager.this.handleIncomingPacket(((PaxosPacket) msg));
+				// node IDs already fixed in processHeader
+				PaxosManager.this.handleReceivedPacket(((PaxosPacket) msg));
 			} catch (Exception | Error e) {
 				e.printStackTrace();
 			}
 			return true;
 		}
 
+		@Override
+		protected Object processHeader(byte[] bytes, NIOHeader header) {
+			Object msg = processHeaderUtil(bytes, header,
+					PaxosManager.this.unstringer);
+			if (msg instanceof PaxosPacket && !IntegerMap.allInt())
+				try {
+					return fixNodeIntToInt((PaxosPacket) msg,
+							NodeIDDictionary.get(bytes));
+				} catch (UnsupportedEncodingException | JSONException e) {
+					log.severe(this + " unable to fix node IDs in "
+							+ ((PaxosPacket) msg).getSummary());
+					e.printStackTrace();
+					return null;
+				}
+			return msg;
+		}
+
 		@Override
 		protected boolean matchesType(Object message) {
 			return message instanceof net.minidev.json.JSONObject;
@@ -1026,7 +1432,8 @@ public class PaxosManager<NodeIDType> {
 
 		@Override
 		protected boolean isCongested(NIOHeader header) {
-			if (DISABLE_CC)
+			// with credits, client requests are shed in handleIncomingPacket
+			if (DISABLE_CC || PaxosManager.this.credits != null)
 				return false;
 			if (PaxosManager.this.isServer(header.sndr.getAddress()))
 				return false;
@@ -1060,14 +1467,22 @@ public class PaxosManager<NodeIDType> {
 	private static final boolean ENABLE_RESPONSE_CACHING = Config
 			.getGlobalBoolean(PC.ENABLE_RESPONSE_CACHING);
 
+	// packets received over the network as opposed to proposed locally
+	private void handleReceivedPacket(PaxosPacket pp) {
+		if (!this.shedLoad(pp))
+			this.handleIncomingPacket(pp);
+	}
+
 	private void handleIncomingPacket(PaxosPacket pp) {
+		// before any instance lookup so that drops still count as heartbeats
+		if (isHeartbeat(pp.getType()))
+			this.heardFrom(getHeartbeatSender(pp));
 
 		if (ENABLE_RESPONSE_CACHING && pp.getType() == PaxosPacketType.REQUEST
 				&& this.retransmittedRequest(((RequestPacket) pp)))
 			return;
-		else if (pp.getType() == PaxosPacketType.BATCHED_PAXOS_PACKET)
-			for (PaxosPacket packet : ((BatchedPaxosPacket) pp)
-					.getPaxosPackets())
+		else if (unbatch(pp) != null)
+			for (PaxosPacket packet : unbatch(pp))
 				this.handleIncomingPacket(packet);
 		else if (BATCHING_ENABLED)
 			this.enqueueRequest(pp);
@@ -1075,6 +1490,98 @@ public class PaxosManager<NodeIDType> {
 			this.handlePaxosPacket(pp);
 	}
 
+	/* Sends an immediate overload response, instead of silently dropping, to a
+	 * request that arrives directly from a client when congested. Requests
+	 * forwarded by other replicas were already admitted at their entry
+	 * replica and are never shed. */
+	private boolean shedLoad(PaxosPacket pp) {
+		if (this.credits == null || pp.getType() != PaxosPacketType.REQUEST
+				|| ((RequestPacket) pp).getEntryReplica() != IntegerMap.NULL_INT_NODE)
+			return false;
+		RequestPacket request = (RequestPacket) pp;
+		this.credits.noteRequest(request.getClientAddress());
+		if (!this.isCongested())
+			return false;
+		PaxosConfig.log.log(Level.FINE,
+				"{0} congested; shedding request {1} from {2} (outstanding={3} > {4})",
+				new Object[] { this, request.getSummary(),
+						request.getClientAddress(),
+						this.getNumOutstandingOrQueued(),
+						MAX_OUTSTANDING_REQUESTS });
+		this.sendOverloads(request);
+		return true;
+	}
+
+	/* Invoked when a packet is turned away because its demultiplexer lane is
+	 * full. Without credits, clients may not understand overload responses,
+	 * so the packet is dropped as before. */
+	private void rejectOverloaded(PaxosPacket pp) {
+		if (pp == null || this.credits == null
+				|| pp.getType() != PaxosPacketType.REQUEST
+				|| ((RequestPacket) pp).getEntryReplica() != IntegerMap.NULL_INT_NODE)
+			return;
+		PaxosConfig.log.log(Level.FINE,
+				"{0} client lane full; rejecting request {1} from {2}",
+				new Object[] { this, pp.getSummary(),
+						((RequestPacket) pp).getClientAddress() });
+		this.sendOverloads((RequestPacket) pp);
+	}
+
+	private void sendOverloads(RequestPacket request) {
+		// every request in a client's batch awaits its own response
+		for (RequestPacket overload : request.getOverloads(0))
+			this.defaultCallback(overload,
+					overload.getClientAddress() != null ? overload
+							.getClientAddress() : request.getClientAddress(),
+					request.getListenAddress());
+	}
+
+	/* Packet types whose receipt the failure detector treats as a heartbeat
+	 * from the sender. The sender is always identifiable from the packet. */
+	private static boolean isHeartbeat(PaxosPacketType type) {
+		switch (type) {
+		case PREPARE:
+		case ACCEPT:
+		case BATCHED_COMMIT:
+		case PREPARE_REPLY:
+		case ACCEPT_REPLY:
+		case BATCHED_ACCEPT_REPLY:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static int getHeartbeatSender(PaxosPacket pp) {
+		switch (pp.getType()) {
+		case PREPARE:
+			return ((PreparePacket) pp).ballot.coordinatorID;
+		case ACCEPT:
+			return ((AcceptPacket) pp).ballot.coordinatorID;
+		case BATCHED_COMMIT:
+			return ((BatchedCommit) pp).ballot.coordinatorID;
+		default:
+			// PREPARE_REPLY, ACCEPT_REPLY, BATCHED_ACCEPT_REPLY
+			return pp instanceof PrepareReplyPacket ? ((PrepareReplyPacket) pp).acceptor
+					: ((AcceptReplyPacket) pp).acceptor;
+		}
+	}
+
+	/* Returns the constituent packets if pp is a batch of packets that are
+	 * processed independently, else null. */
+	private static Collection<? extends PaxosPacket> unbatch(PaxosPacket pp) {
+		switch (pp.getType()) {
+		case BATCHED_PAXOS_PACKET:
+			return ((BatchedPaxosPacket) pp).getPaxosPackets();
+		case BATCHED_PREPARE:
+			return ((BatchedPrepare) pp).getPaxosPackets();
+		case BATCHED_PREPARE_REPLY:
+			return ((BatchedPrepareReply) pp).getPaxosPackets();
+		default:
+			return null;
+		}
+	}
+
 	/* If RequestPacket, hand over to batcher that will then call
 	 * handleIncomingPacketInternal on batched requests. */
 	private void enqueueRequest(PaxosPacket pp) {
@@ -1104,9 +1611,16 @@ public class PaxosManager<NodeIDType> {
 	}
 
 	@SuppressWarnings("unchecked")
-	private void handlePaxosPacket(PaxosPacket request) {
+	private void handlePaxosPacket(final PaxosPacket request) {
 		if (this.isClosed())
 			return;
+		// owning shard will call back into this method inline
+		else if (this.handOff(request.getPaxosID(), request, new Runnable() {
+			public void run() {
+				handlePaxosPacket(request);
+			}
+		}))
+			return;
 		else if (emulateUnreplicated(request)
 				|| this.emulateLazyPropagation(request))
 			return; // testing
@@ -1150,7 +1664,7 @@ public class PaxosManager<NodeIDType> {
 					// we handle the ACCEPT_REPLY and the subsequent DECISION
 					// message in a separate thread pool, instead of AbstractPaxosLogger.
 					if(msgType.equals(PaxosPacket.PaxosPacketType.ACCEPT_REPLY) 
-							&& pism.getMembers().length == 1)
+							&& pism.getMembers().length == 1 && this.shards == null)
 					{
 						this.appExecuteThreadPool.execute(new Runnable() 
 								{ 
@@ -1184,6 +1698,23 @@ public class PaxosManager<NodeIDType> {
 		}
 	}
 
+	/* The one place that decides whether to hand off processing of pp, or a
+	 * poke if pp is null, for the group paxosID to the shard owning the
+	 * group. Returns true if task has been handed off. Else sharding is
+	 * disabled, we are on that shard already, or pp is not a group's
+	 * protocol message, so the caller must run the task inline. Recovery
+	 * messages are processed inline as roll forward expects them to be
+	 * processed in log order before recovery completes. */
+	protected boolean handOff(String paxosID, PaxosPacket pp, Runnable task) {
+		if (this.shards == null
+				|| paxosID == null
+				|| (pp != null && (pp.getType() == PaxosPacketType.FAILURE_DETECT || PaxosPacket
+						.isRecovery(pp))) || this.shards.isOwner(paxosID))
+			return false;
+		this.shards.execute(paxosID, task);
+		return true;
+	}
+
 	private void processFailureDetection(
 			FailureDetectionPacket<NodeIDType> request) {
 		if (request.getSender() != null) {
@@ -1198,6 +1729,13 @@ public class PaxosManager<NodeIDType> {
 			return null;
 		boolean matched = false;
 		PaxosInstanceStateMachine pism = this.getInstance(paxosID);
+		if (pism != null && this.amWitness) {
+			// witnesses never execute, so they can not respond either
+			PaxosConfig.log.log(Level.INFO,
+					"{0} is a witness and can not accept request {1}",
+					new Object[] { this, requestPacket.getSummary() });
+			return null;
+		}
 		if (pism != null) {
 			matched = true;
 			requestPacket.putPaxosID(paxosID, pism.getVersion());
@@ -1649,6 +2187,7 @@ public class PaxosManager<NodeIDType> {
 		this.pinstances.clear();
 		this.corpses.clear();
 		this.paxosLogger.removeAll();
+		this.quorums.clear();
 	}
 
 	private static final synchronized void open() {
@@ -1698,6 +2237,10 @@ public class PaxosManager<NodeIDType> {
 		this.largeCheckpointer.close();
 		this.executor.shutdownNow();
 		this.appExecuteThreadPool.shutdownNow();
+		if (this.conflictAwareExecutor != null)
+			this.conflictAwareExecutor.close();
+		if (this.shards != null)
+			this.shards.stop();
 		if(this.myApp instanceof GigapaxosShutdownable) ((GigapaxosShutdownable)this.myApp).shutdown();
 
 		for (Iterator<PaxosInstanceStateMachine> pismIter = this.pinstances
@@ -1836,6 +2379,8 @@ public class PaxosManager<NodeIDType> {
 		long initTime = System.currentTimeMillis();
 		PaxosConfig.log.log(Level.INFO, "{0} beginning to recover checkpoints",
 				new Object[] { this });
+		// before any instance is recovered
+		this.quorums.putAll(this.paxosLogger.getQuorums());
 		while (this.paxosLogger.initiateReadCheckpoints(true))
 			; // acquires lock
 		RecoveryInfo pri = null;
@@ -2084,10 +2629,84 @@ public class PaxosManager<NodeIDType> {
 		if (logMsg && mtask instanceof LogMessagingTask) {
 			AbstractPaxosLogger.logAndMessage(this.paxosLogger,
 					(LogMessagingTask) mtask);// , this.messenger);
-		} else {
+		} else if (this.witnesses.isEmpty()
+				|| !this.toAnyWitness(mtask)) {
 			this.sendOrLoopback(coalesce ? PaxosManager.this.ppBatcher
 					.coalesce(mtask) : mtask);
+		} else
+			for (MessagingTask task : this.splitForWitnesses(mtask))
+				this.sendOrLoopback(coalesce ? PaxosManager.this.ppBatcher
+						.coalesce(task) : task);
+	}
+
+	/* Witnesses get digested accepts and meta decisions instead of full
+	 * request values and no broadcast requests. */
+	private MessagingTask[] splitForWitnesses(MessagingTask mtask) {
+		Set<Integer> full = new HashSet<Integer>(), witness = new HashSet<Integer>();
+		for (int recipient : mtask.recipients)
+			(this.witnesses.contains(recipient) ? witness : full)
+					.add(recipient);
+		ArrayList<PaxosPacket> witnessMsgs = new ArrayList<PaxosPacket>();
+		for (PaxosPacket pp : mtask.msgs) {
+			if (pp instanceof AcceptPacket
+					&& ((AcceptPacket) pp).hasRequestValue()) {
+				AcceptPacket accept = (AcceptPacket) pp;
+				// digest must be computed before digesting
+				accept.getDigest(this.getMessageDigest());
+				witnessMsgs.add(accept.digest(this.getMessageDigest()));
+			} else if (pp.getType() == PaxosPacketType.DECISION
+					&& ((PValuePacket) pp).hasRequestValue())
+				witnessMsgs.add(((PValuePacket) pp).getMetaDecision());
+			else if (!(pp.getType() == PaxosPacketType.REQUEST && ((RequestPacket) pp)
+					.isBroadcasted()))
+				witnessMsgs.add(pp);
 		}
+		return new MessagingTask[] {
+				new MessagingTask(Util.setToIntArray(full), mtask.msgs),
+				new MessagingTask(Util.setToIntArray(witness),
+						witnessMsgs.toArray(new PaxosPacket[0])) };
+	}
+
+	private boolean toAnyWitness(MessagingTask mtask) {
+		for (int recipient : mtask.recipients)
+			if (this.witnesses.contains(recipient))
+				return true;
+		return false;
+	}
+
+	private void initWitnesses() {
+		for (String node : Config.getGlobalString(PC.WITNESSES).split(","))
+			if (!node.trim().isEmpty())
+				this.witnesses.add(this.integerMap.put(this.unstringer
+						.valueOf(node.trim())));
+		this.amWitness = this.witnesses.contains(this.myID);
+		if (!this.witnesses.isEmpty())
+			PaxosConfig.log.log(Level.INFO, "{0} using witnesses {1}",
+					new Object[] { this, this.witnesses });
+	}
+
+	protected boolean hasWitnesses() {
+		return !this.witnesses.isEmpty();
+	}
+
+	protected Set<Integer> getWitnesses() {
+		return this.witnesses;
+	}
+
+	protected boolean amWitness() {
+		return this.amWitness;
+	}
+
+	/* Returns an undigested copy of the digested pvalue if the corresponding
+	 * request is locally outstanding, else null. */
+	protected PValuePacket undigest(PValuePacket pvalue, String paxosID) {
+		RequestAndCallback rc = this.outstanding.requests.get(pvalue.requestID);
+		if (rc == null || !paxosID.equals(rc.getRequestPacket().getPaxosID())
+				|| !rc.getRequestPacket().digestEquals(pvalue,
+						this.getMessageDigest()))
+			return null;
+		return new PValuePacket(pvalue.ballot, new ProposalPacket(pvalue.slot,
+				rc.getRequestPacket()));
 	}
 
 	protected void send(MessagingTask mtask) throws JSONException, IOException {
@@ -2099,13 +2718,41 @@ public class PaxosManager<NodeIDType> {
 		MessagingTask local = MessagingTask.getLoopback(mtask, myID);
 		if (local != null && !local.isEmptyMessaging())
 			for (PaxosPacket pp : local.msgs)
-				if (pp.getType() == PaxosPacketType.BATCHED_PAXOS_PACKET)
-					for (PaxosPacket packet : ((BatchedPaxosPacket) pp)
-							.getPaxosPackets())
-						this.handlePaxosPacket((packet));
-				else
-					this.handlePaxosPacket((pp));
-		this.messenger.send(MessagingTask.getNonLoopback(mtask, myID));
+				this.handleLoopback(pp);
+		MessagingTask nonLoopback = MessagingTask.getNonLoopback(mtask, myID);
+		if (!this.isHeartbeat(nonLoopback)) {
+			this.messenger.send(nonLoopback);
+			return;
+		}
+		/* Only messages that the transport actually queued can stand in for
+		 * keepalives, otherwise a congested peer that is refused our
+		 * messages would hear nothing from us and suspect us. */
+		Set<NodeIDType> accepted = new HashSet<NodeIDType>();
+		try {
+			this.messenger.send(nonLoopback, accepted);
+		} finally {
+			for (NodeIDType recipient : accepted)
+				this.FD.sentTo(recipient);
+		}
+	}
+
+	// sent heartbeat-worthy traffic obviates explicit keepalives
+	private boolean isHeartbeat(MessagingTask mtask) {
+		if (mtask == null || mtask.isEmptyMessaging() || this.FD == null)
+			return false;
+		PaxosPacket pp = mtask.msgs[0];
+		// batches across groups unpack into their constituent types
+		if (pp instanceof BatchedPrepare || pp instanceof BatchedPrepareReply)
+			pp = unbatch(pp).iterator().next();
+		return isHeartbeat(pp.getType());
+	}
+
+	private void handleLoopback(PaxosPacket pp) {
+		if (unbatch(pp) != null)
+			for (PaxosPacket packet : unbatch(pp))
+				this.handleLoopback(packet);
+		else
+			this.handlePaxosPacket(pp);
 	}
 
 	protected void send(InetSocketAddress sockAddr, Request request,
@@ -2165,6 +2812,8 @@ public class PaxosManager<NodeIDType> {
 			PaxosConfig.log.severe("Problem stopping paxos instance " + pism.getPaxosID()
 					+ ":" + pism.getVersion());
 		incrKilled();
+		if (clean)
+			this.quorums.remove(pism.getPaxosIDVersion());
 		this.softCrash(pism);
 		this.corpses.put(pism.getPaxosID(), pism);
 		executor.schedule(new Cremator(pism.getPaxosID(), this.corpses),
@@ -2190,6 +2839,8 @@ public class PaxosManager<NodeIDType> {
 		assert (pism != null);
 		pism.forceStop();
 		this.pinstances.remove(pism.getPaxosID());
+		// every way out of memory, i.e., kill, pause or crash, gets here
+		this.requestBatcher.removeGroup(pism.getPaxosID());
 	}
 
 	/* For testing. Similar to hibernate but without forcing a checkpoint and
@@ -2321,9 +2972,47 @@ public class PaxosManager<NodeIDType> {
 				hriMap.put(paxosID, hri);
 		}
 
-		// write paused state to disk
-		Map<String, HotRestoreInfo> pausedHRIMap = this.paxosLogger
-				.pause(hriMap);
+		/* Hibernate in memory if possible; only instances that don't fit or
+		 * that got evicted to make room are written to disk. Evicted
+		 * instances stay in memory until written, and those that could not be
+		 * written earlier are retried here. */
+		Map<String, HotRestoreInfo> toDisk = hriMap;
+		Set<String> hibernatedIDs = new HashSet<String>();
+		Map<String, HotRestoreInfo> pausedHRIMap = null;
+		synchronized (this.spillLock) {
+			if (this.hibernated != null) {
+				toDisk = this.hibernated.getSpilling();
+				for (HotRestoreInfo hri : hriMap.values())
+					if (!this.hibernated.put(hri, toDisk))
+						toDisk.put(hri.paxosID, hri);
+				for (String paxosID : hriMap.keySet())
+					if (!toDisk.containsKey(paxosID))
+						hibernatedIDs.add(paxosID);
+			}
+
+			// write paused state to disk
+			pausedHRIMap = this.paxosLogger.pause(toDisk);
+			if (this.hibernated != null)
+				this.hibernated.spilled(pausedHRIMap.keySet());
+		}
+		// hibernated instances skip the logger's pause but not its uncaching
+		if (!hibernatedIDs.isEmpty())
+			this.paxosLogger.uncache(hibernatedIDs);
+		for (String paxosID : toDisk.keySet())
+			if (!pausedHRIMap.containsKey(paxosID)
+					&& this.hibernated != null
+					&& this.hibernated.isSpilling(paxosID)) {
+				// still hibernated in memory, so it is paused all the same
+				PaxosConfig.log.log(Level.WARNING,
+						"{0} unable to spill hibernated instance {1} to disk; "
+								+ "keeping it in memory",
+						new Object[] { this, paxosID });
+				hibernatedIDs.add(paxosID);
+			}
+		pausedHRIMap.keySet().retainAll(hriMap.keySet());
+		for (String paxosID : hibernatedIDs)
+			if (hriMap.containsKey(paxosID))
+				pausedHRIMap.put(paxosID, hriMap.get(paxosID));
 		for (HotRestoreInfo pausedHRI : pausedHRIMap.values())
 			hriMap.remove(pausedHRI.paxosID);
 
@@ -2369,7 +3058,17 @@ public class PaxosManager<NodeIDType> {
 			PaxosConfig.log.log(Level.FINE, "{0} about to try to unpause instance {1}",
 					new Object[] { this, paxosID });
 
-			HotRestoreInfo hri = this.paxosLogger.unpause(paxosID);
+			HotRestoreInfo hri = null;
+			if (this.hibernated != null
+					&& (hri = this.hibernated.remove(paxosID)) == null
+					&& this.hibernated.isSpilling(paxosID))
+				/* Wait for any ongoing spill to disk to finish, after which the
+				 * instance is still here only if its DB write failed. */
+				synchronized (this.spillLock) {
+					hri = this.hibernated.removeSpilling(paxosID);
+				}
+			if (hri == null)
+				hri = this.paxosLogger.unpause(paxosID);
 
 			if (hri != null) {
 				PaxosConfig.log.log(Level.FINE,
@@ -3017,6 +3716,33 @@ public class PaxosManager<NodeIDType> {
 		return json;
 	}
 
+	/* Byteified packets carry the sender's IntegerMap ints that are the same
+	 * as ours unless either map had to resolve a hash collision. So we just
+	 * check against the sender's node ID dictionary and fall back to fixing
+	 * the json form of the packet only upon a mismatch. */
+	private PaxosPacket fixNodeIntToInt(PaxosPacket pp,
+			Map<Integer, String> dictionary) throws JSONException {
+		if (dictionary == null)
+			return pp;
+		Map<Integer, Integer> mismatched = null;
+		for (Map.Entry<Integer, String> entry : dictionary.entrySet()) {
+			NodeIDType nodeID = this.unstringer.valueOf(entry.getValue());
+			int nodeInt = nodeID != null ? this.integerMap.put(nodeID) : entry
+					.getKey();
+			if (nodeInt != entry.getKey())
+				(mismatched != null ? mismatched
+						: (mismatched = new HashMap<Integer, Integer>())).put(
+						entry.getKey(), nodeInt);
+		}
+		if (mismatched == null)
+			return pp;
+		PaxosConfig.log.log(Level.INFO, "{0} fixing mismatched node IDs {1} in {2}",
+				new Object[] { this, mismatched, pp.getSummary() });
+		return PaxosPacketDemultiplexer.toPaxosPacket(
+				NodeIDDictionary.fixNodeIDs(pp.toJSONObject(), mismatched),
+				this.unstringer);
+	}
+
 	private net.minidev.json.JSONObject fixNodeStringToInt(
 			net.minidev.json.JSONObject json) {
 		// long t = System.nanoTime();
@@ -3077,9 +3803,11 @@ public class PaxosManager<NodeIDType> {
 	/* ********************** Testing methods below ********************* */
 
 	private void testingInitialization() {
-		if (cleanDB)
+		if (cleanDB) {
 			while (!this.paxosLogger.removeAll())
 				;
+			this.quorums.clear();
+		}
 
 	}
 
@@ -3369,6 +4097,10 @@ public class PaxosManager<NodeIDType> {
 		return this.myApp;
 	}
 
+	protected ConflictAwareExecutor getConflictAwareExecutor() {
+		return this.conflictAwareExecutor;
+	}
+
 	protected MessageDigest getMessageDigest() {
 		return RequestPacket.getMessageDigest();
 	}
@@ -3451,7 +4183,6 @@ public class PaxosManager<NodeIDType> {
 						+ accept.getSummary());
 				e.printStackTrace();
 			}
-		this.outstanding.totalRequestSize -= request.lengthEstimate();
 		Level level = accept != null ? Level.INFO : Level.FINE;
 		PaxosConfig.log.log(
 				level,
@@ -3491,8 +4222,99 @@ public class PaxosManager<NodeIDType> {
 		RequestAndCallback rc = accept!=null ? this.outstanding.requests.get(accept
 				.getRequestID()) : null;
 		if (rc != null
-				|| (rc = this.outstanding.conflictIDRequests.get(accept)) != null)
+				|| (accept != null && (rc = this.outstanding.conflictIDRequests
+						.get(accept)) != null))
 			rc.setAcceptPacket(accept);
 		return accept;
 	}
+
+	@SuppressWarnings("javadoc")
+	public static class BatchCreateTest extends DefaultTest {
+		private static final int ID = 37;
+		private static final Set<Integer> GROUP = Collections.singleton(ID);
+		private static PaxosManager<Integer> pm = null;
+
+		@BeforeClass
+		public static void setup() throws IOException {
+			SampleNodeConfig<Integer> snc = new SampleNodeConfig<Integer>(23600);
+			snc.addLocal(ID);
+			JSONNIOTransport<Integer> niot = new JSONNIOTransport<Integer>(ID,
+					snc, new PacketDemultiplexerDefault(), true);
+			pm = new PaxosManager<Integer>(ID, snc, niot, new TESTPaxosApp(
+					niot));
+			pm.resetAll();
+		}
+
+		@AfterClass
+		public static void teardown() {
+			Config.register(new String[] { PC.BATCH_CREATE_PAUSED.toString()
+					+ "=false" });
+			pm.resetAll();
+			pm.close();
+		}
+
+		private static Map<String, String> nameStates(String prefix, int n) {
+			Map<String, String> nameStates = new HashMap<String, String>();
+			for (int i = 0; i < n; i++)
+				nameStates.put(prefix + i, prefix + "state" + i);
+			return nameStates;
+		}
+
+		@Test
+		public void testCreate() {
+			Map<String, String> nameStates = nameStates("created", 10);
+			Assert.assertTrue(pm.createPaxosInstance(nameStates, GROUP));
+			for (String name : nameStates.keySet()) {
+				Assert.assertNotNull(pm.pinstances.get(name));
+				Assert.assertEquals(nameStates.get(name),
+						pm.paxosLogger.getCheckpointState(name));
+			}
+			// all exist now
+			Assert.assertFalse(pm.createPaxosInstance(nameStates, GROUP));
+		}
+
+		@Test
+		public void testPartialConflict() {
+			Map<String, String> nameStates = nameStates("partial", 10);
+			// one name in memory and one only on disk
+			Assert.assertTrue(pm.createPaxosInstance("partial0", GROUP,
+					"existing0"));
+			Assert.assertTrue(pm.paxosLogger.insertInitialCheckpoints(
+					Collections.singletonMap("partial1", "existing1"),
+					Util.setToStringSet(GROUP), new int[] { pm.myID },
+					pm.witnesses));
+
+			// existing names are skipped and the rest created
+			Assert.assertFalse(pm.createPaxosInstance(nameStates, GROUP));
+			Assert.assertEquals("existing0",
+					pm.paxosLogger.getCheckpointState("partial0"));
+			Assert.assertEquals("existing1",
+					pm.paxosLogger.getCheckpointState("partial1"));
+			for (int i = 2; i < nameStates.size(); i++)
+				Assert.assertNotNull(pm.pinstances.get("partial" + i));
+		}
+
+		@Test
+		public void testCreatePaused() {
+			Assume.assumeTrue(Config.getGlobalBoolean(PC.PAUSE_OPTION));
+			Config.register(new String[] { PC.BATCH_CREATE_PAUSED.toString()
+					+ "=true" });
+			try {
+				Map<String, String> nameStates = nameStates("paused", 10);
+				Assert.assertTrue(pm.createPaxosInstance(nameStates, GROUP));
+				for (String name : nameStates.keySet()) {
+					Assert.assertNull(pm.pinstances.get(name));
+					Assert.assertEquals(nameStates.get(name),
+							pm.paxosLogger.getCheckpointState(name));
+				}
+				// unpaused upon first use
+				Assert.assertNotNull(pm.getInstance("paused0"));
+				Assert.assertNotNull(pm.pinstances.get("paused0"));
+				Assert.assertFalse(pm.createPaxosInstance(nameStates, GROUP));
+			} finally {
+				Config.register(new String[] { PC.BATCH_CREATE_PAUSED
+						.toString() + "=false" });
+			}
+		}
+	}
 }
@@ -38,9 +38,13 @@ import edu.umass.cs.gigapaxos.paxospackets.BatchedAccept;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedAcceptReply;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedCommit;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedPaxosPacket;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPrepare;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPrepareReply;
 import edu.umass.cs.gigapaxos.paxospackets.PValuePacket;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
+import edu.umass.cs.gigapaxos.paxospackets.PrepareReplyPacket;
+import edu.umass.cs.gigapaxos.paxospackets.PreparePacket;
 import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
 import edu.umass.cs.gigapaxos.paxosutil.ConsumerTask;
@@ -62,6 +66,10 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 	private final HashMap<String, HashMap<Ballot, BatchedCommit>> commits;
 	private final HashMap<String, HashMap<Ballot, BatchedAccept>> accepts;
 	private final LinkedList<MessagingTask> requests;
+	private final LinkedHashMap<Set<Integer>, BatchedPrepare> prepares;
+	private final LinkedHashMap<Integer, BatchedPrepareReply> prepareReplies;
+	// batched prepares or prepare replies that are already full
+	private final LinkedList<MessagingTask> fullBatches;
 
 	/**
 	 * @param lock
@@ -74,6 +82,9 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 		this.commits = lock.commits;
 		this.accepts = lock.accepts;
 		this.requests = lock.requests;
+		this.prepares = lock.prepares;
+		this.prepareReplies = lock.prepareReplies;
+		this.fullBatches = lock.fullBatches;
 		this.paxosManager = paxosManager;
 	}
 
@@ -111,6 +122,17 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 					assert(task.msgs.length==1);
 					this.enqueueImpl((BatchedAccept) task.msgs[0]);
 					break;
+				case PREPARE:
+					for (PaxosPacket prepare : task.msgs)
+						this.enqueueImpl((PreparePacket) prepare,
+								Util.arrayToIntSet(task.recipients));
+					break;
+				case PREPARE_REPLY:
+					assert (task.recipients.length == 1);
+					for (PaxosPacket reply : task.msgs)
+						this.enqueueImpl((PrepareReplyPacket) reply,
+								task.recipients[0]);
+					break;
 				default:
 					if(task.msgs[0] instanceof RequestPacket)
 						this.enqueueImpl(task);
@@ -174,6 +196,37 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 		
 	}
 	
+	private static final int MAX_BATCHED_PREPARES = NIOTransport.MAX_PAYLOAD_SIZE / 256;
+
+	private boolean enqueueImpl(PreparePacket prepare, Set<Integer> group) {
+		BatchedPrepare batch = this.prepares.get(group);
+		if (batch == null)
+			this.prepares.put(group, new BatchedPrepare(prepare));
+		else if (batch.size() < MAX_BATCHED_PREPARES)
+			batch.addPrepare(prepare);
+		else {
+			this.fullBatches.add(new MessagingTask(Util.setToIntArray(group),
+					batch));
+			this.prepares.put(group, new BatchedPrepare(prepare));
+		}
+		return true;
+	}
+
+	private boolean enqueueImpl(PrepareReplyPacket reply, int coordinator) {
+		BatchedPrepareReply batch = this.prepareReplies.get(coordinator);
+		if (batch == null)
+			this.prepareReplies.put(coordinator, new BatchedPrepareReply(
+					reply));
+		else if (batch.size() < MAX_BATCHED_PREPARES)
+			batch.addPrepareReply(reply);
+		else {
+			this.fullBatches.add(new MessagingTask(coordinator, batch));
+			this.prepareReplies.put(coordinator, new BatchedPrepareReply(
+					reply));
+		}
+		return true;
+	}
+
 	private boolean enqueueImpl(MessagingTask requestMTask) {
 		return this.requests.add(requestMTask);
 	}
@@ -199,6 +252,15 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 				&& (pp = this.dequeueImplA()) != null)
 			if (pkts.add(new MessagingTask(((BatchedAccept)pp).getGroup(), pp)))
 				lengthEstimate += RequestPacket.SIZE_ESTIMATE*((BatchedAccept)pp).size();
+		while (!this.fullBatches.isEmpty()
+				&& lengthEstimate < NIOTransport.MAX_PAYLOAD_SIZE
+				&& (mtask = this.fullBatches.removeFirst()) != null)
+			if (pkts.add(mtask))
+				lengthEstimate += lengthEstimate(mtask.msgs[0]);
+		while (lengthEstimate < NIOTransport.MAX_PAYLOAD_SIZE
+				&& (mtask = this.dequeueImplP()) != null)
+			if (pkts.add(mtask))
+				lengthEstimate += lengthEstimate(mtask.msgs[0]);
 		while (!this.requests.isEmpty()
 				&& lengthEstimate < NIOTransport.MAX_PAYLOAD_SIZE
 				&& (mtask = this.requests.removeFirst()) != null)
@@ -255,6 +317,27 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 		return batchedAccept;
 	}
 
+	private MessagingTask dequeueImplP() {
+		if (!this.prepares.isEmpty()) {
+			Set<Integer> group = this.prepares.keySet().iterator().next();
+			return new MessagingTask(Util.setToIntArray(group),
+					this.prepares.remove(group));
+		}
+		if (!this.prepareReplies.isEmpty()) {
+			Integer coordinator = this.prepareReplies.keySet().iterator()
+					.next();
+			return new MessagingTask(coordinator,
+					this.prepareReplies.remove(coordinator));
+		}
+		return null;
+	}
+
+	private static int lengthEstimate(PaxosPacket batch) {
+		return batch instanceof BatchedPrepare ? ((BatchedPrepare) batch)
+				.lengthEstimate() : ((BatchedPrepareReply) batch)
+				.lengthEstimate();
+	}
+
 	private void send(MessagingTask mtask) {
 		try {
 			this.paxosManager.send(mtask, false, false);
@@ -279,9 +362,15 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 	private static final boolean ENABLE_INSTRUMENTATION = Config.getGlobalBoolean(PC.ENABLE_INSTRUMENTATION);
 	private MessagingTask[] batch(MessagingTask[] mtasks) {
 		Map<Set<Integer>, BatchedPaxosPacket> grouped = new LinkedHashMap<Set<Integer>, BatchedPaxosPacket>();
+		ArrayList<MessagingTask> batchedMTasks = new ArrayList<MessagingTask>();
 		for (MessagingTask mtask : mtasks) {
 			if (mtask == null || mtask.isEmptyMessaging())
 				continue;
+			// already batched across groups
+			if (isBatchedPrepareOrReply(mtask)) {
+				batchedMTasks.add(mtask);
+				continue;
+			}
 			{
 				Set<Integer> group = Util.arrayToIntSet(mtask.recipients);
 				assert (group != null);
@@ -294,7 +383,6 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 						.updateMovAvg("#ppbatched", grouped.get(group).size());
 			}
 		}
-		ArrayList<MessagingTask> batchedMTasks = new ArrayList<MessagingTask>();
 		for (Set<Integer> group : grouped.keySet())
 			batchedMTasks.add(new MessagingTask(Util.setToIntArray(group),
 					grouped.get(group)));
@@ -303,6 +391,14 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 	}
 	
 
+	private static boolean isBatchedPrepareOrReply(MessagingTask mtask) {
+		return mtask.msgs[0].getType() == PaxosPacketType.BATCHED_PREPARE
+				|| mtask.msgs[0].getType() == PaxosPacketType.BATCHED_PREPARE_REPLY;
+	}
+
+	private static boolean BATCHED_PREPARES = Config
+			.getGlobalBoolean(PC.BATCHED_PREPARES);
+
 	private static boolean BATCHED_REQUESTS = 
 			//Config.getGlobalBoolean(PC.DIGEST_REQUESTS) && 
 			Config.getGlobalBoolean(PC.BATCHED_REQUESTS);
@@ -330,6 +426,13 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 		return !BATCHED_ACCEPTS
 				&& mtask.msgs[0].getType() == PaxosPacketType.ACCEPT;
 	}
+
+	private static boolean isUnbatchablePrepares(MessagingTask mtask) {
+		return !BATCHED_PREPARES
+				&& (mtask.msgs[0].getType() == PaxosPacketType.PREPARE || mtask.msgs[0]
+						.getType() == PaxosPacketType.PREPARE_REPLY);
+	}
+
 	private static boolean isUnbatchableRequests(MessagingTask mtask) {
 		return (!BATCHED_REQUESTS)
 				&& (mtask.msgs[0].getType() == PaxosPacketType.REQUEST
@@ -348,6 +451,7 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 				|| isUnbatchableAcceptReplies(mtask)
 				|| isUnbatchableDecision(mtask) 
 				|| isUnbatchableAccepts(mtask)
+				|| isUnbatchablePrepares(mtask)
 			|| isUnbatchableRequests(mtask))
 			return mtask;
 		
@@ -361,8 +465,10 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 
 		boolean isAccReply = allPositiveAcceptReplies(mtask), isCommit = allCoalescableDecisions(mtask),
 				//
-				isAccept = allCoalescableAccepts(mtask), isRequest = allCoalescableRequests(mtask);
-		if (!isAccReply && !isCommit && !isAccept && !isRequest)
+				isAccept = allCoalescableAccepts(mtask), isRequest = allCoalescableRequests(mtask),
+				isPrepare = allCoalescablePrepares(mtask), isPrepareReply = allCoalescablePrepareReplies(mtask);
+		if (!isAccReply && !isCommit && !isAccept && !isRequest && !isPrepare
+				&& !isPrepareReply)
 			return mtask;
 
 		if(SHORT_CIRCUIT_LOCAL) mtask = nonLocal;
@@ -382,6 +488,8 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 							: mtask.recipients)))).toArray());
 		} else if (isRequest) {
 			this.enqueue(mtask.toArray());
+		} else if (isPrepare || isPrepareReply) {
+			this.enqueue(mtask.toArray());
 		} else assert(false);
 		return SHORT_CIRCUIT_LOCAL ? local : null;  //local could still be null
 	}
@@ -444,6 +552,25 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 		return true;
 	}
 
+	private static boolean allCoalescablePrepares(MessagingTask mtask) {
+		for (PaxosPacket ppkt : mtask.msgs)
+			if (!(ppkt instanceof PreparePacket
+					&& !((PreparePacket) ppkt).isRecovery() && ppkt
+					.getPaxosID() != null))
+				return false;
+		return true;
+	}
+
+	private static boolean allCoalescablePrepareReplies(MessagingTask mtask) {
+		if (mtask.recipients.length != 1)
+			return false;
+		for (PaxosPacket ppkt : mtask.msgs)
+			if (!(ppkt instanceof PrepareReplyPacket && BatchedPrepareReply
+					.isBatchable((PrepareReplyPacket) ppkt)))
+				return false;
+		return true;
+	}
+
 	private static boolean allCoalescableRequests(MessagingTask mtask) {
 		for (PaxosPacket ppkt : mtask.msgs)
 			if (!(ppkt instanceof RequestPacket
@@ -482,10 +609,14 @@ public class PaxosPacketBatcher extends ConsumerTask<MessagingTask[]> {
 		private final HashMap<String, HashMap<Ballot, BatchedCommit>> commits = new HashMap<String, HashMap<Ballot, BatchedCommit>>();
 		private final HashMap<String, HashMap<Ballot, BatchedAccept>> accepts = new HashMap<String, HashMap<Ballot, BatchedAccept>>();
 		private final LinkedList<MessagingTask> requests = new LinkedList<MessagingTask>();
+		private final LinkedHashMap<Set<Integer>, BatchedPrepare> prepares = new LinkedHashMap<Set<Integer>, BatchedPrepare>();
+		private final LinkedHashMap<Integer, BatchedPrepareReply> prepareReplies = new LinkedHashMap<Integer, BatchedPrepareReply>();
+		private final LinkedList<MessagingTask> fullBatches = new LinkedList<MessagingTask>();
 
 		@Override
 		public int size() {
-			return acceptReplies.size() + commits.size() + this.accepts.size() + requests.size() ;
+			return acceptReplies.size() + commits.size() + this.accepts.size() + requests.size()
+					+ prepares.size() + prepareReplies.size() + fullBatches.size();
 		}
 
 		@Override
@@ -32,6 +32,7 @@ import edu.umass.cs.gigapaxos.interfaces.Replicable;
 import edu.umass.cs.nio.AbstractPacketDemultiplexer;
 import edu.umass.cs.nio.JSONMessenger;
 import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.nio.NIOTransport;
 import edu.umass.cs.nio.interfaces.Messenger;
 import edu.umass.cs.nio.interfaces.NodeConfig;
 import edu.umass.cs.nio.interfaces.SSLMessenger;
@@ -51,6 +52,17 @@ public class PaxosServer {
 
 	PaxosServer(String myID, NodeConfig<String> nodeConfig, String[] args)
 			throws IOException {
+		NIOTransport.setNumReactors(Config.getGlobalInt(PC.NIO_REACTORS));
+		NIOTransport.setUnixSocketDir(Config
+				.getGlobalString(PC.NIO_UNIX_SOCKET_DIR));
+		NIOTransport.setStreamCompression(Config
+				.getGlobalBoolean(PC.NIO_STREAM_COMPRESSION));
+		NIOTransport.setReadChunked(Config
+				.getGlobalBoolean(PC.NIO_READ_CHUNKED));
+		NIOTransport.setMaxQueuedBytes(Config
+				.getGlobalLong(PC.NIO_MAX_QUEUED_BYTES));
+		NIOTransport.setMaxQueuedBytesPerDestination(Config
+				.getGlobalLong(PC.NIO_MAX_QUEUED_BYTES_PER_DESTINATION));
 		this.messenger = (new JSONMessenger<String>(
 				(new MessageNIOTransport<String, JSONObject>(myID, nodeConfig,
 						ReconfigurationConfig.getServerSSLMode()))));
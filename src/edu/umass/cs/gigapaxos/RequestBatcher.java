@@ -26,7 +26,9 @@ import java.util.logging.Logger;
 
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
+import edu.umass.cs.gigapaxos.paxosutil.BatchingPolicy;
 import edu.umass.cs.gigapaxos.paxosutil.ConsumerTask;
+import edu.umass.cs.gigapaxos.paxosutil.StaticBatchingPolicy;
 import edu.umass.cs.nio.NIOTransport;
 import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DelayProfiler;
@@ -41,14 +43,12 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 
 	private static final int MAX_BATCH_SIZE = Config
 			.getGlobalInt(PC.MAX_BATCH_SIZE);
-	private static final double MIN_BATCH_SLEEP_DURATION = Config
-			.getGlobalDouble(PC.BATCH_SLEEP_DURATION);
-	private static final double BATCH_OVERHEAD = Config
-			.getGlobalDouble(PC.BATCH_OVERHEAD);
 
 	private final HashMap<String, LinkedBlockingQueue<RequestPacket>> batched;
 	private final PaxosManager<?> paxosManager;
-	private static double agreementLatency = 0;
+	private final BatchingPolicy policy = createBatchingPolicy();
+	// written under the class lock, read without it on the hot path
+	private static volatile double agreementLatency = 0;
 
 	private static Logger log = PaxosConfig.getLogger();
 
@@ -80,6 +80,40 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 		this.paxosManager.proposeBatched(task);
 	}
 
+	private static BatchingPolicy createBatchingPolicy() {
+		String className = Config.getGlobalString(PC.BATCHING_POLICY);
+		try {
+			return (BatchingPolicy) Class.forName(className)
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			log.log(Level.WARNING,
+					"{0} unable to instantiate batching policy {1}: {2}; using {3}",
+					new Object[] { RequestBatcher.class.getSimpleName(),
+							className, e,
+							StaticBatchingPolicy.class.getSimpleName() });
+			return new StaticBatchingPolicy();
+		}
+	}
+
+	/* Per-group agreement latency sample for the batching policy in addition
+	 * to the global moving average. */
+	protected void updateSleepDuration(String paxosID, long entryTime) {
+		updateSleepDuration(entryTime);
+		this.policy.updateLatency(paxosID, System.currentTimeMillis()
+				- entryTime);
+	}
+
+	protected void removeGroup(String paxosID) {
+		this.policy.remove(paxosID);
+	}
+
+	/**
+	 * @return Moving average of the agreement latency across all groups.
+	 */
+	public static double getAgreementLatency() {
+		return agreementLatency;
+	}
+
 	protected synchronized static void updateSleepDuration(long entryTime) {
 		agreementLatency = Util.movingAverage(
 				((double) (System.currentTimeMillis() - entryTime)),
@@ -98,19 +132,16 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 
 	private int avgNumQGroups = 1;
 
-	// max time for which the dequeueing thread will wait
-	private static final long MAX_BATCH_SLEEP_DURATION = 10;
 	// if batching enabled, min delay for enqueue/dequeue to happen at all
 	private static final long MIN_AGREEMENT_LATENCY_FOR_BATCHING = 0;
-	// max queued groups after which we stop any batch sleeps
-	private static final int MAX_GROUPS_FOR_BATCH_SLEEP = 5;
 	// FIXME: currently not actually used in throttleExcessiveLoad
 	private static final int MAX_QUEUED_REQUESTS = Config
 			.getGlobalInt(PC.MAX_OUTSTANDING_REQUESTS);
 
 	@Override
 	public void enqueueImpl(RequestPacket task) {
-		this.setSleepDuration(this.computeSleepDuration());
+		this.setSleepDuration(this.policy.getSleepDuration(task.getPaxosID(),
+				Math.max(this.avgNumQGroups, this.batched.size())));
 
 		// increase outstanding count and enqueue
 		this.paxosManager.incrOutstanding(task.addDebugInfo("b",
@@ -128,13 +159,6 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 		this.throttleExcessiveLoad();
 	}
 
-	private double computeSleepDuration() {
-		return (Math.max(this.avgNumQGroups, this.batched.size()) < MAX_GROUPS_FOR_BATCH_SLEEP ? Math
-				.min(MAX_BATCH_SLEEP_DURATION, MIN_BATCH_SLEEP_DURATION
-						+ agreementLatency * BATCH_OVERHEAD)
-				/ (Math.max(this.avgNumQGroups, this.batched.size())) : 0);
-	}
-
 	protected int getQueueSize() {
 		return this.queueSize;
 	}
@@ -156,7 +180,7 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 	}
 
 	protected static boolean shouldEnqueue() {
-		return agreementLatency > MIN_AGREEMENT_LATENCY_FOR_BATCHING;
+		return getAgreementLatency() > MIN_AGREEMENT_LATENCY_FOR_BATCHING;
 	}
 	
 	private static final boolean ENABLE_INSTRUMENTATION = Config.getGlobalBoolean(PC.ENABLE_INSTRUMENTATION);
@@ -183,6 +207,39 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 		reqPktIter.remove();
 
 		// then pluck the rest into a batch within the first request
+		pluckBatch(first, reqPktIter, false);
+
+		// remove first list if all plucked
+		if (firstEntry.getValue().isEmpty())// !reqPktIter.hasNext())
+			mapEntryIter.remove();
+
+		if (ENABLE_INSTRUMENTATION && Util.oneIn(20))
+			DelayProfiler.updateMovAvg("#queued", queueSize);
+		assert (first.batchSize() < MAX_BATCH_SIZE);
+		queueSize -= (first.batchSize() + 1);
+		Level level = Level.FINE;
+		log.log(level, "{0} dequeueing request {1}",
+				new Object[] { this, first.getSummary(log.isLoggable(level)) });
+
+		return first;
+	}
+	
+	/**
+	 * Plucks requests from {@code reqPktIter} into a batch latched to
+	 * {@code first}. Also used by coordinators to coalesce requests queued
+	 * behind a full pipelining window.
+	 * 
+	 * @param first
+	 * @param reqPktIter
+	 * @param plainOnly
+	 *            If true, stop at the first stop or broadcasted request as
+	 *            those must be proposed by themselves.
+	 * @return {@code first}
+	 */
+	protected static RequestPacket pluckBatch(RequestPacket first,
+			Iterator<RequestPacket> reqPktIter, boolean plainOnly) {
+		if (plainOnly && !isPlain(first))
+			return first;
 		Set<RequestPacket> batch = new HashSet<RequestPacket>();
 		/* totalByteLength must be less than SQLPaxosLogger.MAX_LOG_MESSAGE_SIZE
 		 * that specifies the maximum length of a paxos log message. We use the
@@ -207,7 +264,8 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 					SQLPaxosLogger.MAX_LOG_MESSAGE_SIZE)
 					: NIOTransport.MAX_PAYLOAD_SIZE))
 					// batch size limit would be reached
-					|| ((totalBatchSize += next.batchSize() + 1) > MAX_BATCH_SIZE))
+					|| ((totalBatchSize += next.batchSize() + 1) > MAX_BATCH_SIZE)
+					|| (plainOnly && !isPlain(next)))
 				break;
 			// else add to batch and remove
 			batch.add(next);
@@ -217,22 +275,13 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 		// latch plucked sub-list above to the first request
 		if (!batch.isEmpty())
 			first.latchToBatch(batch.toArray(new RequestPacket[0]));
-
-		// remove first list if all plucked
-		if (firstEntry.getValue().isEmpty())// !reqPktIter.hasNext())
-			mapEntryIter.remove();
-
-		if (ENABLE_INSTRUMENTATION && Util.oneIn(20))
-			DelayProfiler.updateMovAvg("#queued", queueSize);
-		assert (first.batchSize() < MAX_BATCH_SIZE);
-		queueSize -= (first.batchSize() + 1);
-		Level level = Level.FINE;
-		log.log(level, "{0} dequeueing request {1}",
-				new Object[] { this, first.getSummary(log.isLoggable(level)) });
-
 		return first;
 	}
-	
+
+	private static boolean isPlain(RequestPacket request) {
+		return !request.isStopRequest() && !request.isBroadcasted();
+	}
+
 	public String toString() {
 		return RequestBatcher.class.getSimpleName()+":"+this.paxosManager;
 	}
@@ -40,6 +40,7 @@ import java.sql.Statement;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -66,6 +67,7 @@ import javax.sql.DataSource;
 
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.JUnitCore;
 import org.junit.runner.Result;
@@ -90,6 +92,7 @@ import edu.umass.cs.gigapaxos.paxosutil.LogIndex.LogIndexEntry;
 import edu.umass.cs.gigapaxos.paxosutil.LogMessagingTask;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosInstanceCreationException;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosMessenger;
+import edu.umass.cs.gigapaxos.paxosutil.Quorum;
 import edu.umass.cs.gigapaxos.paxosutil.RecoveryInfo;
 import edu.umass.cs.gigapaxos.paxosutil.SQL;
 import edu.umass.cs.gigapaxos.paxosutil.SlotBallotState;
@@ -150,6 +153,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	private static final String PREV_CHECKPOINT_TABLE = "prev_checkpoint";
 	private static final String PAUSE_TABLE = "pause";
 	private static final String MESSAGES_TABLE = "messages";
+	private static final String QUORUM_TABLE = "quorum";
 
 	/**
 	 * Disable persistent logging altogether
@@ -682,6 +686,148 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		return null;
 	}
 
+	// large in-lists get expensive to compile for some embedded DBs
+	private static final int MAX_IN_LIST_SIZE = 1000;
+
+	@Override
+	public Set<String> getExisting(Set<String> paxosIDs) {
+		Set<String> existing = new HashSet<String>();
+		String[] names = paxosIDs.toArray(new String[0]);
+		for (int i = 0; i < names.length; i += MAX_IN_LIST_SIZE) {
+			String[] chunk = Arrays.copyOfRange(names, i,
+					Math.min(names.length, i + MAX_IN_LIST_SIZE));
+			// checkpoint rows also cover paused instances
+			existing.addAll(this.getExisting(getCTable(), chunk, false));
+			existing.addAll(this.getExisting(getPCTable(), chunk, true));
+		}
+		return existing;
+	}
+
+	private Set<String> getExisting(String table, String[] paxosIDs,
+			boolean unexpiredOnly) {
+		Set<String> existing = new HashSet<String>();
+		StringBuilder cmd = new StringBuilder("select paxos_id, create_time from "
+				+ table + " where paxos_id in (");
+		for (int i = 0; i < paxosIDs.length; i++)
+			cmd.append(i > 0 ? ",?" : "?");
+		cmd.append(")");
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		Connection conn = null;
+		try {
+			conn = this.getDefaultConn();
+			pstmt = conn.prepareStatement(cmd.toString());
+			for (int i = 0; i < paxosIDs.length; i++)
+				pstmt.setString(i + 1, paxosIDs[i]);
+			rs = pstmt.executeQuery();
+			while (rs.next())
+				if (!unexpiredOnly
+						|| System.currentTimeMillis() - rs.getLong(2) < MAX_FINAL_STATE_AGE)
+					existing.add(rs.getString(1));
+		} catch (SQLException sqle) {
+			log.severe(this + ": SQLException while looking up " + table
+					+ " for " + Util.truncatedLog(Arrays.asList(paxosIDs), 8)
+					+ " : " + sqle);
+			sqle.printStackTrace();
+			// can't tell, so play safe
+			existing.addAll(Arrays.asList(paxosIDs));
+		} finally {
+			cleanup(pstmt, rs);
+			cleanup(conn);
+		}
+		return existing;
+	}
+
+	@Override
+	public boolean putQuorum(String paxosID, int version, int groupSize,
+			Quorum quorum) {
+		if (isClosed())
+			return false;
+		String updateCmd = "update " + getQTable()
+				+ " set group_size=?, prepare_quorum=?, accept_quorum=? "
+				+ "where paxos_id=? and version=?";
+		String insertCmd = "insert into " + getQTable()
+				+ " (group_size, prepare_quorum, accept_quorum, paxos_id, "
+				+ "version) values (?,?,?,?,?)";
+		PreparedStatement pstmt = null;
+		Connection conn = null;
+		boolean put = false;
+		try {
+			conn = this.getDefaultConn();
+			// try update first; if nothing updated, insert
+			for (String cmd : new String[] { updateCmd, insertCmd }) {
+				pstmt = conn.prepareStatement(cmd);
+				pstmt.setInt(1, groupSize);
+				pstmt.setInt(2, quorum.prepare);
+				pstmt.setInt(3, quorum.accept);
+				pstmt.setString(4, paxosID);
+				pstmt.setInt(5, version);
+				put = pstmt.executeUpdate() > 0;
+				pstmt.close();
+				if (put)
+					break;
+			}
+		} catch (SQLException sqle) {
+			log.severe(this + " unable to record quorum " + quorum + " for "
+					+ paxosID + ":" + version + " : " + sqle);
+			sqle.printStackTrace();
+		} finally {
+			cleanup(pstmt);
+			cleanup(conn);
+		}
+		return put;
+	}
+
+	@Override
+	public boolean removeQuorum(String paxosID, int version) {
+		if (isClosed())
+			return false;
+		PreparedStatement pstmt = null;
+		Connection conn = null;
+		boolean removed = false;
+		try {
+			conn = this.getDefaultConn();
+			pstmt = conn.prepareStatement("delete from " + getQTable()
+					+ " where paxos_id=? and version=?");
+			pstmt.setString(1, paxosID);
+			pstmt.setInt(2, version);
+			removed = pstmt.executeUpdate() > 0;
+		} catch (SQLException sqle) {
+			log.severe(this + " unable to remove quorum for " + paxosID
+					+ ":" + version + " : " + sqle);
+			sqle.printStackTrace();
+		} finally {
+			cleanup(pstmt);
+			cleanup(conn);
+		}
+		return removed;
+	}
+
+	@Override
+	public Map<String, Quorum> getQuorums() {
+		Map<String, Quorum> quorums = new HashMap<String, Quorum>();
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		Connection conn = null;
+		try {
+			conn = this.getDefaultConn();
+			pstmt = conn.prepareStatement("select paxos_id, version, "
+					+ "group_size, prepare_quorum, accept_quorum from "
+					+ getQTable());
+			rs = pstmt.executeQuery();
+			while (rs.next())
+				quorums.put(rs.getString(1) + ":" + rs.getInt(2), Quorum
+						.flexible(rs.getInt(3), rs.getInt(4), rs.getInt(5)));
+		} catch (SQLException sqle) {
+			log.severe(this + " unable to read quorums : " + sqle);
+			sqle.printStackTrace();
+		} finally {
+			cleanup(pstmt, rs);
+			cleanup(conn);
+		}
+		return quorums;
+	}
+
 	static class Journaler {
 		private static final String SUBDIR = "paxos_journal.";
 		private static final String PREFIX = "log.";
@@ -1668,6 +1814,14 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 					"{0} SQLException while batched checkpointing",
 					new Object[] { this });
 			sqle.printStackTrace();
+			// e.g., a duplicate key fails the uncommitted part of the batch
+			batchSuccess = false;
+			try {
+				if (conn != null)
+					conn.rollback();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
 		} finally {
 			cleanup(insertCP);
 			cleanup(conn);
@@ -1970,6 +2124,24 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		return paused;
 	}
 
+	@Override
+	protected void uncache(Set<String> paxosIDs) {
+		// else the message log has nothing to free up
+		if (isClosed() || !USE_DISK_MAP)
+			return;
+		Map<String, LogIndex> toCommit = new HashMap<String, LogIndex>();
+		synchronized (this.messageLog) {
+			for (String paxosID : paxosIDs) {
+				LogIndex logIndex = this.messageLog.getLogIndex(paxosID);
+				if (logIndex != null)
+					toCommit.put(paxosID, logIndex);
+			}
+		}
+		// uncaches what got paused; the rest stays cached
+		if (!toCommit.isEmpty())
+			this.pauseLogIndex(toCommit);
+	}
+
 	private Map<String, HotRestoreInfo> diffHRI(
 			Map<String, HotRestoreInfo> map1, Map<String, HotRestoreInfo> map2) {
 		Map<String, HotRestoreInfo> diffEntries = new HashMap<String, HotRestoreInfo>();
@@ -3040,8 +3212,10 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 					log.severe(this + " retrieved null packet from logMsgStr");
 					continue;
 				}
-				assert (packet == null || !(packet instanceof AcceptPacket) || ((AcceptPacket) packet)
-						.hasRequestValue()) : packet;
+				// witnesses log only digests
+				assert (packet == null || !(packet instanceof AcceptPacket)
+						|| ((AcceptPacket) packet).hasRequestValue() || ((AcceptPacket) packet)
+						.isDigested()) : packet;
 				// sanity check for DB-journal consistency
 				assert (packet == null || packet.getType().getInt() == messagesRS
 						.getInt("packet_type"));
@@ -3790,6 +3964,15 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 				+ getPTable()
 				+ (paxosID != null ? " where paxos_id='" + paxosID + "'"
 						: " where true");
+		String cmdQ = "delete from "
+				+ getQTable()
+				+ (paxosID != null ? " where paxos_id='"
+						+ paxosID
+						+ "' and (version="
+						+ version
+						+ " or "
+						+ SQLPaxosLogger.getIntegerLTConstraint("version",
+								version) + ")" : " where true");
 		Connection conn = null;
 		try {
 			conn = this.getDefaultConn();
@@ -3800,15 +3983,15 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			removedM = true;
 			stmt.execute(cmdP);
 			removedP = true;
+			stmt.execute(cmdQ);
 			// conn.commit();
 			log.log(Level.FINE,
 					"{0} removed all state for {1}:{2} and pause state for all versions of {3} ",
 					new Object[] { this, paxosID, version, paxosID });
 		} catch (SQLException sqle) {
-			if (!removedP)
-				log.severe(this + " could not remove table "
-						+ (removedCP ? (removedM ? getPTable() : getMTable())
-								: getCTable()));
+			log.severe(this + " could not remove table "
+					+ (removedCP ? (removedM ? (removedP ? getQTable()
+							: getPTable()) : getMTable()) : getCTable()));
 			sqle.printStackTrace();
 		} finally {
 			cleanup(stmt);
@@ -3964,7 +4147,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	 * coordinator fields, so they are indexed.
 	 */
 	private boolean createTables() {
-		boolean createdCheckpoint = false, createdMessages = false, createdPTable = false, createdPrevCheckpoint = false;
+		boolean createdCheckpoint = false, createdMessages = false, createdPTable = false, createdPrevCheckpoint = false, createdQTable = false;
 		String cmdC = "create table "
 				+ getCTable()
 				+ " ("
@@ -4042,6 +4225,13 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 				+ SQL.getBlobString(LOG_INDEX_SIZE, SQL_TYPE)
 				+ ", primary key (paxos_id))";
 
+		/* Flexible Paxos quorum sizes of group versions that don't use the
+		 * default quorums. Rows are few, so there is no need for an index. */
+		String cmdQ = "create table " + getQTable() + " (paxos_id varchar("
+				+ MAX_PAXOS_ID_SIZE + ") not null, version int, "
+				+ "group_size int, prepare_quorum int, accept_quorum int, "
+				+ "primary key (paxos_id, version))";
+
 		// this.dropTable(getPTable()); // pause table is unnecessary
 		// this.clearTable(getPTable()); // pause table is unnecessary
 
@@ -4057,6 +4247,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 							stmt, cmdMI, getMTable()));
 			createdPTable = createTable(stmt, cmdP, getPTable());
 			createdPrevCheckpoint = createTable(stmt, cmdPC, getPCTable());
+			createdQTable = createTable(stmt, cmdQ, getQTable());
 			log.log(Level.INFO, "{0}{1}{2}{3}{4}{5}", new Object[] {
 					"Created tables ", getCTable(), " and ", getMTable(),
 					" and ", getPTable() });
@@ -4064,6 +4255,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			log.severe(this + " could not create table(s): "
 					+ (createdPTable ? "" : getPTable()) + " "
 					+ (createdPrevCheckpoint ? "" : getPCTable()) + " "
+					+ (createdQTable ? "" : getQTable()) + " "
 					+ (createdMessages ? "" : getMTable()) + " "
 					+ (createdCheckpoint ? "" : getCTable()));
 			sqle.printStackTrace();
@@ -4404,11 +4596,15 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		return PAUSE_TABLE + this.getMyIDSanitized()/* this.myID */;
 	}
 
+	private String getQTable() {
+		return QUORUM_TABLE + this.getMyIDSanitized()/* this.myID */;
+	}
+
 	/* end of table names */
 
 	private String[] getAllTableNames() {
 		return new String[] { getCTable(), getPTable(), getMTable(),
-				getPTable() };
+				getPTable(), getQTable() };
 	}
 
 	private synchronized void cleanupCursorConn() {
@@ -5071,6 +5267,119 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		public void testPerformance() {
 			SQLPaxosLogger.testPerformance(new SQLPaxosLogger(23, null, null));
 		}
+
+		/**
+		 * Quorum records must survive a restart and go away with the rest of
+		 * the instance's state.
+		 */
+		@Test
+		public void testQuorums() {
+			SQLPaxosLogger logger = new SQLPaxosLogger(24, null, null);
+			logger.removeAll();
+			Assert.assertTrue(logger.putQuorum("paxos0", 2, 5,
+					Quorum.flexible(5, 4, 2)));
+			// each version has its own quorums
+			Assert.assertTrue(logger.putQuorum("paxos1", 0, 3,
+					Quorum.flexible(3, 3, 1)));
+			Assert.assertTrue(logger.putQuorum("paxos1", 1, 3,
+					Quorum.flexible(3, 2, 2)));
+			// and putting again replaces them
+			Assert.assertTrue(logger.putQuorum("paxos1", 1, 3,
+					Quorum.flexible(3, 1, 3)));
+			logger.close();
+
+			logger = new SQLPaxosLogger(24, null, null);
+			Map<String, Quorum> quorums = logger.getQuorums();
+			Assert.assertEquals(3, quorums.size());
+			Assert.assertEquals(4, quorums.get("paxos0:2").prepare);
+			Assert.assertEquals(2, quorums.get("paxos0:2").accept);
+			Assert.assertEquals(1, quorums.get("paxos1:0").accept);
+			Assert.assertEquals(3, quorums.get("paxos1:1").accept);
+
+			// only the exact version goes away
+			Assert.assertTrue(logger.removeQuorum("paxos1", 1));
+			Assert.assertFalse(logger.removeQuorum("paxos1", 1));
+			Assert.assertTrue(logger.getQuorums().containsKey("paxos1:0"));
+			Assert.assertFalse(logger.getQuorums().containsKey("paxos1:1"));
+
+			// lower versions don't remove higher ones
+			logger.remove("paxos0", 1);
+			Assert.assertTrue(logger.getQuorums().containsKey("paxos0:2"));
+			logger.remove("paxos0", 2);
+			Assert.assertFalse(logger.getQuorums().containsKey("paxos0:2"));
+			logger.removeAll();
+			Assert.assertTrue(logger.getQuorums().isEmpty());
+			logger.close();
+		}
+
+		/**
+		 * Existing names are found in both checkpoint tables and across
+		 * several in-list chunks.
+		 */
+		@Test
+		public void testGetExisting() {
+			SQLPaxosLogger logger = new SQLPaxosLogger(25, null, null);
+			logger.removeAll();
+			Set<String> group = Util.arrayOfIntToStringSet(new int[] { 25 });
+			Map<String, String> nameStates = new HashMap<String, String>();
+			for (int i = 0; i < 2 * MAX_IN_LIST_SIZE + 1; i++)
+				nameStates.put("name" + i, "state" + i);
+			String stopped = "name" + (nameStates.size() - 2);
+			// removeAll leaves epoch final checkpoints alone
+			logger.deleteEpochFinalCheckpointState(stopped, 0);
+			Assert.assertTrue(logger.getExisting(nameStates.keySet())
+					.isEmpty());
+
+			Map<String, String> some = new HashMap<String, String>();
+			for (int i = 0; i < nameStates.size(); i += MAX_IN_LIST_SIZE / 2)
+				some.put("name" + i, "state" + i);
+			Assert.assertTrue(logger.insertInitialCheckpoints(some, group,
+					new int[] { 25 }, new HashSet<Integer>()));
+			// only the final checkpoint of a stopped instance remains
+			logger.putCheckpointState(stopped, 0, group, 0, new Ballot(0, 25),
+					"final", 0);
+			Assert.assertTrue(logger.copyEpochFinalCheckpointState(stopped, 0));
+			logger.remove(stopped, 0);
+			Assert.assertNull(logger.getCheckpointState(stopped));
+
+			Set<String> existing = logger.getExisting(nameStates.keySet());
+			Assert.assertEquals(some.size() + 1, existing.size());
+			Assert.assertTrue(existing.containsAll(some.keySet()));
+			Assert.assertTrue(existing.contains(stopped));
+			logger.deleteEpochFinalCheckpointState(stopped, 0);
+			logger.removeAll();
+			logger.close();
+		}
+
+		/**
+		 * Batch insertion of initial checkpoints is all or nothing.
+		 */
+		@Test
+		public void testInsertInitialCheckpointsConflict() {
+			SQLPaxosLogger logger = new SQLPaxosLogger(25, null, null);
+			logger.removeAll();
+			Set<String> group = Util.arrayOfIntToStringSet(new int[] { 25 });
+			Map<String, String> nameStates = new HashMap<String, String>();
+			nameStates.put("existing", "old");
+			Assert.assertTrue(logger.insertInitialCheckpoints(nameStates,
+					group, new int[] { 25 }, new HashSet<Integer>()));
+
+			nameStates.put("existing", "new");
+			for (int i = 0; i < 10; i++)
+				nameStates.put("name" + i, "state" + i);
+			try {
+				logger.insertInitialCheckpoints(nameStates, group,
+						new int[] { 25 }, new HashSet<Integer>());
+				Assert.fail("conflicting batch insertion should fail");
+			} catch (PaxosInstanceCreationException e) {
+				// expected
+			}
+			Assert.assertEquals(Collections.singleton("existing"),
+					logger.getExisting(nameStates.keySet()));
+			Assert.assertEquals("old", logger.getCheckpointState("existing"));
+			logger.removeAll();
+			logger.close();
+		}
 	}
 
 	/**
@@ -0,0 +1,43 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos.interfaces;
+
+import java.util.Set;
+
+/**
+ * @author arun
+ *
+ *         Requests implementing this interface can be executed in parallel
+ *         with other committed requests in the same paxos group when
+ *         {@link edu.umass.cs.gigapaxos.PaxosConfig.PC#PARALLEL_EXECUTION} is
+ *         enabled. Two requests conflict iff their conflict key sets
+ *         intersect; conflicting requests are always executed in slot order.
+ *         Requests that do not implement this interface conflict with every
+ *         other request.
+ */
+public interface ConflictAwareRequest extends Request {
+	/**
+	 * The app must ensure that executing two requests with disjoint conflict
+	 * keys in either order or concurrently leaves the app in the same state
+	 * and produces the same responses as executing them in slot order.
+	 *
+	 * @return The set of keys, e.g., names of objects read or written by this
+	 *         request, that determine which other requests this request
+	 *         conflicts with. A null return value means that this request
+	 *         conflicts with all other requests, i.e., it acts as a barrier.
+	 */
+	public Set<String> getConflictKeys();
+}
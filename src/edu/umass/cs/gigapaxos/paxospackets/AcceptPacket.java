@@ -19,11 +19,11 @@ import java.io.UnsupportedEncodingException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
+import java.util.Set;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import edu.umass.cs.gigapaxos.paxosutil.IntegerMap;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosMessenger;
 import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.Util;
@@ -87,6 +87,7 @@ public final class AcceptPacket extends PValuePacket {
 			UnknownHostException {
 		super(bbuf);
 		this.sender = bbuf.getInt();
+		this.setFrameEnd(bbuf);
 	}
 
 	protected static final int SIZEOF_ACCEPT = 4;
@@ -94,35 +95,22 @@ public final class AcceptPacket extends PValuePacket {
 	@Override
 	public synchronized byte[] toBytes() {
 		long t = System.nanoTime();
-		if (!(PaxosPacket.BYTEIFICATION && IntegerMap.allInt()))
+		if (!PaxosPacket.BYTEIFICATION)
 			return super.toBytes();
 
 		if (this.getByteifiedSelf() != null)
 			return this.getByteifiedSelf();
 
+		// received and unmodified accepts are relayed or journaled as they came
+		byte[] verbatim = this.getVerbatimBytes();
+		if (verbatim != null)
+			return verbatim;
+
 		// else construct
-		byte[] buf = super.toBytes(false);
-		byte[] bytes = new byte[buf.length
-		// ProposalPacket.slot
-				+ SIZEOF_PROPOSAL
-				// PValuePacket:ballot, recovery, medianCheckpointedSlot,
-				// noCoalesce
-				+ SIZEOF_PVALUE
-				// AcceptPacket.sender
-				+ SIZEOF_ACCEPT];
-		ByteBuffer bbuf = ByteBuffer.wrap(bytes);
-
-		// request
-		bbuf.put(buf);
-		// proposal
-		bbuf.putInt(this.slot)
-				// pvalue
-				.putInt(this.ballot.ballotNumber)
-				.putInt(this.ballot.coordinatorID)
-				.put(this.isRecovery() ? (byte) 1 : 0)
-				.putInt(this.getMedianCheckpointedSlot()).put((byte) 0)
-				// accept
-				.putInt(this.sender);
+		ByteBuffer bbuf = this.toPValueBytes(SIZEOF_ACCEPT);
+		// accept
+		bbuf.putInt(this.sender);
+		byte[] bytes = bbuf.array();
 
 		assert (bbuf.remaining() == 0); // exact alignment
 
@@ -140,6 +128,12 @@ public final class AcceptPacket extends PValuePacket {
 		this(ByteBuffer.wrap(bytes));
 	}
 
+	@Override
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		nodeIDs.add(this.sender);
+		return super.getNodeIDs(nodeIDs);
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = super.toJSONObjectImpl();
@@ -18,17 +18,19 @@ package edu.umass.cs.gigapaxos.paxospackets;
 import java.io.UnsupportedEncodingException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.util.Set;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
 
 /**
  * @author arun
  *
  */
-public class AcceptReplyPacket extends PaxosPacket {
+public class AcceptReplyPacket extends PaxosPacket implements Byteable {
 	/**
 	 * Sender node ID.
 	 */
@@ -183,6 +185,30 @@ public class AcceptReplyPacket extends PaxosPacket {
 		return bbuf;
 	}
 
+	@Override
+	public byte[] toBytes() {
+		try {
+			if (!BYTEIFICATION)
+				return this.toString().getBytes(CHARSET);
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[SIZEOF_PAXOSPACKET_FIXED
+					+ this.getPaxosID().getBytes(CHARSET).length
+					+ SIZEOF_ACCEPTREPLY]);
+			this.toBytes(bbuf);
+			assert (!bbuf.hasRemaining()); // perfect alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	@Override
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		nodeIDs.add(this.acceptor);
+		nodeIDs.add(this.ballot.coordinatorID);
+		return nodeIDs;
+	}
+
 	/**
 	 * @return {@link #requestID} used only for debugging.
 	 */
@@ -1,6 +1,8 @@
 package edu.umass.cs.gigapaxos.paxospackets;
 
 import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeMap;
@@ -10,13 +12,14 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.utils.Util;
 
 /**
  * @author arun
  *
  */
-public class BatchedAccept extends PaxosPacket {
+public class BatchedAccept extends PaxosPacket implements Byteable {
 
 	/**
 	 * 
@@ -94,6 +97,78 @@ public class BatchedAccept extends PaxosPacket {
 
 	}
 
+	/**
+	 * @param bbuf
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	public BatchedAccept(ByteBuffer bbuf) throws UnsupportedEncodingException,
+			UnknownHostException {
+		super(bbuf);
+		this.ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
+		this.medianCheckpointedSlot = bbuf.getInt();
+		int groupSize = bbuf.getInt();
+		this.group = new HashSet<Integer>();
+		for (int i = 0; i < groupSize; i++)
+			this.group.add(bbuf.getInt());
+		int numSlots = bbuf.getInt();
+		for (int i = 0; i < numSlots; i++) {
+			int slot = bbuf.getInt();
+			this.slotRequestIDs.put(slot, bbuf.getLong());
+			byte[] digest = new byte[bbuf.getShort()];
+			bbuf.get(digest);
+			this.slotDigests.put(slot, digest);
+		}
+	}
+
+	// slot + requestID + digest length
+	private static final int SIZEOF_SLOT_FIXED = 4 + 8 + 2;
+
+	@Override
+	public byte[] toBytes() {
+		if (!BYTEIFICATION) {
+			try {
+				return this.toString().getBytes(CHARSET);
+			} catch (UnsupportedEncodingException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		try {
+			int length = 0;
+			for (byte[] digest : this.slotDigests.values())
+				length += SIZEOF_SLOT_FIXED + digest.length;
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[SIZEOF_PAXOSPACKET_FIXED
+					+ (this.paxosID != null ? this.paxosID.getBytes(CHARSET).length
+							: 0) + 8 + 4 + 4 + 4 * this.group.size() + 4
+					+ length]);
+			super.toBytes(bbuf);
+			bbuf.putInt(this.ballot.ballotNumber)
+					.putInt(this.ballot.coordinatorID)
+					.putInt(this.medianCheckpointedSlot)
+					.putInt(this.group.size());
+			for (int member : this.group)
+				bbuf.putInt(member);
+			bbuf.putInt(this.slotDigests.size());
+			for (Integer slot : this.slotDigests.keySet())
+				bbuf.putInt(slot).putLong(this.slotRequestIDs.get(slot))
+						.putShort((short) this.slotDigests.get(slot).length)
+						.put(this.slotDigests.get(slot));
+			assert (!bbuf.hasRemaining()); // perfect alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	@Override
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		nodeIDs.add(this.ballot.coordinatorID);
+		nodeIDs.addAll(this.group);
+		return nodeIDs;
+	}
+
 	@Override
 	protected JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
@@ -10,7 +10,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
-import edu.umass.cs.gigapaxos.paxosutil.IntegerMap;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosMessenger;
 import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.utils.DelayProfiler;
@@ -119,7 +118,7 @@ public class BatchedAcceptReply extends AcceptReplyPacket implements Byteable {
 	@Override
 	public byte[] toBytes() {
 		long t = System.nanoTime();
-		if (!(PaxosPacket.BYTEIFICATION && IntegerMap.allInt()))
+		if (!PaxosPacket.BYTEIFICATION)
 			try {
 				return this.toString().getBytes(CHARSET);
 			} catch (UnsupportedEncodingException e1) {
@@ -12,7 +12,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
-import edu.umass.cs.gigapaxos.paxosutil.IntegerMap;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosMessenger;
 import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.utils.DelayProfiler;
@@ -186,7 +185,7 @@ public class BatchedCommit extends PaxosPacket implements Byteable {
 		if (this.byteifiedSelf != null)
 			return this.byteifiedSelf;
 
-		if (!(BYTEIFICATION && IntegerMap.allInt())) {
+		if (!BYTEIFICATION) {
 			try {
 				return this.byteifiedSelf = this.toString().getBytes(CHARSET);
 			} catch (UnsupportedEncodingException e) {
@@ -271,6 +270,13 @@ public class BatchedCommit extends PaxosPacket implements Byteable {
 		this.medianCheckpointedSlot = slot;
 	}
 
+	@Override
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		nodeIDs.add(this.ballot.coordinatorID);
+		nodeIDs.addAll(this.group);
+		return nodeIDs;
+	}
+
 	@Override
 	protected String getSummaryString() {
 		return this.ballot + ":" + this.slots;
@@ -1,7 +1,11 @@
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Set;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -9,6 +13,7 @@ import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexer;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexerFast;
+import edu.umass.cs.nio.interfaces.Byteable;
 
 /**
  * @author arun
@@ -17,9 +22,13 @@ import edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexerFast;
  *         batching benefits even with many groups just by batching together
  *         paxos packets destined to the same set of destinations. We might as
  *         well try to extract blood out of stone.
+ *         <p>
  * 
+ *         The byteified form is the sequence of the byteified forms of the
+ *         batched packets, each preceded by its length, so it is used only if
+ *         all batched packets are byteable.
  */
-public class BatchedPaxosPacket extends PaxosPacket {
+public class BatchedPaxosPacket extends PaxosPacket implements Byteable {
 
 	ArrayList<PaxosPacket> packets = new ArrayList<PaxosPacket>();
 
@@ -73,6 +82,61 @@ public class BatchedPaxosPacket extends PaxosPacket {
 		}
 	}
 
+	/**
+	 * @param bbuf
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	public BatchedPaxosPacket(ByteBuffer bbuf)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		int numPackets = bbuf.getInt();
+		for (int i = 0; i < numPackets; i++) {
+			byte[] bytes = new byte[bbuf.getInt()];
+			bbuf.get(bytes);
+			this.packets.add(PaxosPacketDemultiplexerFast.toPaxosPacket(bytes));
+		}
+	}
+
+	@Override
+	public byte[] toBytes() {
+		if (!BYTEIFICATION || !PaxosPacketDemultiplexerFast.isByteable(this)) {
+			try {
+				// toString() is not meant for this packet type
+				return this.toJSONSmart().toString().getBytes(CHARSET);
+			} catch (UnsupportedEncodingException | JSONException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		try {
+			byte[][] bytes = new byte[this.packets.size()][];
+			int length = 0;
+			for (int i = 0; i < bytes.length; i++)
+				length += 4 + (bytes[i] = ((Byteable) this.packets.get(i))
+						.toBytes()).length;
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[SIZEOF_PAXOSPACKET_FIXED
+					+ (this.paxosID != null ? this.paxosID.getBytes(CHARSET).length
+							: 0) + 4 + length]);
+			super.toBytes(bbuf);
+			bbuf.putInt(bytes.length);
+			for (byte[] packet : bytes)
+				bbuf.putInt(packet.length).put(packet);
+			assert (!bbuf.hasRemaining()); // perfect alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	@Override
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		for (PaxosPacket pp : this.packets)
+			pp.getNodeIDs(nodeIDs);
+		return nodeIDs;
+	}
+
 	@Override
 	protected JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
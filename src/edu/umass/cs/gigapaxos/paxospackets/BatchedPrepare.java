@@ -0,0 +1,204 @@
+package edu.umass.cs.gigapaxos.paxospackets;
+
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         Prepares for possibly many different paxos groups sent by the same
+ *         would-be coordinator to the same set of members. When a node fails,
+ *         the next-in-line node typically has to take over as coordinator for
+ *         every group that the failed node was coordinating; batching their
+ *         prepares avoids a storm of individual prepare messages. The ballot
+ *         number can be different for each group, but the ballot coordinator
+ *         is always the sender.
+ */
+public class BatchedPrepare extends PaxosPacket implements Byteable {
+
+	private final ArrayList<PreparePacket> prepares = new ArrayList<PreparePacket>();
+
+	/**
+	 * @param prepare
+	 */
+	public BatchedPrepare(PreparePacket prepare) {
+		super(prepare);
+		this.packetType = PaxosPacketType.BATCHED_PREPARE;
+		this.prepares.add(prepare);
+	}
+
+	/**
+	 * @param json
+	 * @throws JSONException
+	 */
+	public BatchedPrepare(JSONObject json) throws JSONException {
+		super(json);
+		this.packetType = PaxosPacket.getPaxosPacketType(json);
+		JSONArray jarray = json.getJSONArray(PaxosPacket.Keys.PP.toString());
+		for (int i = 0; i < jarray.length(); i++)
+			this.prepares.add(new PreparePacket(jarray.getJSONObject(i)));
+	}
+
+	/**
+	 * @param bbuf
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	public BatchedPrepare(ByteBuffer bbuf) throws UnsupportedEncodingException,
+			UnknownHostException {
+		super(bbuf);
+		int coordinator = bbuf.getInt();
+		int numPrepares = bbuf.getInt();
+		for (int i = 0; i < numPrepares; i++) {
+			byte[] paxosIDBytes = new byte[bbuf.get()];
+			bbuf.get(paxosIDBytes);
+			int version = bbuf.getInt();
+			Ballot ballot = new Ballot(bbuf.getInt(), coordinator);
+			PreparePacket prepare = new PreparePacket(ballot, bbuf.getInt());
+			prepare.putPaxosID(new String(paxosIDBytes, CHARSET), version);
+			this.prepares.add(prepare);
+		}
+	}
+
+	/**
+	 * @param prepare
+	 * @return {@code this}
+	 */
+	public BatchedPrepare addPrepare(PreparePacket prepare) {
+		assert (prepare.ballot.coordinatorID == this.prepares.get(0).ballot.coordinatorID);
+		this.prepares.add(prepare);
+		return this;
+	}
+
+	/**
+	 * @return Unbatched prepares.
+	 */
+	public Collection<PreparePacket> getPaxosPackets() {
+		return this.prepares;
+	}
+
+	/**
+	 * @return Number of batched prepares.
+	 */
+	public int size() {
+		return this.prepares.size();
+	}
+
+	/**
+	 * @return Approximate serialized length.
+	 */
+	public int lengthEstimate() {
+		return SIZEOF_PAXOSPACKET_FIXED + 8 + this.prepares.size()
+				* SIZEOF_PREPARE_ESTIMATE;
+	}
+
+	// 1 + paxosID + version + ballotNumber + firstUndecidedSlot
+	private static final int SIZEOF_PREPARE_FIXED = 1 + 4 + 4 + 4;
+	private static final int SIZEOF_PREPARE_ESTIMATE = SIZEOF_PREPARE_FIXED + 32;
+
+	@Override
+	protected JSONObject toJSONObjectImpl() throws JSONException {
+		JSONObject json = new JSONObject();
+		JSONArray jarray = new JSONArray();
+		for (PreparePacket prepare : this.prepares)
+			jarray.put(prepare.toJSONObject());
+		json.put(PaxosPacket.Keys.PP.toString(), jarray);
+		return json;
+	}
+
+	@Override
+	public byte[] toBytes() {
+		if (!BYTEIFICATION) {
+			try {
+				return this.toString().getBytes(CHARSET);
+			} catch (UnsupportedEncodingException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		try {
+			byte[][] paxosIDs = new byte[this.prepares.size()][];
+			int length = 0;
+			for (int i = 0; i < paxosIDs.length; i++)
+				length += SIZEOF_PREPARE_FIXED
+						+ (paxosIDs[i] = this.prepares.get(i).getPaxosID()
+								.getBytes(CHARSET)).length;
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[SIZEOF_PAXOSPACKET_FIXED
+					+ (this.paxosID != null ? this.paxosID.getBytes(CHARSET).length
+							: 0) + 8 + length]);
+			super.toBytes(bbuf);
+			bbuf.putInt(this.prepares.get(0).ballot.coordinatorID).putInt(
+					this.prepares.size());
+			for (int i = 0; i < paxosIDs.length; i++) {
+				PreparePacket prepare = this.prepares.get(i);
+				bbuf.put((byte) paxosIDs[i].length).put(paxosIDs[i])
+						.putInt(prepare.getVersion())
+						.putInt(prepare.ballot.ballotNumber)
+						.putInt(prepare.firstUndecidedSlot);
+			}
+			assert (!bbuf.hasRemaining()); // perfect alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	@Override
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		nodeIDs.add(this.prepares.get(0).ballot.coordinatorID);
+		return nodeIDs;
+	}
+
+	@Override
+	protected String getSummaryString() {
+		return this.prepares.get(0).ballot.coordinatorID + ":"
+				+ this.prepares.size();
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class BatchedPrepareTest extends DefaultTest {
+		@Test
+		public void testBytesRoundtrip() throws UnsupportedEncodingException,
+				UnknownHostException, JSONException {
+			BatchedPrepare batch = null;
+			BatchedPrepareReply replies = null;
+			for (int i = 0; i < 10; i++) {
+				PreparePacket prepare = new PreparePacket(new Ballot(i, 3),
+						100 + i);
+				prepare.putPaxosID("group" + i, i);
+				batch = batch == null ? new BatchedPrepare(prepare) : batch
+						.addPrepare(prepare);
+				PrepareReplyPacket reply = new PrepareReplyPacket(5,
+						new Ballot(i, 3), 100 + i, 90, 120 + i, 1000L * i);
+				reply.putPaxosID("group" + i, i);
+				replies = replies == null ? new BatchedPrepareReply(reply)
+						: replies.addPrepareReply(reply);
+			}
+			BatchedPrepare batch2 = new BatchedPrepare(ByteBuffer.wrap(batch
+					.toBytes()));
+			Assert.assertEquals(batch.toString(), batch2.toString());
+			Assert.assertEquals(batch.toString(), new BatchedPrepare(
+					batch.toJSONObject()).toString());
+			BatchedPrepareReply replies2 = new BatchedPrepareReply(
+					ByteBuffer.wrap(replies.toBytes()));
+			Assert.assertEquals(replies.toString(), replies2.toString());
+			Assert.assertEquals(replies.toString(), new BatchedPrepareReply(
+					replies.toJSONObject()).toString());
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package edu.umass.cs.gigapaxos.paxospackets;
+
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
+
+/**
+ * @author arun
+ *
+ *         Prepare replies for possibly many different paxos groups sent by the
+ *         same acceptor to the same coordinator. Only prepare replies without
+ *         accepted pvalues can be batched; those are the common case upon a
+ *         coordinator takeover and are small enough that their per-message
+ *         overhead dominates. Prepare replies carrying pvalues continue to be
+ *         sent (and fragmented if needed) individually.
+ */
+public class BatchedPrepareReply extends PaxosPacket implements Byteable {
+
+	private final int acceptor;
+	private final ArrayList<PrepareReplyPacket> replies = new ArrayList<PrepareReplyPacket>();
+
+	/**
+	 * @param reply
+	 */
+	public BatchedPrepareReply(PrepareReplyPacket reply) {
+		super(reply);
+		assert (isBatchable(reply));
+		this.packetType = PaxosPacketType.BATCHED_PREPARE_REPLY;
+		this.acceptor = reply.acceptor;
+		this.replies.add(reply);
+	}
+
+	/**
+	 * @param json
+	 * @throws JSONException
+	 */
+	public BatchedPrepareReply(JSONObject json) throws JSONException {
+		super(json);
+		this.packetType = PaxosPacket.getPaxosPacketType(json);
+		this.acceptor = json.getInt(PaxosPacket.NodeIDKeys.ACCPTR.toString());
+		JSONArray jarray = json.getJSONArray(PaxosPacket.Keys.PP.toString());
+		for (int i = 0; i < jarray.length(); i++)
+			this.replies.add(new PrepareReplyPacket(jarray.getJSONObject(i)));
+	}
+
+	/**
+	 * @param bbuf
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	public BatchedPrepareReply(ByteBuffer bbuf)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		this.acceptor = bbuf.getInt();
+		int numReplies = bbuf.getInt();
+		for (int i = 0; i < numReplies; i++) {
+			byte[] paxosIDBytes = new byte[bbuf.get()];
+			bbuf.get(paxosIDBytes);
+			int version = bbuf.getInt();
+			Ballot ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
+			PrepareReplyPacket reply = new PrepareReplyPacket(this.acceptor,
+					ballot, bbuf.getInt(), bbuf.getInt(), bbuf.getInt(),
+					bbuf.getLong());
+			reply.putPaxosID(new String(paxosIDBytes, CHARSET), version);
+			this.replies.add(reply);
+		}
+	}
+
+	/**
+	 * @param reply
+	 * @return True if {@code reply} can be batched.
+	 */
+	public static boolean isBatchable(PrepareReplyPacket reply) {
+		return reply.accepted.isEmpty() && reply.getPaxosID() != null;
+	}
+
+	/**
+	 * @param reply
+	 * @return {@code this}
+	 */
+	public BatchedPrepareReply addPrepareReply(PrepareReplyPacket reply) {
+		assert (reply.acceptor == this.acceptor && isBatchable(reply));
+		this.replies.add(reply);
+		return this;
+	}
+
+	/**
+	 * @return Unbatched prepare replies.
+	 */
+	public Collection<PrepareReplyPacket> getPaxosPackets() {
+		return this.replies;
+	}
+
+	/**
+	 * @return Number of batched prepare replies.
+	 */
+	public int size() {
+		return this.replies.size();
+	}
+
+	/**
+	 * @return Approximate serialized length.
+	 */
+	public int lengthEstimate() {
+		return SIZEOF_PAXOSPACKET_FIXED + 8 + this.replies.size()
+				* SIZEOF_REPLY_ESTIMATE;
+	}
+
+	/* 1 + paxosID + version + ballot(2) + firstSlot + minSlot + maxSlot +
+	 * createTime */
+	private static final int SIZEOF_REPLY_FIXED = 1 + 4 + 8 + 4 + 4 + 4 + 8;
+	private static final int SIZEOF_REPLY_ESTIMATE = SIZEOF_REPLY_FIXED + 32;
+
+	@Override
+	protected JSONObject toJSONObjectImpl() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put(PaxosPacket.NodeIDKeys.ACCPTR.toString(), this.acceptor);
+		JSONArray jarray = new JSONArray();
+		for (PrepareReplyPacket reply : this.replies)
+			jarray.put(reply.toJSONObject());
+		json.put(PaxosPacket.Keys.PP.toString(), jarray);
+		return json;
+	}
+
+	@Override
+	public byte[] toBytes() {
+		if (!BYTEIFICATION) {
+			try {
+				return this.toString().getBytes(CHARSET);
+			} catch (UnsupportedEncodingException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		try {
+			byte[][] paxosIDs = new byte[this.replies.size()][];
+			int length = 0;
+			for (int i = 0; i < paxosIDs.length; i++)
+				length += SIZEOF_REPLY_FIXED
+						+ (paxosIDs[i] = this.replies.get(i).getPaxosID()
+								.getBytes(CHARSET)).length;
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[SIZEOF_PAXOSPACKET_FIXED
+					+ (this.paxosID != null ? this.paxosID.getBytes(CHARSET).length
+							: 0) + 8 + length]);
+			super.toBytes(bbuf);
+			bbuf.putInt(this.acceptor).putInt(this.replies.size());
+			for (int i = 0; i < paxosIDs.length; i++) {
+				PrepareReplyPacket reply = this.replies.get(i);
+				bbuf.put((byte) paxosIDs[i].length).put(paxosIDs[i])
+						.putInt(reply.getVersion())
+						.putInt(reply.ballot.ballotNumber)
+						.putInt(reply.ballot.coordinatorID)
+						.putInt(reply.getFirstSlot())
+						.putInt(reply.getMinSlotField())
+						.putInt(reply.getMaxSlotField())
+						.putLong(reply.getCreateTime());
+			}
+			assert (!bbuf.hasRemaining()); // perfect alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	@Override
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		nodeIDs.add(this.acceptor);
+		for (PrepareReplyPacket reply : this.replies)
+			nodeIDs.add(reply.ballot.coordinatorID);
+		return nodeIDs;
+	}
+
+	@Override
+	protected String getSummaryString() {
+		return this.acceptor + ":" + this.replies.size();
+	}
+}
@@ -17,12 +17,16 @@
  */
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.nio.interfaces.Stringifiable;
 
 /**
@@ -35,7 +39,8 @@ import edu.umass.cs.nio.interfaces.Stringifiable;
  */
 
 @SuppressWarnings("javadoc")
-public class FailureDetectionPacket<NodeIDType> extends PaxosPacket {
+public class FailureDetectionPacket<NodeIDType> extends PaxosPacket
+		implements Byteable {
 
 	private static enum Keys {
 		SNDR, RCVR, MODE, SADDR
@@ -80,6 +85,55 @@ public class FailureDetectionPacket<NodeIDType> extends PaxosPacket {
 		this.saddr = MessageNIOTransport.getSenderAddress(json);
 	}
 
+	/**
+	 * Node IDs are byteified as strings, so unlike other byteified packets,
+	 * this packet needs no node ID dictionary.
+	 * 
+	 * @param bbuf
+	 * @param unstringer
+	 * @param saddr
+	 *            Sender address from the header.
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	public FailureDetectionPacket(ByteBuffer bbuf,
+			Stringifiable<NodeIDType> unstringer, InetSocketAddress saddr)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		this.status = bbuf.get() == (byte) 1;
+		byte[] sender = new byte[bbuf.getShort()];
+		bbuf.get(sender);
+		this.senderNodeID = unstringer.valueOf(new String(sender, CHARSET));
+		byte[] responder = new byte[bbuf.getShort()];
+		bbuf.get(responder);
+		this.responderNodeID = unstringer.valueOf(new String(responder,
+				CHARSET));
+		this.saddr = saddr;
+	}
+
+	@Override
+	public byte[] toBytes() {
+		try {
+			if (!BYTEIFICATION)
+				return this.toString().getBytes(CHARSET);
+			byte[] sender = this.senderNodeID.toString().getBytes(CHARSET);
+			byte[] responder = this.responderNodeID.toString()
+					.getBytes(CHARSET);
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[SIZEOF_PAXOSPACKET_FIXED
+					+ (this.paxosID != null ? this.paxosID.getBytes(CHARSET).length
+							: 0) + 1 + 2 + sender.length + 2 + responder.length]);
+			super.toBytes(bbuf);
+			bbuf.put(this.status ? (byte) 1 : 0).putShort((short) sender.length)
+					.put(sender).putShort((short) responder.length)
+					.put(responder);
+			assert (!bbuf.hasRemaining()); // perfect alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
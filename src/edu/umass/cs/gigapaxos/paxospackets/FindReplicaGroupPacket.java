@@ -17,13 +17,18 @@
  */
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Set;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.utils.Util;
 
 /**
@@ -38,7 +43,7 @@ import edu.umass.cs.utils.Util;
  */
 
 @SuppressWarnings("javadoc")
-public class FindReplicaGroupPacket extends PaxosPacket {
+public class FindReplicaGroupPacket extends PaxosPacket implements Byteable {
 
 	/**
 	 * Node ID sending the request.
@@ -89,6 +94,46 @@ public class FindReplicaGroupPacket extends PaxosPacket {
 			this.group = null;
 	}
 
+	public FindReplicaGroupPacket(ByteBuffer bbuf)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		this.nodeID = bbuf.getInt();
+		int groupSize = bbuf.getInt();
+		// empty is the same as null as in the json form
+		this.group = groupSize > 0 ? new int[groupSize] : null;
+		for (int i = 0; i < groupSize; i++)
+			this.group[i] = bbuf.getInt();
+	}
+
+	@Override
+	public byte[] toBytes() {
+		try {
+			if (!BYTEIFICATION)
+				return this.toString().getBytes(CHARSET);
+			int groupSize = this.group != null ? this.group.length : 0;
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[SIZEOF_PAXOSPACKET_FIXED
+					+ this.getPaxosID().getBytes(CHARSET).length + 4 + 4 + 4
+					* groupSize]);
+			super.toBytes(bbuf);
+			bbuf.putInt(this.nodeID).putInt(groupSize);
+			for (int i = 0; i < groupSize; i++)
+				bbuf.putInt(this.group[i]);
+			assert (!bbuf.hasRemaining()); // perfect alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	@Override
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		nodeIDs.add(this.nodeID);
+		for (int i = 0; this.group != null && i < this.group.length; i++)
+			nodeIDs.add(this.group[i]);
+		return nodeIDs;
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
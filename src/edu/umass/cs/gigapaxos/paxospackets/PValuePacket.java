@@ -18,6 +18,7 @@ package edu.umass.cs.gigapaxos.paxospackets;
 import java.io.UnsupportedEncodingException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.util.Set;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -123,7 +124,7 @@ public class PValuePacket extends ProposalPacket {
 				.toString()) : false;
 	}
 
-	protected PValuePacket(ByteBuffer bbuf)
+	public PValuePacket(ByteBuffer bbuf)
 			throws UnsupportedEncodingException, UnknownHostException {
 		super(bbuf);
 		this.ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
@@ -132,10 +133,55 @@ public class PValuePacket extends ProposalPacket {
 		this.noCoalesce = bbuf.get() == (byte) 1;
 	}
 
+	/* Byteifies the request, proposal, and pvalue fields irrespective of the
+	 * packet type and leaves room for extra bytes for subclasses. We invoke
+	 * toBytes(true) so as to never get back the cached byteified accept. */
+	protected ByteBuffer toPValueBytes(int extra) {
+		byte[] buf = super.toBytes(true);
+		ByteBuffer bbuf = ByteBuffer.wrap(new byte[buf.length
+				+ SIZEOF_PROPOSAL + SIZEOF_PVALUE + extra]);
+		// request
+		bbuf.put(buf);
+		// proposal
+		bbuf.putInt(this.slot)
+		// pvalue
+				.putInt(this.ballot.ballotNumber)
+				.putInt(this.ballot.coordinatorID)
+				.put(this.isRecovery() ? (byte) 1 : 0)
+				.putInt(this.getMedianCheckpointedSlot())
+				.put(this.noCoalesce ? (byte) 1 : 0);
+		return bbuf;
+	}
+
+	/**
+	 * @return Byteified pvalue irrespective of its packet type.
+	 */
+	public byte[] toPValueBytes() {
+		ByteBuffer bbuf = this.toPValueBytes(0);
+		assert (!bbuf.hasRemaining()); // exact alignment
+		return bbuf.array();
+	}
+
+	@Override
+	public byte[] toBytes() {
+		if (BYTEIFICATION
+				&& (this.getType() == PaxosPacketType.DECISION || this
+						.getType() == PaxosPacketType.PREEMPTED))
+			return this.toPValueBytes();
+		return super.toBytes();
+	}
+
+	@Override
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		nodeIDs.add(this.ballot.coordinatorID);
+		return super.getNodeIDs(nodeIDs);
+	}
+
 	public PValuePacket makeDecision(int mcSlot) {
 		this.packetType = PaxosPacketType.DECISION;
 		this.medianCheckpointedSlot = mcSlot;
 		this.setStringifiedSelf(null);
+		this.invalidateFrame();
 		/* Only prepares, accepts, and decisions are replyed, so we should never
 		 * be making a decision out of a recovery packet, hence the assert. */
 		assert (!recovery);
@@ -145,6 +191,7 @@ public class PValuePacket extends ProposalPacket {
 	public PValuePacket preempt() {
 		// Note: preemption does not change final fields
 		this.packetType = PaxosPacketType.PREEMPTED;
+		this.invalidateFrame();
 		return this;
 	}
 
@@ -159,6 +206,7 @@ public class PValuePacket extends ProposalPacket {
 
 	protected void setMedianCheckpointedSlot(int slot) {
 		this.medianCheckpointedSlot = slot;
+		this.invalidateFrame();
 	}
 
 	public boolean isRecovery() {
@@ -171,6 +219,7 @@ public class PValuePacket extends ProposalPacket {
 
 	public PValuePacket setRecovery(boolean b) {
 		this.recovery = b;
+		this.invalidateFrame();
 		return this;
 	}
 
@@ -206,6 +255,7 @@ public class PValuePacket extends ProposalPacket {
 
 	public PValuePacket setNoCoalesce() {
 		this.noCoalesce = true;
+		this.invalidateFrame();
 		return this;
 	}
 
@@ -20,6 +20,7 @@ import java.lang.reflect.Field;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
+import java.util.Set;
 import java.util.logging.Level;
 
 import edu.umass.cs.gigapaxos.PaxosConfig;
@@ -276,6 +277,18 @@ public abstract class PaxosPacket extends JSONPacket implements Summarizable {
 		 */
 		BATCHED_PAXOS_PACKET("BATCHED_PACKET", 37),
 
+		/**
+		 * Prepares for different paxos groups with the same members sent by
+		 * the same node, typically upon a mass coordinator takeover.
+		 */
+		BATCHED_PREPARE("BATCHED_PREPARE", 38),
+
+		/**
+		 * Prepare replies without accepted pvalues for different paxos groups
+		 * sent by the same acceptor to the same coordinator.
+		 */
+		BATCHED_PREPARE_REPLY("BATCHED_PREPARE_REPLY", 39),
+
 		/**
 		 * 
 		 */
@@ -470,6 +483,20 @@ public abstract class PaxosPacket extends JSONPacket implements Summarizable {
 		return bbuf;
 	}
 
+	/**
+	 * Byteified packets carry node IDs as the sender's local integers, so the
+	 * sender uses this method to know which node IDs to include in the
+	 * {@link edu.umass.cs.gigapaxos.paxosutil.NodeIDDictionary} appended to
+	 * the bytes when node IDs are not all integers.
+	 * 
+	 * @param nodeIDs
+	 * @return {@code nodeIDs} after adding to it all integer node IDs carried
+	 *         by this packet.
+	 */
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		return nodeIDs;
+	}
+
 	public JSONObject toJSONObject() throws JSONException {
 		JSONObject json = new JSONObject();
 		// tells Packet that this is a PaxosPacket
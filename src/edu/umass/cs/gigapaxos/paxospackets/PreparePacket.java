@@ -17,17 +17,23 @@
  */
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
 
 /**
  * @author arun
  *
  */
 @SuppressWarnings("javadoc")
-public final class PreparePacket extends PaxosPacket {
+public final class PreparePacket extends PaxosPacket implements Byteable {
 
 	/**
 	 * Ballot in the PREPARE message.
@@ -74,6 +80,44 @@ public final class PreparePacket extends PaxosPacket {
 		this.recovery = json.optBoolean(PaxosPacket.Keys.RCVRY.toString());
 	}
 
+	public PreparePacket(ByteBuffer bbuf) throws UnsupportedEncodingException,
+			UnknownHostException {
+		super(bbuf);
+		this.ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
+		this.firstUndecidedSlot = bbuf.getInt();
+		this.recovery = bbuf.get() == (byte) 1;
+	}
+
+	// ballot + firstUndecidedSlot + recovery
+	private static final int SIZEOF_PREPARE = 8 + 4 + 1;
+
+	@Override
+	public byte[] toBytes() {
+		try {
+			if (!BYTEIFICATION)
+				return this.toString().getBytes(CHARSET);
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[SIZEOF_PAXOSPACKET_FIXED
+					+ this.getPaxosID().getBytes(CHARSET).length
+					+ SIZEOF_PREPARE]);
+			super.toBytes(bbuf);
+			bbuf.putInt(this.ballot.ballotNumber)
+					.putInt(this.ballot.coordinatorID)
+					.putInt(this.firstUndecidedSlot)
+					.put(this.recovery ? (byte) 1 : 0);
+			assert (!bbuf.hasRemaining()); // perfect alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	@Override
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		nodeIDs.add(this.ballot.coordinatorID);
+		return nodeIDs;
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
@@ -17,9 +17,13 @@
  */
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 import org.json.JSONArray;
@@ -27,6 +31,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
 
 /**
  * 
@@ -34,7 +39,7 @@ import edu.umass.cs.gigapaxos.paxosutil.Ballot;
  *
  */
 @SuppressWarnings("javadoc")
-public class PrepareReplyPacket extends PaxosPacket {
+public class PrepareReplyPacket extends PaxosPacket implements Byteable {
 
 	/**
 	 * Ballot of the PREPARE being replied to.
@@ -102,6 +107,73 @@ public class PrepareReplyPacket extends PaxosPacket {
 		this.createTime = json.getLong(RequestPacket.Keys.CT.toString());
 	}
 
+	public PrepareReplyPacket(ByteBuffer bbuf)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		this.acceptor = bbuf.getInt();
+		this.ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
+		this.firstSlot = bbuf.getInt();
+		this.minSlot = bbuf.getInt();
+		this.maxSlot = bbuf.getInt();
+		this.createTime = bbuf.getLong();
+		this.accepted = new TreeMap<Integer, PValuePacket>();
+		int numAccepted = bbuf.getInt();
+		for (int i = 0; i < numAccepted; i++) {
+			byte[] element = new byte[bbuf.getInt()];
+			bbuf.get(element);
+			PValuePacket pvalue = new PValuePacket(ByteBuffer.wrap(element));
+			this.accepted.put(pvalue.slot, pvalue);
+		}
+	}
+
+	/* acceptor + ballot + firstSlot + minSlot + maxSlot + createTime +
+	 * number of accepted pvalues */
+	private static final int SIZEOF_PREPAREREPLY_FIXED = 4 + 8 + 4 + 4 + 4
+			+ 8 + 4;
+
+	@Override
+	public byte[] toBytes() {
+		try {
+			if (!BYTEIFICATION)
+				return this.toString().getBytes(CHARSET);
+			byte[][] pvalues = new byte[this.accepted.size()][];
+			int length = 0, i = 0;
+			for (PValuePacket pvalue : this.accepted.values())
+				length += 4 + (pvalues[i++] = pvalue.toPValueBytes()).length;
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[SIZEOF_PAXOSPACKET_FIXED
+					+ (this.paxosID != null ? this.paxosID.getBytes(CHARSET).length
+							: 0) + SIZEOF_PREPAREREPLY_FIXED + length]);
+			super.toBytes(bbuf);
+			bbuf.putInt(this.acceptor).putInt(this.ballot.ballotNumber)
+					.putInt(this.ballot.coordinatorID).putInt(this.firstSlot)
+					.putInt(this.minSlot).putInt(this.maxSlot)
+					.putLong(this.createTime).putInt(pvalues.length);
+			for (byte[] pvalue : pvalues)
+				bbuf.putInt(pvalue.length).put(pvalue);
+			assert (!bbuf.hasRemaining()); // perfect alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	@Override
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		nodeIDs.add(this.acceptor);
+		nodeIDs.add(this.ballot.coordinatorID);
+		for (PValuePacket pvalue : this.accepted.values())
+			pvalue.getNodeIDs(nodeIDs);
+		return nodeIDs;
+	}
+
+	// used by BatchedPrepareReply for replies without accepted pvalues
+	PrepareReplyPacket(int acceptor, Ballot ballot, int firstSlot,
+			int minSlot, int maxSlot, long createTime) {
+		this(acceptor, ballot, null, firstSlot - 1, minSlot, maxSlot);
+		this.createTime = createTime;
+	}
+
 	// only for unit testing in PrepareReplyAssembler
 	public PrepareReplyPacket(int acceptor, Ballot ballot,
 			HashMap<Integer, PValuePacket> acceptedMap, int gcSlot, int max) {
@@ -216,6 +288,18 @@ public class PrepareReplyPacket extends PaxosPacket {
 		return this.isComplete();
 	}
 
+	int getFirstSlot() {
+		return this.firstSlot;
+	}
+
+	int getMinSlotField() {
+		return this.minSlot;
+	}
+
+	int getMaxSlotField() {
+		return this.maxSlot;
+	}
+
 	public long getCreateTime() {
 		return this.createTime;
 	}
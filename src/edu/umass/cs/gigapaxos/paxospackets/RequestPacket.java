@@ -24,10 +24,12 @@ import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.logging.Level;
 
 import org.json.JSONArray;
@@ -162,6 +164,11 @@ public class RequestPacket extends PaxosPacket implements Request,
 		 * Whether to broadcast.
 		 */
 		BC,
+
+		/**
+		 * Credits advertised by the entry replica in a response.
+		 */
+		CR,
 	}
 
 	public static enum ResponseCodes {
@@ -174,6 +181,12 @@ public class RequestPacket extends PaxosPacket implements Request,
 		 * 
 		 */
 		NACK,
+
+		/**
+		 * The entry replica is congested and did not accept the request. The
+		 * client may retry after backing off.
+		 */
+		OVERLOAD,
 	}
 
 	private static final int MAX_FORWARD_COUNT = 3;
@@ -232,10 +245,28 @@ public class RequestPacket extends PaxosPacket implements Request,
 	// batch of requests attached to this request
 	private RequestPacket[] batched = null;
 
+	/* Client window advertised by the entry replica; -1 means none. Encoded
+	 * only if non-negative, in which case the CREDITS_FLAG bit is set in the
+	 * shouldReturnRequestValue byte and the credits follow the batch, so
+	 * packets without credits are encoded exactly as before credits existed. */
+	private int credits = -1;
+
 	// these fields are not passed over the network
 	private String stringifiedSelf = null;
 	private byte[] byteifiedSelf = null;
 
+	/* The receive buffer this packet was decoded from, if any. The request
+	 * value and address bytes in it are reused instead of being re-encoded,
+	 * the addresses are decoded only on first access, and the whole frame is
+	 * re-sent or journaled verbatim as long as no serialized field has been
+	 * modified since, i.e., frameLength is still non-negative. */
+	private byte[] frame = null;
+	private int frameOffset = -1;
+	private int frameLength = -1;
+	private int valueOffset = -1;
+	private int valueLength = -1;
+	private volatile int addressOffset = -1;
+
 	/* These fields are for testing and debugging. They are preserved across
 	 * forwarding by nodes, so they are not final. They are included only in
 	 * DEBUG mode */
@@ -262,7 +293,10 @@ public class RequestPacket extends PaxosPacket implements Request,
 
 		// highly variable length fields
 		requestValue(String.class), responseValue(String.class), batched(
-				(new RequestPacket[0]).getClass());
+				(new RequestPacket[0]).getClass()),
+
+		// optional trailing field
+		credits(int.class);
 
 		final Class<?> type;
 
@@ -338,8 +372,16 @@ public class RequestPacket extends PaxosPacket implements Request,
 
 		// non-final fields
 		this.entryReplica = req.entryReplica;
+		// read addressOffset first as it guards the address fields
+		this.addressOffset = req.addressOffset;
 		this.clientAddress = req.clientAddress;
 		this.listenAddress = req.listenAddress;
+		// share the encoded value and addresses but not the whole frame
+		this.frame = req.frame;
+		if (value == req.requestValue) {
+			this.valueOffset = req.valueOffset;
+			this.valueLength = req.valueLength;
+		}
 		this.shouldReturnRequestValue = req.shouldReturnRequestValue;
 		this.responseValue = req.responseValue;
 		this.digest = req.digest;
@@ -358,6 +400,7 @@ public class RequestPacket extends PaxosPacket implements Request,
 		// make batched requests noop as well
 		for (int i = 0; this.batched != null && i < this.batched.length; i++)
 			this.batched[i] = this.batched[i].makeNoop();
+		this.invalidateFrame();
 		// and put them inside the newly minted noop
 		noop.batched = this.batched;
 		return noop;
@@ -368,12 +411,13 @@ public class RequestPacket extends PaxosPacket implements Request,
 
 	public RequestPacket setReturnRequestValue() {
 		this.shouldReturnRequestValue = true;
+		this.invalidateFrame();
 		return this;
 	}
 
 	public int getClientID() {
-		if (this.clientAddress != null)
-			return this.clientAddress.getPort();
+		if (this.getClientAddress() != null)
+			return this.getClientAddress().getPort();
 		return -1;
 	}
 
@@ -383,6 +427,7 @@ public class RequestPacket extends PaxosPacket implements Request,
 
 	private void incrForwardCount() {
 		this.forwardCount++;
+		this.invalidateFrame();
 	}
 
 	public int getForwardCount() {
@@ -394,6 +439,7 @@ public class RequestPacket extends PaxosPacket implements Request,
 		if (this.entryReplica == IntegerMap.NULL_INT_NODE) {// one-time
 			this.entryReplica = id;
 			this.entryTime = System.currentTimeMillis();
+			this.invalidateFrame();
 		}
 		if (this.isBatched())
 			for (RequestPacket req : this.batched)
@@ -404,6 +450,7 @@ public class RequestPacket extends PaxosPacket implements Request,
 
 	public void setEntryTime() {
 		this.entryTime = System.currentTimeMillis();
+		this.invalidateFrame();
 		if (this.batchSize() > 0)
 			for (RequestPacket req : this.batched)
 				req.setEntryTime();
@@ -414,6 +461,7 @@ public class RequestPacket extends PaxosPacket implements Request,
 		if (this.entryReplica == IntegerMap.NULL_INT_NODE) {// one-time
 			this.entryReplica = id;
 			this.entryTime = System.currentTimeMillis();
+			this.invalidateFrame();
 			count++;
 		}
 		if (this.isBatched())
@@ -514,7 +562,9 @@ public class RequestPacket extends PaxosPacket implements Request,
 		this.packetType = PaxosPacketType.REQUEST;
 		this.stop = json.optBoolean(Keys.STOP.toString());
 		this.requestID = json.getLong(Keys.QID.toString());
-		this.requestValue = json.getString(Keys.QV.toString());
+		// absent in digested requests
+		this.requestValue = json.has(Keys.QV.toString()) ? json
+				.getString(Keys.QV.toString()) : null;
 
 		this.responseValue = json.has(Keys.RV.toString()) ? json
 				.getString(Keys.RV.toString()) : null;
@@ -557,6 +607,7 @@ public class RequestPacket extends PaxosPacket implements Request,
 
 		if (json.has(Keys.BC.toString()))
 			this.broadcasted = json.getBoolean(Keys.BC.toString());
+		this.credits = json.optInt(Keys.CR.toString(), -1);
 		if (json.has(Keys.DIG.toString()))
 			try {
 				this.digest = json.getString(Keys.DIG.toString()).getBytes(
@@ -639,6 +690,8 @@ public class RequestPacket extends PaxosPacket implements Request,
 
 		if (json.containsKey(Keys.BC.toString()))
 			this.broadcasted = (Boolean) json.get(Keys.BC.toString());
+		if (json.containsKey(Keys.CR.toString()))
+			this.credits = (Integer) json.get(Keys.CR.toString());
 		if (json.containsKey(Keys.DIG.toString()))
 			try {
 				this.digest = ((String) json.get(Keys.DIG.toString()))
@@ -665,10 +718,10 @@ public class RequestPacket extends PaxosPacket implements Request,
 			json.putOpt(Keys.DBG.toString(), this.debugInfo);
 		}
 		json.put(PaxosPacket.NodeIDKeys.E.toString(), this.entryReplica);
-		if (this.clientAddress != null)
-			json.put(Keys.CA.toString(), this.clientAddress);
-		if (this.listenAddress != null)
-			json.put(Keys.LA.toString(), this.listenAddress);
+		if (this.getClientAddress() != null)
+			json.put(Keys.CA.toString(), this.getClientAddress());
+		if (this.getListenAddress() != null)
+			json.put(Keys.LA.toString(), this.getListenAddress());
 
 		if (this.shouldReturnRequestValue)
 			json.put(Keys.QF.toString(), this.shouldReturnRequestValue);
@@ -684,6 +737,8 @@ public class RequestPacket extends PaxosPacket implements Request,
 		// digest related parameters
 		if (this.broadcasted)
 			json.put(Keys.BC.toString(), this.broadcasted);
+		if (this.credits >= 0)
+			json.put(Keys.CR.toString(), this.credits);
 		if (this.digest != null)
 			try {
 				json.put(Keys.DIG.toString(), new String(this.digest, CHARSET));
@@ -712,10 +767,10 @@ public class RequestPacket extends PaxosPacket implements Request,
 				json.put(Keys.DBG.toString(), this.debugInfo);
 		}
 		json.put(PaxosPacket.NodeIDKeys.E.toString(), this.entryReplica);
-		if (this.clientAddress != null)
-			json.put(Keys.CA.toString(), this.clientAddress.toString());
-		if (this.listenAddress != null)
-			json.put(Keys.LA.toString(), this.listenAddress.toString());
+		if (this.getClientAddress() != null)
+			json.put(Keys.CA.toString(), this.getClientAddress().toString());
+		if (this.getListenAddress() != null)
+			json.put(Keys.LA.toString(), this.getListenAddress().toString());
 		if (this.shouldReturnRequestValue)
 			json.put(Keys.QF.toString(), this.shouldReturnRequestValue);
 		// convert latched along batch to json array
@@ -731,6 +786,8 @@ public class RequestPacket extends PaxosPacket implements Request,
 		// digest related parameters
 		if (this.broadcasted)
 			json.put(Keys.BC.toString(), this.broadcasted);
+		if (this.credits >= 0)
+			json.put(Keys.CR.toString(), this.credits);
 		if (this.digest != null)
 			try {
 				json.put(Keys.DIG.toString(), new String(this.digest, CHARSET));
@@ -775,6 +832,10 @@ public class RequestPacket extends PaxosPacket implements Request,
 				+ " != " + (SIZEOF_REQUEST_FIXED - 4 * Integer.BYTES);
 	}
 
+	// bits in the shouldReturnRequestValue byte
+	private static final byte RETURN_VALUE_FLAG = 1;
+	private static final byte CREDITS_FLAG = 2;
+
 	// we use one byte for a boolean
 	protected static final int SIZEOF_REQUEST_FIXED = 8 // long requestID
 			+ 1 // boolean stop
@@ -812,7 +873,8 @@ public class RequestPacket extends PaxosPacket implements Request,
 	 * receive request, (2) send accept, (3) receive accept_replies, (4) send
 	 * commit Accordingly, we use byteification for {@link RequestPacket},
 	 * {@link AcceptPacket}, {@link BatchedAcceptReply} and
-	 * {@link BatchedCommit}.
+	 * {@link BatchedCommit}. Recovery and catch-up traffic benefits enough
+	 * from it too that nearly all packet types sent across nodes are byteable.
 	 * 
 	 * */
 
@@ -821,8 +883,14 @@ public class RequestPacket extends PaxosPacket implements Request,
 		if ((this.getType() == PaxosPacketType.REQUEST || this.getType() == PaxosPacketType.ACCEPT)
 				&& this.byteifiedSelf != null && !instrument)
 			return this.byteifiedSelf;
+		// received and unmodified requests are re-sent as they came
+		byte[] verbatim = null;
+		if (BYTEIFICATION && !instrument
+				&& this.getType() == PaxosPacketType.REQUEST
+				&& (verbatim = this.getVerbatimBytes()) != null)
+			return verbatim;
 		// check if we can use byteification at all; if not, use toString()
-		if (!((BYTEIFICATION && IntegerMap.allInt()) || instrument)) {
+		if (!(BYTEIFICATION || instrument)) {
 			try {
 				if (this.getType() == PaxosPacketType.REQUEST
 						|| this.getType() == PaxosPacketType.ACCEPT)
@@ -858,6 +926,12 @@ public class RequestPacket extends PaxosPacket implements Request,
 			exactLength += (Long.BYTES + 1);
 
 			// addresses
+			int addressOffset = this.addressOffset;
+			if (addressOffset >= 0)
+				// still undecoded, so copy as is
+				bbuf.put(this.frame, addressOffset,
+						2 * (Integer.BYTES + Short.BYTES));
+			else {
 			/* Note: 0 is ambiguous with wildcard address, but that's okay
 			 * because an incoming packet will never come with a wildcard
 			 * address. */
@@ -876,12 +950,14 @@ public class RequestPacket extends PaxosPacket implements Request,
 			// 0 (not -1) means invalid port
 			bbuf.putShort(this.listenAddress != null ? (short) this.listenAddress
 					.getPort() : 0);
+			}
 			exactLength += 2 * (Integer.BYTES + Short.BYTES);
 
 			// other non-final fields
 			bbuf.putInt(this.entryReplica);
 			bbuf.putLong(this.entryTime);
-			bbuf.put(this.shouldReturnRequestValue ? (byte) 1 : (byte) 0);
+			bbuf.put((byte) ((this.shouldReturnRequestValue ? RETURN_VALUE_FLAG
+					: 0) | (this.credits >= 0 ? CREDITS_FLAG : 0)));
 			bbuf.putInt(this.forwardCount);
 			exactLength += (Integer.BYTES + Long.BYTES + 1 + Integer.BYTES);
 
@@ -906,11 +982,18 @@ public class RequestPacket extends PaxosPacket implements Request,
 
 			// highly variable length fields
 			// requestValue
+			if (this.valueOffset >= 0) {
+				// reuse received bytes
+				bbuf.putInt(this.valueLength);
+				bbuf.put(this.frame, this.valueOffset, this.valueLength);
+				exactLength += (4 + this.valueLength);
+			} else {
 			byte[] reqValBytes = this.requestValue != null ? this.requestValue
 					.getBytes(CHARSET) : new byte[0];
 			bbuf.putInt(reqValBytes != null ? reqValBytes.length : 0);
 			bbuf.put(reqValBytes);
 			exactLength += (4 + reqValBytes.length);
+			}
 
 			// responseValue
 			byte[] respValBytes = this.responseValue != null ? this.responseValue
@@ -924,12 +1007,28 @@ public class RequestPacket extends PaxosPacket implements Request,
 			exactLength += (4);
 			if (this.batchSize() > 0)
 				for (RequestPacket req : this.batched) {
-					byte[] element = req.toBytes();
+					if (req.isVerbatim()) {
+						// copy straight from the receive buffer
+						bbuf.putInt(req.frameLength);
+						bbuf.put(req.frame, req.frameOffset, req.frameLength);
+						exactLength += (4 + req.frameLength);
+						continue;
+					}
+					/* Proposals get batched too, but only their request fields
+					 * are byteified as elements are decoded as requests. */
+					byte[] element = req.getType() == PaxosPacketType.REQUEST ? req
+							.toBytes() : req.toBytes(true);
 					bbuf.putInt(element.length);
 					bbuf.put(element);
 					exactLength += (4 + element.length);
 				}
 
+			// optional credits
+			if (this.credits >= 0) {
+				bbuf.putInt(this.credits);
+				exactLength += Integer.BYTES;
+			}
+
 			// bbuf.array() was a generous allocation
 			byte[] exactBytes = new byte[exactLength];
 			bbuf.flip();
@@ -957,12 +1056,23 @@ public class RequestPacket extends PaxosPacket implements Request,
 			UnknownHostException {
 		super(bbuf);
 		int exactLength = bbuf.position();
+		if (bbuf.hasArray()) {
+			this.frame = bbuf.array();
+			// PaxosPacket decoding starts at position 0
+			this.frameOffset = bbuf.arrayOffset();
+		}
 
 		this.requestID = bbuf.getLong();
 		this.stop = bbuf.get() == (byte) 1;
 		exactLength += (8 + 1);
 
 		// addresses
+		if (this.frame != null) {
+			// decoded on first access
+			this.addressOffset = bbuf.arrayOffset() + bbuf.position();
+			bbuf.position(bbuf.position() + 2
+					* (Integer.BYTES + Short.BYTES));
+		} else {
 		byte[] ca = new byte[4];
 		bbuf.get(ca);
 		int cport = (int) bbuf.getShort();
@@ -975,12 +1085,14 @@ public class RequestPacket extends PaxosPacket implements Request,
 		lport = lport >= 0 ? lport : lport + 2 * (Short.MAX_VALUE + 1);
 		this.listenAddress = lport != 0 ? new InetSocketAddress(
 				InetAddress.getByAddress(la), lport) : null;
+		}
 		exactLength += (4 + 2 + 4 + 2);
 
 		// other non-final fields
 		this.entryReplica = bbuf.getInt();
 		this.entryTime = bbuf.getLong();
-		this.shouldReturnRequestValue = bbuf.get() == (byte) 1;
+		byte flags = bbuf.get();
+		this.shouldReturnRequestValue = (flags & RETURN_VALUE_FLAG) != 0;
 		this.forwardCount = bbuf.getInt();
 		exactLength += (4 + 8 + 1 + 4);
 
@@ -994,33 +1106,54 @@ public class RequestPacket extends PaxosPacket implements Request,
 
 		// requestValue
 		int reqValLen = bbuf.getInt();
+		if (this.frame != null) {
+			// decode in place and remember where it came from
+			this.valueOffset = bbuf.arrayOffset() + bbuf.position();
+			this.valueLength = reqValLen;
+			this.requestValue = reqValLen > 0 ? new String(this.frame,
+					this.valueOffset, reqValLen, CHARSET) : null;
+			bbuf.position(bbuf.position() + reqValLen);
+		} else {
 		byte[] reqValBytes = new byte[reqValLen];
 		bbuf.get(reqValBytes);
 		this.requestValue = reqValBytes.length > 0 ? new String(reqValBytes,
 				CHARSET) : null;
-		exactLength += (4 + reqValBytes.length);
+		}
+		exactLength += (4 + reqValLen);
 
 		// responseValue
 		int respValLen = bbuf.getInt();
+		if (this.frame != null) {
+			this.responseValue = respValLen > 0 ? new String(this.frame,
+					bbuf.arrayOffset() + bbuf.position(), respValLen, CHARSET)
+					: null;
+			bbuf.position(bbuf.position() + respValLen);
+		} else {
 		byte[] respValBytes = new byte[respValLen];
 		bbuf.get(respValBytes);
 		this.responseValue = respValBytes.length > 0 ? new String(respValBytes,
 				CHARSET) : null;
-		exactLength += (4 + respValBytes.length);
+		}
+		exactLength += (4 + respValLen);
 
 		int numBatched = bbuf.getInt();
-		if (numBatched == 0)
-			return;
-		// else
+		if (numBatched > 0) {
 		// batched requests
 		this.batched = new RequestPacket[numBatched];
 		for (int i = 0; i < numBatched; i++) {
 			int len = bbuf.getInt();
-			byte[] element = new byte[len];
-			bbuf.get(element);
+			// slice of the same frame, so no copying
+			ByteBuffer element = bbuf.slice();
+			element.limit(len);
 			this.batched[i] = new RequestPacket(element);
+			bbuf.position(bbuf.position() + len);
+		}
 		}
+		if ((flags & CREDITS_FLAG) != 0)
+			this.credits = bbuf.getInt();
 		assert (exactLength > 0);
+		if (this.packetType == PaxosPacketType.REQUEST)
+			this.setFrameEnd(bbuf);
 	}
 
 	/**
@@ -1054,18 +1187,98 @@ public class RequestPacket extends PaxosPacket implements Request,
 
 	// only for size estimation
 	private RequestPacket setClientAddress(InetSocketAddress sockAddr) {
+		this.decodeAddresses();
 		this.clientAddress = sockAddr;
+		this.invalidateFrame();
 		return this;
 	}
 
 	public InetSocketAddress getClientAddress() {
+		if (this.addressOffset >= 0)
+			this.decodeAddresses();
 		return this.clientAddress;
 	}
 
 	public InetSocketAddress getListenAddress() {
+		if (this.addressOffset >= 0)
+			this.decodeAddresses();
 		return this.listenAddress;
 	}
 
+	private void decodeAddresses() {
+		int offset = this.addressOffset;
+		if (offset < 0)
+			return;
+		this.clientAddress = getAddress(this.frame, offset);
+		this.listenAddress = getAddress(this.frame, offset + Integer.BYTES
+				+ Short.BYTES);
+		// volatile write publishes the addresses
+		this.addressOffset = -1;
+	}
+
+	private static InetSocketAddress getAddress(byte[] bytes, int offset) {
+		ByteBuffer bbuf = ByteBuffer.wrap(bytes, offset, Integer.BYTES
+				+ Short.BYTES);
+		byte[] address = new byte[Integer.BYTES];
+		bbuf.get(address);
+		int port = (int) bbuf.getShort();
+		port = port >= 0 ? port : port + 2 * (Short.MAX_VALUE + 1);
+		try {
+			return port != 0 ? new InetSocketAddress(
+					InetAddress.getByAddress(address), port) : null;
+		} catch (UnknownHostException e) {
+			// can not happen with a 4-byte address
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Called whenever a field that is part of the byte[] form changes, so that
+	 * the frame this packet was decoded from is no longer re-sent verbatim.
+	 */
+	protected void invalidateFrame() {
+		this.frameLength = -1;
+	}
+
+	/**
+	 * @param bbuf
+	 *            The buffer this packet was just decoded from, positioned right
+	 *            after its last field.
+	 */
+	protected void setFrameEnd(ByteBuffer bbuf) {
+		if (this.frame != null)
+			this.frameLength = bbuf.arrayOffset() + bbuf.position()
+					- this.frameOffset;
+	}
+
+	private boolean isVerbatim() {
+		if (this.frameLength < 0)
+			return false;
+		for (int i = 0; this.batched != null && i < this.batched.length; i++)
+			if (!this.batched[i].isVerbatim())
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return The frame this packet was decoded from if it has not been
+	 *         modified since, else null.
+	 */
+	protected byte[] getVerbatimBytes() {
+		if (!this.isVerbatim())
+			return null;
+		return this.frameOffset == 0 && this.frameLength == this.frame.length ? this.frame
+				: Arrays.copyOfRange(this.frame, this.frameOffset,
+						this.frameOffset + this.frameLength);
+	}
+
+	@Override
+	public PaxosPacket putPaxosID(String pid, int v) {
+		this.invalidateFrame();
+		return super.putPaxosID(pid, v);
+	}
+
 	public boolean isStopRequest() {
 		return stop || this.isAnyBatchedRequestStop();
 	}
@@ -1094,6 +1307,7 @@ public class RequestPacket extends PaxosPacket implements Request,
 			this.batched = allThreaded;
 		else
 			this.batched = concatenate(this.batched, allThreaded);
+		this.invalidateFrame();
 		for (int i = 0; i < this.batched.length; i++)
 			assert (!this.batched[i].isBatched());
 		return this;
@@ -1123,6 +1337,7 @@ public class RequestPacket extends PaxosPacket implements Request,
 		}
 		// toArray always returns an array of unbatched packets
 		this.batched = null;
+		this.invalidateFrame();
 		return array;
 	}
 
@@ -1186,9 +1401,60 @@ public class RequestPacket extends PaxosPacket implements Request,
 				ResponseCodes.ACK.toString(), this.stop, this);
 		reply.batched = null;
 		reply.responseValue = this.responseValue;
+		reply.credits = this.credits;
 		return reply;
 	}
 
+	/**
+	 * @param credits
+	 * @return Responses telling the client that the entry replica is
+	 *         congested and did not accept this request, one for each request
+	 *         in this batch.
+	 */
+	public RequestPacket[] getOverloads(int credits) {
+		RequestPacket[] overloads = new RequestPacket[this.batchSize() + 1];
+		overloads[0] = this.getOverload(credits);
+		for (int i = 0; i < this.batchSize(); i++)
+			overloads[i + 1] = this.batched[i].getOverload(credits);
+		return overloads;
+	}
+
+	private RequestPacket getOverload(int credits) {
+		RequestPacket overload = new RequestPacket(this.requestID,
+				ResponseCodes.OVERLOAD.toString(), this.stop, this);
+		overload.batched = null;
+		overload.responseValue = null;
+		overload.credits = credits;
+		return overload;
+	}
+
+	/**
+	 * @return True if this is an overload response.
+	 */
+	public boolean isOverload() {
+		return ResponseCodes.OVERLOAD.toString().equals(this.requestValue);
+	}
+
+	/**
+	 * @return Number of requests the client may have outstanding at the entry
+	 *         replica, or -1 if not advertised.
+	 */
+	public int getCredits() {
+		return this.credits;
+	}
+
+	/**
+	 * @param credits
+	 * @return {@code this}
+	 */
+	public RequestPacket setCredits(int credits) {
+		this.credits = credits;
+		// invalidate cached serialization
+		this.byteifiedSelf = null;
+		this.invalidateFrame();
+		return this;
+	}
+
 	public String getResponseValue() {
 		return this.responseValue;
 	}
@@ -1248,6 +1514,15 @@ public class RequestPacket extends PaxosPacket implements Request,
 		return this.batched != null ? this.batched.length : 0;
 	}
 
+	@Override
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		if (this.entryReplica != IntegerMap.NULL_INT_NODE)
+			nodeIDs.add(this.entryReplica);
+		for (int i = 0; i < this.batchSize(); i++)
+			this.batched[i].getNodeIDs(nodeIDs);
+		return nodeIDs;
+	}
+
 	/* This ugly method is used only for testing and is needed in order to
 	 * separate requests that first entered the requests (or requests with
 	 * entryReplica==-1) from the rest in a batched request. */
@@ -1370,10 +1645,17 @@ public class RequestPacket extends PaxosPacket implements Request,
 		return this.requestValue != null;
 	}
 
+	// digest without the request value as received by or from witnesses
+	public boolean isDigested() {
+		return this.requestValue == null && this.digest != null;
+	}
+
 	/* Need an upper bound here for limiting batch size. Currently all the
 	 * fields in RequestPacket other than requestValue add up to ~200B. */
 	public int lengthEstimate() {
-		int len = this.requestValue.length() + SIZE_ESTIMATE;
+		int len = (this.requestValue != null ? this.requestValue.length()
+				: this.digest != null ? this.digest.length : 0)
+				+ SIZE_ESTIMATE;
 		if (this.isBatched())
 			for (RequestPacket req : this.batched)
 				len += req.lengthEstimate();
@@ -1395,9 +1677,10 @@ public class RequestPacket extends PaxosPacket implements Request,
 	}
 
 	public void setResponse(String response) {
-		if (this.responseValue == null)
+		if (this.responseValue == null) {
 			this.responseValue = response;
-		else
+			this.invalidateFrame();
+		} else
 			assert (isRecovery(this));
 	}
 
@@ -1421,6 +1704,7 @@ public class RequestPacket extends PaxosPacket implements Request,
 			synchronized (md) {
 				this.digest = md.digest(this.requestValue.getBytes(CHARSET));
 			}
+			this.invalidateFrame();
 			// DelayProfiler.updateDelayNano("digest", t);
 			return this.digest;
 		} catch (UnsupportedEncodingException e) {
@@ -1440,11 +1724,13 @@ public class RequestPacket extends PaxosPacket implements Request,
 		assert (d != null);
 		// assert (this.digest == null && this.requestValue == null);
 		this.digest = d;
+		this.invalidateFrame();
 		return this;
 	}
 
 	public RequestPacket setBroadcasted() {
 		this.broadcasted = true;
+		this.invalidateFrame();
 		/* Marking batch members as broadcasted is unnecessary as a broadcasted
 		 * request packet can not be batched any further. */
 		return this;
@@ -1500,7 +1786,7 @@ public class RequestPacket extends PaxosPacket implements Request,
 				&& this.getPaxosID().equals(req.getPaxosID())
 
 				// client addresses match
-				&& (this.clientAddress==req.clientAddress || this.clientAddress!=null && this.clientAddress.equals(req.clientAddress))
+				&& (this.getClientAddress()==req.getClientAddress() || this.getClientAddress()!=null && this.getClientAddress().equals(req.getClientAddress()))
 
 				// request values or digests match (disabled by default)
 				&& (!enforceRequestValueMatch || this.requestValue != null
@@ -1,6 +1,12 @@
 package edu.umass.cs.gigapaxos.paxospackets;
 
 import edu.umass.cs.utils.DefaultTest;
+
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+
+import org.json.JSONException;
+import org.junit.Assert;
 import org.junit.Test;
 
 /**
@@ -20,4 +26,59 @@ public class RequestPacketTest extends DefaultTest {
     public void testCheckFields() {
         RequestPacket.doubleCheckFields();
     }
+
+    /**
+     * @throws UnsupportedEncodingException
+     * @throws UnknownHostException
+     * @throws JSONException
+     */
+    @Test
+    public void testCreditsRoundtrip() throws UnsupportedEncodingException,
+            UnknownHostException, JSONException {
+        RequestPacket request = new RequestPacket(42, "value", false);
+        request.putPaxosID("group", 0);
+        Assert.assertEquals(-1, new RequestPacket(request.toBytes()).getCredits());
+        RequestPacket overload = request.getOverloads(3)[0];
+        Assert.assertTrue(new RequestPacket(overload.toBytes()).isOverload());
+        Assert.assertEquals(3, new RequestPacket(overload.toBytes()).getCredits());
+        Assert.assertEquals(3, new RequestPacket(overload.toJSONObject()).getCredits());
+        RequestPacket ack = request.getACK().setCredits(7);
+        Assert.assertEquals(7, ((RequestPacket) new RequestPacket(ack
+                .toBytes()).getResponse()).getCredits());
+        Assert.assertFalse(new RequestPacket(ack.toBytes()).isOverload());
+    }
+
+    /**
+     * Credits take no space on the wire unless advertised, and a batch gets
+     * an overload response for every request in it.
+     * 
+     * @throws UnsupportedEncodingException
+     * @throws UnknownHostException
+     */
+    @Test
+    public void testCreditsOptional() throws UnsupportedEncodingException,
+            UnknownHostException {
+        RequestPacket request = new RequestPacket(42, "value", false)
+                .latchToBatch(new RequestPacket[] {
+                        new RequestPacket(43, "batched", false) });
+        request.putPaxosID("group", 0);
+        int length = request.toBytes().length;
+        request.setCredits(5);
+        Assert.assertEquals(length + Integer.BYTES, request.toBytes().length);
+        RequestPacket received = new RequestPacket(request.toBytes());
+        Assert.assertEquals(5, received.getCredits());
+        Assert.assertEquals(-1, received.getBatched()[0].getCredits());
+        Assert.assertEquals("batched", received.getBatched()[0].requestValue);
+
+        RequestPacket[] overloads = received.getOverloads(2);
+        Assert.assertEquals(2, overloads.length);
+        Assert.assertEquals(42, overloads[0].requestID);
+        Assert.assertEquals(43, overloads[1].requestID);
+        for (RequestPacket overload : overloads) {
+            Assert.assertEquals(0, overload.batchSize());
+            RequestPacket copy = new RequestPacket(overload.toBytes());
+            Assert.assertTrue(copy.isOverload());
+            Assert.assertEquals(2, copy.getCredits());
+        }
+    }
 }
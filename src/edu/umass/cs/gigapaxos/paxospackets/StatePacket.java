@@ -17,11 +17,17 @@
  */
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
 import edu.umass.cs.gigapaxos.paxosutil.SlotBallotState;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.utils.Util;
 
 
@@ -30,7 +36,7 @@ import edu.umass.cs.utils.Util;
  *
  */
 @SuppressWarnings("javadoc")
-public final class StatePacket extends PaxosPacket{
+public final class StatePacket extends PaxosPacket implements Byteable {
 
 	/**
 	 * Ballot in which the request at the checkpointed slot was committed.
@@ -72,6 +78,53 @@ public final class StatePacket extends PaxosPacket{
 		this.isLargeCheckpoint = json.optBoolean(PaxosPacket.Keys.BIG_CP.toString());
 	}
 
+	public StatePacket(ByteBuffer bbuf) throws UnsupportedEncodingException,
+			UnknownHostException {
+		super(bbuf);
+		this.ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
+		this.slotNumber = bbuf.getInt();
+		this.isLargeCheckpoint = bbuf.get() == (byte) 1;
+		int stateLength = bbuf.getInt();
+		byte[] stateBytes = new byte[Math.max(stateLength, 0)];
+		bbuf.get(stateBytes);
+		// -1 length means null state
+		this.state = stateLength >= 0 ? new String(stateBytes, CHARSET) : null;
+	}
+
+	// ballot + slotNumber + isLargeCheckpoint + state length
+	private static final int SIZEOF_STATE_FIXED = 8 + 4 + 1 + 4;
+
+	@Override
+	public byte[] toBytes() {
+		try {
+			if (!BYTEIFICATION)
+				return this.toString().getBytes(CHARSET);
+			byte[] stateBytes = this.state != null ? this.state
+					.getBytes(CHARSET) : new byte[0];
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[SIZEOF_PAXOSPACKET_FIXED
+					+ this.getPaxosID().getBytes(CHARSET).length
+					+ SIZEOF_STATE_FIXED + stateBytes.length]);
+			super.toBytes(bbuf);
+			bbuf.putInt(this.ballot.ballotNumber)
+					.putInt(this.ballot.coordinatorID)
+					.putInt(this.slotNumber)
+					.put(this.isLargeCheckpoint ? (byte) 1 : 0)
+					.putInt(this.state != null ? stateBytes.length : -1)
+					.put(stateBytes);
+			assert (!bbuf.hasRemaining()); // perfect alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	@Override
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		nodeIDs.add(this.ballot.coordinatorID);
+		return nodeIDs;
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
@@ -17,12 +17,17 @@
  */
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Set;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.utils.Util;
 
 /**
@@ -33,7 +38,8 @@ import edu.umass.cs.utils.Util;
  *         it is reporting as missing in this sync reply.
  */
 @SuppressWarnings("javadoc")
-public final class SyncDecisionsPacket extends PaxosPacket {
+public final class SyncDecisionsPacket extends PaxosPacket implements
+		Byteable {
 
 	/**
 	 * Node sending the sync decisions request.
@@ -75,6 +81,49 @@ public final class SyncDecisionsPacket extends PaxosPacket {
 		this.packetType = PaxosPacketType.SYNC_DECISIONS_REQUEST;
 	}
 
+	public SyncDecisionsPacket(ByteBuffer bbuf)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		this.nodeID = bbuf.getInt();
+		this.maxDecisionSlot = bbuf.getInt();
+		int numMissing = bbuf.getInt();
+		// empty is the same as null as in the json form
+		this.missingSlotNumbers = numMissing > 0 ? new ArrayList<Integer>(
+				numMissing) : null;
+		for (int i = 0; i < numMissing; i++)
+			this.missingSlotNumbers.add(bbuf.getInt());
+		this.packetType = PaxosPacketType.SYNC_DECISIONS_REQUEST;
+	}
+
+	@Override
+	public byte[] toBytes() {
+		try {
+			if (!BYTEIFICATION)
+				return this.toString().getBytes(CHARSET);
+			int numMissing = this.missingSlotNumbers != null ? this.missingSlotNumbers
+					.size() : 0;
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[SIZEOF_PAXOSPACKET_FIXED
+					+ this.getPaxosID().getBytes(CHARSET).length + 4 + 4 + 4
+					+ 4 * numMissing]);
+			super.toBytes(bbuf);
+			bbuf.putInt(this.nodeID).putInt(this.maxDecisionSlot)
+					.putInt(numMissing);
+			for (int i = 0; i < numMissing; i++)
+				bbuf.putInt(this.missingSlotNumbers.get(i));
+			assert (!bbuf.hasRemaining()); // perfect alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	@Override
+	public Set<Integer> getNodeIDs(Set<Integer> nodeIDs) {
+		nodeIDs.add(this.nodeID);
+		return nodeIDs;
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
@@ -0,0 +1,135 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos.paxosutil;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.gigapaxos.PaxosConfig.PC;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         A batching policy that runs an AIMD controller per paxos group. Each
+ *         controller collects that group's agreement latency samples and, once
+ *         per window, compares the window's 99th percentile against
+ *         {@link PC#TARGET_AGREEMENT_LATENCY}. If the target is met, the
+ *         group's batch sleep is additively increased so that batches grow;
+ *         else it is multiplicatively decreased. This lets the sleep track
+ *         the load instead of depending on fixed knobs.
+ */
+public class AdaptiveBatchingPolicy implements BatchingPolicy {
+
+	private static final double TARGET_LATENCY = Config
+			.getGlobalDouble(PC.TARGET_AGREEMENT_LATENCY);
+	// never sleep more than a fraction of the target itself
+	private static final double MAX_SLEEP = Math.min(
+			StaticBatchingPolicy.MAX_BATCH_SLEEP_DURATION, TARGET_LATENCY / 2);
+	private static final double MIN_SLEEP = Config
+			.getGlobalDouble(PC.BATCH_SLEEP_DURATION);
+	// additive increase step in ms
+	private static final double SLEEP_STEP = Math.max(MAX_SLEEP / 20, 0.05);
+	private static final double DECREASE_FACTOR = 0.5;
+
+	// samples per window
+	private static final int WINDOW = 128;
+	// adjust with fewer samples if the window takes longer than this to fill
+	private static final long MAX_WINDOW_DURATION = 1000;
+	private static final int MIN_SAMPLES = 16;
+
+	private final ConcurrentHashMap<String, Controller> controllers = new ConcurrentHashMap<String, Controller>();
+
+	@Override
+	public double getSleepDuration(String paxosID, int numQueuedGroups) {
+		Controller controller = this.controllers.get(paxosID);
+		// the batcher sleep is shared across queued groups
+		return (controller != null ? controller.sleep : MIN_SLEEP)
+				/ Math.max(numQueuedGroups, 1);
+	}
+
+	@Override
+	public void updateLatency(String paxosID, long latency) {
+		Controller controller = this.controllers.get(paxosID);
+		if (controller == null) {
+			this.controllers.putIfAbsent(paxosID, new Controller());
+			controller = this.controllers.get(paxosID);
+		}
+		controller.update(latency);
+	}
+
+	@Override
+	public void remove(String paxosID) {
+		this.controllers.remove(paxosID);
+	}
+
+	/**
+	 * @param paxosID
+	 * @return Current sleep duration of {@code paxosID}'s controller.
+	 */
+	public double getGroupSleep(String paxosID) {
+		Controller controller = this.controllers.get(paxosID);
+		return controller != null ? controller.sleep : MIN_SLEEP;
+	}
+
+	private static class Controller {
+		private final long[] samples = new long[WINDOW];
+		private int numSamples = 0;
+		private long windowStart = System.currentTimeMillis();
+		private volatile double sleep = MIN_SLEEP;
+
+		private synchronized void update(long latency) {
+			this.samples[this.numSamples++] = latency;
+			if (this.numSamples < WINDOW
+					&& (this.numSamples < MIN_SAMPLES || System
+							.currentTimeMillis() - this.windowStart < MAX_WINDOW_DURATION))
+				return;
+			long[] sorted = Arrays.copyOf(this.samples, this.numSamples);
+			Arrays.sort(sorted);
+			long p99 = sorted[(int) Math.ceil(0.99 * sorted.length) - 1];
+			this.sleep = p99 <= TARGET_LATENCY ? Math.min(MAX_SLEEP,
+					this.sleep + SLEEP_STEP) : Math.max(MIN_SLEEP, this.sleep
+					* DECREASE_FACTOR);
+			this.numSamples = 0;
+			this.windowStart = System.currentTimeMillis();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class AdaptiveBatchingPolicyTest extends DefaultTest {
+		@Test
+		public void testAIMD() {
+			AdaptiveBatchingPolicy policy = new AdaptiveBatchingPolicy();
+			for (int i = 0; i < WINDOW * 100; i++)
+				policy.updateLatency("fast", 1);
+			Assert.assertEquals(MAX_SLEEP, policy.getGroupSleep("fast"), 1e-9);
+			Assert.assertEquals(MAX_SLEEP / 2,
+					policy.getSleepDuration("fast", 2), 1e-9);
+
+			for (int i = 0; i < WINDOW; i++)
+				policy.updateLatency("fast",
+						(long) TARGET_LATENCY * (i % 50 == 0 ? 10 : 1));
+			Assert.assertTrue(policy.getGroupSleep("fast") <= MAX_SLEEP
+					* DECREASE_FACTOR);
+			// other groups are unaffected
+			Assert.assertEquals(MIN_SLEEP, policy.getGroupSleep("slow"), 1e-9);
+		}
+	}
+}
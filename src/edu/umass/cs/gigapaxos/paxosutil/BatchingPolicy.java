@@ -0,0 +1,53 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos.paxosutil;
+
+/**
+ * @author arun
+ *
+ *         Decides how long the request batcher waits before dequeueing so
+ *         that more requests accumulate into each batch. Implementations must
+ *         have a public no-arg constructor so that they can be specified by
+ *         class name using {@link edu.umass.cs.gigapaxos.PaxosConfig.PC#BATCHING_POLICY}.
+ */
+public interface BatchingPolicy {
+	/**
+	 * @param paxosID
+	 *            The paxos group of the most recently enqueued request.
+	 * @param numQueuedGroups
+	 *            The number of paxos groups with queued requests.
+	 * @return Sleep duration in milliseconds; fractional values less than 1
+	 *         are treated as the probability of sleeping for 1ms.
+	 */
+	public double getSleepDuration(String paxosID, int numQueuedGroups);
+
+	/**
+	 * Supplies a sample of the agreement latency for a request that was
+	 * batched at this node and has now been executed.
+	 * 
+	 * @param paxosID
+	 * @param latency
+	 *            In milliseconds.
+	 */
+	public void updateLatency(String paxosID, long latency);
+
+	/**
+	 * Discards any state kept for {@code paxosID}.
+	 * 
+	 * @param paxosID
+	 */
+	public void remove(String paxosID);
+}
@@ -15,6 +15,9 @@
  * Initial developer(s): V. Arun */
 package edu.umass.cs.gigapaxos.paxosutil;
 
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -98,6 +101,60 @@ public class HotRestoreInfo {
 				.stringToIntArray(tokens[8]) : null;
 	}
 
+	/* Compact binary form used for in-memory hibernation. The paxosID is
+	 * encoded the same way as in byteified paxos packets. */
+	public HotRestoreInfo(ByteBuffer bbuf) throws UnsupportedEncodingException {
+		byte[] paxosIDBytes = new byte[bbuf.getShort()];
+		bbuf.get(paxosIDBytes);
+		this.paxosID = new String(paxosIDBytes, CHARSET);
+		this.version = bbuf.getInt();
+		this.members = getInts(bbuf);
+		this.accSlot = bbuf.getInt();
+		this.accBallot = new Ballot(bbuf.getInt(), bbuf.getInt());
+		this.accGCSlot = bbuf.getInt();
+		this.coordBallot = bbuf.get() != 0 ? new Ballot(bbuf.getInt(),
+				bbuf.getInt()) : null;
+		this.nextProposalSlot = bbuf.getInt();
+		this.nodeSlots = bbuf.get() != 0 ? getInts(bbuf) : null;
+	}
+
+	private static final String CHARSET = "ISO-8859-1";
+
+	private static int[] getInts(ByteBuffer bbuf) {
+		int[] ints = new int[bbuf.getShort()];
+		for (int i = 0; i < ints.length; i++)
+			ints[i] = bbuf.getInt();
+		return ints;
+	}
+
+	private static void putInts(ByteBuffer bbuf, int[] ints) {
+		bbuf.putShort((short) ints.length);
+		for (int i : ints)
+			bbuf.putInt(i);
+	}
+
+	public byte[] toBytes() throws UnsupportedEncodingException {
+		byte[] paxosIDBytes = this.paxosID.getBytes(CHARSET);
+		ByteBuffer bbuf = ByteBuffer.wrap(new byte[2 + paxosIDBytes.length
+				+ 4 + 2 + 4 * members.length + 4 + 8 + 4 + 1
+				+ (coordBallot != null ? 8 : 0) + 4 + 1
+				+ (nodeSlots != null ? 2 + 4 * nodeSlots.length : 0)]);
+		bbuf.putShort((short) paxosIDBytes.length).put(paxosIDBytes)
+				.putInt(version);
+		putInts(bbuf, members);
+		bbuf.putInt(accSlot).putInt(accBallot.ballotNumber)
+				.putInt(accBallot.coordinatorID).putInt(accGCSlot)
+				.put((byte) (coordBallot != null ? 1 : 0));
+		if (coordBallot != null)
+			bbuf.putInt(coordBallot.ballotNumber).putInt(
+					coordBallot.coordinatorID);
+		bbuf.putInt(nextProposalSlot).put((byte) (nodeSlots != null ? 1 : 0));
+		if (nodeSlots != null)
+			putInts(bbuf, nodeSlots);
+		assert (!bbuf.hasRemaining());
+		return bbuf.array();
+	}
+
 	private static final char SEP = '|';
 
 	public String toString() {
@@ -170,5 +227,17 @@ public class HotRestoreInfo {
 			System.out.println(str2);
 			Assert.assertEquals(str1, str2);
 		}
+
+		@Test
+		public void testBytesRoundtrip() throws UnsupportedEncodingException {
+			HotRestoreInfo hri1 = new HotRestoreInfo("paxos0", 2, new int[] {
+					1, 4, 67 }, 5, new Ballot(3, 4), 3, null, 34, null);
+			HotRestoreInfo hri2 = new HotRestoreInfo(ByteBuffer.wrap(hri1
+					.toBytes()));
+			Assert.assertEquals(hri1.toString(), hri2.toString());
+			hri1 = createHRI("paxos1", new int[] { 3, 5, 7 }, 5);
+			Assert.assertEquals(hri1.toString(), new HotRestoreInfo(ByteBuffer
+					.wrap(hri1.toBytes())).toString());
+		}
 	}
 }
@@ -0,0 +1,279 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos.paxosutil;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.gigapaxos.paxospackets.AcceptReplyPacket;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPaxosPacket;
+import edu.umass.cs.gigapaxos.paxospackets.PValuePacket;
+import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket;
+import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
+import edu.umass.cs.gigapaxos.paxospackets.PrepareReplyPacket;
+import edu.umass.cs.gigapaxos.paxospackets.ProposalPacket;
+import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
+import edu.umass.cs.utils.DefaultTest;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         A compact dictionary of node IDs appended to a byteified paxos
+ *         packet when node IDs are not all integers. Byteified packets carry
+ *         node IDs as integers assigned by the sender's {@link IntegerMap},
+ *         so the sender appends the node ID corresponding to each such
+ *         integer in the packet and the receiver uses it to map the integer
+ *         to its own. The dictionary is a trailer of (int, length, node ID)
+ *         entries followed by the trailer length. Its presence is marked by a
+ *         flag bit in the paxos packet type in the header, so it can never be
+ *         confused with the end of a packet without one, and
+ *         {@link #getBody(byte[])} returns the packet as it was before the
+ *         dictionary was appended.
+ */
+public class NodeIDDictionary {
+
+	// set in the paxos packet type that follows the PAXOS_PACKET type
+	private static final int FLAG = 0x40000000;
+	private static final int TYPE_OFFSET = 4;
+	// trailer length
+	private static final int SIZEOF_TRAILER_FIXED = 4;
+	private static final String CHARSET = "ISO-8859-1";
+
+	/**
+	 * @param bytes
+	 *            Byteified packet.
+	 * @param nodeIDs
+	 *            Integer node IDs carried by the packet.
+	 * @param nodeMap
+	 * @return {@code bytes} with the dictionary for {@code nodeIDs} appended.
+	 * @throws UnsupportedEncodingException
+	 */
+	public static byte[] append(byte[] bytes, Set<Integer> nodeIDs,
+			IntegerMap<?> nodeMap) throws UnsupportedEncodingException {
+		assert (isPaxosPacket(bytes) && !hasDictionary(bytes));
+		byte[][] names = new byte[nodeIDs.size()][];
+		int length = SIZEOF_TRAILER_FIXED;
+		int i = 0;
+		for (int id : nodeIDs)
+			length += 4 + 2 + (names[i++] = nodeMap.get(id).toString()
+					.getBytes(CHARSET)).length;
+		ByteBuffer bbuf = ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length
+				+ length));
+		bbuf.putInt(TYPE_OFFSET, bbuf.getInt(TYPE_OFFSET) | FLAG);
+		bbuf.position(bytes.length);
+		i = 0;
+		for (int id : nodeIDs)
+			bbuf.putInt(id).putShort((short) names[i].length).put(names[i++]);
+		bbuf.putInt(length);
+		assert (!bbuf.hasRemaining()); // perfect alignment
+		return bbuf.array();
+	}
+
+	private static boolean isPaxosPacket(byte[] bytes) {
+		return bytes.length >= TYPE_OFFSET + 4
+				&& ByteBuffer.wrap(bytes).getInt() == PaxosPacketType.PAXOS_PACKET
+						.getInt();
+	}
+
+	/**
+	 * @param bytes
+	 * @return True if {@code bytes} is a byteified paxos packet with a
+	 *         dictionary appended.
+	 */
+	public static boolean hasDictionary(byte[] bytes) {
+		return isPaxosPacket(bytes)
+				&& (ByteBuffer.wrap(bytes).getInt(TYPE_OFFSET) & FLAG) != 0
+				&& bytes.length >= TYPE_OFFSET + 4 + SIZEOF_TRAILER_FIXED;
+	}
+
+	/**
+	 * @param bytes
+	 * @return Length of {@code bytes} excluding the dictionary, if any.
+	 */
+	public static int getBodyLength(byte[] bytes) {
+		if (!hasDictionary(bytes))
+			return bytes.length;
+		int length = ByteBuffer.wrap(bytes).getInt(
+				bytes.length - SIZEOF_TRAILER_FIXED);
+		assert (length >= SIZEOF_TRAILER_FIXED && length <= bytes.length) : length;
+		return bytes.length - length;
+	}
+
+	/**
+	 * @param bytes
+	 * @return {@code bytes} without the dictionary, if any, as it was before
+	 *         {@link #append(byte[], Set, IntegerMap)}.
+	 */
+	public static byte[] getBody(byte[] bytes) {
+		if (!hasDictionary(bytes))
+			return bytes;
+		ByteBuffer bbuf = ByteBuffer.wrap(Arrays.copyOf(bytes,
+				getBodyLength(bytes)));
+		bbuf.putInt(TYPE_OFFSET, bbuf.getInt(TYPE_OFFSET) & ~FLAG);
+		return bbuf.array();
+	}
+
+	/**
+	 * @param bytes
+	 * @return Map from the sender's integer node IDs to node ID strings, or
+	 *         null if {@code bytes} has no dictionary.
+	 * @throws UnsupportedEncodingException
+	 */
+	public static Map<Integer, String> get(byte[] bytes)
+			throws UnsupportedEncodingException {
+		if (!hasDictionary(bytes))
+			return null;
+		int bodyLength = getBodyLength(bytes);
+		Map<Integer, String> dictionary = new HashMap<Integer, String>();
+		ByteBuffer bbuf = ByteBuffer.wrap(bytes, bodyLength, bytes.length
+				- SIZEOF_TRAILER_FIXED - bodyLength);
+		while (bbuf.hasRemaining()) {
+			int id = bbuf.getInt();
+			byte[] name = new byte[bbuf.getShort()];
+			bbuf.get(name);
+			dictionary.put(id, new String(name, CHARSET));
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Fixes node IDs in the JSON form of a packet parsed from bytes whose
+	 * dictionary revealed that some of the sender's integers differ from
+	 * ours. Node IDs in nested packets, e.g., accepted pvalues in a prepare
+	 * reply, batched requests, or packets in a batched paxos packet, are
+	 * fixed too as the dictionary covers them as well.
+	 * 
+	 * @param json
+	 * @param mismatched
+	 *            Map from the sender's integers to ours.
+	 * @return {@code json} after fixing node IDs in place.
+	 * @throws JSONException
+	 */
+	public static JSONObject fixNodeIDs(JSONObject json,
+			Map<Integer, Integer> mismatched) throws JSONException {
+		if (json.has(PaxosPacket.NodeIDKeys.B.toString())) {
+			Ballot ballot = new Ballot(json.getString(PaxosPacket.NodeIDKeys.B
+					.toString()));
+			if (mismatched.containsKey(ballot.coordinatorID))
+				json.put(PaxosPacket.NodeIDKeys.B.toString(), new Ballot(
+						ballot.ballotNumber, mismatched
+								.get(ballot.coordinatorID)).toString());
+		}
+		if (json.has(PaxosPacket.NodeIDKeys.GROUP.toString())) {
+			JSONArray jsonArray = json
+					.getJSONArray(PaxosPacket.NodeIDKeys.GROUP.toString());
+			for (int i = 0; i < jsonArray.length(); i++)
+				if (mismatched.containsKey(jsonArray.getInt(i)))
+					jsonArray.put(i, mismatched.get(jsonArray.getInt(i)));
+		}
+		for (PaxosPacket.NodeIDKeys key : PaxosPacket.NodeIDKeys.values())
+			if (key != PaxosPacket.NodeIDKeys.B
+					&& key != PaxosPacket.NodeIDKeys.GROUP
+					&& json.has(key.toString())
+					&& mismatched.containsKey(json.getInt(key.toString())))
+				json.put(key.toString(),
+						mismatched.get(json.getInt(key.toString())));
+		if (json.length() > 0)
+			for (String key : Util.getNames(json))
+				if (!key.equals(PaxosPacket.NodeIDKeys.GROUP.toString()))
+					fixNestedNodeIDs(json.get(key), mismatched);
+		return json;
+	}
+
+	private static void fixNestedNodeIDs(Object value,
+			Map<Integer, Integer> mismatched) throws JSONException {
+		if (value instanceof JSONObject)
+			fixNodeIDs((JSONObject) value, mismatched);
+		else if (value instanceof JSONArray)
+			for (int i = 0; i < ((JSONArray) value).length(); i++)
+				fixNestedNodeIDs(((JSONArray) value).get(i), mismatched);
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class NodeIDDictionaryTest extends DefaultTest {
+		@Test
+		public void testAppendGet() throws UnsupportedEncodingException {
+			IntegerMap<String> nodeMap = new IntegerMap<String>();
+			Set<Integer> nodeIDs = new TreeSet<Integer>();
+			nodeIDs.add(nodeMap.put("RC0"));
+			nodeIDs.add(nodeMap.put("AR1"));
+			byte[] body = ByteBuffer.allocate(12)
+					.putInt(PaxosPacketType.PAXOS_PACKET.getInt())
+					.putInt(PaxosPacketType.ACCEPT_REPLY.getInt())
+					.putInt(0x4e494444).array();
+			Assert.assertFalse(NodeIDDictionary.hasDictionary(body));
+			Assert.assertEquals(body.length,
+					NodeIDDictionary.getBodyLength(body));
+			Assert.assertSame(body, NodeIDDictionary.getBody(body));
+			Assert.assertNull(NodeIDDictionary.get(body));
+			// JSON is never mistaken for a packet with a dictionary
+			Assert.assertFalse(NodeIDDictionary.hasDictionary("{\"type\":\"ACCEPT\"}"
+					.getBytes(CHARSET)));
+
+			byte[] bytes = NodeIDDictionary.append(body, nodeIDs, nodeMap);
+			Assert.assertTrue(NodeIDDictionary.hasDictionary(bytes));
+			Assert.assertEquals(body.length,
+					NodeIDDictionary.getBodyLength(bytes));
+			Assert.assertArrayEquals(body, NodeIDDictionary.getBody(bytes));
+			Map<Integer, String> dictionary = NodeIDDictionary.get(bytes);
+			Assert.assertEquals(2, dictionary.size());
+			Assert.assertEquals("RC0", dictionary.get(nodeMap.put("RC0")));
+			Assert.assertEquals("AR1", dictionary.get(nodeMap.put("AR1")));
+		}
+
+		@Test
+		public void testFixNestedNodeIDs() throws JSONException {
+			Ballot ballot = new Ballot(3, 1);
+			RequestPacket request = new RequestPacket(25, "value", false)
+					.setEntryReplica(1);
+			PValuePacket pvalue = new PValuePacket(ballot, new ProposalPacket(
+					10, request));
+			pvalue.putPaxosID("group", 2);
+			Map<Integer, PValuePacket> accepted = new HashMap<Integer, PValuePacket>();
+			accepted.put(pvalue.slot, pvalue);
+			BatchedPaxosPacket batch = new BatchedPaxosPacket(
+					new PrepareReplyPacket(1, ballot, accepted, 4))
+					.append(new AcceptReplyPacket(1, ballot, 10, 4)
+							.putPaxosID("group", 2));
+			Set<Integer> nodeIDs = new TreeSet<Integer>();
+			nodeIDs.add(1);
+			Assert.assertEquals(nodeIDs,
+					batch.getNodeIDs(new TreeSet<Integer>()));
+
+			Map<Integer, Integer> mismatched = new HashMap<Integer, Integer>();
+			mismatched.put(1, 11);
+			PaxosPacket fixed = PaxosPacketDemultiplexer.toPaxosPacket(
+					fixNodeIDs(batch.toJSONObject(), mismatched), null);
+			nodeIDs.clear();
+			nodeIDs.add(11);
+			// includes the entry replica of the request in the pvalue
+			Assert.assertEquals(nodeIDs,
+					fixed.getNodeIDs(new TreeSet<Integer>()));
+		}
+	}
+}
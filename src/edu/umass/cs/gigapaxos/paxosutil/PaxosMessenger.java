@@ -16,23 +16,38 @@
 package edu.umass.cs.gigapaxos.paxosutil;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
 
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedCommit;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPaxosPacket;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPrepare;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPrepareReply;
+import edu.umass.cs.gigapaxos.paxospackets.PValuePacket;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
+import edu.umass.cs.gigapaxos.paxospackets.PrepareReplyPacket;
+import edu.umass.cs.gigapaxos.paxospackets.PreparePacket;
 import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
 import edu.umass.cs.nio.GenericMessagingTask;
 import edu.umass.cs.nio.JSONMessenger;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.nio.interfaces.InterfaceNIOTransport;
 import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.Util;
 
@@ -77,12 +92,114 @@ public class PaxosMessenger<NodeIDType> extends JSONMessenger<NodeIDType> {
 			send(mtask);
 	}
 
-	// all send roads lead to here
 	public void send(MessagingTask mtask) throws JSONException, IOException {
+		this.send(mtask, null);
+	}
+
+	/**
+	 * All send roads lead to here.
+	 * 
+	 * @param mtask
+	 * @param accepted
+	 *            If non-null, recipients for which the transport queued at
+	 *            least one of the messages, i.e., did not refuse them as
+	 *            congested or unreachable, are added to this set.
+	 * @throws JSONException
+	 * @throws IOException
+	 */
+	public void send(MessagingTask mtask, Set<NodeIDType> accepted)
+			throws JSONException, IOException {
 		if (mtask == null || mtask.isEmptyMessaging())
 			return;
 		// need to convert integers to NodeIDType.toString before sending
-		super.send(toGeneric(mtask), useWorkers(mtask));
+		if (!STRIPE_MESSENGER_WORKERS)
+			super.send(toGeneric(mtask), useWorkers(mtask), null, accepted);
+		else if (isSingleGroup(mtask))
+			this.sendStriped(mtask, mtask.msgs[0].getPaxosID(), accepted);
+		else
+			for (PaxosPacket msg : mtask.msgs)
+				for (Map.Entry<String, PaxosPacket> striped : splitByStripe(
+						msg, this.getNumWorkers()).entrySet())
+					this.sendStriped(new MessagingTask(mtask.recipients,
+							striped.getValue()), striped.getKey(), accepted);
+	}
+
+	private static final boolean STRIPE_MESSENGER_WORKERS = Config
+			.getGlobalBoolean(PC.STRIPE_MESSENGER_WORKERS);
+
+	private void sendStriped(MessagingTask mtask, String paxosID,
+			Set<NodeIDType> accepted) throws JSONException, IOException {
+		super.send(toGeneric(mtask), paxosID != null, paxosID, accepted);
+	}
+
+	private static boolean isSingleGroup(MessagingTask mtask) {
+		String paxosID = mtask.msgs[0].getPaxosID();
+		for (PaxosPacket msg : mtask.msgs)
+			if (isMultiGroup(msg)
+					|| (paxosID == null ? msg.getPaxosID() != null : !paxosID
+							.equals(msg.getPaxosID())))
+				return false;
+		return true;
+	}
+
+	// batches whose own paxosID is just that of their first packet, if any
+	private static boolean isMultiGroup(PaxosPacket msg) {
+		return msg instanceof BatchedPrepare
+				|| msg instanceof BatchedPrepareReply
+				|| msg instanceof BatchedPaxosPacket;
+	}
+
+	/* Splits a batch of packets from different groups, e.g., the prepares
+	 * upon a coordinator takeover, into one batch per stripe keyed by the
+	 * paxosID of its first packet, so that each group's packets go over the
+	 * same connection whether batched or not. Any other packet is returned
+	 * as is keyed by its own paxosID. */
+	static Map<String, PaxosPacket> splitByStripe(PaxosPacket msg,
+			int numWorkers) {
+		Map<Integer, String> keys = new HashMap<Integer, String>();
+		Map<String, PaxosPacket> split = new LinkedHashMap<String, PaxosPacket>();
+		if (msg instanceof BatchedPrepare)
+			for (PreparePacket prepare : ((BatchedPrepare) msg)
+					.getPaxosPackets()) {
+				String key = getStripeKey(prepare, numWorkers, keys);
+				if (split.containsKey(key))
+					((BatchedPrepare) split.get(key)).addPrepare(prepare);
+				else
+					split.put(key, new BatchedPrepare(prepare));
+			}
+		else if (msg instanceof BatchedPrepareReply)
+			for (PrepareReplyPacket reply : ((BatchedPrepareReply) msg)
+					.getPaxosPackets()) {
+				String key = getStripeKey(reply, numWorkers, keys);
+				if (split.containsKey(key))
+					((BatchedPrepareReply) split.get(key))
+							.addPrepareReply(reply);
+				else
+					split.put(key, new BatchedPrepareReply(reply));
+			}
+		else if (msg instanceof BatchedPaxosPacket)
+			for (PaxosPacket pkt : ((BatchedPaxosPacket) msg)
+					.getPaxosPackets()) {
+				String key = getStripeKey(pkt, numWorkers, keys);
+				if (split.containsKey(key))
+					((BatchedPaxosPacket) split.get(key)).append(pkt);
+				else
+					split.put(key, new BatchedPaxosPacket(pkt));
+			}
+		else
+			split.put(msg.getPaxosID(), msg);
+		return split;
+	}
+
+	// paxosID of the first packet seen on pkt's stripe; null if no paxosID
+	private static String getStripeKey(PaxosPacket pkt, int numWorkers,
+			Map<Integer, String> keys) {
+		if (pkt.getPaxosID() == null)
+			return null;
+		int stripe = JSONMessenger.getStripe(pkt.getPaxosID(), numWorkers);
+		if (!keys.containsKey(stripe))
+			keys.put(stripe, pkt.getPaxosID());
+		return keys.get(stripe);
 	}
 
 	private boolean useWorkers(MessagingTask mtask) {
@@ -122,13 +239,22 @@ public class PaxosMessenger<NodeIDType> extends JSONMessenger<NodeIDType> {
 				&& ((RequestPacket) msg).getStringifiedSelf() != null)
 			return ((RequestPacket) msg).getStringifiedSelf();
 
-		// FIXME: to test byteable
+		/* Byteified node IDs are our IntegerMap's ints, so we append a
+		 * dictionary for the receiver to map them to its own ints unless all
+		 * node IDs are integers anyway. */
 		if (BYTEIFICATION
-				&& IntegerMap.allInt()
-				&& (msg.getType() == PaxosPacket.PaxosPacketType.REQUEST || (msg
-						.getType() == PaxosPacket.PaxosPacketType.ACCEPT))
-				|| msg.getType() == PaxosPacketType.BATCHED_COMMIT
-				|| msg.getType() == PaxosPacketType.BATCHED_ACCEPT_REPLY)
+				&& PaxosPacketDemultiplexerFast.isByteable(msg))
+			try {
+				return IntegerMap.allInt() ? msg : NodeIDDictionary.append(
+						((Byteable) msg).toBytes(),
+						msg.getNodeIDs(new HashSet<Integer>()), this.nodeMap);
+			} catch (UnsupportedEncodingException e) {
+				throw new JSONException(e);
+			}
+		if (msg.getType() == PaxosPacketType.BATCHED_COMMIT
+				|| msg.getType() == PaxosPacketType.BATCHED_ACCEPT_REPLY
+				|| msg.getType() == PaxosPacketType.BATCHED_PREPARE
+				|| msg.getType() == PaxosPacketType.BATCHED_PREPARE_REPLY)
 			return msg;
 
 		long t = System.nanoTime();
@@ -255,4 +381,114 @@ public class PaxosMessenger<NodeIDType> extends JSONMessenger<NodeIDType> {
 	private String intToString(int id) {
 		return this.nodeMap.get(id).toString();
 	}
+
+	/**
+	 * @param node
+	 * @return Whether sends to the node with integer ID {@code node} are
+	 *         currently being refused for lack of room in its send queue.
+	 */
+	public boolean isCongested(int node) {
+		NodeIDType id = this.nodeMap.get(node);
+		return id != null && this.isCongested(id);
+	}
+
+	/* Paxos recovers lost messages on its own, e.g., by syncing missed
+	 * decisions or by clients retransmitting requests, so retransmitting
+	 * messages that NIO refused would only rebuild in memory the backlog to a
+	 * replica that is not keeping up. */
+	@Override
+	protected boolean retransmitOnCongestion() {
+		return false;
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class PaxosMessengerTest extends DefaultTest {
+		private static final int NUM_WORKERS = 3;
+
+		// every sub-batch is on its key's stripe, each stripe has one
+		private static void assertStriped(Map<String, PaxosPacket> split,
+				Collection<? extends PaxosPacket> original,
+				Collection<? extends PaxosPacket>... batches) {
+			Set<Integer> stripes = new HashSet<Integer>();
+			ArrayList<PaxosPacket> all = new ArrayList<PaxosPacket>();
+			for (Collection<? extends PaxosPacket> batch : batches) {
+				String key = batch.iterator().next().getPaxosID();
+				Assert.assertTrue(split.containsKey(key));
+				int stripe = JSONMessenger.getStripe(key, NUM_WORKERS);
+				Assert.assertTrue(stripes.add(stripe));
+				for (PaxosPacket pkt : batch) {
+					Assert.assertEquals(stripe, JSONMessenger.getStripe(
+							pkt.getPaxosID(), NUM_WORKERS));
+					all.add(pkt);
+				}
+			}
+			Assert.assertEquals(split.size(), batches.length);
+			Assert.assertEquals(original.size(), all.size());
+			Assert.assertTrue(all.containsAll(original));
+			// each stripe keeps the original order
+			for (Collection<? extends PaxosPacket> batch : batches) {
+				ArrayList<PaxosPacket> expected = new ArrayList<PaxosPacket>(
+						original);
+				expected.retainAll(batch);
+				Assert.assertEquals(expected, new ArrayList<PaxosPacket>(
+						batch));
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		@Test
+		public void testSplitByStripe() {
+			BatchedPrepare prepares = null;
+			BatchedPrepareReply replies = null;
+			BatchedPaxosPacket batch = null;
+			for (int i = 0; i < 20; i++) {
+				PreparePacket prepare = new PreparePacket(new Ballot(i, 3),
+						100 + i);
+				prepare.putPaxosID("group" + i, i);
+				prepares = prepares == null ? new BatchedPrepare(prepare)
+						: prepares.addPrepare(prepare);
+				PrepareReplyPacket reply = new PrepareReplyPacket(5,
+						new Ballot(i, 3),
+						new HashMap<Integer, PValuePacket>(), 90);
+				reply.putPaxosID("group" + i, i);
+				replies = replies == null ? new BatchedPrepareReply(reply)
+						: replies.addPrepareReply(reply);
+				batch = batch == null ? new BatchedPaxosPacket(prepare)
+						: batch.append(prepare);
+			}
+
+			Map<String, PaxosPacket> split = splitByStripe(prepares,
+					NUM_WORKERS);
+			ArrayList<Collection<PreparePacket>> preparesByStripe = new ArrayList<Collection<PreparePacket>>();
+			for (PaxosPacket pkt : split.values())
+				preparesByStripe.add(((BatchedPrepare) pkt).getPaxosPackets());
+			assertStriped(split, prepares.getPaxosPackets(),
+					preparesByStripe.toArray(new Collection[0]));
+			// 20 groups over 4 stripes
+			Assert.assertTrue(split.size() > 1);
+
+			split = splitByStripe(replies, NUM_WORKERS);
+			ArrayList<Collection<PrepareReplyPacket>> repliesByStripe = new ArrayList<Collection<PrepareReplyPacket>>();
+			for (PaxosPacket pkt : split.values())
+				repliesByStripe.add(((BatchedPrepareReply) pkt)
+						.getPaxosPackets());
+			assertStriped(split, replies.getPaxosPackets(),
+					repliesByStripe.toArray(new Collection[0]));
+
+			split = splitByStripe(batch, NUM_WORKERS);
+			ArrayList<Collection<PaxosPacket>> batchesByStripe = new ArrayList<Collection<PaxosPacket>>();
+			for (PaxosPacket pkt : split.values())
+				batchesByStripe.add(((BatchedPaxosPacket) pkt)
+						.getPaxosPackets());
+			assertStriped(split, batch.getPaxosPackets(),
+					batchesByStripe.toArray(new Collection[0]));
+
+			// a single group packet is left alone
+			PreparePacket prepare = prepares.getPaxosPackets().iterator()
+					.next();
+			split = splitByStripe(prepare, NUM_WORKERS);
+			Assert.assertEquals(1, split.size());
+			Assert.assertSame(prepare, split.get(prepare.getPaxosID()));
+		}
+	}
 }
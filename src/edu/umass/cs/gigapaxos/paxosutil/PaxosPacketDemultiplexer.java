@@ -26,6 +26,8 @@ import edu.umass.cs.gigapaxos.paxospackets.BatchedAccept;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedAcceptReply;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedCommit;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedPaxosPacket;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPrepare;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPrepareReply;
 import edu.umass.cs.gigapaxos.paxospackets.FailureDetectionPacket;
 import edu.umass.cs.gigapaxos.paxospackets.FindReplicaGroupPacket;
 import edu.umass.cs.gigapaxos.paxospackets.PValuePacket;
@@ -95,6 +97,12 @@ public abstract class PaxosPacketDemultiplexer extends
 		case BATCHED_PAXOS_PACKET:
 			paxosPacket = (new BatchedPaxosPacket(json));
 			break;
+		case BATCHED_PREPARE:
+			paxosPacket = (new BatchedPrepare(json));
+			break;
+		case BATCHED_PREPARE_REPLY:
+			paxosPacket = (new BatchedPrepareReply(json));
+			break;
 		case ACCEPT_REPLY:
 			paxosPacket = (new AcceptReplyPacket(json));
 			break;
@@ -16,29 +16,52 @@
 package edu.umass.cs.gigapaxos.paxosutil;
 
 import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import edu.umass.cs.gigapaxos.PaxosConfig;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
 
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.paxospackets.AcceptPacket;
+import edu.umass.cs.gigapaxos.paxospackets.AcceptReplyPacket;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedAccept;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedAcceptReply;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedCommit;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPaxosPacket;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPrepare;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPrepareReply;
+import edu.umass.cs.gigapaxos.paxospackets.FailureDetectionPacket;
+import edu.umass.cs.gigapaxos.paxospackets.FindReplicaGroupPacket;
 import edu.umass.cs.gigapaxos.paxospackets.PValuePacket;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
+import edu.umass.cs.gigapaxos.paxospackets.PrepareReplyPacket;
+import edu.umass.cs.gigapaxos.paxospackets.PreparePacket;
+import edu.umass.cs.gigapaxos.paxospackets.ProposalPacket;
 import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
+import edu.umass.cs.gigapaxos.paxospackets.StatePacket;
+import edu.umass.cs.gigapaxos.paxospackets.SyncDecisionsPacket;
 import edu.umass.cs.nio.AbstractPacketDemultiplexer;
 import edu.umass.cs.nio.JSONPacket;
 import edu.umass.cs.nio.MessageExtractor;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.nio.interfaces.Stringifiable;
 import edu.umass.cs.nio.nioutils.NIOHeader;
+import edu.umass.cs.nio.nioutils.StringifiableDefault;
 import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.Util;
 
@@ -48,8 +71,8 @@ import edu.umass.cs.utils.Util;
  *         This is a faster demultiplexer than PaxosPacketDemultiplexerJSON.
  *         JSON turns out to be the bottleneck. This class supports json-smart
  *         and direct serialization to and from byte[]. The last option is the
- *         fastest. We need faster options only for RequestPacket and
- *         AcceptPacket; for everything else JSON is just fine.
+ *         fastest. We need faster options mainly for RequestPacket and
+ *         AcceptPacket, but recovery and catch-up traffic is byteified too.
  * 
  *         Byteification is a bit harder to maintain, especially the
  *         processHeader part, but is worth it for this critical demultiplexer.
@@ -63,7 +86,9 @@ public abstract class PaxosPacketDemultiplexerFast extends
 		super(numThreads);
 	}
 
-	private static PaxosPacket toPaxosPacket(byte[] bytes)
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static PaxosPacket toPaxosPacket(byte[] bytes,
+			NIOHeader header, Stringifiable<?> unstringer)
 			throws UnsupportedEncodingException, UnknownHostException {
 		assert (bytes != null);
 		ByteBuffer bbuf = ByteBuffer.wrap(bytes);
@@ -94,6 +119,45 @@ public abstract class PaxosPacketDemultiplexerFast extends
 		case BATCHED_ACCEPT_REPLY:
 			paxosPacket = new BatchedAcceptReply(bbuf);
 			break;
+		case BATCHED_PREPARE:
+			paxosPacket = new BatchedPrepare(bbuf);
+			break;
+		case BATCHED_PREPARE_REPLY:
+			paxosPacket = new BatchedPrepareReply(bbuf);
+			break;
+		case DECISION:
+		case PREEMPTED:
+			paxosPacket = new PValuePacket(bbuf);
+			break;
+		case PREPARE:
+			paxosPacket = new PreparePacket(bbuf);
+			break;
+		case PREPARE_REPLY:
+			paxosPacket = new PrepareReplyPacket(bbuf);
+			break;
+		case ACCEPT_REPLY:
+			paxosPacket = new AcceptReplyPacket(bbuf);
+			break;
+		case CHECKPOINT_STATE:
+			paxosPacket = new StatePacket(bbuf);
+			break;
+		case SYNC_DECISIONS_REQUEST:
+			paxosPacket = new SyncDecisionsPacket(bbuf);
+			break;
+		case FAILURE_DETECT:
+			assert (unstringer != null);
+			paxosPacket = new FailureDetectionPacket(bbuf,
+					(Stringifiable) unstringer, header.sndr);
+			break;
+		case FIND_REPLICA_GROUP:
+			paxosPacket = new FindReplicaGroupPacket(bbuf);
+			break;
+		case BATCHED_ACCEPT:
+			paxosPacket = new BatchedAccept(bbuf);
+			break;
+		case BATCHED_PAXOS_PACKET:
+			paxosPacket = new BatchedPaxosPacket(bbuf);
+			break;
 
 		default:
 			assert (false);
@@ -101,6 +165,19 @@ public abstract class PaxosPacketDemultiplexerFast extends
 		return paxosPacket;
 	}
 
+	/**
+	 * @param bytes
+	 * @return PaxosPacket parsed from byteified {@code bytes} of a type that
+	 *         does not need the sender's address to be parsed, i.e., not
+	 *         FAILURE_DETECT.
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	public static PaxosPacket toPaxosPacket(byte[] bytes)
+			throws UnsupportedEncodingException, UnknownHostException {
+		return toPaxosPacket(bytes, null, null);
+	}
+
 	/**
 	 * @param jsonS
 	 * @param unstringer
@@ -202,19 +279,63 @@ public abstract class PaxosPacketDemultiplexerFast extends
 				0, 4).getInt() : PaxosPacketType.PAXOS_PACKET.getInt();
 	}
 
-	// currently only RequestPacket is byteable
+	/**
+	 * @param type
+	 * @return True if packets of {@code type} are byteified when
+	 *         byteification is enabled. These are all packet types sent
+	 *         across nodes, but see {@link #isByteable(PaxosPacket)} for
+	 *         BATCHED_PAXOS_PACKET.
+	 */
+	public static boolean isByteable(PaxosPacketType type) {
+		switch (type) {
+		case REQUEST:
+		case ACCEPT:
+		case DECISION:
+		case PREEMPTED:
+		case PREPARE:
+		case PREPARE_REPLY:
+		case ACCEPT_REPLY:
+		case CHECKPOINT_STATE:
+		case SYNC_DECISIONS_REQUEST:
+		case FAILURE_DETECT:
+		case FIND_REPLICA_GROUP:
+		case BATCHED_COMMIT:
+		case BATCHED_ACCEPT_REPLY:
+		case BATCHED_PREPARE:
+		case BATCHED_PREPARE_REPLY:
+		case BATCHED_ACCEPT:
+		case BATCHED_PAXOS_PACKET:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @param pp
+	 * @return True if {@code pp} is byteified when byteification is enabled,
+	 *         which for a BATCHED_PAXOS_PACKET additionally requires every
+	 *         batched packet to be byteable without the sender's address.
+	 */
+	public static boolean isByteable(PaxosPacket pp) {
+		if (pp.getType() != PaxosPacketType.BATCHED_PAXOS_PACKET)
+			return isByteable(pp.getType());
+		for (PaxosPacket packet : ((BatchedPaxosPacket) pp).getPaxosPackets())
+			if (packet.getType() == PaxosPacketType.FAILURE_DETECT
+					|| !isByteable(packet))
+				return false;
+		return true;
+	}
+
 	private static boolean isByteable(byte[] bytes) {
 		ByteBuffer bbuf;
-		int type = -1;
+		PaxosPacketType type = null;
 		if ((bbuf = ByteBuffer.wrap(bytes, 0, 8)).getInt() == PaxosPacket.PaxosPacketType.PAXOS_PACKET
 				.getInt()
-				&& ((type = bbuf.getInt()) == PaxosPacket.PaxosPacketType.REQUEST
-						.getInt()
-						|| (type == PaxosPacket.PaxosPacketType.ACCEPT.getInt())
-						|| type == PaxosPacketType.BATCHED_COMMIT.getInt() || type == PaxosPacketType.BATCHED_ACCEPT_REPLY
-						.getInt()))
+				&& (type = PaxosPacketType.getPaxosPacketType(bbuf.getInt())) != null
+				&& isByteable(type))
 			return true;
-		assert (type != PaxosPacket.PaxosPacketType.PROPOSAL.getInt());
+		assert (type != PaxosPacket.PaxosPacketType.PROPOSAL);
 		return false;
 	}
 
@@ -230,6 +351,21 @@ public abstract class PaxosPacketDemultiplexerFast extends
 	 *         header processing.
 	 */
 	public static final Object processHeaderUtil(byte[] bytes, NIOHeader header) {
+		return processHeaderUtil(bytes, header, null);
+	}
+
+	/**
+	 * @param bytes
+	 * @param header
+	 * @param unstringer
+	 *            Needed only for {@link FailureDetectionPacket}.
+	 * @return Same as {@link #processHeaderUtil(byte[], NIOHeader)}. Any
+	 *         {@link NodeIDDictionary} appended to {@code bytes} is ignored
+	 *         here and is left to the caller to interpret.
+	 */
+	public static final Object processHeaderUtil(byte[] bytes,
+			NIOHeader header, Stringifiable<?> unstringer) {
+		bytes = NodeIDDictionary.getBody(bytes);
 		if (isByteable(bytes)) {
 			long t = System.nanoTime();
 			if (PaxosPacket.getType(bytes) == PaxosPacketType.REQUEST) {
@@ -270,7 +406,7 @@ public abstract class PaxosPacketDemultiplexerFast extends
 				}
 			}
 			try {
-				PaxosPacket pp = toPaxosPacket(bytes);
+				PaxosPacket pp = toPaxosPacket(bytes, header, unstringer);
 				if (PaxosMessenger.INSTRUMENT_SERIALIZATION && Util.oneIn(100)) {
 					if (pp.getType() == PaxosPacketType.REQUEST)
 						DelayProfiler.updateDelayNano("<-request", t);
@@ -355,4 +491,140 @@ public abstract class PaxosPacketDemultiplexerFast extends
 		}
 		return json;
 	}
+
+	@SuppressWarnings("javadoc")
+	public static class PaxosPacketDemultiplexerFastTest extends DefaultTest {
+		private static final NIOHeader HEADER = new NIOHeader(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 2000),
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 2001));
+
+		private static PaxosPacket fromBytes(byte[] bytes) {
+			Object decoded = processHeaderUtil(bytes, HEADER,
+					new StringifiableDefault<String>(""));
+			Assert.assertTrue(decoded instanceof PaxosPacket);
+			return (PaxosPacket) decoded;
+		}
+
+		@Test
+		public void testBytesRoundtrip() throws JSONException {
+			Ballot ballot = new Ballot(3, 1);
+			PreparePacket prepare = new PreparePacket(ballot, 100);
+			prepare.setRecovery();
+			PValuePacket pvalue = new PValuePacket(ballot, new ProposalPacket(
+					10, new RequestPacket(25, "value", false)));
+			PValuePacket decision = new PValuePacket(pvalue).makeDecision(5);
+			HashMap<Integer, PValuePacket> accepted = new HashMap<Integer, PValuePacket>();
+			accepted.put(pvalue.slot, pvalue);
+			ArrayList<Integer> missing = new ArrayList<Integer>();
+			missing.add(12);
+			missing.add(13);
+			PaxosPacket[] packets = {
+					prepare,
+					decision,
+					new PrepareReplyPacket(2, ballot, accepted, 4),
+					new PrepareReplyPacket(2, ballot, null, 4),
+					new AcceptReplyPacket(2, ballot, 10, 4),
+					new StatePacket(ballot, 10, "state"),
+					new SyncDecisionsPacket(2, 10, missing, false),
+					new SyncDecisionsPacket(2, 10, null, false),
+					new FindReplicaGroupPacket(new int[] { 1, 2, 3 },
+							new FindReplicaGroupPacket(2, prepare)) };
+			for (PaxosPacket pp : packets) {
+				pp.putPaxosID("group", 2);
+				Assert.assertEquals(pp.toString(),
+						fromBytes(((Byteable) pp).toBytes()).toString());
+			}
+
+			FailureDetectionPacket<String> fdp = new FailureDetectionPacket<String>(
+					"RC0", "AR1", true);
+			@SuppressWarnings("unchecked")
+			FailureDetectionPacket<String> fdp2 = (FailureDetectionPacket<String>) fromBytes(fdp
+					.toBytes());
+			Assert.assertEquals("RC0", fdp2.senderNodeID);
+			Assert.assertEquals(HEADER.sndr, fdp2.getSender());
+		}
+
+		@Test
+		public void testVerbatimRequest() throws UnsupportedEncodingException,
+				UnknownHostException {
+			RequestPacket request = new RequestPacket(25, "value", false)
+					.latchToBatch(new RequestPacket[] {
+							new RequestPacket(26, "batched1", false),
+							new RequestPacket(27, "batched2", false) });
+			request.putPaxosID("group", 2);
+			byte[] bytes = request.toBytes();
+			RequestPacket received = (RequestPacket) fromBytes(bytes);
+			// addresses stamped by processHeaderUtil, decoded lazily
+			Assert.assertArrayEquals(bytes, received.toBytes());
+			Assert.assertEquals(HEADER.sndr, received.getClientAddress());
+			Assert.assertEquals(HEADER.rcvr, received.getListenAddress());
+			Assert.assertEquals("batched2", received.getBatched()[1].requestValue);
+
+			// modified packets and their sub-requests are re-encoded
+			received.getBatched()[0].setEntryReplica(3);
+			received.setCredits(7);
+			RequestPacket copy = new RequestPacket(received.toBytes());
+			Assert.assertEquals(received.toString(), copy.toString());
+			Assert.assertEquals(3, copy.getBatched()[0].getEntryReplica());
+
+			// an accept built from a received request reuses its bytes
+			AcceptPacket accept = new AcceptPacket(1, new PValuePacket(
+					new Ballot(3, 1), new ProposalPacket(10, received)), 4);
+			accept.putPaxosID("group", 2);
+			byte[] acceptBytes = accept.toBytes();
+			AcceptPacket relayed = (AcceptPacket) fromBytes(acceptBytes);
+			Assert.assertEquals(accept.toString(), relayed.toString());
+			Assert.assertArrayEquals(acceptBytes, relayed.toBytes());
+			relayed.setRecovery();
+			Assert.assertTrue(new AcceptPacket(relayed.toBytes()).isRecovery());
+		}
+
+		@Test
+		public void testBatchedBytesRoundtrip() throws JSONException {
+			Ballot ballot = new Ballot(3, 1);
+			PValuePacket pvalue = new PValuePacket(ballot, new ProposalPacket(
+					10, new RequestPacket(25, "value", false)));
+			AcceptPacket accept = new AcceptPacket(1, pvalue, 4);
+			accept.putPaxosID("group", 2);
+			accept.setDigest(new byte[] { 1, 2, 3, -4 });
+			BatchedAccept bAccept = new BatchedAccept(accept,
+					new HashSet<Integer>(Arrays.asList(1, 2, 3)));
+			AcceptPacket accept2 = new AcceptPacket(1, new PValuePacket(
+					ballot, new ProposalPacket(11, new RequestPacket(26,
+							"value2", false))), 4);
+			accept2.putPaxosID("group", 2);
+			accept2.setDigest(new byte[] { 5, 6 });
+			bAccept.addAccept(accept2);
+			Assert.assertEquals(bAccept.toString(),
+					fromBytes(bAccept.toBytes()).toString());
+
+			PValuePacket decision = new PValuePacket(pvalue).makeDecision(5);
+			decision.putPaxosID("group", 2);
+			BatchedPaxosPacket batch = new BatchedPaxosPacket(decision)
+					.append(new AcceptReplyPacket(2, ballot, 10, 4).putPaxosID(
+							"group", 2)).append(bAccept);
+			Assert.assertTrue(isByteable(batch));
+			Assert.assertEquals(batch.toJSONObject().toString(),
+					fromBytes(batch.toBytes()).toJSONObject().toString());
+
+			// batched failure detection needs the sender's address
+			Assert.assertFalse(isByteable(batch
+					.append(new FailureDetectionPacket<String>("RC0", "AR1",
+							true))));
+		}
+
+		@Test
+		public void testNodeIDDictionary() throws UnsupportedEncodingException {
+			IntegerMap<String> nodeMap = new IntegerMap<String>();
+			int node = nodeMap.put("AR1");
+			Assert.assertFalse(IntegerMap.allInt());
+			PaxosPacket pp = new AcceptReplyPacket(node, new Ballot(3, node),
+					10, 4).putPaxosID("group", 2);
+			byte[] bytes = NodeIDDictionary.append(
+					((Byteable) pp).toBytes(),
+					pp.getNodeIDs(new HashSet<Integer>()), nodeMap);
+			Assert.assertEquals(pp.toString(), fromBytes(bytes).toString());
+			Assert.assertEquals("AR1", NodeIDDictionary.get(bytes).get(node));
+		}
+	}
 }
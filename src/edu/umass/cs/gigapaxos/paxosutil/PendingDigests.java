@@ -2,7 +2,6 @@ package edu.umass.cs.gigapaxos.paxosutil;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
@@ -23,7 +22,7 @@ import edu.umass.cs.utils.Util;
 public class PendingDigests {
 
 	final ConcurrentHashMap<Long, AcceptPacket> accepts;
-	final Map<Long, RequestAndCallback> requests;
+	final RequestTracker<RequestAndCallback> requests;
 	final PendingDigestCallback callback;
 
 	private static final MessageDigest[] mds = new MessageDigest[Config.getGlobalInt(PC.NUM_MESSAGE_DIGESTS)];
@@ -53,7 +52,7 @@ public class PendingDigests {
 	 * @param numMDs
 	 * @param callback 
 	 */
-	public PendingDigests(Map<Long, RequestAndCallback> rcs, int numMDs, PendingDigestCallback callback) {
+	public PendingDigests(RequestTracker<RequestAndCallback> rcs, int numMDs, PendingDigestCallback callback) {
 		this.requests = rcs;
 		//this.mds = new MessageDigest[numMDs];
 		this.callback = callback;
@@ -0,0 +1,116 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos.paxosutil;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         Phase 1 (prepare) and phase 2 (accept) quorum sizes for a paxos
+ *         group as in Flexible Paxos. Safety only requires that every prepare
+ *         quorum intersects every accept quorum, i.e., prepare + accept >
+ *         groupSize, so the two need not both be majorities.
+ */
+public class Quorum {
+	/**
+	 * Number of prepare replies needed to become an active coordinator.
+	 */
+	public final int prepare;
+	/**
+	 * Number of accept replies needed to commit a proposal.
+	 */
+	public final int accept;
+
+	private Quorum(int prepare, int accept) {
+		this.prepare = prepare;
+		this.accept = accept;
+	}
+
+	/**
+	 * @param groupSize
+	 * @return Majority quorums for both phases.
+	 */
+	public static Quorum majority(int groupSize) {
+		return new Quorum(groupSize / 2 + 1, groupSize / 2 + 1);
+	}
+
+	/**
+	 * @param groupSize
+	 * @param prepare
+	 * @param accept
+	 * @return Quorum with the specified sizes.
+	 * @throws PaxosInstanceCreationException
+	 *             if the sizes are out of range or do not intersect.
+	 */
+	public static Quorum flexible(int groupSize, int prepare, int accept) {
+		if (prepare < 1 || prepare > groupSize || accept < 1
+				|| accept > groupSize || prepare + accept <= groupSize)
+			throw new PaxosInstanceCreationException("Invalid quorum sizes "
+					+ prepare + "," + accept + " for group of size "
+					+ groupSize + "; need 1 <= q1, q2 <= n and q1 + q2 > n");
+		return new Quorum(prepare, accept);
+	}
+
+	/**
+	 * @param groupSize
+	 * @param accept
+	 *            Accept quorum size; 0 means majority.
+	 * @return The smallest prepare quorum that intersects every accept quorum
+	 *         of size {@code accept}. If {@code accept} exceeds the group
+	 *         size, it is capped at the group size.
+	 */
+	public static Quorum forAccept(int groupSize, int accept) {
+		if (accept <= 0)
+			return majority(groupSize);
+		accept = Math.min(accept, groupSize);
+		return flexible(groupSize, groupSize - accept + 1, accept);
+	}
+
+	/**
+	 * @param groupSize
+	 * @return True if both quorums are the standard majority.
+	 */
+	public boolean isMajority(int groupSize) {
+		return this.prepare == groupSize / 2 + 1
+				&& this.accept == groupSize / 2 + 1;
+	}
+
+	public String toString() {
+		return "[q1=" + this.prepare + ",q2=" + this.accept + "]";
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class QuorumTest extends DefaultTest {
+		@Test
+		public void testForAccept() {
+			Quorum q = Quorum.forAccept(5, 2);
+			Assert.assertEquals(4, q.prepare);
+			Assert.assertEquals(2, q.accept);
+			Assert.assertTrue(Quorum.forAccept(5, 0).isMajority(5));
+			Assert.assertTrue(Quorum.forAccept(4, 0).isMajority(4));
+			Assert.assertEquals(1, Quorum.forAccept(3, 7).prepare);
+		}
+
+		@Test(expected = PaxosInstanceCreationException.class)
+		public void testNonIntersecting() {
+			Quorum.flexible(5, 2, 3);
+		}
+	}
+}
@@ -0,0 +1,512 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos.paxosutil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.utils.DefaultTest;
+import edu.umass.cs.utils.GCConcurrentHashMapCallback;
+
+/**
+ * @author arun
+ * 
+ *         A concurrent map from primitive long request IDs to values that
+ *         expires entries a fixed timeout after they were last put. It is
+ *         meant as a lower overhead replacement for
+ *         {@link edu.umass.cs.utils.GCConcurrentHashMap} on the request path.
+ * 
+ *         Keys are hashed to one of several stripes, each guarded by its own
+ *         monitor, so puts and removes of unrelated requests rarely contend.
+ *         Each stripe keeps an open-addressing (linear probing) table and a
+ *         hierarchical timing wheel whose buckets are intrusive doubly linked
+ *         lists of the same entries, so inserting, removing, and expiring an
+ *         entry are all constant time and allocate nothing beyond the entry
+ *         itself.
+ * 
+ *         Expiry is driven by calling {@link #expire()} roughly once every
+ *         {@link #getTickMillis()}; expired entries are handed to the
+ *         callback outside any locks.
+ * 
+ * @param <V>
+ */
+public class RequestTracker<V> {
+
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final int LEVELS = 4;
+	// ticks per timeout, i.e., the expiry precision relative to the timeout
+	private static final int TICKS_PER_TIMEOUT = 32;
+	private static final int INITIAL_STRIPE_CAPACITY = 64;
+
+	private final List<Stripe<V>> stripes;
+	private final int stripeShift;
+	private final GCConcurrentHashMapCallback callback;
+	private final long timeout;
+	private final long tick;
+
+	/**
+	 * @param callback
+	 *            Invoked with the (boxed) key and value of each expired entry;
+	 *            can be null.
+	 * @param timeout
+	 *            Milliseconds after the last put after which an entry expires;
+	 *            0 means never.
+	 */
+	public RequestTracker(GCConcurrentHashMapCallback callback, long timeout) {
+		this.callback = callback;
+		this.timeout = timeout;
+		this.tick = Math.max(1, timeout / TICKS_PER_TIMEOUT);
+		int numStripes = Integer.highestOneBit(Math.max(1, Runtime
+				.getRuntime().availableProcessors() * 4 - 1)) << 1;
+		this.stripeShift = 64 - Integer.numberOfTrailingZeros(numStripes);
+		this.stripes = new ArrayList<Stripe<V>>(numStripes);
+		long now = this.currentTick();
+		for (int i = 0; i < numStripes; i++)
+			this.stripes.add(new Stripe<V>(now));
+	}
+
+	/**
+	 * A tracker whose entries never expire.
+	 */
+	public RequestTracker() {
+		this(null, 0);
+	}
+
+	/**
+	 * @return The interval in milliseconds at which {@link #expire()} should
+	 *         be invoked.
+	 */
+	public long getTickMillis() {
+		return this.tick;
+	}
+
+	private long currentTick() {
+		return System.currentTimeMillis() / this.tick;
+	}
+
+	private long expiryTick() {
+		return this.timeout > 0 ? (System.currentTimeMillis() + this.timeout
+				+ this.tick - 1)
+				/ this.tick : Long.MAX_VALUE;
+	}
+
+	private static long mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+
+	private Stripe<V> stripe(long key) {
+		return this.stripes.size() == 1 ? this.stripes.get(0)
+				: this.stripes.get((int) (mix(key) >>> this.stripeShift));
+	}
+
+	/**
+	 * @param key
+	 * @param value
+	 * @return The previous value if any. The expiry time is reset.
+	 */
+	public V put(long key, V value) {
+		Stripe<V> stripe = this.stripe(key);
+		synchronized (stripe) {
+			return stripe.put(key, value, this.expiryTick(), false);
+		}
+	}
+
+	/**
+	 * @param key
+	 * @param value
+	 * @return The existing value if any, in which case nothing is changed.
+	 */
+	public V putIfAbsent(long key, V value) {
+		Stripe<V> stripe = this.stripe(key);
+		synchronized (stripe) {
+			return stripe.put(key, value, this.expiryTick(), true);
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return The value if any.
+	 */
+	public V get(long key) {
+		Stripe<V> stripe = this.stripe(key);
+		synchronized (stripe) {
+			int i = stripe.find(key);
+			return i >= 0 ? stripe.entries.get(i).value : null;
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return True if present.
+	 */
+	public boolean containsKey(long key) {
+		Stripe<V> stripe = this.stripe(key);
+		synchronized (stripe) {
+			return stripe.find(key) >= 0;
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return The removed value if any.
+	 */
+	public V remove(long key) {
+		Stripe<V> stripe = this.stripe(key);
+		synchronized (stripe) {
+			Entry<V> entry = stripe.remove(key);
+			return entry != null ? entry.value : null;
+		}
+	}
+
+	/**
+	 * @return Number of entries. Not a consistent snapshot under concurrent
+	 *         modification.
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe<V> stripe : this.stripes)
+			size += stripe.size;
+		return size;
+	}
+
+	/**
+	 * @return True if {@link #size()} is 0.
+	 */
+	public boolean isEmpty() {
+		for (Stripe<V> stripe : this.stripes)
+			if (stripe.size > 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return A snapshot of all values.
+	 */
+	public List<V> values() {
+		List<V> values = new ArrayList<V>();
+		for (Stripe<V> stripe : this.stripes)
+			synchronized (stripe) {
+				for (Entry<V> entry : stripe.entries)
+					if (entry != null)
+						values.add(entry.value);
+			}
+		return values;
+	}
+
+	/**
+	 * Removes all entries without invoking the callback.
+	 */
+	public void clear() {
+		for (Stripe<V> stripe : this.stripes)
+			synchronized (stripe) {
+				stripe.clear();
+			}
+	}
+
+	/**
+	 * Removes all entries whose timeout has elapsed and invokes the callback
+	 * on each of them.
+	 * 
+	 * @return Number of expired entries.
+	 */
+	public int expire() {
+		if (this.timeout <= 0)
+			return 0;
+		long now = this.currentTick();
+		List<Entry<V>> expired = new ArrayList<Entry<V>>();
+		for (Stripe<V> stripe : this.stripes)
+			synchronized (stripe) {
+				stripe.advance(now, expired);
+			}
+		if (this.callback != null)
+			for (Entry<V> entry : expired)
+				this.callback.callbackGC(entry.key, entry.value);
+		return expired.size();
+	}
+
+	public String toString() {
+		return RequestTracker.class.getSimpleName() + ":" + this.size();
+	}
+
+	private static class Entry<V> {
+		final long key;
+		V value;
+		long expiryTick;
+		// timing wheel bucket and links; level is -1 if not in the wheel
+		Entry<V> prev, next;
+		int level = -1, slot;
+
+		Entry(long key, V value, long expiryTick) {
+			this.key = key;
+			this.value = value;
+			this.expiryTick = expiryTick;
+		}
+	}
+
+	/* All methods must be invoked while synchronized on the stripe. */
+	private static class Stripe<V> {
+		private long[] keys = new long[INITIAL_STRIPE_CAPACITY];
+		private List<Entry<V>> entries = newEntries(INITIAL_STRIPE_CAPACITY);
+		private volatile int size = 0;
+
+		private final List<List<Entry<V>>> wheel = new ArrayList<List<Entry<V>>>(
+				LEVELS);
+		private long currentTick;
+
+		Stripe(long currentTick) {
+			this.currentTick = currentTick;
+			for (int level = 0; level < LEVELS; level++)
+				this.wheel.add(newEntries(SLOTS));
+		}
+
+		private static <V> List<Entry<V>> newEntries(int capacity) {
+			return new ArrayList<Entry<V>>(Collections.<Entry<V>> nCopies(
+					capacity, null));
+		}
+
+		private int home(long key) {
+			return (int) mix(key) & (this.keys.length - 1);
+		}
+
+		// index if present, else -(insertion point) - 1
+		private int find(long key) {
+			int mask = this.keys.length - 1;
+			int i = this.home(key);
+			while (this.entries.get(i) != null) {
+				if (this.keys[i] == key)
+					return i;
+				i = (i + 1) & mask;
+			}
+			return -i - 1;
+		}
+
+		private V put(long key, V value, long expiryTick, boolean ifAbsent) {
+			int i = this.find(key);
+			if (i >= 0) {
+				Entry<V> entry = this.entries.get(i);
+				V prev = entry.value;
+				if (!ifAbsent) {
+					entry.value = value;
+					this.unlink(entry);
+					entry.expiryTick = expiryTick;
+					this.schedule(entry);
+				}
+				return prev;
+			}
+			if ((this.size + 1) * 2 > this.keys.length) {
+				this.resize(this.keys.length * 2);
+				i = this.find(key);
+			}
+			i = -i - 1;
+			Entry<V> entry = new Entry<V>(key, value, expiryTick);
+			this.keys[i] = key;
+			this.entries.set(i, entry);
+			this.size++;
+			this.schedule(entry);
+			return null;
+		}
+
+		private Entry<V> remove(long key) {
+			int i = this.find(key);
+			if (i < 0)
+				return null;
+			Entry<V> entry = this.entries.get(i);
+			this.deleteAt(i);
+			this.unlink(entry);
+			return entry;
+		}
+
+		// backward shift deletion so that probe sequences stay intact
+		private void deleteAt(int i) {
+			int mask = this.keys.length - 1;
+			int j = i;
+			while (true) {
+				this.entries.set(i, null);
+				while (true) {
+					j = (j + 1) & mask;
+					if (this.entries.get(j) == null) {
+						this.size--;
+						return;
+					}
+					int k = this.home(this.keys[j]);
+					// entry at j can not move to i if its home is in (i, j]
+					if (i <= j ? (i < k && k <= j) : (i < k || k <= j))
+						continue;
+					break;
+				}
+				this.keys[i] = this.keys[j];
+				this.entries.set(i, this.entries.get(j));
+				i = j;
+			}
+		}
+
+		private void resize(int capacity) {
+			long[] oldKeys = this.keys;
+			List<Entry<V>> oldEntries = this.entries;
+			this.keys = new long[capacity];
+			this.entries = newEntries(capacity);
+			for (int j = 0; j < oldKeys.length; j++)
+				if (oldEntries.get(j) != null) {
+					int i = -this.find(oldKeys[j]) - 1;
+					this.keys[i] = oldKeys[j];
+					this.entries.set(i, oldEntries.get(j));
+				}
+		}
+
+		private void clear() {
+			this.keys = new long[INITIAL_STRIPE_CAPACITY];
+			this.entries = newEntries(INITIAL_STRIPE_CAPACITY);
+			for (List<Entry<V>> level : this.wheel)
+				Collections.fill(level, null);
+			this.size = 0;
+		}
+
+		private void schedule(Entry<V> entry) {
+			if (entry.expiryTick == Long.MAX_VALUE)
+				return; // never expires
+			if (entry.expiryTick <= this.currentTick) {
+				// due at the very next tick
+				this.link(entry, 0, (int) ((this.currentTick + 1) & SLOT_MASK));
+				return;
+			}
+			for (int level = 0; level < LEVELS; level++) {
+				int shift = SLOT_BITS * level;
+				if ((entry.expiryTick >>> shift)
+						- (this.currentTick >>> shift) < SLOTS) {
+					this.link(entry, level,
+							(int) ((entry.expiryTick >>> shift) & SLOT_MASK));
+					return;
+				}
+			}
+			// beyond the horizon; park in the top level slot cascaded last
+			int shift = SLOT_BITS * (LEVELS - 1);
+			this.link(entry, LEVELS - 1,
+					(int) (((this.currentTick >>> shift) - 1) & SLOT_MASK));
+		}
+
+		private void link(Entry<V> entry, int level, int slot) {
+			Entry<V> head = this.wheel.get(level).get(slot);
+			entry.level = level;
+			entry.slot = slot;
+			entry.prev = null;
+			entry.next = head;
+			if (head != null)
+				head.prev = entry;
+			this.wheel.get(level).set(slot, entry);
+		}
+
+		private void unlink(Entry<V> entry) {
+			if (entry.level < 0)
+				return;
+			if (entry.prev != null)
+				entry.prev.next = entry.next;
+			else
+				this.wheel.get(entry.level).set(entry.slot, entry.next);
+			if (entry.next != null)
+				entry.next.prev = entry.prev;
+			entry.prev = entry.next = null;
+			entry.level = -1;
+		}
+
+		private void advance(long nowTick, List<Entry<V>> expired) {
+			while (this.currentTick < nowTick) {
+				if (this.size == 0) {
+					this.currentTick = nowTick;
+					return;
+				}
+				this.currentTick++;
+				// cascade higher levels first so entries can fall through
+				for (int level = LEVELS - 1; level >= 1; level--) {
+					int shift = SLOT_BITS * level;
+					if ((this.currentTick & ((1L << shift) - 1)) == 0)
+						this.drain(level,
+								(int) ((this.currentTick >>> shift) & SLOT_MASK),
+								expired);
+				}
+				this.drain(0, (int) (this.currentTick & SLOT_MASK), expired);
+			}
+		}
+
+		private void drain(int level, int slot, List<Entry<V>> expired) {
+			Entry<V> entry = this.wheel.get(level).set(slot, null);
+			while (entry != null) {
+				Entry<V> next = entry.next;
+				entry.prev = entry.next = null;
+				entry.level = -1;
+				if (entry.expiryTick <= this.currentTick) {
+					this.deleteAt(this.find(entry.key));
+					expired.add(entry);
+				} else
+					this.schedule(entry);
+				entry = next;
+			}
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class RequestTrackerTest extends DefaultTest {
+		@Test
+		public void testPutGetRemove() {
+			RequestTracker<String> tracker = new RequestTracker<String>();
+			int n = 10000;
+			for (long i = 0; i < n; i++)
+				Assert.assertNull(tracker.putIfAbsent(i * 31, "" + i));
+			Assert.assertEquals(n, tracker.size());
+			Assert.assertEquals("7", tracker.putIfAbsent(7 * 31, "x"));
+			for (long i = 0; i < n; i += 2)
+				Assert.assertEquals("" + i, tracker.remove(i * 31));
+			for (long i = 0; i < n; i++)
+				Assert.assertEquals(i % 2 == 1 ? "" + i : null,
+						tracker.get(i * 31));
+			Assert.assertEquals(n / 2, tracker.size());
+			Assert.assertEquals(n / 2, tracker.values().size());
+			Assert.assertEquals(0, tracker.expire());
+		}
+
+		@Test
+		public void testExpiry() throws InterruptedException {
+			final List<Object> expired = new ArrayList<Object>();
+			RequestTracker<String> tracker = new RequestTracker<String>(
+					new GCConcurrentHashMapCallback() {
+						@Override
+						public void callbackGC(Object key, Object value) {
+							expired.add(key);
+						}
+					}, 200);
+			for (long i = 0; i < 100; i++)
+				tracker.put(i, "" + i);
+			tracker.remove(0);
+			Thread.sleep(100);
+			Assert.assertEquals(0, tracker.expire());
+			// refreshed entry should outlive the rest
+			tracker.put(1, "1");
+			Thread.sleep(100 + 2 * tracker.getTickMillis());
+			Assert.assertEquals(98, tracker.expire());
+			Assert.assertEquals(1, tracker.size());
+			Thread.sleep(100 + 2 * tracker.getTickMillis());
+			Assert.assertEquals(1, tracker.expire());
+			Assert.assertEquals(99, expired.size());
+			Assert.assertTrue(tracker.isEmpty());
+		}
+	}
+}
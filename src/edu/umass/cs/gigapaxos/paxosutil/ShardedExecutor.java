@@ -0,0 +1,275 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos.paxosutil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         A fixed set of single-threaded event loops. Each key is pinned by
+ *         hash to exactly one loop, so all tasks for a key execute serially
+ *         in submission order on the same thread. Producers hand off tasks
+ *         through a lock-free multi-producer single-consumer queue and the
+ *         loop thread parks when its queue is empty.
+ *         <p>
+ *         Each queue holds a bounded number of tasks. Producers other than
+ *         shard threads block while the queue is full, which pushes back on
+ *         the threads receiving messages like executing inline would. Shard
+ *         threads never block on another shard so that two shards handing
+ *         off to each other can not deadlock.
+ */
+public class ShardedExecutor {
+
+	private static final Logger log = Logger.getLogger(ShardedExecutor.class
+			.getName());
+
+	private final Shard[] shards;
+	private final int capacity;
+	private volatile boolean stopped = false;
+
+	/**
+	 * @param numShards
+	 * @param capacity
+	 *            Number of queued tasks per shard beyond which producers other
+	 *            than shard threads block.
+	 * @param name
+	 *            Prefix for shard thread names.
+	 */
+	public ShardedExecutor(int numShards, int capacity, String name) {
+		if (numShards <= 0 || capacity <= 0)
+			throw new IllegalArgumentException(
+					"Number of shards and capacity must be positive");
+		this.capacity = capacity;
+		this.shards = new Shard[numShards];
+		for (int i = 0; i < numShards; i++) {
+			this.shards[i] = new Shard();
+			Thread thread = new Thread(this.shards[i], name + "shard" + i);
+			thread.setDaemon(true);
+			this.shards[i].thread = thread;
+		}
+		for (Shard shard : this.shards)
+			shard.thread.start();
+	}
+
+	/**
+	 * @param key
+	 * @return The shard index that owns {@code key}.
+	 */
+	public int getShard(String key) {
+		return (key.hashCode() & 0x7fffffff) % this.shards.length;
+	}
+
+	/**
+	 * @param key
+	 * @return True if the calling thread is the one that owns {@code key}.
+	 */
+	public boolean isOwner(String key) {
+		return Thread.currentThread() == this.shards[this.getShard(key)].thread;
+	}
+
+	private boolean isShardThread() {
+		for (Shard shard : this.shards)
+			if (Thread.currentThread() == shard.thread)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Executes {@code task} on the thread owning {@code key}. If the calling
+	 * thread is already the owner, the task is run inline so that a shard
+	 * never waits on itself. Else blocks while the owner's queue is full
+	 * unless the calling thread is a shard thread.
+	 *
+	 * @param key
+	 * @param task
+	 */
+	public void execute(String key, Runnable task) {
+		Shard shard = this.shards[this.getShard(key)];
+		if (Thread.currentThread() == shard.thread)
+			task.run();
+		else if (!this.stopped)
+			shard.enqueue(task, !this.isShardThread());
+	}
+
+	/**
+	 * Stops all shard threads. Tasks still queued are discarded.
+	 */
+	public void stop() {
+		this.stopped = true;
+		for (Shard shard : this.shards) {
+			LockSupport.unpark(shard.thread);
+			synchronized (shard) {
+				shard.notifyAll();
+			}
+		}
+	}
+
+	private class Shard implements Runnable {
+		private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+		// queue.size() is linear
+		private final AtomicInteger size = new AtomicInteger();
+		private final AtomicBoolean sleeping = new AtomicBoolean(false);
+		private Thread thread;
+
+		private void enqueue(Runnable task, boolean mayBlock) {
+			if (mayBlock && this.size.get() >= capacity)
+				synchronized (this) {
+					while (this.size.get() >= capacity && !stopped)
+						try {
+							this.wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							break;
+						}
+				}
+			this.size.incrementAndGet();
+			this.queue.add(task);
+			if (this.sleeping.get() && this.sleeping.compareAndSet(true, false))
+				LockSupport.unpark(this.thread);
+		}
+
+		@Override
+		public void run() {
+			while (!stopped) {
+				Runnable task = this.queue.poll();
+				if (task == null) {
+					this.sleeping.set(true);
+					// recheck to avoid missing a wakeup
+					if (this.queue.isEmpty() && !stopped)
+						LockSupport.park(this);
+					this.sleeping.set(false);
+					continue;
+				}
+				if (this.size.getAndDecrement() >= capacity)
+					synchronized (this) {
+						this.notifyAll();
+					}
+				try {
+					task.run();
+				} catch (Exception | Error e) {
+					// must continue running despite any exceptions
+					log.log(Level.SEVERE, "{0} encountered {1}", new Object[] {
+							this.thread.getName(), e });
+					e.printStackTrace();
+				}
+			}
+			this.queue.clear();
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class ShardedExecutorTest extends DefaultTest {
+		@Test
+		public void testOrderPerKey() throws InterruptedException {
+			final ShardedExecutor executor = new ShardedExecutor(4, 16,
+					"test");
+			final List<Integer> executed = Collections
+					.synchronizedList(new ArrayList<Integer>());
+			final CountDownLatch done = new CountDownLatch(1);
+			for (int i = 0; i < 1000; i++) {
+				final int j = i;
+				executor.execute("group", new Runnable() {
+					public void run() {
+						executed.add(j);
+					}
+				});
+			}
+			final AtomicBoolean inline = new AtomicBoolean(false);
+			executor.execute("group", new Runnable() {
+				public void run() {
+					// hand-offs from the owner itself run inline
+					executor.execute("group", new Runnable() {
+						public void run() {
+							inline.set(true);
+						}
+					});
+					if (inline.get())
+						done.countDown();
+				}
+			});
+			Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(1000, executed.size());
+			for (int i = 0; i < 1000; i++)
+				Assert.assertEquals(i, executed.get(i).intValue());
+			executor.stop();
+		}
+
+		@Test
+		public void testBounded() throws InterruptedException {
+			final ShardedExecutor executor = new ShardedExecutor(1, 4, "test");
+			final CountDownLatch release = new CountDownLatch(1);
+			final AtomicInteger executed = new AtomicInteger();
+			// occupy the only shard
+			executor.execute("a", new Runnable() {
+				public void run() {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+			final AtomicInteger enqueued = new AtomicInteger();
+			Thread producer = new Thread() {
+				public void run() {
+					for (int i = 0; i < 10; i++) {
+						executor.execute("a", new Runnable() {
+							public void run() {
+								executed.incrementAndGet();
+							}
+						});
+						enqueued.incrementAndGet();
+					}
+				}
+			};
+			producer.start();
+			producer.join(500);
+			// blocked once the queue is full
+			Assert.assertTrue(producer.isAlive());
+			Assert.assertEquals(4, enqueued.get());
+
+			release.countDown();
+			producer.join(5000);
+			Assert.assertFalse(producer.isAlive());
+			Assert.assertEquals(10, enqueued.get());
+			final CountDownLatch done = new CountDownLatch(1);
+			executor.execute("a", new Runnable() {
+				public void run() {
+					done.countDown();
+				}
+			});
+			Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(10, executed.get());
+			executor.stop();
+		}
+	}
+}
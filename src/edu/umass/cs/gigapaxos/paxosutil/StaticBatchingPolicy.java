@@ -0,0 +1,60 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos.paxosutil;
+
+import edu.umass.cs.gigapaxos.PaxosConfig.PC;
+import edu.umass.cs.gigapaxos.RequestBatcher;
+import edu.umass.cs.utils.Config;
+
+/**
+ * @author arun
+ *
+ *         The default batching policy. The sleep duration is a fixed minimum
+ *         plus a fraction of the moving average of the agreement latency
+ *         across all groups, divided by the number of queued groups, and zero
+ *         when many groups have queued requests.
+ */
+public class StaticBatchingPolicy implements BatchingPolicy {
+
+	private static final double MIN_BATCH_SLEEP_DURATION = Config
+			.getGlobalDouble(PC.BATCH_SLEEP_DURATION);
+	private static final double BATCH_OVERHEAD = Config
+			.getGlobalDouble(PC.BATCH_OVERHEAD);
+
+	/**
+	 * Max time for which the dequeueing thread will wait.
+	 */
+	public static final long MAX_BATCH_SLEEP_DURATION = 10;
+	// max queued groups after which we stop any batch sleeps
+	private static final int MAX_GROUPS_FOR_BATCH_SLEEP = 5;
+
+	@Override
+	public double getSleepDuration(String paxosID, int numQueuedGroups) {
+		return numQueuedGroups < MAX_GROUPS_FOR_BATCH_SLEEP ? Math.min(
+				MAX_BATCH_SLEEP_DURATION, MIN_BATCH_SLEEP_DURATION
+						+ RequestBatcher.getAgreementLatency() * BATCH_OVERHEAD)
+				/ Math.max(numQueuedGroups, 1) : 0;
+	}
+
+	// RequestBatcher already maintains the moving average
+	@Override
+	public void updateLatency(String paxosID, long latency) {
+	}
+
+	@Override
+	public void remove(String paxosID) {
+	}
+}
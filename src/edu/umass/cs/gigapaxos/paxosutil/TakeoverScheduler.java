@@ -0,0 +1,89 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.gigapaxos.paxosutil;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author arun
+ *
+ *         Paces coordinator takeovers so that a node that becomes next in
+ *         line for many paxos groups at once, e.g., upon the failure of a
+ *         node that was coordinating all of them, does not start all of the
+ *         takeovers simultaneously. Each takeover reserves the next free time
+ *         slot at the configured rate; a takeover whose slot is in the future
+ *         is deferred until then and admitted when retried at or after its
+ *         slot.
+ */
+public class TakeoverScheduler {
+
+	private final long intervalNanos;
+	private final HashMap<String, Long> reserved = new HashMap<String, Long>();
+	private long nextFree = System.nanoTime();
+
+	/**
+	 * @param maxPerSecond
+	 *            Maximum takeovers admitted per second; must be positive.
+	 */
+	public TakeoverScheduler(int maxPerSecond) {
+		if (maxPerSecond <= 0)
+			throw new IllegalArgumentException(
+					"Takeover rate must be positive");
+		this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / maxPerSecond;
+	}
+
+	/**
+	 * @param paxosID
+	 * @return 0 if the takeover for {@code paxosID} can proceed now; the
+	 *         delay in milliseconds after which it should be retried if it
+	 *         has just been deferred; or -1 if it is already deferred.
+	 */
+	public synchronized long admit(String paxosID) {
+		long now = System.nanoTime();
+		Long slot = this.reserved.get(paxosID);
+		if (slot != null) {
+			if (slot - now > 0)
+				return -1;
+			this.reserved.remove(paxosID);
+			return 0;
+		}
+		slot = Math.max(now, this.nextFree);
+		this.nextFree = slot + this.intervalNanos;
+		if (slot - now <= 0)
+			return 0;
+		this.reserved.put(paxosID, slot);
+		// round up so that the retry is never too early
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis(slot - now) + 1);
+	}
+
+	/**
+	 * Releases any reservation held by {@code paxosID}, e.g., because the
+	 * takeover is no longer necessary.
+	 * 
+	 * @param paxosID
+	 */
+	public synchronized void release(String paxosID) {
+		this.reserved.remove(paxosID);
+	}
+
+	/**
+	 * @return Number of currently deferred takeovers.
+	 */
+	public synchronized int size() {
+		return this.reserved.size();
+	}
+}
@@ -226,6 +226,17 @@ public class TESTPaxosNode {
 			TESTPaxosConfig.setConsoleHandler();
 			NIOTransport.setUseSenderTask(Config
 					.getGlobalBoolean(PC.USE_NIO_SENDER_TASK));
+			NIOTransport.setNumReactors(Config.getGlobalInt(PC.NIO_REACTORS));
+			NIOTransport.setUnixSocketDir(Config
+					.getGlobalString(PC.NIO_UNIX_SOCKET_DIR));
+			NIOTransport.setStreamCompression(Config
+					.getGlobalBoolean(PC.NIO_STREAM_COMPRESSION));
+			NIOTransport.setReadChunked(Config
+					.getGlobalBoolean(PC.NIO_READ_CHUNKED));
+			NIOTransport.setMaxQueuedBytes(Config
+					.getGlobalLong(PC.NIO_MAX_QUEUED_BYTES));
+			NIOTransport.setMaxQueuedBytesPerDestination(Config
+					.getGlobalLong(PC.NIO_MAX_QUEUED_BYTES_PER_DESTINATION));
 			int myID = processArgs(args);
 			TESTPaxosNode me = new TESTPaxosNode(myID,
 					TESTPaxosConfig.getFromPaxosConfig(), false);
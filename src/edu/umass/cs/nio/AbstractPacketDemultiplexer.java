@@ -15,27 +15,37 @@
  * Initial developer(s): V. Arun */
 package edu.umass.cs.nio;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.json.JSONException;
+import org.junit.Assert;
+import org.junit.Test;
+
 
 import edu.umass.cs.nio.interfaces.IntegerPacketType;
 import edu.umass.cs.nio.interfaces.PacketDemultiplexer;
 import edu.umass.cs.nio.nioutils.NIOHeader;
 import edu.umass.cs.nio.nioutils.NIOInstrumenter;
 import edu.umass.cs.utils.Stringer;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.Summarizable;
 import edu.umass.cs.utils.Util;
 
@@ -157,6 +167,146 @@ public abstract class AbstractPacketDemultiplexer<MessageType> implements
 		return this.threadName;
 	}
 
+	/* Lanes of queued tasks, if any, drained by weighted round robin. Every
+	 * enqueued task schedules exactly one drain that runs exactly one task, so
+	 * every task runs once, but tasks in a higher weight lane can overtake
+	 * tasks that arrived earlier in a lower weight lane. Each drain takes the
+	 * next turn in the schedule, which lists each lane as many times as its
+	 * weight, so drains need no lock. */
+	private Lane[] lanes = null;
+	private int[] schedule = null;
+	private final AtomicLong turns = new AtomicLong(0);
+
+	private static class Lane {
+		final int weight;
+		final int capacity;
+		final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+		final AtomicInteger size = new AtomicInteger(0);
+
+		Lane(int weight, int capacity) {
+			this.weight = weight;
+			this.capacity = capacity;
+		}
+	}
+
+	private final Runnable drainer = new Runnable() {
+		@Override
+		public void run() {
+			Runnable tasker = AbstractPacketDemultiplexer.this.nextTask();
+			if (tasker != null)
+				tasker.run();
+		}
+	};
+
+	/**
+	 * Separates incoming messages into lanes, each with its own bounded queue,
+	 * instead of processing them in arrival order. Whenever a demultiplexer
+	 * thread frees up, lanes are served in weighted round robin order, so a
+	 * lane with weight 8 gets 8 tasks run for each task of a backlogged lane
+	 * with weight 1. A message whose lane is full is handed to
+	 * {@link #laneFull(Object, Integer, NIOHeader)} instead. Messages are
+	 * assigned to lanes by {@link #getLane(Object, Integer, NIOHeader)}.
+	 * 
+	 * @param weights
+	 *            Positive weight of each lane.
+	 * @param capacities
+	 *            Maximum number of queued messages in each lane.
+	 * @return {@code this}
+	 */
+	public AbstractPacketDemultiplexer<MessageType> setLanes(int[] weights,
+			int[] capacities) {
+		assert (weights.length == capacities.length && weights.length > 0);
+		Lane[] lanes = new Lane[weights.length];
+		ArrayList<Integer> schedule = new ArrayList<Integer>();
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new Lane(Math.max(1, weights[i]), capacities[i]);
+			for (int j = 0; j < lanes[i].weight; j++)
+				schedule.add(i);
+		}
+		this.schedule = new int[schedule.size()];
+		for (int i = 0; i < this.schedule.length; i++)
+			this.schedule[i] = schedule.get(i);
+		this.lanes = lanes;
+		return this;
+	}
+
+	/**
+	 * @param message
+	 * @param type
+	 * @param header
+	 * @return Lane in which {@code message} should be queued. By default, the
+	 *         last lane.
+	 */
+	protected int getLane(MessageType message, Integer type, NIOHeader header) {
+		return this.lanes.length - 1;
+	}
+
+	/**
+	 * Invoked instead of processing {@code message} if its lane is full. By
+	 * default, the message is dropped. Demultiplexers whose senders wait for
+	 * responses should override this to tell the sender, e.g., with an
+	 * overload response, so that it does not wait until it times out.
+	 * 
+	 * @param message
+	 * @param type
+	 * @param header
+	 */
+	protected void laneFull(MessageType message, Integer type, NIOHeader header) {
+		log.log(Level.FINE,
+				"{0} dropping message of type {1} as its lane is full",
+				new Object[] { this, type });
+	}
+
+	/* Queues tasker in its lane and returns the task to schedule, or returns
+	 * null if the lane is full. With emulated delays, the delay must hold back
+	 * this message, not whichever message happens to be drained next, so the
+	 * message is queued only after the delay. */
+	private Runnable getLaneTask(final Tasker tasker, final int lane,
+			long delay, final Integer type) {
+		if (delay > 0)
+			return new Runnable() {
+				@Override
+				public void run() {
+					if (enqueue(tasker, lane))
+						drainer.run();
+					else
+						laneFull(tasker.json, type, tasker.header);
+				}
+			};
+		return this.enqueue(tasker, lane) ? this.drainer : null;
+	}
+
+	// returns false if the lane is full
+	private boolean enqueue(Tasker tasker, int laneIndex) {
+		Lane lane = this.lanes[Math.min(Math.max(0, laneIndex),
+				this.lanes.length - 1)];
+		if (lane.size.incrementAndGet() > lane.capacity) {
+			lane.size.decrementAndGet();
+			return false;
+		}
+		lane.queue.add(tasker);
+		return true;
+	}
+
+	/* Starts with the lane whose turn it is and falls back to the others if
+	 * it is empty. A drain's own task was queued before the drain started
+	 * and only drains take tasks, so there are always at least as many queued
+	 * tasks as running drains. A concurrent drain may however take a task
+	 * from a lane right after this one found it empty, so keep going. */
+	private Runnable nextTask() {
+		Lane[] lanes = this.lanes;
+		int first = this.schedule[(int) (this.turns.getAndIncrement() % this.schedule.length)];
+		while (true)
+			for (int i = 0; i < lanes.length; i++) {
+				Lane lane = lanes[(first + i) % lanes.length];
+				Runnable tasker = lane.queue.poll();
+				if (tasker != null) {
+					lane.size.decrementAndGet();
+					return tasker;
+				}
+			}
+	}
+
 	// This method will be invoked by NIO
 	protected boolean handleMessageSuper(byte[] msg, NIOHeader header)
 			throws JSONException {
@@ -215,10 +365,18 @@ public abstract class AbstractPacketDemultiplexer<MessageType> implements
 								(message instanceof Summarizable ? ((Summarizable) message)
 										.getSummary(log.isLoggable(level))
 										: Util.truncate(message, 32, 32)) });
+				long delay = emulateDelays ? JSONDelayEmulator
+						.getEmulatedDelay() : 0;
+				Runnable task = this.lanes != null ? this.getLaneTask(tasker,
+						this.getLane(message, type, header), delay, type)
+						: tasker;
+				if (task == null) {
+					// rejected, but still handled by this demultiplexer
+					this.laneFull(message, type, header);
+					return true;
+				}
 				// task should still be non-blocking
-				executor.schedule(tasker,
-						emulateDelays ? JSONDelayEmulator.getEmulatedDelay()
-								: 0, TimeUnit.MILLISECONDS);
+				executor.schedule(task, delay, TimeUnit.MILLISECONDS);
 			} catch (RejectedExecutionException ree) {
 				if (!executor.isShutdown())
 					ree.printStackTrace();
@@ -420,4 +578,157 @@ public abstract class AbstractPacketDemultiplexer<MessageType> implements
 		}
 	}
 
+	@SuppressWarnings("javadoc")
+	public static class AbstractPacketDemultiplexerTest extends DefaultTest {
+
+		enum TestType implements IntegerPacketType {
+			PROTOCOL, CLIENT;
+
+			@Override
+			public int getInt() {
+				return this.ordinal();
+			}
+		}
+
+		/* Messages are strings whose first character is the lane. A message
+		 * named "block" holds the only thread until released. */
+		static class LaneDemultiplexer extends AbstractPacketDemultiplexer<String> {
+			final List<String> handled = new ArrayList<String>();
+			final List<String> rejected = new ArrayList<String>();
+			final CountDownLatch blocking = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+
+			LaneDemultiplexer(int clientCapacity) {
+				super(1);
+				this.register(TestType.values());
+				this.setLanes(new int[] { 2, 1 }, new int[] {
+						Integer.MAX_VALUE, clientCapacity });
+			}
+
+			@Override
+			public boolean handleMessage(String message, NIOHeader header) {
+				if (message.endsWith("block")) {
+					this.blocking.countDown();
+					try {
+						this.release.await();
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+				synchronized (this.handled) {
+					this.handled.add(message);
+					this.handled.notify();
+				}
+				return true;
+			}
+
+			@Override
+			protected Integer getPacketType(String message) {
+				return message.charAt(0) - '0';
+			}
+
+			@Override
+			protected int getLane(String message, Integer type,
+					NIOHeader header) {
+				return type;
+			}
+
+			@Override
+			protected void laneFull(String message, Integer type,
+					NIOHeader header) {
+				this.rejected.add(message);
+			}
+
+			@Override
+			protected String processHeader(byte[] message, NIOHeader header) {
+				return new String(message);
+			}
+
+			@Override
+			protected boolean matchesType(Object message) {
+				return message instanceof String;
+			}
+
+			boolean send(String message) throws JSONException {
+				return this.handleMessageSuper(message.getBytes(), null);
+			}
+
+			List<String> awaitHandled(int n) throws InterruptedException {
+				synchronized (this.handled) {
+					long deadline = System.currentTimeMillis() + 5000;
+					while (this.handled.size() < n
+							&& System.currentTimeMillis() < deadline)
+						this.handled.wait(deadline - System.currentTimeMillis());
+					return new ArrayList<String>(this.handled);
+				}
+			}
+		}
+
+		@Test
+		public void testWeightedRoundRobin() throws JSONException,
+				InterruptedException {
+			LaneDemultiplexer demux = new LaneDemultiplexer(Integer.MAX_VALUE);
+			try {
+				demux.send("0block");
+				demux.blocking.await();
+				// queue up both lanes behind the blocked thread
+				for (String message : new String[] { "1c1", "1c2", "1c3",
+						"0p1", "0p2", "0p3", "0p4" })
+					Assert.assertTrue(demux.send(message));
+				demux.release.countDown();
+				// blocker used one of the protocol lane's two turns
+				Assert.assertEquals(Arrays.asList("0block", "0p1", "1c1",
+						"0p2", "0p3", "1c2", "0p4", "1c3"),
+						demux.awaitHandled(8));
+			} finally {
+				demux.release.countDown();
+				demux.stop();
+			}
+		}
+
+		@Test
+		public void testLaneFull() throws JSONException, InterruptedException {
+			LaneDemultiplexer demux = new LaneDemultiplexer(2);
+			try {
+				demux.send("0block");
+				demux.blocking.await();
+				Assert.assertTrue(demux.send("1c1"));
+				Assert.assertTrue(demux.send("1c2"));
+				// rejected messages are still handled, not passed on
+				Assert.assertTrue(demux.send("1c3"));
+				Assert.assertEquals(Arrays.asList("1c3"), demux.rejected);
+				// other lanes are unaffected
+				Assert.assertTrue(demux.send("0p1"));
+				demux.release.countDown();
+				Assert.assertEquals(4, demux.awaitHandled(4).size());
+				Assert.assertEquals(Arrays.asList("1c3"), demux.rejected);
+			} finally {
+				demux.release.countDown();
+				demux.stop();
+			}
+		}
+
+		@Test
+		public void testDelayedMessageWaits() throws JSONException,
+				InterruptedException {
+			LaneDemultiplexer demux = new LaneDemultiplexer(Integer.MAX_VALUE);
+			try {
+				emulateDelays = true;
+				long t = System.currentTimeMillis();
+				demux.send("1delayed");
+				emulateDelays = false;
+				demux.send("1prompt");
+				// the prompt message must not drain the delayed one early
+				Assert.assertEquals("1prompt", demux.awaitHandled(1).get(0));
+				Assert.assertEquals(Arrays.asList("1prompt", "1delayed"),
+						demux.awaitHandled(2));
+				// emulated delays are at least the base delay
+				Assert.assertTrue(System.currentTimeMillis() - t >= JSONDelayEmulator
+						.getEmulatedDelay() / 2);
+			} finally {
+				emulateDelays = false;
+				demux.stop();
+			}
+		}
+	}
 }
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.nio.channels.ClosedByInterruptException;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
@@ -141,9 +142,48 @@ public class JSONMessenger<NodeIDType> implements
 	 * messages when asked to send but the channel is congested. We use the
 	 * return value of NIO send to decide whether to retransmit.
 	 */
-	@SuppressWarnings("unchecked")
 	protected void send(GenericMessagingTask<NodeIDType, ?> mtask,
 			boolean useWorkers) throws IOException, JSONException {
+		this.send(mtask, useWorkers, null, null);
+	}
+
+	/**
+	 * Like {@link #send(GenericMessagingTask, boolean)} with workers, except
+	 * that the connection is picked by hashing {@code stream} across this
+	 * messenger's own transport and its workers instead of randomly. All
+	 * messages with the same stream key to a node thus go over the same
+	 * connection and are not reordered with respect to each other, while
+	 * different streams are spread across up to numWorkers+1 connections.
+	 * 
+	 * @param mtask
+	 * @param stream
+	 *            Non-null stream key, e.g., a paxos group name.
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	protected void sendStriped(GenericMessagingTask<NodeIDType, ?> mtask,
+			Object stream) throws IOException, JSONException {
+		this.send(mtask, true, stream, null);
+	}
+
+	/**
+	 * Like {@link #send(GenericMessagingTask, boolean)} or, if {@code stream}
+	 * is non-null, {@link #sendStriped(GenericMessagingTask, Object)}, and
+	 * additionally reports the recipients for which NIO accepted messages.
+	 * 
+	 * @param mtask
+	 * @param useWorkers
+	 * @param stream
+	 * @param accepted
+	 *            If non-null, recipients for which NIO queued at least one of
+	 *            the messages are added to this set.
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	@SuppressWarnings("unchecked")
+	protected void send(GenericMessagingTask<NodeIDType, ?> mtask,
+			boolean useWorkers, Object stream, Set<NodeIDType> accepted)
+			throws IOException, JSONException {
 		if (mtask == null || mtask.recipients == null || mtask.msgs == null) {
 			return;
 		}
@@ -175,7 +215,7 @@ public class JSONMessenger<NodeIDType> implements
 				try {
 					// special case provision for InetSocketAddress
 					sent = this.specialCaseSend(mtask.recipients[r], msgBytes,
-							useWorkers);
+							useWorkers, stream);
 				} catch (IOException e) {
 					if ((e instanceof ClosedByInterruptException))
 						throw e;
@@ -187,6 +227,8 @@ public class JSONMessenger<NodeIDType> implements
 				Level level;
 				// check success or failure and react accordingly
 				if (sent > 0) {
+					if (accepted != null)
+						accepted.add((NodeIDType) mtask.recipients[r]);
 					log.log(level = Level.FINEST,
 							"{0}->{1}:[{2}] ",
 							new Object[] {
@@ -199,12 +241,16 @@ public class JSONMessenger<NodeIDType> implements
 													.truncate(new Stringer(
 															msgBytes), 32, 32))
 											: msgBytes });
+				} else if (sent == 0 && !this.retransmitOnCongestion()) {
+					log.log(Level.FINE,
+							"{0} dropping message to congested node {1}",
+							new Object[] { this, mtask.recipients[r] });
 				} else if (sent == 0) {
 					log.log(Level.INFO,
 							"{0} experiencing congestion; this is not disastrous (yet)", new Object[]{this});
 					Retransmitter rtxTask = new Retransmitter(
 							(mtask.recipients[r]), msgBytes, RTX_DELAY,
-							useWorkers);
+							useWorkers, stream);
 					// can't block here, so have to ignore returned future
 					execpool.schedule(rtxTask, RTX_DELAY, TimeUnit.MILLISECONDS);
 				} else {
@@ -250,12 +296,13 @@ public class JSONMessenger<NodeIDType> implements
 	}
 
 	@SuppressWarnings("unchecked")
-	private int specialCaseSend(Object id, byte[] msgBytes, boolean useWorkers)
-			throws IOException {
+	private int specialCaseSend(Object id, byte[] msgBytes,
+			boolean useWorkers, Object stream) throws IOException {
 		if (id instanceof InetSocketAddress)
 			return this.sendToAddress((InetSocketAddress) id, msgBytes);
 		else
-			return this.sendToID((NodeIDType) id, msgBytes, useWorkers);
+			return this.sendToID((NodeIDType) id, msgBytes, useWorkers,
+					stream);
 	}
 
 	/**
@@ -270,19 +317,23 @@ public class JSONMessenger<NodeIDType> implements
 		private final byte[] msg;
 		private final long delay;
 		private final boolean useWorkers;
+		private final Object stream;
 
-		Retransmitter(Object id, byte[] m, long d, boolean useWorkers) {
+		Retransmitter(Object id, byte[] m, long d, boolean useWorkers,
+				Object stream) {
 			this.dest = id;
 			this.msg = m;
 			this.delay = d;
 			this.useWorkers = useWorkers;
+			this.stream = stream;
 		}
 
 		@Override
 		public void run() {
 			int sent = 0;
 			try {
-				sent = specialCaseSend(this.dest, this.msg, this.useWorkers);
+				sent = specialCaseSend(this.dest, this.msg, this.useWorkers,
+						this.stream);
 			} catch (IOException ioe) {
 				ioe.printStackTrace();
 			} finally {
@@ -294,7 +345,7 @@ public class JSONMessenger<NodeIDType> implements
 							+ dest
 							+ " messenger backing off under severe congestion, Hail Mary!");
 					Retransmitter rtx = new Retransmitter(dest, msg, delay
-							* BACKOFF_FACTOR, useWorkers);
+							* BACKOFF_FACTOR, useWorkers, stream);
 					execpool.schedule(rtx, delay * BACKOFF_FACTOR,
 							TimeUnit.MILLISECONDS);
 				}
@@ -324,15 +375,37 @@ public class JSONMessenger<NodeIDType> implements
 		return this.nioTransport.sendToID(id, jsonData);
 	}
 
-	private int sendToID(NodeIDType id, byte[] msgBytes, boolean useWorkers)
-			throws IOException {
-		int i = (int) (Math.random() * (this.workers.length));
-		return (useWorkers && this.workers.length > 0
+	private int sendToID(NodeIDType id, byte[] msgBytes, boolean useWorkers,
+			Object stream) throws IOException {
+		// stream -1 is our own transport
+		int i = stream != null ? getStripe(stream, this.workers.length)
+				: (int) (Math.random() * (this.workers.length));
+		return (useWorkers && this.workers.length > 0 && i >= 0
 				&& i < this.workers.length && this.workers[i] != null) ? this.workers[i]
 				.sendToID(id, msgBytes) : this.nioTransport.sendToID(id,
 				msgBytes);
 	}
 
+	/**
+	 * @param stream
+	 *            Non-null stream key.
+	 * @param numWorkers
+	 * @return The connection used by
+	 *         {@link #sendStriped(GenericMessagingTask, Object)} for
+	 *         {@code stream} with {@code numWorkers} workers: -1 for the
+	 *         messenger's own transport, else the index of a worker.
+	 */
+	public static int getStripe(Object stream, int numWorkers) {
+		return (stream.hashCode() & Integer.MAX_VALUE) % (numWorkers + 1) - 1;
+	}
+
+	/**
+	 * @return Number of send-only worker transports.
+	 */
+	protected int getNumWorkers() {
+		return this.workers.length;
+	}
+
 	/**
 	 * Sends jsonData to address.
 	 * 
@@ -524,6 +597,11 @@ public class JSONMessenger<NodeIDType> implements
 		return this.nioTransport.sendToID(id, msg);
 	}
 
+	@Override
+	public int sendUrgentToID(NodeIDType id, byte[] msg) throws IOException {
+		return this.nioTransport.sendUrgentToID(id, msg);
+	}
+
 	@Override
 	public int sendToAddress(InetSocketAddress isa, byte[] msg)
 			throws IOException {
@@ -544,6 +622,27 @@ public class JSONMessenger<NodeIDType> implements
 		return disconnected;
 	}
 
+	@Override
+	public boolean isCongested(NodeIDType node) {
+		boolean congested = this.nioTransport.isCongested(node);
+		if (this.workers != null)
+			for (InterfaceNIOTransport<NodeIDType, JSONObject> niot : this.workers)
+				congested = congested
+						|| (niot != null && niot.isCongested(node));
+		return congested;
+	}
+
+	/**
+	 * @return True if messages that NIO refuses to queue because the
+	 *         destination is congested should be retransmitted later. Messengers
+	 *         for protocols that recover lost messages anyway can return false
+	 *         so as to not hold refused messages in memory for a destination
+	 *         that is not keeping up.
+	 */
+	protected boolean retransmitOnCongestion() {
+		return true;
+	}
+
 	@Override
 	public AddressMessenger<JSONObject> getClientMessenger(
 			InetSocketAddress listenSockAddr) {
@@ -206,9 +206,8 @@ public class MessageExtractor implements InterfaceMessageExtractor {
 		} else
 			// run it immediately
 			this.demultiplexMessage(
-					new NIOHeader(
-							(InetSocketAddress) socket.getRemoteAddress(),
-							(InetSocketAddress) socket.getLocalAddress()),
+					new NIOHeader(NIOTransport.getRemoteAddress(socket),
+							NIOTransport.getLocalAddress(socket)),
 					incoming);
 	}
 
@@ -327,8 +326,8 @@ public class MessageExtractor implements InterfaceMessageExtractor {
 		public void run() {
 			try {
 				MessageExtractor.this.demultiplexLocalMessage(new NIOHeader(
-						(InetSocketAddress) socket.getRemoteAddress(),
-						(InetSocketAddress) socket.getLocalAddress()), msg);
+						NIOTransport.getRemoteAddress(socket), NIOTransport
+								.getLocalAddress(socket)), msg);
 			} catch (UnsupportedEncodingException e) {
 				fatalExit(e);
 			} catch (IOException e) {
@@ -770,6 +770,11 @@ public class MessageNIOTransport<NodeIDType, MessageType> extends
 		return !id.equals(myID) ? this.sendUnderlying(id, msg) : this.sendLocal(msg);
 	}
 
+	@Override
+	public int sendUrgentToID(NodeIDType id, byte[] msg) throws IOException {
+		return !id.equals(myID) ? this.sendUrgent(id, msg) : this.sendLocal(msg);
+	}
+
 	@Override
 	public int sendToAddress(InetSocketAddress isa, byte[] msg)
 			throws IOException {
@@ -17,9 +17,15 @@ package edu.umass.cs.nio;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
@@ -29,11 +35,17 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
@@ -42,6 +54,8 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -52,16 +66,26 @@ import java.util.zip.Inflater;
 import edu.umass.cs.nio.SSLDataProcessingWorker.SSL_MODES;
 import edu.umass.cs.nio.interfaces.DataProcessingWorker;
 import edu.umass.cs.nio.interfaces.HandshakeCallback;
+import edu.umass.cs.nio.interfaces.IntegerPacketType;
 import edu.umass.cs.nio.interfaces.NodeConfig;
+import edu.umass.cs.nio.nioutils.ByteBufferPool;
 import edu.umass.cs.nio.nioutils.DataProcessingWorkerDefault;
+import edu.umass.cs.nio.nioutils.NIOHeader;
 import edu.umass.cs.nio.nioutils.NIOInstrumenter;
 import edu.umass.cs.nio.nioutils.RTTEstimator;
 import edu.umass.cs.nio.nioutils.SampleNodeConfig;
+import edu.umass.cs.nio.nioutils.SendBudget;
+import edu.umass.cs.utils.DefaultTest;
 import edu.umass.cs.utils.Stringer;
 import edu.umass.cs.utils.Util;
 
 import javax.net.ssl.SSLException;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
 /**
  * @author V. Arun
  * @param <NodeIDType>
@@ -103,7 +127,21 @@ import javax.net.ssl.SSLException;
  *            connect events in the synchronized structure pendingConnects. The
  *            selector thread reads from pendingConnects and sets selection ops
  *            to wait for a connect event as needed.
- * 
+ *
+ *            With {@link #setNumReactors(int)}, the selector thread above only
+ *            accepts connections and each of N reactor threads plays the role
+ *            of the selector thread for the channels, send queues, and pending
+ *            connects of the InetSocketAddresses that hash to it. Received
+ *            data is still handed to the same DataProcessingWorker, but from
+ *            N threads concurrently.
+ *
+ *            With {@link #setUnixSocketDir(String)}, each instance also
+ *            accepts connections on a UNIX domain socket in that directory
+ *            named after its listening port, and connections to local
+ *            destinations whose socket exists use it instead of loopback TCP.
+ *            Such channels are otherwise treated just like TCP channels with
+ *            the same framing and workers.
+ *
  *            A map SockAddrToSockChannel keeps track of the current socket
  *            channel being used to send data to a given InetSocketAddress. Note
  *            that this mapping can change if connections fail and are
@@ -117,8 +155,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	/**
 	 * Number of sends that can be queued because the connection was established
 	 * but the remote end crashed before the send was complete. Note that this
-	 * is the number of packets, not bytes. Currently, there is no way to set a
-	 * byte limit for the queue size.
+	 * is the number of packets, not bytes. Refer
+	 * {@link #setMaxQueuedBytes(long)} for byte limits.
 	 */
 	public static final int MAX_QUEUED_SENDS = 1024 * 128;
 	private int maxQueuedSends = MAX_QUEUED_SENDS;
@@ -135,6 +173,44 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		return this.maxQueuedSends;
 	}
 
+	/**
+	 * Default for {@link #setMaxQueuedBytes(long)}.
+	 */
+	public static final long MAX_QUEUED_BYTES = 256 * 1024 * 1024;
+	/**
+	 * Default for {@link #setMaxQueuedBytesPerDestination(long)}.
+	 */
+	public static final long MAX_QUEUED_BYTES_PER_DESTINATION = 64 * 1024 * 1024;
+
+	private static long maxQueuedBytes = MAX_QUEUED_BYTES;
+	private static long maxQueuedBytesPerDestination = MAX_QUEUED_BYTES_PER_DESTINATION;
+
+	/**
+	 * Bounds the bytes queued for sending across all destinations by each
+	 * instance created afterwards. Each destination may hold at most its fair
+	 * share of this budget as described in {@link SendBudget}, so a
+	 * destination that is not keeping up can not starve the others of memory.
+	 * Sends that do not fit are refused just like when
+	 * {@link #MAX_QUEUED_SENDS} is exceeded, and {@link #isCongested(Object)}
+	 * tells callers to hold back meanwhile.
+	 * 
+	 * @param bytes
+	 */
+	public static void setMaxQueuedBytes(long bytes) {
+		maxQueuedBytes = bytes;
+	}
+
+	/**
+	 * @param bytes
+	 *            Refer {@link #setMaxQueuedBytes(long)}.
+	 */
+	public static void setMaxQueuedBytesPerDestination(long bytes) {
+		maxQueuedBytesPerDestination = bytes;
+	}
+
+	private final SendBudget sendBudget = new SendBudget(maxQueuedBytes,
+			maxQueuedBytesPerDestination);
+
 	/**
 	 * Milliseconds before reconnection attempts.
 	 */
@@ -186,21 +262,23 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	// Maps id to socket address
 	protected final NodeConfig<NodeIDType> nodeConfig;
 
-	// selector we'll be monitoring
+	// selector we'll be monitoring for accepts
 	private final Selector selector;
 
-	private final ByteBuffer writeBuffer = ByteBuffer
-			.allocateDirect(WRITE_BUFFER_SIZE);
+	/* The reactor running on the main selector thread that also accepts
+	 * connections. It is the only reactor unless multiple reactors are
+	 * enabled, in which case its selector is used only for accepts. */
+	private final Reactor acceptor;
+
+	// reactors handling connect, read, and write events
+	private final List<Reactor> reactors;
 
 	// The channel on which we'll accept connections
 	private ServerSocketChannel serverChannel;
 
-	// List of pending connects on which finishConnect needs to be called.
-	private final LinkedList<ChangeRequest> pendingConnects = new LinkedList<ChangeRequest>();
-
-	/* The key is a socket address and the value is a list of messages to be
-	 * sent to that socket address. */
-	private final ConcurrentHashMap<InetSocketAddress, LinkedBlockingQueue<ByteBuffer>> sendQueues = new ConcurrentHashMap<InetSocketAddress, LinkedBlockingQueue<ByteBuffer>>();
+	// The UNIX domain channel on which we also accept connections, if any
+	private final ServerSocketChannel unixServerChannel;
+	private final Path unixSocketPath;
 
 	/* Maps a socket address to a socket channel. The latter may change in case
 	 * a connection breaks and a new one needs to be initiated. */
@@ -254,15 +332,23 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		this.nodeConfig = nc;
 		this.worker = this.getWorker(worker, sslMode);
 		this.selector = this.initSelector(mySockAddr);
+		this.acceptor = new Reactor(this.selector);
+		this.reactors = this.initReactors();
 		this.listeningSocketAddress = (InetSocketAddress) this.serverChannel
 				.getLocalAddress();
 		this.listeningAddress = this.listeningSocketAddress.getAddress();
 		this.listeningPort = this.listeningSocketAddress.getPort();
+		this.unixSocketPath = isSSL() || IS_IOS ? null
+				: getUnixSocketPath(this.listeningPort);
+		this.unixServerChannel = this.initUnixServerChannel();
 
 		(me = (new Thread(this))).setName(getClass().getSimpleName() + ":"
 				+ (myID != null ? myID : "[]"));
 		me.start();
 		this.meThreadId = me.getId();
+		for (int i = 0; i < this.reactors.size(); i++)
+			if (this.reactors.get(i) != this.acceptor)
+				this.reactors.get(i).start(me.getName() + ":reactor" + i);
 
 		synchronized(NIOTransport.class) {
 			instanceCount++;
@@ -411,6 +497,27 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	 * @throws IOException
 	 */
 	public int send(NodeIDType id, byte[] data) throws IOException {
+		return this.send(id, data, false);
+	}
+
+	/**
+	 * Like {@link #send(Object, byte[])} but exempt from the limits on
+	 * queued sends as long as {@code id} is connected, so that small control
+	 * messages like failure detection pings are never refused because other
+	 * traffic to {@code id} is backlogged. Callers must themselves bound the
+	 * rate of such messages.
+	 * 
+	 * @param id
+	 * @param data
+	 * @return Number of bytes sent.
+	 * @throws IOException
+	 */
+	public int sendUrgent(NodeIDType id, byte[] data) throws IOException {
+		return this.send(id, data, true);
+	}
+
+	private int send(NodeIDType id, byte[] data, boolean urgent)
+			throws IOException {
 		InetAddress address = this.nodeConfig.getNodeAddress(id);
 		int port = this.nodeConfig.getNodePort(id);
 		if (address == null || port < 0)
@@ -423,7 +530,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		if (this.nodeConfig == null)
 			throw new NullPointerException(
 					"Attempting ID-based communication with null InterfaceNodeConfig");
-		return send(new InetSocketAddress(address, port), data);
+		return send(new InetSocketAddress(address, port), data, urgent);
 	}
 
 	/**
@@ -433,6 +540,11 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	 * @throws IOException
 	 */
 	public int send(InetSocketAddress isa, byte[] data) throws IOException {
+		return this.send(isa, data, false);
+	}
+
+	private int send(InetSocketAddress isa, byte[] data, boolean urgent)
+			throws IOException {
 		if (isa == null)
 			return -1;
 		if (data.length > MAX_PAYLOAD_SIZE)
@@ -441,9 +553,12 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 					+ MAX_PAYLOAD_SIZE);
 		testAndIntiateConnection(isa);
 		// we put length header in *all* messages
-		ByteBuffer bbuf = getHeaderedByteBuffer(data = this.deflate(data));
-		int written = this.canEnqueueSend(isa) ? this.enqueueSend(isa, bbuf)
-				: 0;
+		data = this.deflate(data);
+		int written = !urgent
+				&& !this.canEnqueueSend(isa, HEADER_SIZE + data.length) ? 0
+				: this.isStreamCompressed(data) ? this.enqueueCompressed(isa,
+						data, urgent) : this.enqueueSend(isa, urgent,
+						getHeader(data.length), ByteBuffer.wrap(data));
 		if(written > 0)
 			NIOInstrumenter.incrSent();
 		return written > 0 ? written - HEADER_SIZE : written;
@@ -485,17 +600,29 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		for (int i = 0; i < batchSize; i++)
 			putHeaderLength(bbuf, data.length).put(data);
 		bbuf.flip();
-		int written = this.canEnqueueSend(isa) ? this.enqueueSend(isa, bbuf)
-				: 0;
+		int written = this.canEnqueueSend(isa, bbuf.limit()) ? this
+				.enqueueSend(isa, false, bbuf) : 0;
 		return written > 0 ? written - batchSize * HEADER_SIZE : written;
 	}
 
-	private static ByteBuffer getHeaderedByteBuffer(byte[] data) {
-		ByteBuffer bbuf = ByteBuffer.allocate(HEADER_SIZE + data.length);
-		putHeaderLength(bbuf, data.length).put(data);
-		assert (!bbuf.hasRemaining() && bbuf.capacity() == (HEADER_SIZE + data.length));
-		bbuf.flip();
-		return bbuf;
+	/* The header is queued as a separate buffer ahead of the payload so that
+	 * the payload need not be copied into a combined buffer. */
+	private static ByteBuffer getHeader(int length) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		putHeaderLength(header, length).flip();
+		return header;
+	}
+
+	private static long limit(ByteBuffer[] message) {
+		long limit = 0;
+		for (ByteBuffer buf : message)
+			limit += buf.limit();
+		return limit;
+	}
+
+	// buffers of a message are written in order
+	private static boolean hasRemaining(ByteBuffer[] message) {
+		return message[message.length - 1].hasRemaining();
 	}
 
 	private static ByteBuffer putHeaderLength(ByteBuffer buf, int length) {
@@ -505,7 +632,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	protected static final int getPayloadLength(ByteBuffer buf) throws IOException {
 		assert (buf.capacity() == HEADER_SIZE);
 		int preamble = -1;
-		if (!USE_PREAMBLE || (preamble = buf.getInt()) == PREAMBLE) {
+		if (!USE_PREAMBLE || isPreamble(preamble = buf.getInt())) {
 			int length = buf.getInt();
 			if (outOfRange(length))
 				throw new IOException("Out-of-range payload length " + length);
@@ -524,10 +651,23 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 			723432553; // legacy preamble
 	// A preamble is not really needed, so this could be true or false.
 	private static boolean USE_PREAMBLE = true;
+
+	/* Preambles of stream-compressed frames, the latter for the first frame
+	 * of a deflate context. Both are out of range as payload lengths. */
+	private static final int STREAM_PREAMBLE = PREAMBLE + 1,
+			STREAM_RESET_PREAMBLE = PREAMBLE + 2;
+
+	private static boolean isPreamble(int preamble) {
+		return preamble == PREAMBLE || preamble == STREAM_PREAMBLE
+				|| preamble == STREAM_RESET_PREAMBLE;
+	}
 	private static int HEADER_SIZE = USE_PREAMBLE ? 2*Integer.BYTES : Integer.BYTES;
 
 	private static final long SELECT_TIMEOUT = 2000;
 
+	// maximum number of queued buffers per gathering write
+	private static final int MAX_GATHER = 64;
+
 	public void run() {
 		// to not double-start, but check not thread-safe
 		if (this.started)
@@ -535,20 +675,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		this.started = true;
 		while (!isStopped()) {
 			try {
-				/* Set ops to WRITE for pending write requests. We don't need to
-				 * do this every select iteration, just once in a few
-				 * iterations. We need to do it at all so that the selector
-				 * thread can retry connecting to not-yet-connected destinations
-				 * with pending writes. */
-				registerWriteInterests();
-				// set ops to CONNECT for pending connect requests.
-				processPendingConnects();
-				// wait for an event one of the registered channels.
-				this.selector.select(SELECT_TIMEOUT);
-				// accept, connect, read, or write as needed.
-				processSelectedKeys();
-				// process data from pending buffers on congested channels
-				this.tryProcessCongested();
+				this.acceptor.runOnce();
 
 				if (IS_IOS) {
 					tryIOSWrite();
@@ -565,6 +692,10 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				this.senderTask.close();
 			this.selector.close();
 			this.serverChannel.close();
+			if (this.unixServerChannel != null) {
+				this.unixServerChannel.close();
+				Files.deleteIfExists(this.unixSocketPath);
+			}
 
 			if (this.worker instanceof SSLDataProcessingWorker) {
 				((SSLDataProcessingWorker) this.worker).stop();
@@ -576,6 +707,163 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		}
 	}
 
+	/* A destination's queue of messages to send. Each message is queued as
+	 * one element made of its buffers, typically a header followed by its
+	 * payload, so the queue's size is the number of queued messages and a
+	 * partially sent message can be told apart from an unsent one. Each
+	 * message counts against the send budget with the sum of its buffers'
+	 * limits from when it is added until it is removed, so all removals must
+	 * go through remove() or drop(). */
+	private class SendQueue extends LinkedBlockingQueue<ByteBuffer[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final AtomicLong bytes = new AtomicLong();
+
+		@Override
+		public boolean add(ByteBuffer[] message) {
+			this.charge(limit(message));
+			return super.add(message);
+		}
+
+		@Override
+		public ByteBuffer[] remove() {
+			ByteBuffer[] message = super.remove();
+			this.charge(-limit(message));
+			return message;
+		}
+
+		// gives back the bytes of a queue being discarded
+		void drop() {
+			for (ByteBuffer[] message; (message = super.poll()) != null;)
+				this.charge(-limit(message));
+		}
+
+		long getBytes() {
+			return this.bytes.get();
+		}
+
+		private void charge(long delta) {
+			sendBudget.charge(this.bytes.getAndAdd(delta), delta);
+		}
+	}
+
+	/* A reactor is a selector along with the state that only its selecting
+	 * thread and application threads enqueueing sends touch, i.e., send
+	 * queues, pending connects, and the read and write buffers. A channel and
+	 * the send queue of its InetSocketAddress always belong to the same
+	 * reactor, so a reactor's selector thread never touches keys registered
+	 * with another reactor's selector. */
+	private class Reactor implements Runnable {
+		private final Selector selector;
+
+		private final ByteBuffer writeBuffer = ByteBuffer
+				.allocateDirect(WRITE_BUFFER_SIZE);
+
+		// for gathering writes on non-SSL channels
+		private final ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHER];
+
+		// chunk buffer for reads on non-SSL channels
+		private final ByteBuffer readBuffer = ByteBuffer
+				.allocateDirect(READ_BUFFER_SIZE);
+
+		// List of pending connects on which finishConnect needs to be called.
+		private final LinkedList<ChangeRequest> pendingConnects = new LinkedList<ChangeRequest>();
+
+		/* The key is a socket address and the value is a list of messages to
+		 * be sent to that socket address. */
+		private final ConcurrentHashMap<InetSocketAddress, SendQueue> sendQueues = new ConcurrentHashMap<InetSocketAddress, SendQueue>();
+
+		private long lastRegisterWriteInterestsInvoked = 0;
+
+		Reactor(Selector selector) {
+			this.selector = selector;
+		}
+
+		void start(String name) {
+			Thread thread = new Thread(this);
+			thread.setName(name);
+			thread.start();
+		}
+
+		void runOnce() throws IOException {
+			/* Set ops to WRITE for pending write requests. We don't need to do
+			 * this every select iteration, just once in a few iterations. We
+			 * need to do it at all so that the selector thread can retry
+			 * connecting to not-yet-connected destinations with pending
+			 * writes. */
+			registerWriteInterests(this);
+			// set ops to CONNECT for pending connect requests.
+			processPendingConnects(this);
+			// wait for an event one of the registered channels.
+			this.selector.select(SELECT_TIMEOUT);
+			// accept, connect, read, or write as needed.
+			processSelectedKeys(this);
+			// process data from pending buffers on congested channels
+			tryProcessCongested(this);
+		}
+
+		// only for reactors other than the acceptor
+		public void run() {
+			while (!isStopped()) {
+				try {
+					this.runOnce();
+				} catch (Exception e) {
+					log.severe(NIOTransport.this + " incurred IOException "
+							+ e.getMessage());
+					e.printStackTrace();
+				}
+			}
+			try {
+				this.selector.close();
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+	}
+
+	private static int numReactors = 0;
+
+	/**
+	 * Enables multiple reactors in subsequently created instances. With
+	 * {@code n} greater than zero, the main selector thread only accepts
+	 * connections and {@code n} reactor threads, each with its own selector,
+	 * handle connects, reads, and writes for the connections assigned to them
+	 * by a hash of the remote socket address. The default of zero uses a
+	 * single selector thread for everything.
+	 * 
+	 * @param n
+	 */
+	public static final void setNumReactors(int n) {
+		numReactors = n;
+	}
+
+	private List<Reactor> initReactors() throws IOException {
+		// iOS writes are driven by the main selector thread
+		int n = IS_IOS ? 0 : numReactors;
+		List<Reactor> reactors = new ArrayList<Reactor>(Math.max(1, n));
+		if (n <= 0) {
+			reactors.add(this.acceptor);
+			return reactors;
+		}
+		for (int i = 0; i < n; i++)
+			reactors.add(new Reactor(Selector.open()));
+		return reactors;
+	}
+
+	private Reactor reactorFor(InetSocketAddress isa) {
+		return this.reactors.size() == 1 || isa == null ? this.reactors.get(0)
+				: this.reactors.get((isa.hashCode() & Integer.MAX_VALUE)
+						% this.reactors.size());
+	}
+
+	private SelectionKey keyFor(SocketChannel socketChannel) {
+		SelectionKey key = null;
+		for (Reactor reactor : this.reactors)
+			if ((key = socketChannel.keyFor(reactor.selector)) != null)
+				break;
+		return key;
+	}
+
 	private void tryIOSWrite() throws IOException {
 		Collection<SelectionKey> keys =
 				(this.selector.keys());
@@ -600,6 +888,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		if (this.senderTask != null)
 			this.senderTask.close();
 		this.selector.wakeup();
+		for (Reactor reactor : this.reactors)
+			reactor.selector.wakeup();
 	}
 
 	/**
@@ -641,10 +931,10 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	}
 
 	// Invoked only by the selector thread. Typical nio event handling code.
-	private void processSelectedKeys() {
+	private void processSelectedKeys(Reactor reactor) {
 		// Iterate over the set of keys for which events are available
 		Collection<SelectionKey> selected = // new ArrayList<SelectionKey>
-		(this.selector.selectedKeys());
+		(reactor.selector.selectedKeys());
 		Iterator<SelectionKey> selectedKeys = selected.iterator();
 		//Collections.shuffle(selected); // to mix in reads and writes
 
@@ -669,7 +959,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 					else
 						this.write(key);
 				if (key.isValid() && key.isReadable())
-					this.read(key);
+					this.read(key, reactor);
 			} catch (IOException | CancelledKeyException e) {
 				updateFailed(key);
 				log.log(Level.WARNING, "{0} incurred IOException on {1}"
@@ -682,15 +972,14 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				cleanupSSL(key);
 			}
 		}
-		this.selector.selectedKeys().clear();
+		reactor.selector.selectedKeys().clear();
 	}
 
 	private void updateFailed(SelectionKey key) {
 		if (!(key.channel() instanceof SocketChannel))
 			return;
 		SocketChannel channel = (SocketChannel) key.channel();
-		InetSocketAddress remote = (InetSocketAddress) channel.socket()
-				.getRemoteSocketAddress();
+		InetSocketAddress remote = getRemoteSocketAddress(channel);
 		if (remote == null)
 			remote = this.getSockAddrFromSockChannel(channel);
 		this.updateFailed(remote);
@@ -717,8 +1006,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	}
 
 	private void updateAlive(SocketChannel channel) {
-		InetSocketAddress remote = (InetSocketAddress) (channel).socket()
-				.getRemoteSocketAddress();
+		InetSocketAddress remote = getRemoteSocketAddress(channel);
 		if (remote == null)
 			remote = this.getSockAddrFromSockChannel(channel);
 		NodeIDType node = null;
@@ -743,19 +1031,31 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		SocketChannel socketChannel = serverSocketChannel.accept();
 		if (socketChannel == null)
 			return;
+		boolean unix = serverSocketChannel == this.unixServerChannel;
+		if (unix)
+			unixChannels.put(socketChannel, new InetSocketAddress[] {
+					this.nextUnixPeerAddress(), this.getUnixLocalAddress() });
 		log.log(Level.FINE, "{0} accepted connection from {1}", new Object[] {
-				this, socketChannel.getRemoteAddress() });
+				this, getRemoteAddress(socketChannel) });
 		NIOInstrumenter.incrAccepted();
-		socketChannel.socket().setKeepAlive(true);
 		socketChannel.configureBlocking(false);
-		socketChannel.socket().setTcpNoDelay(true);
-		socketChannel.socket().setReceiveBufferSize(HINT_SOCK_BUFFER_SIZE);
-		socketChannel.socket().setSendBufferSize(HINT_SOCK_BUFFER_SIZE);
+		if (!unix) {
+			socketChannel.socket().setKeepAlive(true);
+			socketChannel.socket().setTcpNoDelay(true);
+			socketChannel.socket().setReceiveBufferSize(HINT_SOCK_BUFFER_SIZE);
+			socketChannel.socket().setSendBufferSize(HINT_SOCK_BUFFER_SIZE);
+		}
 
 		this.updateAlive(socketChannel);
 		// record RTT if available
-		RTTEstimator.record(((InetSocketAddress) socketChannel
-				.getRemoteAddress()).getAddress());
+		if (!unix)
+			RTTEstimator.record(getRemoteAddress(socketChannel).getAddress());
+
+		// hand off to the reactor owning the remote address
+		if (this.reactors.get(0) != this.acceptor) {
+			this.handoffAccepted(socketChannel);
+			return;
+		}
 
 		/* Register the new SocketChannel with our Selector, indicating we'd
 		 * like to be notified when there's data waiting to be read. We could
@@ -772,6 +1072,21 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		registerSSL(socketChannelKey, false);
 	}
 
+	/* Invoked only by the acceptor thread with multiple reactors. The
+	 * registration itself is queued for the reactor's selector thread. */
+	private void handoffAccepted(SocketChannel socketChannel)
+			throws IOException {
+		InetSocketAddress remote = getRemoteAddress(socketChannel);
+		int ops = SelectionKey.OP_READ;
+		if (DUPLEX_CONNECTIONS) {
+			// wait till handshake complete for SSL writes
+			ops |= (isSSL() ? 0 : SelectionKey.OP_WRITE);
+			this.putSockAddrToSockChannel(remote, socketChannel);
+		}
+		this.addChangeRequest(this.reactorFor(remote), new ChangeRequest(
+				socketChannel, ChangeRequest.ACCEPTED, ops));
+	}
+
 	/**
 	 * Invoked only by the selector thread. read() is easy as it just needs to
 	 * read whatever is available and send it off to DataProcessingWorker (that
@@ -783,6 +1098,10 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	protected static final class AlternatingByteBuffer {
 		final ByteBuffer headerBuf;
 		ByteBuffer bodyBuf = null;
+		// bytes read but not yet parsed because of congestion
+		ByteBuffer leftover = null;
+		// inflate context of stream-compressed frames on this channel
+		Inflater inflater = null;
 
 		AlternatingByteBuffer() {
 			headerBuf = ByteBuffer.allocate(HEADER_SIZE);
@@ -825,7 +1144,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 
 	private final ConcurrentHashMap<SelectionKey, AlternatingByteBuffer> congested = new ConcurrentHashMap<SelectionKey, AlternatingByteBuffer>();
 
-	private void read(SelectionKey key) throws IOException {
+	private void read(SelectionKey key, Reactor reactor) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
 
 		// if SSL, simply pass any bytes to SSL worker
@@ -864,6 +1183,11 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		AlternatingByteBuffer abbuf = (AlternatingByteBuffer) key.attachment();
 		assert (abbuf != null) : this + ": no attachment for " + key.channel();
 
+		if (readChunked && !getCompression()) {
+			this.readChunked(key, abbuf, reactor.readBuffer);
+			return;
+		}
+
 		// read into body if header completely read, else read into header
 		ByteBuffer bbuf = (abbuf.headerBuf.remaining() == 0 ? abbuf.bodyBuf
 				: abbuf.headerBuf);
@@ -892,6 +1216,12 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		// if complete payload read, pass to worker
 		if (abbuf.bodyBuf != null && !abbuf.bodyBuf.hasRemaining()) {
 			bbuf.flip();
+			ByteBuffer plain = this.toPlain(abbuf, bbuf);
+			if (plain == null) {
+				abbuf.clear();
+				return;
+			}
+			bbuf = abbuf.bodyBuf = plain;
 			Level level = Level.FINEST;
 			log.log(level, "{0}[t{1}] read from channel {2}:[{3}]",
 					new Object[] {
@@ -921,13 +1251,154 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		 * notwithstanding. */
 	}
 
-	private void tryProcessCongested() throws IOException {
+	/* Reads whatever is available in one go and parses every complete frame
+	 * in it. Two syscalls and a fresh body allocation per message are a big
+	 * cost for small messages. */
+	private static boolean readChunked = true;
+
+	/**
+	 * Sets whether non-SSL instances read all available bytes from a channel
+	 * into a per-reactor buffer and parse every complete frame in it, or read
+	 * each frame's header and body with separate reads into a freshly
+	 * allocated body buffer. The former is cheaper for small messages. Only
+	 * affects reads, so it need not be the same at all nodes.
+	 * 
+	 * @param b
+	 */
+	public static final void setReadChunked(boolean b) {
+		readChunked = b;
+	}
+
+	/**
+	 * @return True if chunked reads are enabled.
+	 */
+	public static final boolean getReadChunked() {
+		return readChunked;
+	}
+
+	// bodies of frames spanning chunks or held back because of congestion
+	private final ByteBufferPool bodyPool = new ByteBufferPool(
+			4 * READ_BUFFER_SIZE, 16);
+
+	/* Reads as much as is available into the reactor's chunk buffer and hands
+	 * each complete frame in it to the worker as a slice of the chunk, which
+	 * is fine as the worker must consume everything synchronously anyway. A
+	 * partial header is carried over in headerBuf and a partial body in a
+	 * pooled bodyBuf that subsequent reads fill directly. If the worker
+	 * doesn't consume a frame, the frame and the rest of the chunk are copied
+	 * out and nothing more is read from the channel until they are consumed. */
+	private void readChunked(SelectionKey key, AlternatingByteBuffer abbuf,
+			ByteBuffer chunk) throws IOException {
+		SocketChannel socketChannel = (SocketChannel) key.channel();
+
+		// finish a partially read or undelivered body first
+		if (abbuf.bodyBuf != null) {
+			if (abbuf.bodyBuf.hasRemaining()
+					&& socketChannel.read(abbuf.bodyBuf) < 0) {
+				cleanupSSL(key);
+				return;
+			}
+			if (abbuf.bodyBuf.hasRemaining()
+					|| !this.deliverBody(key, socketChannel, abbuf))
+				return;
+		}
+
+		chunk.clear();
+		// partial header or bytes left over from congestion go first
+		chunk.put(abbuf.headerBuf.flip());
+		abbuf.headerBuf.clear();
+		if (abbuf.leftover != null) {
+			chunk.put(abbuf.leftover);
+			this.bodyPool.release(abbuf.leftover);
+			abbuf.leftover = null;
+		}
+		// end-of-stream => cleanup
+		if (socketChannel.read(chunk) < 0) {
+			cleanupSSL(key);
+			return;
+		}
+		chunk.flip();
+
+		while (chunk.remaining() >= HEADER_SIZE) {
+			Util.put(abbuf.headerBuf, chunk);
+			abbuf.headerBuf.flip();
+			int length = -1;
+			try {
+				length = getPayloadLength(abbuf.headerBuf);
+			} catch (IOException ioe) {
+				throw new IOException(myID + ":" + ioe.getMessage()
+						+ " on channel " + socketChannel);
+			}
+			if (chunk.remaining() < length) {
+				// partial body, so read the rest directly into bodyBuf
+				(abbuf.bodyBuf = this.bodyPool.get(length)).put(chunk);
+				if (socketChannel.read(abbuf.bodyBuf) < 0)
+					cleanupSSL(key);
+				else if (!abbuf.bodyBuf.hasRemaining())
+					this.deliverBody(key, socketChannel, abbuf);
+				return;
+			}
+
+			ByteBuffer frame = chunk.slice().limit(length);
+			chunk.position(chunk.position() + length);
+			log.log(Level.FINEST, "{0} read {1} bytes from channel {2}",
+					new Object[] { this, length, socketChannel });
+			if ((frame = this.toPlain(abbuf, frame)) == null) {
+				abbuf.headerBuf.clear();
+				continue;
+			}
+			this.worker.processData(socketChannel, frame);
+			if (frame.hasRemaining()) {
+				// worker has not finished reading
+				assert (frame.position() == 0); // all or nothing processing
+				(abbuf.bodyBuf = this.bodyPool.get(frame.remaining()))
+						.put(frame);
+				if (chunk.hasRemaining())
+					(abbuf.leftover = this.bodyPool.get(chunk.remaining()))
+							.put(chunk).flip();
+				// check later to prevent the last one from hanging
+				this.congested.putIfAbsent(key, abbuf);
+				return;
+			}
+			abbuf.headerBuf.clear();
+		}
+		this.congested.remove(key);
+		abbuf.headerBuf.put(chunk);
+	}
+
+	/* Hands a completely read bodyBuf to the worker and returns true if the
+	 * worker consumed it. Else leaves bodyBuf full for a later attempt. */
+	private boolean deliverBody(SelectionKey key, SocketChannel socketChannel,
+			AlternatingByteBuffer abbuf) throws IOException {
+		ByteBuffer body = abbuf.bodyBuf.flip();
+		log.log(Level.FINEST, "{0} read {1} bytes from channel {2}",
+				new Object[] { this, body.remaining(), socketChannel });
+		ByteBuffer plain = this.toPlain(abbuf, body);
+		if (plain != null)
+			this.worker.processData(socketChannel, plain);
+		if (plain != null && plain.hasRemaining()) {
+			// keep the inflated body as it can not be inflated again
+			if (plain != body)
+				this.bodyPool.release(body);
+			(abbuf.bodyBuf = plain).position(plain.limit());
+			this.congested.putIfAbsent(key, abbuf);
+			return false;
+		}
+		this.bodyPool.release(body);
+		abbuf.clear();
+		this.congested.remove(key);
+		return true;
+	}
+
+	private void tryProcessCongested(Reactor reactor) throws IOException {
 		if (!this.congested.isEmpty())
 			for (Iterator<SelectionKey> keyIter = this.congested.keySet()
 					.iterator(); keyIter.hasNext();) {
 				SelectionKey key = keyIter.next();
+				if (key.selector() != reactor.selector)
+					continue;
 				if (key.isValid())
-					this.read(key);
+					this.read(key, reactor);
 				else
 					keyIter.remove();
 			}
@@ -967,6 +1438,153 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		return compressionThreshold;
 	}
 
+	private static boolean streamCompression = false;
+
+	/**
+	 * Enables stream compression in non-SSL instances. Unlike
+	 * {@link #setCompression(boolean)} that compresses each large message on
+	 * its own, this compresses every message sent to a destination with a
+	 * deflate context that lasts as long as the connection to it, flushing at
+	 * the end of each message, so that small, repetitive messages compress
+	 * well too. Receivers inflate stream-compressed frames irrespective of
+	 * this setting, so it need not be the same at all nodes.
+	 * 
+	 * @param b
+	 */
+	public static final void setStreamCompression(boolean b) {
+		streamCompression = b;
+	}
+
+	/**
+	 * @return True if stream compression is enabled.
+	 */
+	public static final boolean getStreamCompression() {
+		return streamCompression;
+	}
+
+	// deflate context of the connection to a destination
+	private static class StreamDeflater {
+		final Deflater deflater = new Deflater();
+		// null forces a fresh context for the next frame
+		SocketChannel channel = null;
+	}
+
+	private final ConcurrentHashMap<InetSocketAddress, StreamDeflater> streamDeflaters = new ConcurrentHashMap<InetSocketAddress, StreamDeflater>();
+
+	// half of the maximum so that even incompressible data fits in a frame
+	private boolean isStreamCompressed(byte[] data) {
+		return streamCompression && USE_PREAMBLE && !isSSL()
+				&& data.length <= MAX_PAYLOAD_SIZE / 2;
+	}
+
+	private StreamDeflater getStreamDeflater(InetSocketAddress isa) {
+		StreamDeflater sd = this.streamDeflaters.get(isa);
+		if (sd != null)
+			return sd;
+		// drop contexts of closed connections before adding a new one
+		for (Iterator<StreamDeflater> iter = this.streamDeflaters.values()
+				.iterator(); iter.hasNext();) {
+			SocketChannel channel = iter.next().channel;
+			if (channel != null && !channel.isOpen())
+				iter.remove();
+		}
+		sd = this.streamDeflaters.putIfAbsent(isa, new StreamDeflater());
+		return sd != null ? sd : this.streamDeflaters.get(isa);
+	}
+
+	/* Compresses data with the deflate context of the current connection to
+	 * isa and queues it as one frame. Compressing and queueing under the
+	 * context's lock keeps frames in the order in which they were compressed.
+	 * The first frame of a context tells the receiver to start afresh. A frame
+	 * compressed for an earlier connection that is still queued when a new one
+	 * comes up is dropped by the receiver, just like data lost with the
+	 * earlier connection. */
+	private int enqueueCompressed(InetSocketAddress isa, byte[] data,
+			boolean urgent) throws IOException {
+		StreamDeflater sd = this.getStreamDeflater(isa);
+		synchronized (sd) {
+			SocketChannel channel = this.getSockAddrToSockChannel(isa);
+			boolean reset = channel == null || channel != sd.channel;
+			if (reset) {
+				sd.deflater.reset();
+				sd.channel = channel;
+			}
+			byte[] compressed = deflate(sd.deflater, data);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(reset ? STREAM_RESET_PREAMBLE : STREAM_PREAMBLE)
+					.putInt(compressed.length).flip();
+			int queued = this.enqueueSend(isa, urgent, header,
+					ByteBuffer.wrap(compressed));
+			// the receiver will never see this frame, so start afresh
+			if (queued <= 0)
+				sd.channel = null;
+			NIOInstrumenter.incrBytesCompressed(data.length, compressed.length);
+			return queued > 0 ? HEADER_SIZE + data.length : queued;
+		}
+	}
+
+	private static byte[] deflate(Deflater deflater, byte[] data) {
+		deflater.setInput(data);
+		byte[] compressed = new byte[data.length / 2 + 64];
+		int length = 0;
+		// a sync flush ends the output on a byte boundary with all of data
+		while ((length += deflater.deflate(compressed, length,
+				compressed.length - length, Deflater.SYNC_FLUSH)) == compressed.length)
+			compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+		return Arrays.copyOf(compressed, length);
+	}
+
+	/* Returns the frame as is if it is not stream-compressed. Else inflates it
+	 * with the channel's inflate context and marks its header as plain so that
+	 * it is never inflated twice. Returns null for a stream-compressed frame
+	 * received without a context, which is possible only if it was compressed
+	 * for an earlier connection. */
+	private ByteBuffer toPlain(AlternatingByteBuffer abbuf, ByteBuffer frame)
+			throws IOException {
+		int preamble = abbuf.headerBuf.getInt(0);
+		if (!USE_PREAMBLE || preamble == PREAMBLE)
+			return frame;
+		abbuf.headerBuf.putInt(0, PREAMBLE);
+		if (preamble == STREAM_RESET_PREAMBLE)
+			if (abbuf.inflater == null)
+				abbuf.inflater = new Inflater();
+			else
+				abbuf.inflater.reset();
+		else if (abbuf.inflater == null) {
+			log.log(Level.WARNING,
+					"{0} dropping stream-compressed frame received without"
+							+ " its deflate context", new Object[] { this });
+			return null;
+		}
+		return inflate(abbuf.inflater, frame);
+	}
+
+	private static ByteBuffer inflate(Inflater inflater, ByteBuffer frame)
+			throws IOException {
+		int compressedLength = frame.remaining();
+		inflater.setInput(frame);
+		byte[] inflated = new byte[Math.min(MAX_PAYLOAD_SIZE + 1,
+				4 * compressedLength + 64)];
+		int length = 0;
+		try {
+			// all of the input must come out as the frame was sync flushed
+			while ((length += inflater.inflate(inflated, length,
+					inflated.length - length)) == inflated.length) {
+				if (inflated.length > MAX_PAYLOAD_SIZE)
+					throw new IOException("Inflated payload length exceeds "
+							+ MAX_PAYLOAD_SIZE);
+				inflated = Arrays.copyOf(inflated, Math.min(
+						MAX_PAYLOAD_SIZE + 1, 2 * inflated.length));
+			}
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		}
+		if (!inflater.needsInput())
+			throw new IOException("Stream-compressed frame of length "
+					+ compressedLength + " not fully inflated");
+		return ByteBuffer.wrap(inflated, 0, length);
+	}
+
 	private ByteBuffer inflate(ByteBuffer bbuf) throws IOException {
 		if (isSSL() || !getCompression())
 			return bbuf;
@@ -1001,8 +1619,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	private void write(SelectionKey key) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
 		try {
-			InetSocketAddress isa = (InetSocketAddress) socketChannel
-					.getRemoteAddress();
+			InetSocketAddress isa = getRemoteAddress(socketChannel);
 			// getSockAddrFromSockChannel(socketChannel);
 			if (isa == null) { // should never happen
 				log.severe("Null socket address for a write-ready socket!");
@@ -1027,8 +1644,12 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				.getSockAddrFromSockChannel(socketChannel);
 		/* Invariant: if there is data buffered to a destination, we must have a
 		 * socket channel for it. */
-		synchronized (this.sendQueues) {
-			this.sendQueues.remove(sockAddr);
+		Map<InetSocketAddress, SendQueue> sendQueues = this
+				.reactorFor(sockAddr).sendQueues;
+		synchronized (sendQueues) {
+			SendQueue sendQueue = sendQueues.remove(sockAddr);
+			if (sendQueue != null)
+				sendQueue.drop();
 			synchronized (this.sockAddrToSockChannel) {
 				this.sockAddrToSockChannel.remove(sockAddr);
 			}
@@ -1112,13 +1733,16 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	 * result in some missing data. */
 	private boolean writeAllPendingWrites(InetSocketAddress isa,
 			SocketChannel socketChannel) throws IOException {
-		LinkedBlockingQueue<ByteBuffer> sendQueue = this.sendQueues.get(isa);
+		Reactor reactor = this.reactorFor(isa);
+		SendQueue sendQueue = reactor.sendQueues.get(isa);
 		// possible if queuePendingWrite has not yet happened after connect
 		if (sendQueue == null)
 			return true;
 
-		if (SEND_BATCHED)
-			this.sendBatched(sendQueue, socketChannel);
+		if (SEND_BATCHED && !isSSL())
+			this.sendGathered(sendQueue, socketChannel, reactor.gatherBuffers);
+		else if (SEND_BATCHED)
+			this.sendBatched(sendQueue, socketChannel, reactor.writeBuffer);
 		else
 			this.sendUnbatched(sendQueue, socketChannel);
 
@@ -1132,49 +1756,105 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	private static boolean SEND_BATCHED = true; // default true
 
 	// dequeue and send one message at a time
-	private void sendUnbatched(LinkedBlockingQueue<ByteBuffer> sendQueue,
+	private void sendUnbatched(SendQueue sendQueue,
 			SocketChannel socketChannel) throws IOException {
 		while (!sendQueue.isEmpty()) {
-			ByteBuffer buf0 = (ByteBuffer) sendQueue.peek();
-			this.wrapWrite(socketChannel, buf0); // hook to SSL here
-			// if socket's buffer fills up, let the rest be in queue
-			Level level = Level.FINEST;
-			log.log(level, "{0} wrote \"{1}\" to {2}",
-					new Object[] {
-							this,
-							log.isLoggable(level) ? new Stringer(buf0.array())
-									: buf0, socketChannel });
-			if (buf0.remaining() > 0) {
-				log.log(Level.FINE,
-						"{0} socket buffer congested because of high load..",
-						new Object[] { this });
-				break;
+			for (ByteBuffer buf0 : sendQueue.peek()) {
+				if (!buf0.hasRemaining())
+					continue;
+				this.wrapWrite(socketChannel, buf0); // hook to SSL here
+				// if socket's buffer fills up, let the rest be in queue
+				Level level = Level.FINEST;
+				log.log(level, "{0} wrote \"{1}\" to {2}", new Object[] {
+						this,
+						log.isLoggable(level) ? new Stringer(buf0.array())
+								: buf0, socketChannel });
+				if (buf0.remaining() > 0) {
+					log.log(Level.FINE,
+							"{0} socket buffer congested because of high load..",
+							new Object[] { this });
+					return;
+				}
 			}
-			assert (buf0.remaining() == 0);
-			sendQueue.remove(); // remove buf0
+			sendQueue.remove(); // remove sent message
 		}
 	}
 
+	/* Gathering write straight from the queue, no copying. At most a quantum
+	 * of WRITE_BUFFER_SIZE bytes goes out per call, cutting the last buffer
+	 * short if need be, so the selector thread serves destinations round
+	 * robin in bytes, i.e., deficit round robin with frames that may be split
+	 * anywhere, and large messages to one destination do not hold up others.
+	 * Small buffers may take several gathers to make up the quantum, else a
+	 * destination with small messages would get less than its share. */
+	private long sendGathered(SendQueue sendQueue,
+			SocketChannel socketChannel, ByteBuffer[] gatherBuffers)
+			throws IOException {
+		long total = 0, written = 0;
+		int bytes = 0;
+		do {
+			int count = 0, limit = -1, quantum = (int) (WRITE_BUFFER_SIZE - total);
+			ByteBuffer cut = null;
+			bytes = 0;
+			gather: for (ByteBuffer[] message : sendQueue)
+				for (ByteBuffer buf : message) {
+					// e.g., a header already written sneakily
+					if (!buf.hasRemaining())
+						continue;
+					gatherBuffers[count++] = buf;
+					if ((bytes += buf.remaining()) > quantum) {
+						limit = (cut = buf).limit();
+						buf.limit(limit - (bytes - quantum));
+						bytes = quantum;
+						break gather;
+					}
+					if (bytes == quantum || count == gatherBuffers.length)
+						break gather;
+				}
+			try {
+				written = socketChannel.write(gatherBuffers, 0, count);
+			} finally {
+				// the rest of a cut buffer goes out in a later round
+				if (cut != null)
+					cut.limit(limit);
+				Arrays.fill(gatherBuffers, 0, count, null);
+			}
+			total += written;
+
+			// the write itself advanced positions, so remove what got sent
+			while (!sendQueue.isEmpty() && !hasRemaining(sendQueue.peek()))
+				sendQueue.remove();
+			// stop if the socket is full
+		} while (written == bytes && total < WRITE_BUFFER_SIZE
+				&& !sendQueue.isEmpty());
+		NIOInstrumenter.incrBytesSent((int) total);
+		log.log(Level.FINEST, "{0} wrote {1} gathered bytes to {2}",
+				new Object[] { this, total, socketChannel });
+		return total;
+	}
+
 	// use a large bytebuffer to batch and send
-	private void sendBatched(LinkedBlockingQueue<ByteBuffer> sendQueue,
-			SocketChannel socketChannel) throws IOException {
+	private void sendBatched(SendQueue sendQueue,
+			SocketChannel socketChannel, ByteBuffer writeBuffer)
+			throws IOException {
 		// copy as much as possible into writeBuffer
-		this.writeBuffer.clear();
-		for (ByteBuffer buf : sendQueue) {
-			if (writeBuffer.remaining() < buf.remaining())
-				// cut out exactly as much as writeBuffer can accommodate
-				buf = (ByteBuffer) buf.slice().limit(writeBuffer.remaining());
-
-			int prevPos = buf.position();
-			writeBuffer.put(buf);
-			buf.position(prevPos);
-			if (writeBuffer.remaining() == 0)
-				break;
-		}
+		writeBuffer.clear();
+		copy: for (ByteBuffer[] message : sendQueue)
+			for (ByteBuffer buf : message) {
+				if (writeBuffer.remaining() < buf.remaining())
+					// cut out exactly as much as writeBuffer can accommodate
+					buf = buf.slice().limit(writeBuffer.remaining());
+
+				int prevPos = buf.position();
+				writeBuffer.put(buf);
+				buf.position(prevPos);
+				if (writeBuffer.remaining() == 0)
+					break copy;
+			}
 
 		// flip and send out
-		this.writeBuffer.flip();
-		int written = this.wrapWrite(socketChannel, this.writeBuffer);
+		writeBuffer.flip();
+		int written = this.wrapWrite(socketChannel, writeBuffer);
 		NIOInstrumenter.incrBytesSent(written);
 		// assert(this.writeBuffer.remaining()==0);
 		log.log(Level.FINEST, "{0} wrote {1} batched bytes to {2}",
@@ -1182,25 +1862,28 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 
 		// remove exactly what got sent above
 		while (!sendQueue.isEmpty()) {
-			ByteBuffer buf = sendQueue.peek();
-			int partial = buf.remaining() - written;
-			if (partial > 0) {
-				// buf didn't get fully sent
-				buf.position(buf.position() + written);
-				break;
+			ByteBuffer[] message = sendQueue.peek();
+			for (ByteBuffer buf : message) {
+				int sent = Math.min(buf.remaining(), written);
+				buf.position(buf.position() + sent);
+				written -= sent;
 			}
-			// remove buf coz it got fully sent
-			written -= buf.remaining();
+			// message didn't get fully sent
+			if (hasRemaining(message))
+				break;
+			// remove message coz it got fully sent
 			sendQueue.remove();
 		}
 	}
 
 	private void dequeueSendQueueIfEmpty(InetSocketAddress isa,
-			LinkedBlockingQueue<ByteBuffer> sendQueue) {
-		synchronized (this.sendQueues) {
+			SendQueue sendQueue) {
+		Map<InetSocketAddress, SendQueue> sendQueues = this
+				.reactorFor(isa).sendQueues;
+		synchronized (sendQueues) {
 			// synchronized queue -> pendingWrites
 			if (sendQueue.isEmpty())
-				this.sendQueues.remove(isa, sendQueue);
+				sendQueues.remove(isa, sendQueue);
 		}
 	}
 
@@ -1272,7 +1955,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		if (!isComplete) {
 			/* Deregister write interest, but keep read interest coz we need it
 			 * for the handshake itself to complete. */
-			SelectionKey key = socketChannel.keyFor(this.selector);
+			SelectionKey key = this.keyFor(socketChannel);
 			if (key != null && key.isValid())
 				key.interestOps(key.interestOps() & (~SelectionKey.OP_WRITE));
 		}
@@ -1290,36 +1973,47 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		}
 	}
 
-	// for application threads to queue sends for selector thread
-	private int enqueueSend(InetSocketAddress isa, ByteBuffer data)
-			throws IOException {
+	/* For application threads to queue sends for selector thread. The buffers
+	 * are queued together as one message, typically a header followed by its
+	 * payload. */
+	private int enqueueSend(InetSocketAddress isa, boolean urgent,
+			ByteBuffer... data) throws IOException {
 
-		int queuedBytes = 0;
+		int queuedBytes = 0, capacity = 0;
+		for (ByteBuffer buf : data)
+			capacity += buf.capacity();
+		ConcurrentHashMap<InetSocketAddress, SendQueue> sendQueues = this
+				.reactorFor(isa).sendQueues;
 		// lock because selector thread may remove sendQueue from sendQueues
-		synchronized (this.sendQueues) {
-			if (!this.sendQueues.containsKey(isa))
-				this.sendQueues.putIfAbsent(isa,
-						new LinkedBlockingQueue<ByteBuffer>());
-			LinkedBlockingQueue<ByteBuffer> sendQueue = this.sendQueues
-					.get(isa);
+		synchronized (sendQueues) {
+			if (!sendQueues.containsKey(isa))
+				sendQueues.putIfAbsent(isa, new SendQueue());
+			SendQueue sendQueue = sendQueues.get(isa);
 			if (sendQueue.isEmpty() && (trySneakyWrite(isa, data))
-					&& data.remaining() == 0)
-				return data.capacity();
-
-			if (sendQueue.size() < getMaxQueuedSends()) {
+					&& !data[data.length - 1].hasRemaining())
+				return capacity;
+
+			/* Urgent sends bypass the limits unless the destination is
+			 * unreachable, in which case there is no point holding on to
+			 * them. Buffers already sneakily written are sent no further. */
+			if ((urgent && this.isConnected(isa))
+					|| (sendQueue.size() < getMaxQueuedSends() && this.sendBudget
+							.hasRoom(sendQueue.getBytes(), capacity))) {
 				sendQueue.add(data);
-				queuedBytes = data.capacity();
+				queuedBytes = capacity;
 
 			} else {
 				log.log(Level.WARNING,
-						"{0} message queue for {1} out of room, dropping message",
-						new Object[] { this, isa });
+						"{0} message queue for {1} out of room with {2} bytes queued"
+								+ " ({3} to all destinations), dropping message",
+						new Object[] { this, isa, sendQueue.getBytes(),
+								this.sendBudget.getTotal() });
 				queuedBytes = this.isConnected(isa) ? 0 : -1;
 				// could also drop queue here
 			}
 		}
 
-		if (queuedBytes > 0 && data.remaining() > 0) {
+		if (queuedBytes > 0 && data[data.length - 1].hasRemaining()) {
 			// wake up selecting thread so it can push out the write
 			this.wakeupSelector(isa);
 		}
@@ -1327,13 +2021,31 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		return queuedBytes;
 	}
 
-	private boolean canEnqueueSend(InetSocketAddress isa) {
-		LinkedBlockingQueue<ByteBuffer> sendQueue = null;
-		return ((sendQueue = this.sendQueues.get(isa)) == null)
-				|| sendQueue.size() < MAX_QUEUED_SENDS;
+	private boolean canEnqueueSend(InetSocketAddress isa, int bytes) {
+		SendQueue sendQueue = null;
+		return ((sendQueue = this.reactorFor(isa).sendQueues.get(isa)) == null)
+				|| (sendQueue.size() < getMaxQueuedSends() && this.sendBudget
+						.hasRoom(sendQueue.getBytes(), bytes));
+	}
+
+	/**
+	 * A back-pressure signal for callers that would rather hold back or shed
+	 * load than have sends refused or retransmit them later.
+	 * 
+	 * @param node
+	 * @return True if the send queue to {@code node} is out of room, i.e.,
+	 *         sends to it are currently being refused.
+	 */
+	public boolean isCongested(NodeIDType node) {
+		InetAddress address = this.nodeConfig != null ? this.nodeConfig
+				.getNodeAddress(node) : null;
+		return address != null
+				&& !this.canEnqueueSend(new InetSocketAddress(address,
+						this.nodeConfig.getNodePort(node)), 1);
 	}
 
 	private void wakeupSelector(InetSocketAddress isa) {
+		Selector selector = this.reactorFor(isa).selector;
 		SocketChannel sc = this.getSockAddrToSockChannel(isa);
 		SelectionKey key = null;
 		/* No point setting op write unless connected and handshaken. If not yet
@@ -1343,7 +2055,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		if (sc != null && sc.isConnected() && this.isHandshakeComplete(sc))
 			try {
 				// set op to write if not already set
-				if ((key = sc.keyFor(this.selector)) != null && key.isValid()
+				if ((key = sc.keyFor(selector)) != null && key.isValid()
 				// && (key.interestOps() & SelectionKey.OP_WRITE) == 0
 				) {
 					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
@@ -1352,7 +2064,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				// could have been cancelled upon a write attempt
 				cleanupRetry(key, sc, isa);
 			}
-		this.selector.wakeup();
+		selector.wakeup();
 		// if pending writes and socket closed, retry if possible
 		if (sc != null && !sc.isOpen())
 			this.cleanupRetry(null, sc, isa);
@@ -1363,7 +2075,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	 * first and only element) of the pendingWrites list. */
 	private static final boolean SNEAK_DIRECT_WRITE = true; // default true
 
-	private boolean trySneakyWrite(InetSocketAddress isa, ByteBuffer data)
+	private boolean trySneakyWrite(InetSocketAddress isa, ByteBuffer[] data)
 			throws IOException {
 		/* FIXME: sneaky writes cause problems with ssl, so they are disabled
 		 * with ssl for now. */
@@ -1373,7 +2085,10 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		if (channel != null && channel.isConnected()
 				&& this.isHandshakeComplete(channel)) {
 			try {
-				this.wrapWrite(channel, data, true);
+				// no SSL here, so a gathering write is fine
+				log.log(Level.FINEST, "{0} writing out sneakily to channel {1}",
+						new Object[] { this, channel });
+				channel.write(data);
 				return true;
 			} catch (IOException e) {
 				if (!this.isDisconnected(isa)) {
@@ -1391,25 +2106,24 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	 * to which connection attempts have failed. If finishConnection fails,
 	 * there is no other mechanism to retry establishing a connection to such
 	 * destinations. */
-	private long lastRegisterWriteInterestsInvoked = 0;
 	private static long INTER_REGISTER_WRITE_INTERESTS_SPACING = 8000;
 
-	private void registerWriteInterests() {
-		if (System.currentTimeMillis() - this.lastRegisterWriteInterestsInvoked < (Math
+	private void registerWriteInterests(Reactor reactor) {
+		if (System.currentTimeMillis() - reactor.lastRegisterWriteInterestsInvoked < (Math
 				.random() * INTER_REGISTER_WRITE_INTERESTS_SPACING))
 			return;
-		this.lastRegisterWriteInterestsInvoked = System.currentTimeMillis();
-		if (this.sendQueues.isEmpty())
+		reactor.lastRegisterWriteInterestsInvoked = System.currentTimeMillis();
+		if (reactor.sendQueues.isEmpty())
 			return;
-		synchronized (this.sendQueues) {
+		synchronized (reactor.sendQueues) {
 
 			/*
 			 * Android doesn't currently recognize ConcurrentHashMap.keySet()
 			 * due to a Java 8 -> Java 7 translation issue. Therefore, cast
 			 * it to a Map<?, ?> explicitly.
 			 */
-			for (InetSocketAddress isa : ((Map<InetSocketAddress, LinkedBlockingQueue<ByteBuffer>>) this.sendQueues).keySet()) {
-				LinkedBlockingQueue<ByteBuffer> queue = this.sendQueues
+			for (InetSocketAddress isa : ((Map<InetSocketAddress, SendQueue>) reactor.sendQueues).keySet()) {
+				SendQueue queue = reactor.sendQueues
 						.get(isa);
 				if (queue != null && !queue.isEmpty()) {
 					// Nested locking: pendingWrites -> SockAddrToSockChannel
@@ -1425,7 +2139,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 					// connected and handshake complete => set op_write
 					SelectionKey key = null;
 					if (((sc.isConnected() && this.isHandshakeComplete(sc))
-							&& (key = sc.keyFor(this.selector)) != null 
+							&& (key = sc.keyFor(reactor.selector)) != null 
 							&& (key.interestOps() & SelectionKey.OP_WRITE) == 0
 							))
 						try {
@@ -1468,6 +2182,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	private static void cleanup(SelectionKey key, SelectableChannel sc) {
 		if (key != null)
 			key.cancel();
+		unixChannels.remove(sc);
 		try {
 			sc.close();
 		} catch (IOException ioe) {
@@ -1543,7 +2258,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 					socketChannel);
 			if (prevChannel != null) {
 				//cleanup(prevChannel.keyFor(this.selector), prevChannel);
-				cleanupSSL(prevChannel.keyFor(this.selector));
+				cleanupSSL(this.keyFor(prevChannel));
 			}
 		}
 	}
@@ -1572,8 +2287,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	private void reuseAcceptedConnectionForWrites(SocketChannel socketChannel) {
 		synchronized (this.sockAddrToSockChannel) {
 			try {
-				this.putSockAddrToSockChannel(
-						(InetSocketAddress) socketChannel.getRemoteAddress(),
+				this.putSockAddrToSockChannel(getRemoteAddress(socketChannel),
 						socketChannel); // replace existing with newly accepted
 				socketChannel.register(this.selector, SelectionKey.OP_READ
 				// wait till handshake complete for SSL writes
@@ -1637,32 +2351,52 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	/* **************************************************************
 	 * Start of methods synchronizing on pendingConnects.
 	 * **************************************************************** */
-	private void addPendingConnect(SocketChannel socketChannel) {
-		synchronized (this.pendingConnects) {
-			this.pendingConnects.add(new ChangeRequest(socketChannel,
-					ChangeRequest.REGISTER, SelectionKey.OP_CONNECT));
+	private void addPendingConnect(SocketChannel socketChannel,
+			InetSocketAddress isa) {
+		this.addChangeRequest(this.reactorFor(isa), new ChangeRequest(
+				socketChannel, ChangeRequest.REGISTER, SelectionKey.OP_CONNECT));
+	}
+
+	private void addChangeRequest(Reactor reactor, ChangeRequest change) {
+		synchronized (reactor.pendingConnects) {
+			reactor.pendingConnects.add(change);
 		}
+		/* The reactor's selector thread may not be the caller. Nor is the
+		 * acceptor's for a connect that completed immediately, as is usual for
+		 * UNIX domain sockets, and whose first write therefore gets sneaked out
+		 * without waking up the selector, which must however register the
+		 * channel for reads before the select timeout. */
+		if (reactor != this.acceptor
+				|| (change.type == ChangeRequest.REGISTER && change.socket
+						.isConnected()))
+			reactor.selector.wakeup();
 	}
 
 	/* Process any pending connect requests to ensure that when the socket is
 	 * connectable, finishConnect is called. */
-	private void processPendingConnects() {
-		if (this.pendingConnects.isEmpty())
+	private void processPendingConnects(Reactor reactor) {
+		if (reactor.pendingConnects.isEmpty())
 			return;
-		synchronized (this.pendingConnects) {
-			Iterator<ChangeRequest> changes = this.pendingConnects.iterator();
+		synchronized (reactor.pendingConnects) {
+			Iterator<ChangeRequest> changes = reactor.pendingConnects
+					.iterator();
 			while (changes.hasNext()) {
 				ChangeRequest change = (ChangeRequest) changes.next();
 				log.log(Level.FINEST, "{0} processing connect event {1}",
 						new Object[] { this, change });
-				SelectionKey key = change.socket.keyFor(this.selector);
+				SelectionKey key = change.socket.keyFor(reactor.selector);
 				switch (change.type) {
 				case ChangeRequest.CHANGEOPS:
 					key.interestOps(change.ops);
 					break;
 				case ChangeRequest.REGISTER:
 					try {
-						change.socket.register(this.selector, change.ops);
+						key = change.socket.register(reactor.selector,
+								change.ops);
+						/* A connect that completed immediately, as is usual
+						 * for UNIX domain sockets, never becomes connectable. */
+						if (change.socket.isConnected())
+							this.finishConnection(key);
 					} catch (ClosedChannelException cce) {
 						log.severe("Socket channel likely closed before connect finished");
 						//cleanup(key, (AbstractSelectableChannel) key.channel());
@@ -1670,9 +2404,22 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 						cce.printStackTrace();
 					}
 					break;
+				case ChangeRequest.ACCEPTED:
+					try {
+						key = change.socket.register(reactor.selector,
+								change.ops);
+						key.attach(new AlternatingByteBuffer()); // for length
+						registerSSL(key, false);
+					} catch (IOException ioe) {
+						log.log(Level.WARNING,
+								"{0} failed to register accepted channel {1}",
+								new Object[] { this, change.socket });
+						cleanupSSL(change.socket.keyFor(reactor.selector));
+					}
+					break;
 				}
 			}
-			this.pendingConnects.clear();
+			reactor.pendingConnects.clear();
 		}
 	}
 
@@ -1752,23 +2499,190 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		return this.listeningAddress;
 	}
 
+	private static String unixSocketDir = null;
+
+	/**
+	 * Enables UNIX domain sockets in subsequently created non-SSL instances.
+	 * Each such instance also listens on a UNIX domain socket named
+	 * nio-[port].sock in {@code dir}, where [port] is its TCP listening port,
+	 * and connects to a destination via the destination's socket in
+	 * {@code dir} if the destination's address is local and the socket exists.
+	 * Co-located nodes sharing {@code dir} must therefore listen on distinct
+	 * ports. A null or empty {@code dir}, the default, disables UNIX domain
+	 * sockets.
+	 * 
+	 * @param dir
+	 */
+	public static final void setUnixSocketDir(String dir) {
+		unixSocketDir = dir != null && !dir.isEmpty() ? dir : null;
+	}
+
+	private static Path getUnixSocketPath(int port) {
+		return unixSocketDir != null ? Paths.get(unixSocketDir, "nio-" + port
+				+ ".sock") : null;
+	}
+
+	/* UNIX domain channels have socket paths or nothing as addresses, so we
+	 * map each to the socket addresses that a TCP channel in its place would
+	 * have had as its remote and local addresses. */
+	private static final ConcurrentHashMap<SelectableChannel, InetSocketAddress[]> unixChannels = new ConcurrentHashMap<SelectableChannel, InetSocketAddress[]>();
+
+	private static final AtomicInteger unixPeers = new AtomicInteger();
+
+	/* The remote end of an accepted UNIX domain channel is unnamed, so we make
+	 * up a socket address for it that, like the ephemeral remote address of an
+	 * accepted TCP channel, is good only for replying over the accepted
+	 * channel. The peer is on this host, so we use our own address, which is
+	 * also what the peer's source address would have been over TCP, with a
+	 * currently unused privileged port, which TCP never uses as an ephemeral
+	 * port. */
+	private InetSocketAddress nextUnixPeerAddress() {
+		InetAddress address = this.getUnixLocalAddress().getAddress();
+		InetSocketAddress isa = null;
+		for (int i = 0; i < MAX_UNIX_PEER_PORT; i++)
+			if (this.getSockAddrToSockChannel(isa = new InetSocketAddress(
+					address, 1 + (unixPeers.getAndIncrement() & Integer.MAX_VALUE)
+							% MAX_UNIX_PEER_PORT)) == null)
+				break;
+		return isa;
+	}
+
+	private static final int MAX_UNIX_PEER_PORT = 1023;
+
+	private InetSocketAddress getUnixLocalAddress() {
+		return new InetSocketAddress(
+				this.listeningAddress.isAnyLocalAddress() ? InetAddress
+						.getLoopbackAddress() : this.listeningAddress,
+				this.listeningPort);
+	}
+
+	private ServerSocketChannel initUnixServerChannel() {
+		if (this.unixSocketPath == null)
+			return null;
+		ServerSocketChannel channel = null;
+		try {
+			// a leftover from a previous run would fail the bind
+			Files.deleteIfExists(this.unixSocketPath);
+			channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			channel.configureBlocking(false);
+			channel.bind(UnixDomainSocketAddress.of(this.unixSocketPath));
+			channel.register(this.selector, SelectionKey.OP_ACCEPT);
+			log.log(Level.INFO, "{0} also listening on {1}", new Object[] {
+					this, this.unixSocketPath });
+			return channel;
+		} catch (IOException | UnsupportedOperationException e) {
+			log.warning(this + " unable to listen on " + this.unixSocketPath
+					+ ": " + e.getMessage() + "; using only TCP");
+			if (channel != null)
+				cleanup(null, channel);
+		}
+		return null;
+	}
+
+	// socket path of isa if it is local and listening on one
+	private Path getUnixSocketPath(InetSocketAddress isa) {
+		if (this.unixServerChannel == null || !isLocal(isa.getAddress()))
+			return null;
+		Path path = getUnixSocketPath(isa.getPort());
+		return Files.exists(path) ? path : null;
+	}
+
+	private static boolean isLocal(InetAddress address) {
+		try {
+			return address != null
+					&& (address.isLoopbackAddress()
+							|| address.isAnyLocalAddress() || NetworkInterface
+							.getByInetAddress(address) != null);
+		} catch (SocketException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param socketChannel
+	 * @return The remote socket address of {@code socketChannel} if it is a
+	 *         TCP channel. For a UNIX domain channel, the destination's socket
+	 *         address if we initiated the connection, else a made-up local
+	 *         socket address unique to the channel.
+	 * @throws IOException
+	 */
+	public static InetSocketAddress getRemoteAddress(SocketChannel socketChannel)
+			throws IOException {
+		InetSocketAddress[] unix = unixChannels.get(socketChannel);
+		if (unix != null)
+			return unix[0];
+		SocketAddress remote = socketChannel.getRemoteAddress();
+		if (remote instanceof UnixDomainSocketAddress)
+			// already cleaned up
+			throw new ClosedChannelException();
+		return (InetSocketAddress) remote;
+	}
+
+	/**
+	 * @param socketChannel
+	 * @return The local socket address of {@code socketChannel} if it is a TCP
+	 *         channel, else the TCP listening socket address of the instance it
+	 *         belongs to.
+	 * @throws IOException
+	 */
+	public static InetSocketAddress getLocalAddress(SocketChannel socketChannel)
+			throws IOException {
+		InetSocketAddress[] unix = unixChannels.get(socketChannel);
+		if (unix != null)
+			return unix[1];
+		SocketAddress local = socketChannel.getLocalAddress();
+		if (local instanceof UnixDomainSocketAddress)
+			throw new ClosedChannelException();
+		return (InetSocketAddress) local;
+	}
+
+	// like socket().getRemoteSocketAddress(), null if not connected
+	private static InetSocketAddress getRemoteSocketAddress(
+			SocketChannel socketChannel) {
+		InetSocketAddress[] unix = unixChannels.get(socketChannel);
+		if (unix != null)
+			return unix[0];
+		try {
+			return (InetSocketAddress) socketChannel.socket()
+					.getRemoteSocketAddress();
+		} catch (UnsupportedOperationException e) {
+			// already cleaned up UNIX domain channel
+			return null;
+		}
+	}
+
 	/* This method will definitely initiate a new connection and replace
 	 * existing entries in SockAddrToSockChannel. It is the responsibility of
 	 * the caller to check if a connection to isa already exists. */
 	private SocketChannel initiateConnection(InetSocketAddress isa)
 			throws IOException {
+		Path unixPath = this.getUnixSocketPath(isa);
+		if (unixPath != null)
+			return this.initiateConnection(isa,
+					SocketChannel.open(StandardProtocolFamily.UNIX),
+					UnixDomainSocketAddress.of(unixPath));
 		// Create a non-blocking socket channel
 		SocketChannel socketChannel = SocketChannel.open();
-		socketChannel.configureBlocking(false);
 		socketChannel.socket().setSendBufferSize(HINT_SOCK_BUFFER_SIZE);
 		socketChannel.socket().setReceiveBufferSize(HINT_SOCK_BUFFER_SIZE);
+		socketChannel.socket().setSoLinger(false, -1);
+		socketChannel.socket().setTcpNoDelay(true);
+		return this.initiateConnection(isa, socketChannel, isa);
+	}
+
+	private SocketChannel initiateConnection(InetSocketAddress isa,
+			SocketChannel socketChannel, SocketAddress remote)
+			throws IOException {
+		socketChannel.configureBlocking(false);
+		if (remote != isa)
+			unixChannels.put(socketChannel, new InetSocketAddress[] { isa,
+					this.getUnixLocalAddress() });
 
 		// Kick off connection establishment
-		log.log(Level.FINE, "{0} connecting to {1}", new Object[] { this, isa });
+		log.log(Level.FINE, "{0} connecting to {1}{2}", new Object[] { this,
+				isa, remote != isa ? " via " + remote : "" });
 
-		socketChannel.socket().setSoLinger(false, -1);
-		socketChannel.socket().setTcpNoDelay(true);
-		socketChannel.connect(isa);
+		socketChannel.connect(remote);
 		NIOInstrumenter.incrInitiated();
 		putSockAddrToSockChannel(isa, socketChannel); // synchronized
 		// should verify that there are no partial byte buffers
@@ -1778,7 +2692,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		// selecting thread. As part of the registration we'll register
 		// an interest in connection events. These are raised when a channel
 		// is ready to complete connection establishment.
-		addPendingConnect(socketChannel); // synchronized
+		addPendingConnect(socketChannel, isa); // synchronized
 
 		return socketChannel;
 	}
@@ -1803,24 +2717,18 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	 * exactly to the buffers (partially or wholly) written to the underlying
 	 * TCP socket but not yet sent to the other end. */
 	private void removePartialBuffers(InetSocketAddress isa) {
-		LinkedBlockingQueue<ByteBuffer> sendQueue = this.sendQueues.get(isa);
+		SendQueue sendQueue = this.reactorFor(isa).sendQueues
+				.get(isa);
 		if (sendQueue == null || sendQueue.isEmpty())
 			return;
 		synchronized (sendQueue) {
-			ByteBuffer bbuf = ByteBuffer.allocate(HEADER_SIZE);
-			Util.put(bbuf, sendQueue.peek());
-			sendQueue.peek().rewind();
-			bbuf.flip();
-			int length = -1;
-			try {
-				length = getPayloadLength(bbuf);
-			} catch (IOException ioe) {
-				assert (outOfRange(length) || (length != sendQueue.peek()
-						.capacity() - HEADER_SIZE));
-				if (sendQueue.remove() != null)
-					log.severe(this
-							+ " initiated connection and removed partial unsent packet in send queue to "
-							+ isa);
+			ByteBuffer[] head = sendQueue.peek();
+			// an unsent message is untouched, header and payload alike
+			if (head != null && head[0].position() > 0) {
+				sendQueue.remove();
+				log.severe(this
+						+ " initiated connection and removed partial unsent packet in send queue to "
+						+ isa);
 			}
 		}
 	}
@@ -1858,9 +2766,10 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 			if (connected)
 				this.updateAlive((SocketChannel) key.channel());
 		} catch (IOException e) {
-			InetSocketAddress isa = new InetSocketAddress(socketChannel
-					.socket().getInetAddress(), socketChannel.socket()
-					.getPort());
+			InetSocketAddress[] unix = unixChannels.get(socketChannel);
+			InetSocketAddress isa = unix != null ? unix[0]
+					: new InetSocketAddress(socketChannel.socket()
+							.getInetAddress(), socketChannel.socket().getPort());
 			// cancel the channel's registration with selector
 			log.log(Level.INFO, "{0} failed to (re-)connect to {1}:{2}",
 					new Object[] { this, isa, e.getMessage() });
@@ -1938,6 +2847,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 
 		static final int REGISTER = 1;
 		static final int CHANGEOPS = 2;
+		static final int ACCEPTED = 3;
 
 		final SocketChannel socket;
 		final int type;
@@ -1959,13 +2869,15 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	/* Used only for testing to print pending messages if any at the end of
 	 * tests. */
 	protected int getPendingSize() {
-		synchronized (this.sendQueues) {
-			int numPending = 0;
-			for (LinkedBlockingQueue<ByteBuffer> arr : this.sendQueues.values()) {
-				numPending += arr.size();
+		int numPending = 0;
+		for (Reactor reactor : this.reactors)
+			synchronized (reactor.sendQueues) {
+				for (SendQueue arr : reactor.sendQueues
+						.values()) {
+					numPending += arr.size();
+				}
 			}
-			return numPending;
-		}
+		return numPending;
 	}
 
 	/**
@@ -2146,4 +3058,660 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 			e.printStackTrace();
 		}
 	}
+
+	@SuppressWarnings("javadoc")
+	public static class NIOTransportTest extends DefaultTest {
+		private static final int NUM_NODES = 4;
+		private static final int NUM_MESSAGES = 500;
+		private static final int TEST_TYPE = 3141;
+
+		// records the sequence numbers received from each sender
+		static class Receiver extends AbstractJSONPacketDemultiplexer {
+			final ConcurrentHashMap<Integer, LinkedBlockingQueue<Integer>> received = new ConcurrentHashMap<Integer, LinkedBlockingQueue<Integer>>();
+
+			Receiver() {
+				this.register(new IntegerPacketType() {
+					@Override
+					public int getInt() {
+						return TEST_TYPE;
+					}
+				});
+			}
+
+			@Override
+			public boolean handleMessage(JSONObject json, NIOHeader header) {
+				try {
+					int sender = json.getInt("sender");
+					this.received.putIfAbsent(sender,
+							new LinkedBlockingQueue<Integer>());
+					this.received.get(sender).add(json.getInt("seq"));
+				} catch (JSONException e) {
+					e.printStackTrace();
+				}
+				return true;
+			}
+
+			@Override
+			public boolean isOrderPreserving(JSONObject msg) {
+				return true;
+			}
+		}
+
+		@Test
+		public void testMultipleReactors() throws IOException,
+				JSONException, InterruptedException {
+			setNumReactors(3);
+			SampleNodeConfig<Integer> snc = new SampleNodeConfig<Integer>(
+					23560);
+			snc.localSetup(NUM_NODES);
+			Receiver[] receivers = new Receiver[NUM_NODES];
+			final List<MessageNIOTransport<Integer, JSONObject>> niots = new ArrayList<MessageNIOTransport<Integer, JSONObject>>();
+			try {
+				for (int i = 0; i < NUM_NODES; i++)
+					niots.add(new MessageNIOTransport<Integer, JSONObject>(i,
+							snc, receivers[i] = new Receiver(), true));
+				Assert.assertEquals(3,
+						((NIOTransport<Integer>) niots.get(0)).reactors.size());
+
+				// every node sends to every other node concurrently
+				Thread[] senders = new Thread[NUM_NODES];
+				for (int i = 0; i < NUM_NODES; i++) {
+					final int sender = i;
+					(senders[i] = new Thread() {
+						public void run() {
+							try {
+								for (int seq = 0; seq < NUM_MESSAGES; seq++)
+									for (int j = 0; j < NUM_NODES; j++)
+										if (j != sender)
+											while (niots.get(sender).sendToID(j,
+													new JSONObject()
+															.put(JSONPacket.PACKET_TYPE,
+																	TEST_TYPE)
+															.put("sender",
+																	sender)
+															.put("seq", seq)) <= 0)
+												Thread.sleep(1);
+							} catch (IOException | JSONException
+									| InterruptedException e) {
+								e.printStackTrace();
+							}
+						}
+					}).start();
+				}
+				for (Thread sender : senders)
+					sender.join();
+
+				// each connection delivers everything in order
+				for (int i = 0; i < NUM_NODES; i++)
+					for (int j = 0; j < NUM_NODES; j++) {
+						if (i == j)
+							continue;
+						receivers[i].received.putIfAbsent(j,
+								new LinkedBlockingQueue<Integer>());
+						for (int seq = 0; seq < NUM_MESSAGES; seq++)
+							Assert.assertEquals((Integer) seq, receivers[i].received
+									.get(j).poll(10, TimeUnit.SECONDS));
+					}
+
+				// connections are spread over more than one reactor
+				int busy = 0;
+				for (MessageNIOTransport<Integer, JSONObject> niot : niots)
+					for (NIOTransport<Integer>.Reactor reactor : ((NIOTransport<Integer>) niot).reactors)
+						if (!reactor.selector.keys().isEmpty())
+							busy++;
+				Assert.assertTrue(busy > NUM_NODES);
+			} finally {
+				setNumReactors(0);
+				for (MessageNIOTransport<Integer, JSONObject> niot : niots)
+					if (niot != null)
+						niot.stop();
+				for (Receiver receiver : receivers)
+					if (receiver != null)
+						receiver.stop();
+			}
+		}
+
+		// replies to every request over the channel it arrived on
+		static class Echo extends Receiver {
+			MessageNIOTransport<Integer, JSONObject> niot;
+
+			@Override
+			public boolean handleMessage(JSONObject json, NIOHeader header) {
+				try {
+					if (json.has("reply"))
+						return super.handleMessage(json, header);
+					this.niot.sendToAddress(header.sndr, json.put("reply",
+							true));
+				} catch (JSONException | IOException e) {
+					e.printStackTrace();
+				}
+				return true;
+			}
+		}
+
+		/* A UNIX domain connect completes immediately, so the first request
+		 * goes out before the connecting reactor has registered the channel
+		 * for reads. The response must nevertheless be read right away, not
+		 * after the select timeout. */
+		@Test
+		public void testUnixDomainSockets() throws IOException,
+				JSONException, InterruptedException {
+			String prevDir = unixSocketDir;
+			Path dir = Files.createTempDirectory("nio-unix");
+			setUnixSocketDir(dir.toString());
+			SampleNodeConfig<Integer> snc = new SampleNodeConfig<Integer>(
+					23580);
+			snc.localSetup(2);
+			Echo client = new Echo(), server = new Echo();
+			MessageNIOTransport<Integer, JSONObject> niot0 = null, niot1 = null;
+			try {
+				client.niot = niot0 = new MessageNIOTransport<Integer, JSONObject>(
+						0, snc, client, true);
+				server.niot = niot1 = new MessageNIOTransport<Integer, JSONObject>(
+						1, snc, server, true);
+				Assert.assertTrue(Files.exists(getUnixSocketPath(snc
+						.getNodePort(1))));
+
+				for (int seq = 0; seq < 10; seq++) {
+					long t = System.currentTimeMillis();
+					Assert.assertTrue(niot0.sendToID(1, new JSONObject()
+							.put(JSONPacket.PACKET_TYPE, TEST_TYPE)
+							.put("sender", 0).put("seq", seq)) > 0);
+					client.received.putIfAbsent(0,
+							new LinkedBlockingQueue<Integer>());
+					Assert.assertEquals((Integer) seq, client.received.get(0)
+							.poll(SELECT_TIMEOUT, TimeUnit.MILLISECONDS));
+					Assert.assertTrue(System.currentTimeMillis() - t < SELECT_TIMEOUT / 2);
+				}
+				// the connection is carried over the UNIX socket
+				Assert.assertFalse(unixChannels.isEmpty());
+			} finally {
+				setUnixSocketDir(prevDir);
+				if (niot0 != null)
+					niot0.stop();
+				if (niot1 != null)
+					niot1.stop();
+				client.stop();
+				server.stop();
+			}
+		}
+
+		private static JSONObject streamMessage(int sender, int seq)
+				throws JSONException {
+			return new JSONObject().put(JSONPacket.PACKET_TYPE, TEST_TYPE)
+					.put("sender", sender).put("seq", seq)
+					.put("payload", "repetitive payload " + seq % 4);
+		}
+
+		private static void assertReceived(Receiver receiver, int sender,
+				int from, int to) throws InterruptedException {
+			receiver.received.putIfAbsent(sender,
+					new LinkedBlockingQueue<Integer>());
+			for (int seq = from; seq < to; seq++)
+				Assert.assertEquals((Integer) seq, receiver.received
+						.get(sender).poll(10, TimeUnit.SECONDS));
+		}
+
+		/* A new connection to the same destination must start with a fresh
+		 * deflate context that the receiver's fresh inflate context can read. */
+		@Test
+		public void testStreamCompressionResetOnReconnect()
+				throws IOException, JSONException, InterruptedException {
+			setStreamCompression(true);
+			SampleNodeConfig<Integer> snc = new SampleNodeConfig<Integer>(
+					23590);
+			snc.localSetup(2);
+			Receiver r0 = new Receiver(), r1 = new Receiver();
+			MessageNIOTransport<Integer, JSONObject> niot0 = null, niot1 = null;
+			try {
+				niot0 = new MessageNIOTransport<Integer, JSONObject>(0, snc,
+						r0, true);
+				niot1 = new MessageNIOTransport<Integer, JSONObject>(1, snc,
+						r1, true);
+				NIOTransport<Integer> sender = niot0;
+				sender.setMinInterConnectTime(0);
+				InetSocketAddress isa = new InetSocketAddress(
+						snc.getNodeAddress(1), snc.getNodePort(1));
+
+				for (int seq = 0; seq < 100; seq++)
+					Assert.assertTrue(niot0.sendToID(1, streamMessage(0, seq)) > 0);
+				assertReceived(r1, 0, 0, 100);
+				SocketChannel first = sender.getSockAddrToSockChannel(isa);
+				Assert.assertSame(first, sender.streamDeflaters.get(isa).channel);
+
+				// the next send reconnects and resets the deflate context
+				cleanup(first.keyFor(sender.reactorFor(isa).selector), first);
+				for (int seq = 100; seq < 200; seq++)
+					Assert.assertTrue(niot0.sendToID(1, streamMessage(0, seq)) > 0);
+				assertReceived(r1, 0, 100, 200);
+				SocketChannel second = sender.getSockAddrToSockChannel(isa);
+				Assert.assertNotSame(first, second);
+				Assert.assertSame(second, sender.streamDeflaters.get(isa).channel);
+			} finally {
+				setStreamCompression(false);
+				if (niot0 != null)
+					niot0.stop();
+				if (niot1 != null)
+					niot1.stop();
+				r0.stop();
+				r1.stop();
+			}
+		}
+
+		/* Receivers inflate stream-compressed frames irrespective of their own
+		 * setting, so compressed and plain frames may be interleaved on the
+		 * same connection, and nodes may disagree on the setting. */
+		@Test
+		public void testStreamCompressionMixedSettings() throws IOException,
+				JSONException, InterruptedException {
+			SampleNodeConfig<Integer> snc = new SampleNodeConfig<Integer>(
+					23600);
+			snc.localSetup(2);
+			Receiver r0 = new Receiver(), r1 = new Receiver();
+			MessageNIOTransport<Integer, JSONObject> niot0 = null, niot1 = null;
+			try {
+				niot0 = new MessageNIOTransport<Integer, JSONObject>(0, snc,
+						r0, true);
+				niot1 = new MessageNIOTransport<Integer, JSONObject>(1, snc,
+						r1, true);
+				for (int seq = 0; seq < 300; seq++) {
+					// node 0 compresses two of three messages, node 1 none
+					setStreamCompression(seq % 3 != 0);
+					Assert.assertTrue(niot0.sendToID(1, streamMessage(0, seq)) > 0);
+					setStreamCompression(false);
+					Assert.assertTrue(niot1.sendToID(0, streamMessage(1, seq)) > 0);
+				}
+				// too large to be stream-compressed, so sent plain in between
+				setStreamCompression(true);
+				char[] large = new char[MAX_PAYLOAD_SIZE / 2];
+				Arrays.fill(large, 'x');
+				Assert.assertTrue(niot0.sendToID(1, streamMessage(0, 300).put(
+						"payload", new String(large))) > 0);
+				Assert.assertTrue(niot0.sendToID(1, streamMessage(0, 301)) > 0);
+
+				assertReceived(r1, 0, 0, 302);
+				assertReceived(r0, 1, 0, 300);
+				Assert.assertFalse(((NIOTransport<Integer>) niot0).streamDeflaters
+						.isEmpty());
+				Assert.assertTrue(((NIOTransport<Integer>) niot1).streamDeflaters
+						.isEmpty());
+			} finally {
+				setStreamCompression(false);
+				if (niot0 != null)
+					niot0.stop();
+				if (niot1 != null)
+					niot1.stop();
+				r0.stop();
+				r1.stop();
+			}
+		}
+
+		/* Failure detection pings must get through to a destination that is
+		 * connected but not keeping up, while other sends to it are refused. */
+		@Test
+		public void testUrgentSendsBypassBudget() throws IOException,
+				JSONException, InterruptedException {
+			setMaxQueuedBytes(1024 * 1024);
+			setMaxQueuedBytesPerDestination(256 * 1024);
+			SampleNodeConfig<Integer> snc = new SampleNodeConfig<Integer>(
+					23610);
+			snc.localSetup(2);
+			// accepts connections but never reads
+			InetSocketAddress isa = new InetSocketAddress(
+					snc.getNodeAddress(1), snc.getNodePort(1));
+			ServerSocketChannel stalled = ServerSocketChannel.open();
+			stalled.bind(isa);
+			Receiver receiver = new Receiver();
+			MessageNIOTransport<Integer, JSONObject> niot = null;
+			try {
+				niot = new MessageNIOTransport<Integer, JSONObject>(0, snc,
+						receiver, true);
+				byte[] large = new byte[64 * 1024], ping = new byte[64];
+				Assert.assertTrue(niot.sendToID(1, large) > 0);
+				// refusals of connected destinations return 0, not -1
+				for (int i = 0; i < 100
+						&& !((NIOTransport<Integer>) niot).isConnected(isa); i++)
+					Thread.sleep(10);
+
+				// fill up the socket buffers and then the send queue
+				int sent;
+				while ((sent = niot.sendToID(1, large)) > 0)
+					;
+				Assert.assertEquals(0, sent);
+				while ((sent = niot.sendToID(1, ping)) > 0)
+					;
+				Assert.assertEquals(0, sent);
+
+				for (int i = 0; i < 100; i++)
+					Assert.assertEquals(ping.length,
+							niot.sendUrgentToID(1, ping));
+				// and everything else is still refused
+				Assert.assertTrue(niot.isCongested(1));
+				Assert.assertEquals(0, niot.sendToID(1, ping));
+			} finally {
+				setMaxQueuedBytes(MAX_QUEUED_BYTES);
+				setMaxQueuedBytesPerDestination(MAX_QUEUED_BYTES_PER_DESTINATION);
+				if (niot != null)
+					niot.stop();
+				receiver.stop();
+				stalled.close();
+			}
+		}
+
+		// connected channel whose remote end is drained by a counting thread
+		private static SocketChannel drained(ServerSocketChannel server,
+				final AtomicLong received) throws IOException {
+			SocketChannel channel = SocketChannel.open(server
+					.getLocalAddress());
+			channel.socket().setSendBufferSize(4 * 1024 * 1024);
+			channel.configureBlocking(false);
+			final SocketChannel remote = server.accept();
+			new Thread() {
+				public void run() {
+					ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+					try {
+						for (int n; (n = remote.read(buf)) >= 0; buf.clear())
+							received.addAndGet(n);
+					} catch (IOException e) {
+						// closed
+					}
+				}
+			}.start();
+			return channel;
+		}
+
+		private static void awaitReceived(AtomicLong received, long bytes)
+				throws InterruptedException {
+			for (int i = 0; i < 1000 && received.get() < bytes; i++)
+				Thread.sleep(10);
+			Assert.assertEquals(bytes, received.get());
+		}
+
+		/* Destinations that are both backlogged get the same number of bytes
+		 * per write round no matter how large their messages are. */
+		@Test
+		public void testByteQuantumFairness() throws IOException,
+				InterruptedException {
+			SampleNodeConfig<Integer> snc = new SampleNodeConfig<Integer>(
+					23620);
+			snc.localSetup(1);
+			Receiver receiver = new Receiver();
+			MessageNIOTransport<Integer, JSONObject> niot = null;
+			ServerSocketChannel server = ServerSocketChannel.open();
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+					0));
+			AtomicLong toLarge = new AtomicLong(), toSmall = new AtomicLong();
+			SocketChannel large = null, small = null;
+			try {
+				niot = new MessageNIOTransport<Integer, JSONObject>(0, snc,
+						receiver, true);
+				NIOTransport<Integer> transport = niot;
+				large = drained(server, toLarge);
+				small = drained(server, toSmall);
+
+				// backlogs of large and of small frames
+				NIOTransport<Integer>.SendQueue largeQueue = transport.new SendQueue(), smallQueue = transport.new SendQueue();
+				long largeBytes = 0, smallBytes = 0;
+				for (int i = 0; i < 16; i++) {
+					largeQueue.add(new ByteBuffer[] { getHeader(100 * 1000),
+							ByteBuffer.allocate(100 * 1000) });
+					largeBytes += HEADER_SIZE + 100 * 1000;
+				}
+				for (int i = 0; i < 8000; i++) {
+					smallQueue.add(new ByteBuffer[] { getHeader(100),
+							ByteBuffer.allocate(100) });
+					smallBytes += HEADER_SIZE + 100;
+				}
+
+				ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHER];
+				long sentLarge = 0, sentSmall = 0;
+				while (sentSmall + WRITE_BUFFER_SIZE <= smallBytes) {
+					Assert.assertEquals(WRITE_BUFFER_SIZE, transport
+							.sendGathered(largeQueue, large, gatherBuffers));
+					Assert.assertEquals(WRITE_BUFFER_SIZE, transport
+							.sendGathered(smallQueue, small, gatherBuffers));
+					sentLarge += WRITE_BUFFER_SIZE;
+					sentSmall += WRITE_BUFFER_SIZE;
+					// so that the sockets have room for the next round
+					awaitReceived(toLarge, sentLarge);
+					awaitReceived(toSmall, sentSmall);
+				}
+
+				// the rest goes out in order and in full
+				while (!largeQueue.isEmpty() || !smallQueue.isEmpty()) {
+					sentLarge += transport.sendGathered(largeQueue, large,
+							gatherBuffers);
+					sentSmall += transport.sendGathered(smallQueue, small,
+							gatherBuffers);
+					awaitReceived(toLarge, sentLarge);
+					awaitReceived(toSmall, sentSmall);
+				}
+				Assert.assertEquals(largeBytes, sentLarge);
+				Assert.assertEquals(smallBytes, sentSmall);
+				Assert.assertEquals(0, largeQueue.getBytes()
+						+ smallQueue.getBytes());
+			} finally {
+				if (large != null)
+					large.close();
+				if (small != null)
+					small.close();
+				server.close();
+				if (niot != null)
+					niot.stop();
+				receiver.stop();
+			}
+		}
+
+		private static ByteBuffer[] message(int length) {
+			return new ByteBuffer[] { getHeader(length),
+					ByteBuffer.allocate(length) };
+		}
+
+		private static void dropQueue(NIOTransport<Integer> transport,
+				InetSocketAddress isa) {
+			Map<InetSocketAddress, NIOTransport<Integer>.SendQueue> sendQueues = transport
+					.reactorFor(isa).sendQueues;
+			synchronized (sendQueues) {
+				NIOTransport<Integer>.SendQueue sendQueue = sendQueues
+						.remove(isa);
+				if (sendQueue != null)
+					sendQueue.drop();
+			}
+		}
+
+		/* The send queue bound counts messages, not buffers, and a message
+		 * cut short by a full socket is dropped as a whole upon reconnecting,
+		 * never just its header or part of its payload. */
+		@Test
+		public void testPartialWritesAndMessageBound() throws IOException,
+				InterruptedException {
+			SampleNodeConfig<Integer> snc = new SampleNodeConfig<Integer>(
+					23640);
+			snc.localSetup(1);
+			Receiver receiver = new Receiver();
+			MessageNIOTransport<Integer, JSONObject> niot = null;
+			ServerSocketChannel server = ServerSocketChannel.open();
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+					0));
+			// never connected, so nothing gets sent to it
+			InetSocketAddress isa = new InetSocketAddress(
+					InetAddress.getLoopbackAddress(), 23649);
+			SocketChannel stalled = null;
+			try {
+				niot = new MessageNIOTransport<Integer, JSONObject>(0, snc,
+						receiver, true);
+				NIOTransport<Integer> transport = niot;
+				transport.setMaxQueuedSends(4);
+				for (int i = 0; i < 4; i++)
+					Assert.assertTrue(transport.enqueueSend(isa, false,
+							message(10)) > 0);
+				Assert.assertEquals(4, transport.reactorFor(isa).sendQueues
+						.get(isa).size());
+				Assert.assertFalse(transport.canEnqueueSend(isa, 1));
+				Assert.assertEquals(-1,
+						transport.enqueueSend(isa, false, message(10)));
+				dropQueue(transport, isa);
+
+				// write to a remote end that never reads until the socket fills
+				stalled = SocketChannel.open(server.getLocalAddress());
+				stalled.configureBlocking(false);
+				NIOTransport<Integer>.SendQueue sendQueue = transport.new SendQueue();
+				for (int i = 0; i < 256; i++)
+					sendQueue.add(message(64 * 1024 - HEADER_SIZE));
+				ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHER];
+				while (transport.sendGathered(sendQueue, stalled,
+						gatherBuffers) > 0)
+					;
+				int queued = sendQueue.size();
+				Assert.assertTrue(queued > 0 && queued < 256);
+				// a partly sent message is at the head along with its header
+				boolean partial = sendQueue.peek()[0].position() > 0;
+				Assert.assertEquals(partial, sendQueue.peek()[0].position()
+						+ sendQueue.peek()[1].position() > 0);
+
+				synchronized (transport.reactorFor(isa).sendQueues) {
+					transport.reactorFor(isa).sendQueues.put(isa, sendQueue);
+				}
+				transport.removePartialBuffers(isa);
+				Assert.assertEquals(partial ? queued - 1 : queued,
+						sendQueue.size());
+				Assert.assertEquals(0, sendQueue.peek()[0].position());
+				Assert.assertEquals(sendQueue.size() * 64 * 1024,
+						sendQueue.getBytes());
+				dropQueue(transport, isa);
+			} finally {
+				if (stalled != null)
+					stalled.close();
+				server.close();
+				if (niot != null) {
+					((NIOTransport<Integer>) niot)
+							.setMaxQueuedSends(MAX_QUEUED_SENDS);
+					niot.stop();
+				}
+				receiver.stop();
+			}
+		}
+
+		private static ByteBuffer[] message(JSONObject json)
+				throws UnsupportedEncodingException {
+			byte[] bytes = json.toString().getBytes(
+					MessageNIOTransport.NIO_CHARSET_ENCODING);
+			return new ByteBuffer[] { getHeader(bytes.length),
+					ByteBuffer.wrap(bytes) };
+		}
+
+		/* Messages still queued when a connection breaks go out in order on
+		 * the next connection, except for one that was partly written to the
+		 * broken connection, e.g., its header and part of its payload. */
+		@Test
+		public void testReconnectWithQueuedMessages() throws IOException,
+				JSONException, InterruptedException {
+			SampleNodeConfig<Integer> snc = new SampleNodeConfig<Integer>(
+					23630);
+			snc.localSetup(2);
+			Receiver r0 = new Receiver(), r1 = new Receiver();
+			MessageNIOTransport<Integer, JSONObject> niot0 = null, niot1 = null;
+			try {
+				niot0 = new MessageNIOTransport<Integer, JSONObject>(0, snc,
+						r0, true);
+				niot1 = new MessageNIOTransport<Integer, JSONObject>(1, snc,
+						r1, true);
+				NIOTransport<Integer> sender = niot0;
+				sender.setMinInterConnectTime(0);
+				InetSocketAddress isa = new InetSocketAddress(
+						snc.getNodeAddress(1), snc.getNodePort(1));
+				Assert.assertTrue(niot0.sendToID(1, streamMessage(0, 0)) > 0);
+				assertReceived(r1, 0, 0, 1);
+
+				SocketChannel first = sender.getSockAddrToSockChannel(isa);
+				cleanup(first.keyFor(sender.reactorFor(isa).selector), first);
+				Map<InetSocketAddress, NIOTransport<Integer>.SendQueue> sendQueues = sender
+						.reactorFor(isa).sendQueues;
+				synchronized (sendQueues) {
+					NIOTransport<Integer>.SendQueue sendQueue = sender.new SendQueue();
+					ByteBuffer[] partial = message(streamMessage(0, 1));
+					partial[0].position(HEADER_SIZE);
+					partial[1].position(partial[1].limit() / 2);
+					sendQueue.add(partial);
+					for (int seq = 2; seq < 10; seq++)
+						sendQueue.add(message(streamMessage(0, seq)));
+					sendQueues.put(isa, sendQueue);
+				}
+
+				// reconnects and flushes the queue ahead of this message
+				Assert.assertTrue(niot0.sendToID(1, streamMessage(0, 10)) > 0);
+				assertReceived(r1, 0, 2, 11);
+				Assert.assertNotSame(first,
+						sender.getSockAddrToSockChannel(isa));
+			} finally {
+				if (niot0 != null)
+					niot0.stop();
+				if (niot1 != null)
+					niot1.stop();
+				r0.stop();
+				r1.stop();
+			}
+		}
+
+		/* Frames split across reads at every awkward point, i.e., within the
+		 * header, between the header and the body, within the body, and with
+		 * the next frame's header trailing a body, are reassembled intact with
+		 * chunked reads enabled or not. */
+		@Test
+		public void testFramesSplitAcrossReads() throws IOException,
+				JSONException, InterruptedException {
+			boolean prev = getReadChunked();
+			SampleNodeConfig<Integer> snc = new SampleNodeConfig<Integer>(
+					23650);
+			snc.localSetup(1);
+			Receiver receiver = new Receiver();
+			MessageNIOTransport<Integer, JSONObject> niot = null;
+			SocketChannel channel = null;
+			try {
+				niot = new MessageNIOTransport<Integer, JSONObject>(0, snc,
+						receiver, true);
+				int seq = 0;
+				for (boolean chunked : new boolean[] { true, false }) {
+					setReadChunked(chunked);
+					channel = SocketChannel.open(new InetSocketAddress(
+							snc.getNodeAddress(0), snc.getNodePort(0)));
+					channel.socket().setTcpNoDelay(true);
+					ByteBuffer stream = ByteBuffer.allocate(64 * 1024);
+					int[] cuts = new int[4];
+					for (int i = 0; i < cuts.length; i++) {
+						for (ByteBuffer buf : message(streamMessage(1, seq + i)))
+							stream.put(buf);
+						cuts[i] = stream.position();
+					}
+					stream.flip();
+					int first = cuts[0], second = cuts[1] - first;
+					// cut points relative to the start of the stream
+					int[] splits = { HEADER_SIZE / 2, HEADER_SIZE,
+							HEADER_SIZE + (first - HEADER_SIZE) / 2,
+							first + HEADER_SIZE / 2,
+							first + HEADER_SIZE + second / 2,
+							cuts[2] + 1, cuts[3] };
+					for (int split : splits) {
+						ByteBuffer piece = stream.duplicate();
+						piece.limit(split);
+						while (piece.hasRemaining())
+							channel.write(piece);
+						stream.position(split);
+						// give the receiver a chance to read each piece alone
+						Thread.sleep(50);
+					}
+					assertReceived(receiver, 1, seq, seq + cuts.length);
+					seq += cuts.length;
+					channel.close();
+				}
+			} finally {
+				setReadChunked(prev);
+				if (channel != null)
+					channel.close();
+				if (niot != null)
+					niot.stop();
+				receiver.stop();
+			}
+		}
+	}
 }
@@ -101,11 +101,30 @@ public interface InterfaceNIOTransport<NodeIDType,MessageType> extends AddressMe
 	public int sendToAddress(InetSocketAddress isa, byte[] msg)
 			throws IOException;
 
+	/**
+	 * Like {@link #sendToID(Object, byte[])} but never refused because of
+	 * congestion while {@code id} is connected. Meant only for small,
+	 * rate-limited control messages like failure detection pings.
+	 * 
+	 * @param id
+	 * @param msg
+	 * @return Number of bytes written.
+	 * @throws IOException
+	 */
+	public int sendUrgentToID(NodeIDType id, byte[] msg) throws IOException;
+
 	/**
 	 * @param node
 	 * @return Whether {@code node} got disconnected.
 	 */
 	public boolean isDisconnected(NodeIDType node);
+
+	/**
+	 * @param node
+	 * @return Whether sends to {@code node} are currently being refused for
+	 *         lack of room in its send queue.
+	 */
+	public boolean isCongested(NodeIDType node);
 	
 	/**
 	 * @return Local socket address.
@@ -0,0 +1,137 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.nio.nioutils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         A pool of heap byte buffers in power-of-two size classes. A buffer
+ *         obtained using {@link #get(int)} has its limit set to the requested
+ *         size and can be returned to the pool using
+ *         {@link #release(ByteBuffer)} once the caller is done with it. Sizes
+ *         above the largest class are simply allocated and never pooled. Each
+ *         class holds at most a fixed number of free buffers, so the pool
+ *         never holds on to more than what a burst of concurrent users
+ *         released.
+ */
+public class ByteBufferPool {
+
+	private static final int MIN_CLASS_BITS = 8;
+
+	private final int maxClassSize;
+	private final List<ArrayBlockingQueue<ByteBuffer>> classes;
+
+	/**
+	 * @param maxClassSize
+	 *            Largest pooled buffer size, rounded up to a power of two.
+	 * @param maxPerClass
+	 *            Maximum number of free buffers held per size class.
+	 */
+	public ByteBufferPool(int maxClassSize, int maxPerClass) {
+		int numClasses = Math.max(1, bits(maxClassSize) - MIN_CLASS_BITS + 1);
+		this.maxClassSize = 1 << (MIN_CLASS_BITS + numClasses - 1);
+		this.classes = new ArrayList<ArrayBlockingQueue<ByteBuffer>>(
+				numClasses);
+		for (int i = 0; i < numClasses; i++)
+			this.classes.add(new ArrayBlockingQueue<ByteBuffer>(maxPerClass));
+	}
+
+	/**
+	 * @param size
+	 * @return A buffer with position 0 and limit {@code size}.
+	 */
+	public ByteBuffer get(int size) {
+		if (size > this.maxClassSize)
+			return ByteBuffer.allocate(size);
+		int index = index(size);
+		ByteBuffer buf = this.classes.get(index).poll();
+		if (buf == null)
+			buf = ByteBuffer.allocate(1 << (MIN_CLASS_BITS + index));
+		buf.clear().limit(size);
+		return buf;
+	}
+
+	/**
+	 * @param buf
+	 *            A buffer that the caller will no longer use. Buffers not
+	 *            obtained from a pool are ignored.
+	 */
+	public void release(ByteBuffer buf) {
+		int capacity = buf.capacity();
+		if (capacity > this.maxClassSize || !buf.hasArray()
+				|| capacity != 1 << (MIN_CLASS_BITS + index(capacity)))
+			return;
+		this.classes.get(index(capacity)).offer(buf);
+	}
+
+	/**
+	 * @param size
+	 * @return Number of free buffers of {@code size}'s class.
+	 */
+	public int getFree(int size) {
+		return size > this.maxClassSize ? 0 : this.classes.get(index(size))
+				.size();
+	}
+
+	private static int index(int size) {
+		return Math.max(0, bits(size) - MIN_CLASS_BITS);
+	}
+
+	// number of bits needed to represent size-1, i.e., ceil(log2(size))
+	private static int bits(int size) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1);
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class ByteBufferPoolTest extends DefaultTest {
+		@Test
+		public void testGetRelease() {
+			ByteBufferPool pool = new ByteBufferPool(4096, 2);
+			ByteBuffer buf = pool.get(300);
+			Assert.assertEquals(512, buf.capacity());
+			Assert.assertEquals(300, buf.limit());
+			Assert.assertEquals(256, pool.get(1).capacity());
+			Assert.assertEquals(256, pool.get(256).capacity());
+
+			pool.release(buf);
+			Assert.assertEquals(1, pool.getFree(300));
+			Assert.assertSame(buf, pool.get(400));
+			Assert.assertEquals(400, buf.limit());
+
+			// bounded per class
+			pool.release(ByteBuffer.allocate(512));
+			pool.release(ByteBuffer.allocate(512));
+			pool.release(ByteBuffer.allocate(512));
+			Assert.assertEquals(2, pool.getFree(512));
+
+			// odd sizes and sizes above the largest class are not pooled
+			pool.release(ByteBuffer.allocate(300));
+			Assert.assertEquals(8192, pool.get(8192).capacity());
+			pool.release(ByteBuffer.allocate(8192));
+			Assert.assertEquals(0, pool.getFree(8192));
+		}
+	}
+}
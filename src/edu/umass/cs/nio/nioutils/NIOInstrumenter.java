@@ -46,6 +46,9 @@ public class NIOInstrumenter {
 	private static int totalEncrBytesSent = 0;
 	private static int totalEncrBytesRcvd = 0;
 
+	private static long totalBytesCompressed = 0;
+	private static long totalCompressedBytes = 0;
+
 	private static int totalConnAccepted = 0;
 	private static int totalConnInitiated = 0;
 	private static int totalJSONRcvd = 0;
@@ -153,6 +156,21 @@ public class NIOInstrumenter {
 		return totalEncrBytesRcvd;
 	}
 
+	/**
+	 * @param plain
+	 *            Bytes before stream compression.
+	 * @param compressed
+	 *            Bytes after stream compression.
+	 */
+	public static void incrBytesCompressed(int plain, int compressed) {
+		if (enabled)
+			synchronized (NIOInstrumenter.class) {
+				lastUpdated = System.currentTimeMillis();
+				totalBytesCompressed += plain;
+				totalCompressedBytes += compressed;
+			}
+	}
+
 	/**
 	 * 
 	 */
@@ -274,7 +292,10 @@ public class NIOInstrumenter {
 						+ totalRcvd + " | bytesSent=" + totalBytesSent
 						+ " | bytesRcvd=" + totalBytesRcvd
 						+ " | totalEncrBytesSent=" + totalEncrBytesSent
-						+ " | totalEncrBytesRcvd=" + totalEncrBytesRcvd + "]]";
+						+ " | totalEncrBytesRcvd=" + totalEncrBytesRcvd
+						+ " | totalBytesCompressed=" + totalBytesCompressed
+						+ " | totalCompressedBytes=" + totalCompressedBytes
+						+ "]]";
 			}
 		return null;
 	}
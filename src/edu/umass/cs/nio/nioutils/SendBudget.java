@@ -0,0 +1,155 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.nio.nioutils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         Byte accounting for data queued for sending to many destinations.
+ *         The bytes queued across all destinations are bounded by a global
+ *         budget and those queued for each destination by a per-destination
+ *         limit. A destination may moreover hold at most its fair share of the
+ *         budget, i.e., the budget divided by one more than the number of
+ *         destinations with queued bytes, so that destinations that are not
+ *         keeping up can never use up the room of the others. A destination
+ *         with nothing queued is always admitted so that any single message
+ *         can go out.
+ */
+public class SendBudget {
+
+	private final long maxBytes;
+	private final long maxBytesPerDestination;
+
+	private final AtomicLong total = new AtomicLong();
+	// destinations with queued bytes
+	private final AtomicInteger backlogged = new AtomicInteger();
+
+	/**
+	 * @param maxBytes
+	 *            Global budget.
+	 * @param maxBytesPerDestination
+	 *            Limit for each destination.
+	 */
+	public SendBudget(long maxBytes, long maxBytesPerDestination) {
+		this.maxBytes = maxBytes;
+		this.maxBytesPerDestination = maxBytesPerDestination;
+	}
+
+	/**
+	 * @param queued
+	 *            Bytes queued for the destination.
+	 * @param bytes
+	 * @return True if {@code bytes} more may be queued for the destination.
+	 */
+	public boolean hasRoom(long queued, long bytes) {
+		if (queued <= 0)
+			return true;
+		long after = queued + bytes;
+		return after <= this.maxBytesPerDestination
+				&& after <= this.maxBytes / (this.backlogged.get() + 1)
+				&& this.total.get() + bytes <= this.maxBytes;
+	}
+
+	/**
+	 * Accounts for {@code delta} bytes added to, or if negative removed from,
+	 * a destination's queue. Callers must pass the value of the destination's
+	 * own counter right before it changed, e.g., as returned by
+	 * {@link AtomicLong#getAndAdd(long)}, so that concurrent changes are
+	 * accounted exactly once.
+	 *
+	 * @param before
+	 *            Bytes queued for the destination before the change.
+	 * @param delta
+	 */
+	public void charge(long before, long delta) {
+		long after = before + delta;
+		this.total.addAndGet(delta);
+		if (before <= 0 && after > 0)
+			this.backlogged.incrementAndGet();
+		else if (before > 0 && after <= 0)
+			this.backlogged.decrementAndGet();
+	}
+
+	/**
+	 * @return Bytes queued across all destinations.
+	 */
+	public long getTotal() {
+		return this.total.get();
+	}
+
+	/**
+	 * @return Number of destinations with queued bytes.
+	 */
+	public int getBacklogged() {
+		return this.backlogged.get();
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class SendBudgetTest extends DefaultTest {
+		@Test
+		public void testFairShare() {
+			SendBudget budget = new SendBudget(1200, 500);
+			// an empty queue is always admitted, even beyond the limits
+			Assert.assertTrue(budget.hasRoom(0, 2000));
+
+			// one slow destination gets at most half of the budget
+			budget.charge(0, 100);
+			Assert.assertEquals(1, budget.getBacklogged());
+			Assert.assertTrue(budget.hasRoom(100, 400));
+			Assert.assertFalse(budget.hasRoom(100, 401));
+			budget.charge(100, 400);
+			Assert.assertFalse(budget.hasRoom(500, 100));
+
+			// a second one shrinks the share to a third
+			budget.charge(0, 300);
+			Assert.assertEquals(2, budget.getBacklogged());
+			Assert.assertTrue(budget.hasRoom(300, 100));
+			Assert.assertFalse(budget.hasRoom(300, 101));
+			Assert.assertEquals(800, budget.getTotal());
+
+			// draining a queue gives back its share
+			budget.charge(500, -500);
+			Assert.assertEquals(1, budget.getBacklogged());
+			Assert.assertTrue(budget.hasRoom(300, 200));
+			Assert.assertEquals(300, budget.getTotal());
+		}
+
+		@Test
+		public void testLimits() {
+			SendBudget budget = new SendBudget(1000, 200);
+			budget.charge(0, 150);
+			// per-destination limit below the fair share
+			Assert.assertTrue(budget.hasRoom(150, 50));
+			Assert.assertFalse(budget.hasRoom(150, 51));
+			// global budget
+			budget.charge(0, 150);
+			budget.charge(0, 150);
+			budget.charge(0, 150);
+			budget.charge(0, 150);
+			budget.charge(0, 150);
+			Assert.assertEquals(900, budget.getTotal());
+			Assert.assertFalse(budget.hasRoom(1, 101));
+		}
+	}
+}
@@ -37,6 +37,7 @@ import edu.umass.cs.gigapaxos.interfaces.Replicable;
 import edu.umass.cs.nio.AbstractPacketDemultiplexer;
 import edu.umass.cs.nio.JSONMessenger;
 import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.nio.NIOTransport;
 import edu.umass.cs.nio.interfaces.IntegerPacketType;
 import edu.umass.cs.nio.nioutils.NIOInstrumenter;
 import edu.umass.cs.reconfiguration.interfaces.ReconfigurableNodeConfig;
@@ -287,6 +288,17 @@ public abstract class ReconfigurableNode<NodeIDType> {
 		InetSocketAddress isa = new InetSocketAddress(
 				nodeConfig.getNodeAddress(myID), nodeConfig.getNodePort(myID));
 		// else we have something to start
+		NIOTransport.setNumReactors(Config.getGlobalInt(PC.NIO_REACTORS));
+		NIOTransport.setUnixSocketDir(Config
+				.getGlobalString(PC.NIO_UNIX_SOCKET_DIR));
+		NIOTransport.setStreamCompression(Config
+				.getGlobalBoolean(PC.NIO_STREAM_COMPRESSION));
+		NIOTransport.setReadChunked(Config
+				.getGlobalBoolean(PC.NIO_READ_CHUNKED));
+		NIOTransport.setMaxQueuedBytes(Config
+				.getGlobalLong(PC.NIO_MAX_QUEUED_BYTES));
+		NIOTransport.setMaxQueuedBytesPerDestination(Config
+				.getGlobalLong(PC.NIO_MAX_QUEUED_BYTES_PER_DESTINATION));
 		messenger = (new JSONMessenger<NodeIDType>(
 				(niot = new MessageNIOTransport<NodeIDType, JSONObject>(
 						ReconfigurableNode.this.myID,
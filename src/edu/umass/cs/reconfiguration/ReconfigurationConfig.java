@@ -439,6 +439,20 @@ public class ReconfigurationConfig {
 		 */
 		REPLICA_COORDINATOR_CLASS("edu.umass.cs.reconfiguration.PaxosReplicaCoordinator"),
 
+		/**
+		 * If true and {@link edu.umass.cs.gigapaxos.PaxosConfig.PC#BYTEIFICATION}
+		 * is enabled, reconfiguration packets are sent using the binary
+		 * encoding in
+		 * {@link edu.umass.cs.reconfiguration.reconfigurationpackets.ReconfigurationPacketCodec}
+		 * instead of JSON. Only packets exchanged between servers are so
+		 * encoded; packets to or from clients are always JSON. Receivers
+		 * accept both encodings regardless of this option, and a server that
+		 * receives a packet encoded by a different code version reverts to
+		 * JSON, but this option should be enabled only when all servers
+		 * run the same code version.
+		 */
+		BINARY_RECONFIGURATION_PACKETS(false),
+
 		;
 
 		final Object defaultValue;
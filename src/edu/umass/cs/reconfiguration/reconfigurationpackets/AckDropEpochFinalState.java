@@ -17,6 +17,8 @@
  */
 package edu.umass.cs.reconfiguration.reconfigurationpackets;
 
+import java.nio.ByteBuffer;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -48,6 +50,9 @@ public class AckDropEpochFinalState<NodeIDType> extends BasicReconfigurationPack
 	public AckDropEpochFinalState(JSONObject json, Stringifiable<NodeIDType> unstringer) throws JSONException {
 		super(json, unstringer);
 	}
+	AckDropEpochFinalState(ByteBuffer bbuf, Stringifiable<NodeIDType> unstringer) {
+		super(bbuf, unstringer, ReconfigurationPacket.PacketType.ACK_DROP_EPOCH_FINAL_STATE);
+	}
 	
 	@Override
 	public IntegerPacketType getRequestType() {
@@ -17,6 +17,8 @@
  */
 package edu.umass.cs.reconfiguration.reconfigurationpackets;
 
+import java.nio.ByteBuffer;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -49,6 +51,9 @@ public class AckStartEpoch<NodeIDType> extends BasicReconfigurationPacket<NodeID
 	public AckStartEpoch(JSONObject json, Stringifiable<NodeIDType> unstringer) throws JSONException {
 		super(json, unstringer);
 	}
+	AckStartEpoch(ByteBuffer bbuf, Stringifiable<NodeIDType> unstringer) {
+		super(bbuf, unstringer, ReconfigurationPacket.PacketType.ACK_START_EPOCH);
+	}
 
 	@Override
 	public IntegerPacketType getRequestType() {
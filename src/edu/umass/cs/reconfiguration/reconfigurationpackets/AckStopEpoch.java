@@ -17,6 +17,8 @@
  */
 package edu.umass.cs.reconfiguration.reconfigurationpackets;
 
+import java.nio.ByteBuffer;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -71,6 +73,17 @@ public class AckStopEpoch<NodeIDType> extends
 		this.finalState = json.has(Keys.FINAL_STATE.toString()) ? json.getString(Keys.FINAL_STATE.toString()) : null;
 	}
 
+	AckStopEpoch(ByteBuffer bbuf, Stringifiable<NodeIDType> unstringer) {
+		super(bbuf, unstringer, ReconfigurationPacket.PacketType.ACK_STOP_EPOCH);
+		this.finalState = ReconfigurationPacketCodec.getString(bbuf);
+	}
+
+	@Override
+	void putBytes(ReconfigurationPacketCodec.Writer out) {
+		super.putBytes(out);
+		out.putString(this.finalState);
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = super.toJSONObjectImpl();
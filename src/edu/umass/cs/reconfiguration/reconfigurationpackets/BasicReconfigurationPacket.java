@@ -15,6 +15,8 @@
  * Initial developer(s): V. Arun */
 package edu.umass.cs.reconfiguration.reconfigurationpackets;
 
+import java.nio.ByteBuffer;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -76,6 +78,20 @@ public abstract class BasicReconfigurationPacket<NodeIDType> extends
 		this.epochNumber = json.getInt(Keys.EPOCH.toString());
 	}
 
+	BasicReconfigurationPacket(ByteBuffer bbuf,
+			Stringifiable<NodeIDType> unstringer, PacketType t) {
+		super(bbuf, unstringer);
+		this.setType(t);
+		this.serviceName = ReconfigurationPacketCodec.getString(bbuf);
+		this.epochNumber = bbuf.getInt();
+	}
+
+	@Override
+	void putBytes(ReconfigurationPacketCodec.Writer out) {
+		super.putBytes(out);
+		out.putString(this.serviceName).putInt(this.epochNumber);
+	}
+
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = super.toJSONObjectImpl();
 		json.put(Keys.NAME.toString(), this.serviceName);
@@ -17,6 +17,8 @@
  */
 package edu.umass.cs.reconfiguration.reconfigurationpackets;
 
+import java.nio.ByteBuffer;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -81,6 +83,19 @@ public class DemandReport<NodeIDType> extends
 		this.requestID = json.getLong(Keys.QID.toString());
 	}
 
+	DemandReport(ByteBuffer bbuf, Stringifiable<NodeIDType> unstringer)
+			throws JSONException {
+		super(bbuf, unstringer, ReconfigurationPacket.PacketType.DEMAND_REPORT);
+		this.stats = new JSONObject(ReconfigurationPacketCodec.getString(bbuf));
+		this.requestID = bbuf.getLong();
+	}
+
+	@Override
+	void putBytes(ReconfigurationPacketCodec.Writer out) {
+		super.putBytes(out);
+		out.putString(this.stats.toString()).putLong(this.requestID);
+	}
+
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = super.toJSONObjectImpl();
 		json.put(Keys.STATS.toString(), this.stats);
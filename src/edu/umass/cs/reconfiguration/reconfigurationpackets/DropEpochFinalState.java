@@ -17,6 +17,8 @@
  */
 package edu.umass.cs.reconfiguration.reconfigurationpackets;
 
+import java.nio.ByteBuffer;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -62,6 +64,13 @@ public class DropEpochFinalState<NodeIDType> extends
 				.getBoolean(Keys.DELETE_NAME.toString()) : false);
 	}
 
+	// deleteName is not in the JSON form either
+	DropEpochFinalState(ByteBuffer bbuf, Stringifiable<NodeIDType> unstringer) {
+		super(bbuf, unstringer,
+				ReconfigurationPacket.PacketType.DROP_EPOCH_FINAL_STATE);
+		this.deleteName = false;
+	}
+
 	/**
 	 * @return Whether this name is being deleted (as opposed to being
 	 *         reconfigured).
@@ -17,6 +17,8 @@
  */
 package edu.umass.cs.reconfiguration.reconfigurationpackets;
 
+import java.nio.ByteBuffer;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -54,11 +56,21 @@ public class EpochFinalState<NodeIDType> extends BasicReconfigurationPacket<Node
 		super(json, unstringer);
 		this.state = (json.has(Keys.EPOCH_FINAL_STATE.toString()) ? json.getString(Keys.EPOCH_FINAL_STATE.toString()) : null);
 	}
+	EpochFinalState(ByteBuffer bbuf, Stringifiable<NodeIDType> unstringer) {
+		super(bbuf, unstringer, ReconfigurationPacket.PacketType.EPOCH_FINAL_STATE);
+		this.state = ReconfigurationPacketCodec.getString(bbuf);
+	}
 	/**
 	 * @return Epoch final state.
 	 */
 	public String getState() {return this.state;}
 	
+	@Override
+	void putBytes(ReconfigurationPacketCodec.Writer out) {
+		super.putBytes(out);
+		out.putString(this.state);
+	}
+	
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException  {
 		JSONObject json = super.toJSONObjectImpl();
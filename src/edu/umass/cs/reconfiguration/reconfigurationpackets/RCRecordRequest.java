@@ -17,6 +17,8 @@
  */
 package edu.umass.cs.reconfiguration.reconfigurationpackets;
 
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 
 import edu.umass.cs.reconfiguration.ReconfigurationConfig;
@@ -127,6 +129,28 @@ public class RCRecordRequest<NodeIDType> extends
 
 	}
 
+	RCRecordRequest(ByteBuffer bbuf, Stringifiable<NodeIDType> unstringer)
+			throws UnknownHostException {
+		super(bbuf, unstringer,
+				ReconfigurationPacket.PacketType.RC_RECORD_REQUEST);
+		this.reqType = RequestTypes.valueOf(ReconfigurationPacketCodec
+				.getString(bbuf));
+		this.coordType = false;
+		this.startEpoch = ReconfigurationPacketCodec.getBoolean(bbuf) ? new StartEpoch<NodeIDType>(
+				bbuf, unstringer) : null;
+		this.requestID = bbuf.getLong();
+	}
+
+	@Override
+	void putBytes(ReconfigurationPacketCodec.Writer out) {
+		super.putBytes(out);
+		out.putString(this.reqType.toString()).putBoolean(
+				this.startEpoch != null);
+		if (this.startEpoch != null)
+			this.startEpoch.putBytes(out);
+		out.putLong(this.requestID);
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = super.toJSONObjectImpl();
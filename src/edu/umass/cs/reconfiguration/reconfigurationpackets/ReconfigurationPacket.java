@@ -245,6 +245,30 @@ public abstract class ReconfigurationPacket<NodeIDType> extends
 		this.setType(getPacketType(json));
 	}
 
+	/**
+	 * Decodes the fields written by {@link #putBytes}.
+	 * 
+	 * @param bbuf
+	 * @param unstringer
+	 */
+	ReconfigurationPacket(ByteBuffer bbuf, Stringifiable<NodeIDType> unstringer) {
+		super(ReconfigurationPacketCodec.getNode(bbuf, unstringer));
+		this.setSender(ReconfigurationPacketCodec.getNode(bbuf, unstringer));
+		this.setKey(ReconfigurationPacketCodec.getString(bbuf));
+	}
+
+	/**
+	 * Encodes the fields that {@link #toJSONObject()} would. Overridden by
+	 * packets in {@link ReconfigurationPacketCodec#isEncodable(PacketType)}
+	 * that must invoke super first.
+	 * 
+	 * @param out
+	 */
+	void putBytes(ReconfigurationPacketCodec.Writer out) {
+		out.putNode(this.getInitiator()).putNode(this.getSender())
+				.putString(this.getKey());
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
@@ -466,9 +490,12 @@ public abstract class ReconfigurationPacket<NodeIDType> extends
 	private static final String CHARSET = "ISO-8859-1";
 
 	private static final boolean BYTEIFICATION = Config.getGlobalBoolean(PC.BYTEIFICATION);
-	
+
 	@Override
 	public byte[] toBytes() {
+		if (ReconfigurationPacketCodec.isEnabled()
+				&& ReconfigurationPacketCodec.isEncodable(this.getType()))
+			return ReconfigurationPacketCodec.toBytes(this);
 		byte[] body=null;
 		try {
 			body = this.toString().getBytes(CHARSET);
@@ -0,0 +1,458 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.reconfiguration.reconfigurationpackets;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.umass.cs.gigapaxos.PaxosConfig.PC;
+import edu.umass.cs.nio.interfaces.Stringifiable;
+import edu.umass.cs.nio.nioutils.StringifiableDefault;
+import edu.umass.cs.reconfiguration.ReconfigurationConfig;
+import edu.umass.cs.reconfiguration.ReconfigurationConfig.ReconfigureUponActivesChange;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         Binary encoding for reconfiguration packets exchanged only between
+ *         servers. Each such packet writes its fields directly in
+ *         {@link ReconfigurationPacket#putBytes(Writer)} and reads them back
+ *         in the same order in a ByteBuffer constructor, so neither end
+ *         builds a {@link JSONObject}. The encoded form is
+ *
+ *         type(int) | MAGIC(byte) | VERSION(int) | fields
+ *
+ *         so it is distinguishable from the JSON form that follows the type
+ *         with a '{'.
+ *         <p>
+ *
+ *         The encoding is opt-in via
+ *         {@link ReconfigurationConfig.RC#BINARY_RECONFIGURATION_PACKETS}.
+ *         Packets that may be sent to or by clients are always sent as JSON,
+ *         so clients never need to understand this encoding. A packet of a
+ *         different VERSION, i.e., from a node running a different code
+ *         version, is dropped rather than mis-decoded, and the receiving node
+ *         falls back to sending JSON from then on as its peers may not be
+ *         able to decode its packets either. Receivers always accept both
+ *         encodings.
+ */
+public class ReconfigurationPacketCodec {
+
+	private static final byte MAGIC = (byte) 0xB5;
+
+	/**
+	 * Must be incremented upon any change to the fields encoded by any
+	 * packet in {@link #isEncodable(ReconfigurationPacket.PacketType)}.
+	 */
+	private static final int VERSION = 1;
+
+	private static final boolean BINARY = Config
+			.getGlobalBoolean(PC.BYTEIFICATION)
+			&& Config
+					.getGlobalBoolean(ReconfigurationConfig.RC.BINARY_RECONFIGURATION_PACKETS);
+
+	// set upon receiving a packet of a different version
+	private static volatile boolean mismatched = false;
+
+	/**
+	 * @return True if server-to-server reconfiguration packets are to be sent
+	 *         using this encoding.
+	 */
+	public static boolean isEnabled() {
+		return BINARY && !mismatched;
+	}
+
+	/**
+	 * @param type
+	 * @return True if packets of {@code type} are only ever exchanged between
+	 *         servers and can be sent using this encoding.
+	 */
+	public static boolean isEncodable(ReconfigurationPacket.PacketType type) {
+		switch (type) {
+		case STOP_EPOCH:
+		case START_EPOCH:
+		case DROP_EPOCH_FINAL_STATE:
+		case REQUEST_EPOCH_FINAL_STATE:
+		case EPOCH_FINAL_STATE:
+		case DEMAND_REPORT:
+		case ACK_STOP_EPOCH:
+		case ACK_START_EPOCH:
+		case ACK_DROP_EPOCH_FINAL_STATE:
+		case RC_RECORD_REQUEST:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @param bytes
+	 * @return True if {@code bytes} is a binary encoded reconfiguration packet.
+	 *         The type in the first four bytes is assumed to have already been
+	 *         checked by the caller.
+	 */
+	public static boolean isBinary(byte[] bytes) {
+		return bytes.length > Integer.BYTES && bytes[Integer.BYTES] == MAGIC;
+	}
+
+	/**
+	 * @param packet
+	 * @return Binary encoding of {@code packet}.
+	 */
+	public static byte[] toBytes(ReconfigurationPacket<?> packet) {
+		assert (isEncodable(packet.getType())) : packet.getType();
+		Writer out = new Writer(256);
+		out.putInt(packet.getType().getInt());
+		out.put(MAGIC);
+		out.putInt(VERSION);
+		packet.putBytes(out);
+		return out.toBytes();
+	}
+
+	/**
+	 * @param bytes
+	 * @param unstringer
+	 * @return Reconfiguration packet decoded from {@code bytes}.
+	 * @throws JSONException
+	 *             If {@code bytes} were encoded with a different version or
+	 *             are malformed.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static BasicReconfigurationPacket<?> getReconfigurationPacket(
+			byte[] bytes, Stringifiable<?> unstringer) throws JSONException {
+		ByteBuffer bbuf = ByteBuffer.wrap(bytes);
+		ReconfigurationPacket.PacketType type = ReconfigurationPacket.PacketType.intToType
+				.get(bbuf.getInt());
+		if (type == null || !isEncodable(type) || bbuf.get() != MAGIC)
+			throw new JSONException("Not a binary reconfiguration packet");
+		int version = bbuf.getInt();
+		if (version != VERSION) {
+			if (!mismatched)
+				ReconfigurationConfig
+						.getLogger()
+						.log(Level.SEVERE,
+								"{0} received {1} of version {2} != {3}; peers are running different code versions, so falling back to sending JSON",
+								new Object[] {
+										ReconfigurationPacketCodec.class
+												.getSimpleName(), type,
+										version, VERSION });
+			mismatched = true;
+			throw new JSONException("Reconfiguration packet version mismatch: "
+					+ version + " != " + VERSION);
+		}
+		Stringifiable u = unstringer;
+		try {
+			switch (type) {
+			case STOP_EPOCH:
+				return new StopEpoch(bbuf, u);
+			case START_EPOCH:
+				return new StartEpoch(bbuf, u);
+			case DROP_EPOCH_FINAL_STATE:
+				return new DropEpochFinalState(bbuf, u);
+			case REQUEST_EPOCH_FINAL_STATE:
+				return new RequestEpochFinalState(bbuf, u);
+			case EPOCH_FINAL_STATE:
+				return new EpochFinalState(bbuf, u);
+			case DEMAND_REPORT:
+				return new DemandReport(bbuf, u);
+			case ACK_STOP_EPOCH:
+				return new AckStopEpoch(bbuf, u);
+			case ACK_START_EPOCH:
+				return new AckStartEpoch(bbuf, u);
+			case ACK_DROP_EPOCH_FINAL_STATE:
+				return new AckDropEpochFinalState(bbuf, u);
+			case RC_RECORD_REQUEST:
+				return new RCRecordRequest(bbuf, u);
+			default:
+				throw new JSONException("Not a binary reconfiguration packet");
+			}
+		} catch (RuntimeException | UnknownHostException e) {
+			// underflow or bad value
+			throw new JSONException(e);
+		}
+	}
+
+	/**
+	 * @param bytes
+	 * @param unstringer
+	 * @return Reconfiguration packet decoded from {@code bytes} or null if
+	 *         {@code bytes} could not be decoded.
+	 */
+	public static BasicReconfigurationPacket<?> getReconfigurationPacketSuppressExceptions(
+			byte[] bytes, Stringifiable<?> unstringer) {
+		try {
+			return getReconfigurationPacket(bytes, unstringer);
+		} catch (JSONException e) {
+			ReconfigurationConfig.getLogger().warning(
+					ReconfigurationPacketCodec.class.getSimpleName()
+							+ " unable to decode reconfiguration packet: "
+							+ e.getMessage());
+		}
+		return null;
+	}
+
+	static boolean getBoolean(ByteBuffer bbuf) {
+		return bbuf.get() != 0;
+	}
+
+	static String getString(ByteBuffer bbuf) {
+		int length = bbuf.getInt();
+		if (length < 0)
+			return null;
+		String s = new String(bbuf.array(), bbuf.arrayOffset()
+				+ bbuf.position(), length, StandardCharsets.UTF_8);
+		bbuf.position(bbuf.position() + length);
+		return s;
+	}
+
+	static <NodeIDType> NodeIDType getNode(ByteBuffer bbuf,
+			Stringifiable<NodeIDType> unstringer) {
+		String node = getString(bbuf);
+		return node != null ? unstringer.valueOf(node) : null;
+	}
+
+	// a null set is decoded as an empty set just like with JSON
+	static <NodeIDType> Set<NodeIDType> getNodes(ByteBuffer bbuf,
+			Stringifiable<NodeIDType> unstringer) {
+		Set<NodeIDType> nodes = new TreeSet<NodeIDType>();
+		for (int size = bbuf.getInt(); size > 0; size--)
+			nodes.add(getNode(bbuf, unstringer));
+		return nodes;
+	}
+
+	static InetSocketAddress getAddress(ByteBuffer bbuf)
+			throws UnknownHostException {
+		byte length = bbuf.get();
+		if (length == 0)
+			return null;
+		if (length < 0) {
+			String host = getString(bbuf);
+			return new InetSocketAddress(host, bbuf.getShort() & 0xffff);
+		}
+		byte[] address = new byte[length];
+		bbuf.get(address);
+		return new InetSocketAddress(InetAddress.getByAddress(address),
+				bbuf.getShort() & 0xffff);
+	}
+
+	/**
+	 * Minimal growable buffer so that we don't need to know the encoded size
+	 * upfront.
+	 */
+	static final class Writer {
+		private byte[] buf;
+		private int pos = 0;
+
+		Writer(int initialCapacity) {
+			this.buf = new byte[initialCapacity];
+		}
+
+		private void ensure(int n) {
+			if (pos + n > buf.length)
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+		}
+
+		Writer put(byte b) {
+			ensure(1);
+			buf[pos++] = b;
+			return this;
+		}
+
+		Writer putBoolean(boolean b) {
+			return put((byte) (b ? 1 : 0));
+		}
+
+		Writer putShort(short s) {
+			ensure(Short.BYTES);
+			buf[pos++] = (byte) (s >> 8);
+			buf[pos++] = (byte) s;
+			return this;
+		}
+
+		Writer putInt(int i) {
+			ensure(Integer.BYTES);
+			buf[pos++] = (byte) (i >> 24);
+			buf[pos++] = (byte) (i >> 16);
+			buf[pos++] = (byte) (i >> 8);
+			buf[pos++] = (byte) i;
+			return this;
+		}
+
+		Writer putLong(long l) {
+			putInt((int) (l >> 32));
+			return putInt((int) l);
+		}
+
+		Writer putString(String s) {
+			if (s == null)
+				return putInt(-1);
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buf, pos, bytes.length);
+			pos += bytes.length;
+			return this;
+		}
+
+		Writer putNode(Object node) {
+			return putString(node != null ? node.toString() : null);
+		}
+
+		Writer putNodes(Collection<?> nodes) {
+			putInt(nodes != null ? nodes.size() : 0);
+			if (nodes != null)
+				for (Object node : nodes)
+					putNode(node);
+			return this;
+		}
+
+		Writer putAddress(InetSocketAddress isa) {
+			if (isa == null)
+				return put((byte) 0);
+			if (isa.getAddress() == null)
+				return put((byte) -1).putString(isa.getHostString()).putShort(
+						(short) isa.getPort());
+			byte[] address = isa.getAddress().getAddress();
+			put((byte) address.length);
+			ensure(address.length);
+			System.arraycopy(address, 0, buf, pos, address.length);
+			pos += address.length;
+			return putShort((short) isa.getPort());
+		}
+
+		byte[] toBytes() {
+			return pos == buf.length ? buf : Arrays.copyOf(buf, pos);
+		}
+	}
+
+	@SuppressWarnings("javadoc")
+	public static class ReconfigurationPacketCodecTest extends DefaultTest {
+		private static final Stringifiable<String> unstringer = new StringifiableDefault<String>(
+				"");
+
+		// the binary form must decode to the same packet as the JSON form
+		private static void assertRoundtrip(BasicReconfigurationPacket<?> packet)
+				throws JSONException {
+			byte[] bytes = toBytes(packet);
+			Assert.assertTrue(isBinary(bytes));
+			BasicReconfigurationPacket<?> decoded = getReconfigurationPacket(
+					bytes, unstringer);
+			Assert.assertEquals(packet.getClass(), decoded.getClass());
+			Assert.assertEquals(
+					ReconfigurationPacket.getReconfigurationPacket(
+							new JSONObject(packet.toString()), unstringer)
+							.toString(), decoded.toString());
+		}
+
+		@Test
+		public void testRoundtrip() throws JSONException {
+			Set<String> prev = new TreeSet<String>(Arrays.asList("AR0", "AR1",
+					"AR2"));
+			Set<String> cur = new TreeSet<String>(Arrays.asList("AR1", "AR2",
+					"AR3"));
+			Map<String, InetSocketAddress> added = new HashMap<String, InetSocketAddress>();
+			added.put("AR3", new InetSocketAddress("127.0.0.1", 2103));
+			StartEpoch<String> startEpoch = new StartEpoch<String>("RC0",
+					"name", 3, cur, prev, new InetSocketAddress("127.0.0.1",
+							60001), new InetSocketAddress("127.0.0.1", 3100),
+					null, "\u00e9tat", null, added,
+					ReconfigureUponActivesChange.DEFAULT)
+					.setFirstPrevEpochCandidate("AR0");
+			StopEpoch<String> stopEpoch = new StopEpoch<String>("RC0", "name",
+					2, true, false);
+			stopEpoch.setKey("RC0:123");
+			DropEpochFinalState<String> drop = new DropEpochFinalState<String>(
+					"RC0", "name", 2, false);
+			JSONObject stats = new JSONObject().put("rate", 0.5).put(
+					"numRequests", 24);
+
+			BasicReconfigurationPacket<?>[] packets = {
+					startEpoch,
+					new StartEpoch<String>("RC0", "name", 0, cur, null, null),
+					stopEpoch,
+					new AckStopEpoch<String>("AR1", stopEpoch, "final"),
+					new AckStopEpoch<String>("AR1", stopEpoch),
+					drop,
+					new AckDropEpochFinalState<String>("AR1", drop),
+					new RequestEpochFinalState<String>("AR3", "name", 2),
+					new EpochFinalState<String>("RC0", "name", 2, "final",
+							"AR1"),
+					new AckStartEpoch<String>("RC0", "name", 3, "AR3"),
+					new DemandReport<String>("AR1", "name", 3, stats),
+					new RCRecordRequest<String>("RC0", startEpoch,
+							RCRecordRequest.RequestTypes.RECONFIGURATION_INTENT) };
+			for (BasicReconfigurationPacket<?> packet : packets)
+				assertRoundtrip(packet);
+		}
+
+		@Test
+		public void testBatchedCreate() throws JSONException {
+			Map<String, String> nameStates = new LinkedHashMap<String, String>();
+			for (int i = 0; i < 100; i++)
+				nameStates.put("name" + i, "state" + i);
+			StartEpoch<String> startEpoch = new StartEpoch<String>("RC0",
+					"name0", 0, new TreeSet<String>(Arrays.asList("AR0",
+							"AR1", "AR2")), null, new InetSocketAddress(
+							"127.0.0.1", 60001), null, null, null, nameStates,
+					null, ReconfigureUponActivesChange.DEFAULT);
+			byte[] bytes = toBytes(startEpoch);
+			Assert.assertTrue(bytes.length < startEpoch.toString().length());
+			Assert.assertEquals(nameStates, ((StartEpoch<?>) getReconfigurationPacket(
+					bytes, unstringer)).getNameStates());
+			assertRoundtrip(startEpoch);
+		}
+
+		@Test
+		public void testClientPacketsNotEncodable() {
+			for (ReconfigurationPacket.PacketType type : ReconfigurationPacket.clientPacketTypes)
+				Assert.assertFalse(isEncodable(type));
+			for (ReconfigurationPacket.PacketType type : ReconfigurationPacket.serverPacketTypes)
+				Assert.assertFalse(isEncodable(type));
+		}
+
+		@Test
+		public void testVersionMismatch() {
+			byte[] bytes = toBytes(new AckStartEpoch<String>("RC0", "name", 3,
+					"AR3"));
+			ByteBuffer.wrap(bytes).putInt(Integer.BYTES + 1, VERSION + 1);
+			try {
+				Assert.assertNull(getReconfigurationPacketSuppressExceptions(
+						bytes, unstringer));
+				Assert.assertFalse(isEnabled());
+			} finally {
+				mismatched = false;
+			}
+		}
+	}
+}
@@ -17,6 +17,8 @@
  */
 package edu.umass.cs.reconfiguration.reconfigurationpackets;
 
+import java.nio.ByteBuffer;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -44,4 +46,7 @@ public class RequestEpochFinalState<NodeIDType> extends BasicReconfigurationPack
 	public RequestEpochFinalState(JSONObject json, Stringifiable<NodeIDType> unstringer) throws JSONException {
 		super(json, unstringer);
 	}
+	RequestEpochFinalState(ByteBuffer bbuf, Stringifiable<NodeIDType> unstringer) {
+		super(bbuf, unstringer, ReconfigurationPacket.PacketType.REQUEST_EPOCH_FINAL_STATE);
+	}
 }
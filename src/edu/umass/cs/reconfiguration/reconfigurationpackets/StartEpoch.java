@@ -18,6 +18,8 @@
 package edu.umass.cs.reconfiguration.reconfigurationpackets;
 
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -352,6 +354,93 @@ public class StartEpoch<NodeIDType> extends
 						ReconfigurationConfig.getDefaultReconfigureUponActivesChangePolicy().toString()));
 	}
 
+	/**
+	 * Decodes the fields written by {@link #putBytes} in the same order and
+	 * with the same defaults as {@link #StartEpoch(JSONObject, Stringifiable)}.
+	 */
+	StartEpoch(ByteBuffer bbuf, Stringifiable<NodeIDType> unstringer)
+			throws UnknownHostException {
+		super(bbuf, unstringer, ReconfigurationPacket.PacketType.START_EPOCH);
+		this.prevEpochGroup = ReconfigurationPacketCodec.getNodes(bbuf,
+				unstringer);
+		this.curEpochGroup = ReconfigurationPacketCodec.getNodes(bbuf,
+				unstringer);
+		this.mergees = new TreeSet<String>();
+		for (int size = bbuf.getInt(); size > 0; size--)
+			this.mergees.add(ReconfigurationPacketCodec.getString(bbuf));
+
+		this.initialState = ReconfigurationPacketCodec.getString(bbuf);
+		int numNameStates = bbuf.getInt();
+		this.nameStates = numNameStates > 0 ? new HashMap<String, String>()
+				: null;
+		for (int i = 0; i < numNameStates; i++)
+			this.nameStates.put(ReconfigurationPacketCodec.getString(bbuf),
+					ReconfigurationPacketCodec.getString(bbuf));
+
+		this.creator = ReconfigurationPacketCodec.getAddress(bbuf);
+		this.receiver = ReconfigurationPacketCodec.getAddress(bbuf);
+		this.forwarder = ReconfigurationPacketCodec.getAddress(bbuf);
+		this.initTime = bbuf.getLong();
+
+		this.prevGroupName = ReconfigurationPacketCodec.getString(bbuf);
+		this.prevEpoch = this.prevGroupName != null ? bbuf.getInt() : -1;
+		this.isMerge = this.prevGroupName != null ? ReconfigurationPacketCodec
+				.getBoolean(bbuf) : false;
+
+		int numAdded = bbuf.getInt();
+		this.newlyAddedNodes = numAdded >= 0 ? new HashMap<NodeIDType, InetSocketAddress>()
+				: null;
+		for (int i = 0; i < numAdded; i++)
+			this.newlyAddedNodes.put(
+					ReconfigurationPacketCodec.getNode(bbuf, unstringer),
+					ReconfigurationPacketCodec.getAddress(bbuf));
+
+		this.firstPrevEpochCandidate = ReconfigurationPacketCodec.getNode(
+				bbuf, unstringer);
+		this.passiveReplicaGroupCreation = ReconfigurationPacketCodec
+				.getBoolean(bbuf);
+		String policy = ReconfigurationPacketCodec.getString(bbuf);
+		this.policy = policy != null ? ReconfigurationConfig.ReconfigureUponActivesChange
+				.valueOf(policy) : ReconfigurationConfig
+				.getDefaultReconfigureUponActivesChangePolicy();
+	}
+
+	@Override
+	void putBytes(ReconfigurationPacketCodec.Writer out) {
+		super.putBytes(out);
+		out.putNodes(this.prevEpochGroup).putNodes(this.curEpochGroup);
+		out.putInt(this.mergees != null ? this.mergees.size() : 0);
+		if (this.mergees != null)
+			for (String mergee : this.mergees)
+				out.putString(mergee);
+
+		out.putString(this.initialState);
+		out.putInt(this.nameStates != null ? this.nameStates.size() : 0);
+		if (this.nameStates != null)
+			for (Map.Entry<String, String> nameState : this.nameStates
+					.entrySet())
+				out.putString(nameState.getKey()).putString(
+						nameState.getValue());
+
+		out.putAddress(this.creator).putAddress(this.receiver)
+				.putAddress(this.forwarder).putLong(this.initTime);
+
+		// both prev name and epoch or neither
+		out.putString(this.prevGroupName);
+		if (this.prevGroupName != null)
+			out.putInt(this.prevEpoch).putBoolean(this.isMerge);
+
+		out.putInt(this.newlyAddedNodes != null ? this.newlyAddedNodes.size()
+				: -1);
+		if (this.newlyAddedNodes != null)
+			for (NodeIDType node : this.newlyAddedNodes.keySet())
+				out.putNode(node).putAddress(this.newlyAddedNodes.get(node));
+
+		out.putNode(this.firstPrevEpochCandidate)
+				.putBoolean(this.passiveReplicaGroupCreation)
+				.putString(this.policy != null ? this.policy.toString() : null);
+	}
+
 
 
 	public JSONObject toJSONObjectImpl() throws JSONException {
@@ -17,6 +17,8 @@
  */
 package edu.umass.cs.reconfiguration.reconfigurationpackets;
 
+import java.nio.ByteBuffer;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -78,6 +80,20 @@ public class StopEpoch<NodeIDType> extends
 		this.executeStop = json.getBoolean(Keys.EXECUTE_STOP.toString());
 	}
 
+	StopEpoch(ByteBuffer bbuf, Stringifiable<NodeIDType> unstringer) {
+		super(bbuf, unstringer, ReconfigurationPacket.PacketType.STOP_EPOCH);
+		this.getFinalState = ReconfigurationPacketCodec.getBoolean(bbuf);
+		this.requestID = bbuf.getLong();
+		this.executeStop = ReconfigurationPacketCodec.getBoolean(bbuf);
+	}
+
+	@Override
+	void putBytes(ReconfigurationPacketCodec.Writer out) {
+		super.putBytes(out);
+		out.putBoolean(this.getFinalState).putLong(this.requestID)
+				.putBoolean(this.executeStop);
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = super.toJSONObjectImpl();
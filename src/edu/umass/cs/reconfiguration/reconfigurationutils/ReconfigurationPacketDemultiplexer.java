@@ -35,6 +35,7 @@ import edu.umass.cs.nio.interfaces.Stringifiable;
 import edu.umass.cs.nio.nioutils.NIOHeader;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ReconfigurationPacket;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ReconfigurationPacket.PacketType;
+import edu.umass.cs.reconfiguration.reconfigurationpackets.ReconfigurationPacketCodec;
 import edu.umass.cs.utils.Config;
 
 /**
@@ -98,6 +99,16 @@ public class ReconfigurationPacketDemultiplexer extends
 		ByteBuffer bbuf = ByteBuffer.wrap(message);
 		ReconfigurationPacket.PacketType rcType = null;
 		JSONObject json = null;
+		// binary encoded reconfiguration packet
+		if (BYTEIFICATION
+				&& message.length > Integer.BYTES
+				&& (rcType = ReconfigurationPacket.PacketType.intToType
+						.get(bbuf.getInt(0))) != null
+				&& rcType != ReconfigurationPacket.PacketType.REPLICABLE_CLIENT_REQUEST
+				&& ReconfigurationPacketCodec.isBinary(message))
+			return ReconfigurationPacketCodec
+					.getReconfigurationPacketSuppressExceptions(message,
+							this.unstringer);
 		// try to get reconfiguration packet JSON first
 		if ((BYTEIFICATION
 				&& (rcType = ReconfigurationPacket.PacketType.intToType
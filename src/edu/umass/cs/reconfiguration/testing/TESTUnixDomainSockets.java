@@ -0,0 +1,78 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.reconfiguration.testing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runner.notification.Failure;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+import edu.umass.cs.gigapaxos.PaxosConfig.PC;
+import edu.umass.cs.nio.NIOTransport;
+import edu.umass.cs.utils.Config;
+
+/**
+ * @author arun
+ *
+ *         Runs the NIO and reconfiguration tests with
+ *         {@link PC#NIO_UNIX_SOCKET_DIR} set, so that all local connections
+ *         are carried over UNIX domain sockets instead of TCP. Needs a fresh
+ *         JVM as the option can not be unset once the servers are up.
+ */
+@RunWith(Suite.class)
+@SuiteClasses({ NIOTransport.NIOTransportTest.class,
+		TESTReconfigurationClient.class })
+public class TESTUnixDomainSockets {
+
+	/**
+	 * @throws IOException
+	 */
+	@BeforeClass
+	public static void setUnixSocketDir() throws IOException {
+		String dir = Files.createTempDirectory("nio-unix").toString();
+		// servers pick this up when they start
+		Config.register(new String[] { PC.NIO_UNIX_SOCKET_DIR.toString() + "="
+				+ dir });
+		// transports created directly by the NIO tests don't read the config
+		NIOTransport.setUnixSocketDir(dir);
+	}
+
+	/**
+	 *
+	 */
+	@AfterClass
+	public static void unsetUnixSocketDir() {
+		NIOTransport.setUnixSocketDir(null);
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(TESTUnixDomainSockets.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
@@ -289,6 +289,9 @@ public class Util {
 	// assumes strict formatting and is more efficient
 	public static InetSocketAddress getInetSocketAddressFromStringStrict(
 			String s) {
+		// InetSocketAddress.toString() of an unnamed address: "/10.0.1.50:24404"
+		if (s.startsWith("/"))
+			s = s.substring(1);
 		String[] tokens = s.split(":");
 		if (tokens.length < 2) {
 			return null;